@@ -4,13 +4,18 @@ import edu.berkeley.cs186.database.cli.parser.ASTExecutableStatement;
 import edu.berkeley.cs186.database.cli.parser.ParseException;
 import edu.berkeley.cs186.database.cli.parser.RookieParser;
 import edu.berkeley.cs186.database.cli.visitor.ExecutableStatementVisitor;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.ByteBuffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.StringDictionary;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
@@ -36,7 +41,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 
@@ -82,13 +89,16 @@ public class Database implements AutoCloseable {
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
     // effective page size - table metadata size
     private static final int MAX_SCHEMA_SIZE = 4006;
+    // Loaded string columns with at most this many distinct values are
+    // dictionary-encoded.
+    private static final int DICTIONARY_MAX_DISTINCT = 64;
 
     // _metadata.tables, manages all tables in the database
     private Table tableMetadata;
     // _metadata.indices, manages all indices in the database
     private Table indexMetadata;
     // number of transactions created
-    private long numTransactions;
+    private final AtomicLong numTransactions = new AtomicLong();
 
     // lock manager
     private final LockManager lockManager;
@@ -103,10 +113,24 @@ public class Database implements AutoCloseable {
     private int workMem = 1024; // default of 4M
     // number of pages of memory available total
     private int numMemoryPages;
+    // number of threads that may run a single query, and the pool of those
+    // threads (null if queries only run on the calling thread)
+    private int degreeOfParallelism = 1;
+    private volatile ForkJoinPool workerPool;
+    // number and fraction of page locks in a table past which a transaction's
+    // page locks are escalated to a table lock
+    private int escalationLocks = LockContext.DEFAULT_ESCALATION_LOCKS;
+    private double escalationRatio = LockContext.DEFAULT_ESCALATION_RATIO;
     // active transactions
     private Phaser activeTransactions = new Phaser(0);
     // Statistics about the contents of the database.
     private Map<String, TableStats> stats = new ConcurrentHashMap<>();
+    // Dictionaries of the dictionary-encoded columns of each table, keyed by
+    // the partition of the table. Shared by every Table object of a table.
+    private Map<Integer, StringDictionary[]> dictionaries = new ConcurrentHashMap<>();
+    // Old versions of the records of every table, read by read-only
+    // transactions.
+    private final VersionStore versions = new VersionStore();
 
     // Names of tables loaded for demo
     private ArrayList<String> demoTables = new ArrayList<>();
@@ -176,7 +200,6 @@ public class Database implements AutoCloseable {
                     EvictionPolicy policy, boolean useRecoveryManager) {
         boolean initialized = setupDirectory(fileDir);
 
-        numTransactions = 0;
         this.numMemoryPages = numMemoryPages;
         this.lockManager = lockManager;
 
@@ -242,6 +265,7 @@ public class Database implements AutoCloseable {
                 tableInfoContext);
         tableMetadata = new Table(TABLE_INFO_TABLE_NAME, getTableInfoSchema(), tableInfoPageDir,
                               tableInfoContext, stats);
+        tableMetadata.setVersionStore(versions);
     }
 
     // create _metadata.indices
@@ -252,6 +276,7 @@ public class Database implements AutoCloseable {
         PageDirectory pageDirectory = new PageDirectory(bufferManager, 2, indexInfoPage0, (short) 0,
                                               indexInfoContext);
         indexMetadata = new Table(INDEX_INFO_TABLE_NAME, getIndexInfoSchema(), pageDirectory, indexInfoContext, stats);
+        indexMetadata.setVersionStore(versions);
     }
 
     private void loadMetadataTables() {
@@ -264,6 +289,7 @@ public class Database implements AutoCloseable {
                 DiskSpaceManager.getVirtualPageNum(1, 0), (short) 0, tableInfoContext);
         tableMetadata = new Table(TABLE_INFO_TABLE_NAME, getTableInfoSchema(), tableInfoPageDir,
                 tableInfoContext, stats);
+        tableMetadata.setVersionStore(versions);
 
         // load _metadata.indices
         LockContext indexInfoContext = new DummyLockContext("_dummyTableInfo");
@@ -272,6 +298,7 @@ public class Database implements AutoCloseable {
         indexMetadata = new Table(INDEX_INFO_TABLE_NAME, getIndexInfoSchema(), indexInfoPageDir,
                               indexInfoContext, stats);
         indexMetadata.setFullPageRecords();
+        indexMetadata.setVersionStore(versions);
     }
 
     // wait for all transactions to finish
@@ -294,6 +321,7 @@ public class Database implements AutoCloseable {
         this.bufferManager.evictAll();
 
         this.recoveryManager.close();
+        if (this.workerPool != null) this.workerPool.shutdownNow();
 
         this.tableMetadata = null;
         this.indexMetadata = null;
@@ -314,6 +342,10 @@ public class Database implements AutoCloseable {
         return bufferManager;
     }
 
+    public VersionStore getVersionStore() {
+        return versions;
+    }
+
     public int getWorkMem() {
         // cap work memory at number of memory pages -- this is likely to cause out of memory
         // errors if actually set this high
@@ -324,6 +356,56 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    public int getDegreeOfParallelism() {
+        return this.degreeOfParallelism;
+    }
+
+    /**
+     * Sets the number of threads that may run a single query: scans of a
+     * table (and the selections, projections and aggregates above them) are
+     * split between that many threads (see GatherOperator). Queries started
+     * before the call keep their threads.
+     */
+    public synchronized void setDegreeOfParallelism(int degreeOfParallelism) {
+        if (degreeOfParallelism < 1) {
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        }
+        if (this.workerPool != null) this.workerPool.shutdown();
+        this.degreeOfParallelism = degreeOfParallelism;
+        this.workerPool = degreeOfParallelism > 1 ? new ForkJoinPool(degreeOfParallelism) : null;
+    }
+
+    /**
+     * Sets how the log flushes of committing transactions are batched (group
+     * commit): each flush waits up to `maxWaitMillis` milliseconds for
+     * `maxBatchSize` transactions to commit. Has no effect if recovery is
+     * disabled.
+     */
+    public void setGroupCommit(long maxWaitMillis, int maxBatchSize) {
+        this.recoveryManager.setGroupCommit(maxWaitMillis, maxBatchSize);
+    }
+
+    /**
+     * Sets the directory the log is archived to once checkpoints make it
+     * unnecessary for restart recovery, or null (the default) to discard it.
+     * Has no effect if recovery is disabled.
+     */
+    public void setLogArchive(String directory) {
+        this.recoveryManager.setLogArchive(directory);
+    }
+
+    /**
+     * Sets when a transaction's page locks on a table are escalated to a
+     * single table lock: once it holds `maxLocks` page locks on the table, or
+     * `maxSaturation` of the pages of a table of at least
+     * LockContext.MIN_ESCALATION_CAPACITY pages. A `maxLocks` of 0 disables
+     * automatic escalation.
+     */
+    public void setEscalationThresholds(int maxLocks, double maxSaturation) {
+        this.escalationLocks = maxLocks;
+        this.escalationRatio = maxSaturation;
+    }
+
     /**
      * @return Schema for _metadata.tables with fields:
      *   | field name   | field type
@@ -332,6 +414,10 @@ public class Database implements AutoCloseable {
      * 1 | part_num     | int
      * 2 | page_num     | long
      * 3 | schema       | byte array(MAX_SCHEMA_SIZE)
+     *
+     * The schema field holds the serialized schema of the table, followed by
+     * a single byte with the table's PageFormat (zero padding reads as
+     * PageFormat.FIXED_LENGTH).
      */
     public Schema getTableInfoSchema() {
         return new Schema()
@@ -372,25 +458,69 @@ public class Database implements AutoCloseable {
         int partNum;
         long pageNum;
         Schema schema;
+        PageFormat format;
+        // partition holding the dictionary of each column, -1 for columns
+        // that are not encoded
+        int[] dictionaryParts;
 
         TableMetadata(String tableName) {
             this.tableName = tableName;
             this.partNum = -1;
             this.pageNum = -1;
             this.schema = new Schema();
+            this.format = PageFormat.FIXED_LENGTH;
+            this.dictionaryParts = new int[0];
         }
 
+        // The schema field holds the serialized schema, followed by the page
+        // format and the partitions of the dictionaries of the table:
+        //
+        //   | schema | format (1 byte) | # dictionaries (2 bytes) | column (2 bytes) | partition (4 bytes) | ...
+        //
+        // Tables with the default format and no dictionaries may omit
+        // everything after the schema.
         TableMetadata(Record record) {
             tableName = record.getValue(0).getString();
             partNum = record.getValue(1).getInt();
             pageNum = record.getValue(2).getLong();
-            schema = Schema.fromBytes(ByteBuffer.wrap(record.getValue(3).toBytes()));
+            Buffer buf = ByteBuffer.wrap(record.getValue(3).toBytes());
+            schema = Schema.fromBytes(buf);
+            format = buf.position() < MAX_SCHEMA_SIZE
+                     ? PageFormat.fromByte(buf.get()) : PageFormat.FIXED_LENGTH;
+            dictionaryParts = new int[schema.size()];
+            Arrays.fill(dictionaryParts, -1);
+            int numDictionaries = buf.position() + Short.BYTES <= MAX_SCHEMA_SIZE ? buf.getShort() : 0;
+            for (int i = 0; i < numDictionaries; ++i) {
+                int column = buf.getShort();
+                dictionaryParts[column] = buf.getInt();
+            }
         }
 
         Record toRecord() {
             byte[] schemaBytes = schema.toBytes();
+            List<Short> dictionaryColumns = new ArrayList<>();
+            int size = schemaBytes.length;
+            for (int i = 0; i < dictionaryParts.length; ++i) {
+                if (dictionaryParts[i] == -1) continue;
+                dictionaryColumns.add((short) i);
+                size += Short.BYTES + Integer.BYTES;
+            }
+            if (format != PageFormat.FIXED_LENGTH || !dictionaryColumns.isEmpty()) {
+                size += 1 + Short.BYTES;
+            }
+            if (size > MAX_SCHEMA_SIZE) {
+                throw new DatabaseException("metadata of table `" + tableName + "` is too large to store");
+            }
+
             byte[] padded = new byte[MAX_SCHEMA_SIZE];
-            System.arraycopy(schemaBytes, 0, padded, 0, schemaBytes.length);
+            Buffer buf = ByteBuffer.wrap(padded);
+            buf.put(schemaBytes);
+            if (size > schemaBytes.length) {
+                buf.put(format.toByte()).putShort((short) dictionaryColumns.size());
+                for (short column : dictionaryColumns) {
+                    buf.putShort(column).putInt(dictionaryParts[column]);
+                }
+            }
             return new Record(tableName, partNum, pageNum, padded);
         }
     }
@@ -453,7 +583,73 @@ public class Database implements AutoCloseable {
         LockContext tableContext = getTableContext(tableName);
         long page0 = DiskSpaceManager.getVirtualPageNum(metadata.partNum, 0);
         PageDirectory pd = new PageDirectory(bufferManager, metadata.partNum, page0, (short) 0, tableContext);
-        return new Table(metadata.tableName, metadata.schema, pd, tableContext, stats);
+        StringDictionary[] tableDictionaries = dictionaries.computeIfAbsent(metadata.partNum,
+                                                                            k -> loadDictionaries(metadata));
+        Table table = new Table(metadata.tableName, metadata.schema, pd, tableContext, stats, metadata.format,
+                                tableDictionaries);
+        table.setVersionStore(versions);
+        return table;
+    }
+
+    /**
+     * @return the dictionaries of the table of `metadata`, read from their
+     * partitions. Values added to the dictionaries are appended to their
+     * partitions by storeDictionaryValue.
+     */
+    private StringDictionary[] loadDictionaries(TableMetadata metadata) {
+        StringDictionary[] result = new StringDictionary[metadata.schema.size()];
+        for (int i = 0; i < result.length; ++i) {
+            if (metadata.dictionaryParts[i] == -1) continue;
+            Type type = metadata.schema.getFieldType(i);
+            Table values = dictionaryTable(metadata.dictionaryParts[i], type);
+            // records are not stored in code order
+            Map<Integer, String> valuesByCode = new TreeMap<>();
+            Iterator<Record> iter = values.iterator();
+            while (iter.hasNext()) {
+                Record record = iter.next();
+                valuesByCode.put(record.getValue(0).getInt(), record.getValue(1).getString());
+            }
+            StringDictionary dictionary = new StringDictionary(type.getSizeInBytes());
+            for (String value : valuesByCode.values()) dictionary.addCode(value);
+            dictionary.setStore((code, value) -> storeDictionaryValue(values, type, code, value));
+            result[i] = dictionary;
+        }
+        return result;
+    }
+
+    // The (code, value) records of the dictionary in partition `partNum` of a
+    // column of type `type`
+    private Table dictionaryTable(int partNum, Type type) {
+        LockContext context = new DummyLockContext("_dummyDictionary");
+        PageDirectory pageDirectory = new PageDirectory(bufferManager, partNum,
+                DiskSpaceManager.getVirtualPageNum(partNum, 0), (short) 0, context);
+        Schema schema = new Schema().add("code", Type.intType()).add("value", type);
+        return new Table("_dictionary." + partNum, schema, pageDirectory, context, new HashMap<>());
+    }
+
+    /**
+     * Appends the value `value` of `code` to the dictionary table `values`.
+     * The append runs in a system transaction of its own, which commits before
+     * `code` is used: other transactions may write `code` as soon as it is
+     * added, so the value must stay stored even if the transaction that added
+     * it aborts. Appends to a dictionary are serialized by the dictionary, so
+     * the table takes no locks.
+     */
+    private void storeDictionaryValue(Table values, Type type, int code, String value) {
+        TransactionContext current = TransactionContext.getTransaction();
+        if (current != null) TransactionContext.unsetTransaction();
+        try {
+            Transaction t = current == null ? beginTransaction() : beginSystemTransaction();
+            try {
+                values.addRecord(new Record(new IntDataBox(code), new StringDataBox(value, type.getSizeInBytes())));
+            } catch (RuntimeException e) {
+                t.rollback();
+                throw e;
+            }
+            t.commit();
+        } finally {
+            if (current != null) TransactionContext.setTransaction(current);
+        }
     }
 
     /**
@@ -548,7 +744,9 @@ public class Database implements AutoCloseable {
 
     // get the lock context for database/tableName
     private LockContext getTableContext(String tableName) {
-        return lockManager.databaseContext().childContext(normalize(tableName));
+        LockContext tableContext = lockManager.databaseContext().childContext(normalize(tableName));
+        tableContext.setEscalationThresholds(escalationLocks, escalationRatio);
+        return tableContext;
     }
 
     // get the lock context for _metadata.tables/tableName
@@ -575,13 +773,48 @@ public class Database implements AutoCloseable {
      * @return the new Transaction
      */
     public synchronized Transaction beginTransaction() {
-        TransactionImpl t = new TransactionImpl(this.numTransactions, false);
+        return beginTransaction(false);
+    }
+
+    /**
+     * Start a new read-only transaction. The transaction reads a snapshot of
+     * the database as of the last transaction to commit, and takes no S locks,
+     * so it never blocks (or is blocked by) the transactions that modify the
+     * tables it reads. It cannot modify any table, and does not use indices,
+     * which only index the latest versions of records.
+     *
+     * @return the new Transaction
+     */
+    public synchronized Transaction beginReadOnlyTransaction() {
+        return beginTransaction(true);
+    }
+
+    private Transaction beginTransaction(boolean readOnly) {
+        TransactionImpl t = new TransactionImpl(this.numTransactions.getAndIncrement(), false, readOnly);
         activeTransactions.register();
         if (activeTransactions.isTerminated()) {
             activeTransactions = new Phaser(1);
         }
         this.recoveryManager.startTransaction(t);
-        ++this.numTransactions;
+        TransactionContext.setTransaction(t.getTransactionContext());
+        return t;
+    }
+
+    /**
+     * Start a system transaction inside the current transaction of this
+     * thread, for changes that must outlive the current transaction even if it
+     * aborts (see storeDictionaryValue). The current transaction is set aside
+     * until the system transaction ends, and keeps activeTransactions from
+     * terminating meanwhile, so unlike beginTransaction this does not need to
+     * synchronize on the database (which waitAllTransactions holds while the
+     * current transaction runs).
+     *
+     * @return the new Transaction
+     */
+    private Transaction beginSystemTransaction() {
+        TransactionImpl t = new TransactionImpl(this.numTransactions.getAndIncrement(), false, false);
+        activeTransactions.register();
+        this.recoveryManager.startTransaction(t);
         TransactionContext.setTransaction(t.getTransactionContext());
         return t;
     }
@@ -593,9 +826,9 @@ public class Database implements AutoCloseable {
      * @return the Transaction
      */
     private synchronized Transaction beginRecoveryTransaction(Long transactionNum) {
-        this.numTransactions = Math.max(this.numTransactions, transactionNum + 1);
+        this.numTransactions.accumulateAndGet(transactionNum + 1, Math::max);
 
-        TransactionImpl t = new TransactionImpl(transactionNum, true);
+        TransactionImpl t = new TransactionImpl(transactionNum, true, false);
         activeTransactions.register();
         if (activeTransactions.isTerminated()) {
             activeTransactions = new Phaser(1);
@@ -607,16 +840,24 @@ public class Database implements AutoCloseable {
     private class TransactionContextImpl extends TransactionContext {
         long transNum;
         Map<String, String> aliases;
+        // temporary tables may be created and filled by the threads of the
+        // worker pool as well as by the transaction's own thread
         Map<String, Table> tempTables;
-        long tempTableCounter;
+        AtomicLong tempTableCounter;
         boolean recoveryTransaction;
+        // snapshot read by a read-only transaction, or -1
+        long snapshot;
+        // stop work still running for the transaction when it closes
+        Set<Runnable> closeHooks;
 
-        private TransactionContextImpl(long tNum, boolean recoveryTransaction) {
+        private TransactionContextImpl(long tNum, boolean recoveryTransaction, long snapshot) {
             this.transNum = tNum;
             this.aliases = new HashMap<>();
-            this.tempTables = new HashMap<>();
-            this.tempTableCounter = 0;
+            this.tempTables = new ConcurrentHashMap<>();
+            this.tempTableCounter = new AtomicLong();
             this.recoveryTransaction = recoveryTransaction;
+            this.snapshot = snapshot;
+            this.closeHooks = ConcurrentHashMap.newKeySet();
         }
 
         @Override
@@ -624,14 +865,39 @@ public class Database implements AutoCloseable {
             return transNum;
         }
 
+        @Override
+        public boolean isReadOnly() {
+            return snapshot >= 0;
+        }
+
+        @Override
+        public long getSnapshot() {
+            return snapshot;
+        }
+
         @Override
         public int getWorkMemSize() {
             return Database.this.getWorkMem();
         }
 
+        @Override
+        public ForkJoinPool getWorkerPool() {
+            return Database.this.workerPool;
+        }
+
+        @Override
+        public void addCloseHook(Runnable cancel) {
+            closeHooks.add(cancel);
+        }
+
+        @Override
+        public void removeCloseHook(Runnable cancel) {
+            closeHooks.remove(cancel);
+        }
+
         @Override
         public String createTempTable(Schema schema) {
-            String tempTableName = "tempTable" + tempTableCounter++;
+            String tempTableName = "tempTable" + tempTableCounter.getAndIncrement();
             String tableName = prefixTempTableName(tempTableName);
 
             int partNum = diskSpaceManager.allocPart();
@@ -666,6 +932,8 @@ public class Database implements AutoCloseable {
 
         @Override
         public boolean indexExists(String tableName, String columnName) {
+            // indices are not versioned
+            if (isReadOnly()) return false;
             if (aliases.containsKey(tableName)) tableName = aliases.get(tableName);
             return getColumnIndexMetadata(tableName, columnName) != null;
         }
@@ -934,6 +1202,10 @@ public class Database implements AutoCloseable {
         @Override
         public void close() {
             try {
+                // Nothing may read pages for the transaction once its locks
+                // are released
+                for (Runnable cancel : new ArrayList<>(closeHooks)) cancel.run();
+                closeHooks.clear();
                 // TODO(proj4_part2)
                 /* begin solution proj4_part2 */
                 /* This is but one way to do it (reverse order of acquisition ensures multigranularity constraints are
@@ -1000,10 +1272,11 @@ public class Database implements AutoCloseable {
         private boolean recoveryTransaction;
         private TransactionContext transactionContext;
 
-        private TransactionImpl(long transNum, boolean recovery) {
+        private TransactionImpl(long transNum, boolean recovery, boolean readOnly) {
             this.transNum = transNum;
             this.recoveryTransaction = recovery;
-            this.transactionContext = new TransactionContextImpl(transNum, recovery);
+            this.transactionContext = new TransactionContextImpl(transNum, recovery,
+                                                                 readOnly ? versions.beginSnapshot() : -1);
         }
 
         @Override
@@ -1025,6 +1298,7 @@ public class Database implements AutoCloseable {
         protected void startCommit() {
             transactionContext.deleteAllTempTables();
             recoveryManager.commit(transNum);
+            versions.commit(transNum);
             this.cleanup();
         }
 
@@ -1032,6 +1306,8 @@ public class Database implements AutoCloseable {
         protected void startRollback() {
             recoveryManager.abort(transNum);
             this.cleanup();
+            // the changes of the transaction were undone by cleanup
+            versions.abort(transNum);
         }
 
         @Override
@@ -1045,6 +1321,7 @@ public class Database implements AutoCloseable {
             }
 
             transactionContext.close();
+            if (transactionContext.isReadOnly()) versions.endSnapshot(transactionContext.getSnapshot());
             activeTransactions.arriveAndDeregister();
         }
 
@@ -1055,6 +1332,16 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createTable(Schema s, String tableName) {
+            createTable(s, tableName, PageFormat.FIXED_LENGTH);
+        }
+
+        @Override
+        public void createTable(Schema s, String tableName, PageFormat format) {
+            createTable(s, tableName, format, Collections.emptyList());
+        }
+
+        @Override
+        public void createTable(Schema s, String tableName, PageFormat format, List<String> dictionaryColumns) {
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1071,6 +1358,21 @@ public class Database implements AutoCloseable {
             metadata.partNum = diskSpaceManager.allocPart();
             metadata.pageNum = diskSpaceManager.allocPage(metadata.partNum);
             metadata.schema = s;
+            metadata.format = format;
+            metadata.dictionaryParts = new int[s.size()];
+            Arrays.fill(metadata.dictionaryParts, -1);
+            for (String columnName : dictionaryColumns) {
+                int column = s.findField(columnName);
+                if (s.getFieldType(column).getTypeId() != TypeId.STRING) {
+                    throw new DatabaseException("column `" + columnName + "` is not a string column");
+                }
+                // each dictionary gets a partition for its values, whose page
+                // directory is set up here rather than by the first transaction
+                // to read it, which might roll back values stored since
+                metadata.dictionaryParts[column] = diskSpaceManager.allocPart();
+                diskSpaceManager.allocPage(metadata.dictionaryParts[column]);
+                dictionaryTable(metadata.dictionaryParts[column], s.getFieldType(column));
+            }
             synchronized (tableMetadata) {
                 tableMetadata.addRecord(metadata.toRecord());
             }
@@ -1099,7 +1401,11 @@ public class Database implements AutoCloseable {
             synchronized(tableMetadata) {
                 metadata = new TableMetadata(tableMetadata.deleteRecord(rid));
             }
+            dictionaries.remove(metadata.partNum);
             bufferManager.freePart(metadata.partNum);
+            for (int partNum : metadata.dictionaryParts) {
+                if (partNum != -1) bufferManager.freePart(partNum);
+            }
         }
 
         @Override
@@ -1299,6 +1605,28 @@ public class Database implements AutoCloseable {
         return this.loadDelimitedFile("", name, ",", ".csv");
     }
 
+    /**
+     * Picks the string columns of `schema` to dictionary-encode when loading
+     * `rows` into a new table: those with at most DICTIONARY_MAX_DISTINCT
+     * distinct values that are wider than a code.
+     */
+    private List<String> chooseDictionaryColumns(Schema schema, List<Record> rows) {
+        List<String> result = new ArrayList<>();
+        if (rows.isEmpty()) return result;
+        for (int i = 0; i < schema.size(); i++) {
+            Type type = schema.getFieldType(i);
+            if (type.getTypeId() != TypeId.STRING) continue;
+            if (type.getSizeInBytes() <= Type.intType().getSizeInBytes()) continue;
+            Set<String> distinct = new HashSet<>();
+            for (Record row : rows) {
+                distinct.add(row.getValue(i).getString());
+                if (distinct.size() > DICTIONARY_MAX_DISTINCT) break;
+            }
+            if (distinct.size() <= DICTIONARY_MAX_DISTINCT) result.add(schema.getFieldName(i));
+        }
+        return result;
+    }
+
     public boolean loadDelimitedFile(String prefix, String name, String delimiter, String extension) throws IOException {
             String fileName = name + extension;
             if (prefix.length() != 0) {
@@ -1331,7 +1659,7 @@ public class Database implements AutoCloseable {
             }
 
             try(Transaction t = beginTransaction()) {
-                t.createTable(schema, name);
+                t.createTable(schema, name, PageFormat.FIXED_LENGTH, chooseDictionaryColumns(schema, rows));
             } catch (DatabaseException e) {
                 if (e.getMessage().contains("already exists")) return true;
                 throw e;
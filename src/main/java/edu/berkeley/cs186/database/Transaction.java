@@ -4,9 +4,11 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.BoolDataBox;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.table.PageFormat;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
@@ -124,6 +126,29 @@ public abstract class Transaction implements AutoCloseable {
      */
     public abstract void createTable(Schema s, String tableName);
 
+    /**
+     * Creates a table whose data pages use the given format. Equivalent to
+     * createTable(s, tableName) when format is PageFormat.FIXED_LENGTH.
+     *
+     * @param s schema of new table
+     * @param tableName name of new table
+     * @param format layout of the new table's data pages
+     */
+    public abstract void createTable(Schema s, String tableName, PageFormat format);
+
+    /**
+     * Creates a table whose data pages use the given format, and whose
+     * columns `dictionaryColumns` are dictionary-encoded (see
+     * StringDictionary). Only string columns can be dictionary-encoded.
+     *
+     * @param s schema of new table
+     * @param tableName name of new table
+     * @param format layout of the new table's data pages
+     * @param dictionaryColumns names of the columns to dictionary-encode
+     */
+    public abstract void createTable(Schema s, String tableName, PageFormat format,
+                                     List<String> dictionaryColumns);
+
     /**
      * Drops a table. Equivalent to
      *      DROP TABLE tableName
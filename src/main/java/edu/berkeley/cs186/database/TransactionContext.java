@@ -13,6 +13,7 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
@@ -33,7 +34,7 @@ import java.util.function.UnaryOperator;
  */
 public abstract class TransactionContext implements AutoCloseable {
     static Map<Long, TransactionContext> threadTransactions = new ConcurrentHashMap<>();
-    private boolean blocked = false;
+    private volatile boolean blocked = false;
     private boolean startBlock = false;
     private final ReentrantLock transactionLock = new ReentrantLock();
     private final Condition unblocked = transactionLock.newCondition();
@@ -88,6 +89,45 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract int getWorkMemSize();
 
+    /**
+     * @return true if this transaction only reads, from a snapshot of the
+     * database taken when it began (see VersionStore). Read-only transactions
+     * take no S locks.
+     */
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * @return the timestamp of the snapshot this transaction reads, or -1 if
+     * it reads the latest version of each record
+     */
+    public long getSnapshot() {
+        return -1;
+    }
+
+    /**
+     * @return the pool of threads that may run parts of a query of this
+     * transaction in parallel (see GatherOperator), or null if queries run on
+     * the calling thread only
+     */
+    public ForkJoinPool getWorkerPool() {
+        return null;
+    }
+
+    /**
+     * Registers `cancel` to be run when this transaction closes, before its
+     * locks are released, to stop work still running on its behalf (e.g. the
+     * workers of a GatherOperator whose batches weren't all read). `cancel`
+     * must not return until that work has stopped reading pages.
+     */
+    public void addCloseHook(Runnable cancel) {}
+
+    /**
+     * Unregisters `cancel`, once the work it stops is done.
+     */
+    public void removeCloseHook(Runnable cancel) {}
+
     @Override
     public abstract void close();
 
@@ -227,27 +267,37 @@ public abstract class TransactionContext implements AutoCloseable {
     // Synchronization /////////////////////////////////////////////////////////
 
     /**
-     * prepareBlock acquires the lock backing the condition variable that the transaction
-     * waits on. Must be called before block(), and is used to ensure that the unblock() call
-     * corresponding to the following block() call cannot be run before the transaction blocks.
+     * prepareBlock marks the transaction as blocked, ahead of the following
+     * block() call. Must be called before block(), while whatever the
+     * transaction is about to wait for cannot change (e.g. with the latch of
+     * a lock queue held), and is used to ensure that an unblock() call that
+     * runs before the transaction blocks is not lost: block() then returns
+     * right away. prepareBlock does not hold any lock until block() is
+     * called, so other transactions can be unblocked in between.
      */
     public void prepareBlock() {
-        if (this.startBlock) {
-            throw new IllegalStateException("already preparing to block");
-        }
         this.transactionLock.lock();
-        this.startBlock = true;
+        try {
+            if (this.startBlock) {
+                throw new IllegalStateException("already preparing to block");
+            }
+            this.startBlock = true;
+            this.blocked = true;
+        } finally {
+            this.transactionLock.unlock();
+        }
     }
 
     /**
-     * Blocks the transaction (and thread). prepareBlock() must be called first.
+     * Blocks the transaction (and thread) until unblock() is called, unless
+     * it already was since prepareBlock(). prepareBlock() must be called first.
      */
     public void block() {
-        if (!this.startBlock) {
-            throw new IllegalStateException("prepareBlock() must be called before block()");
-        }
+        this.transactionLock.lock();
         try {
-            this.blocked = true;
+            if (!this.startBlock) {
+                throw new IllegalStateException("prepareBlock() must be called before block()");
+            }
             while (this.blocked) {
                 this.unblocked.awaitUninterruptibly();
             }
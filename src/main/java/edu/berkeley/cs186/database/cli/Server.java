@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.cli;
 
 import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.concurrency.DeadlockPolicy;
 import edu.berkeley.cs186.database.concurrency.LockManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 
@@ -38,7 +39,11 @@ public class Server {
     public static void main(String[] args) {
         // Note: you'll probably want to complete Project 4 before
         // attempting to run this.
-        Database db = new Database("demo", 25, new LockManager());
+        LockManager lockManager = new LockManager();
+        // many clients can deadlock each other: abort the youngest transaction
+        // of each cycle
+        lockManager.setDeadlockPolicy(DeadlockPolicy.DETECT);
+        Database db = new Database("demo", 25, lockManager);
         
         // Use the following after completing project 5 (recovery)
         // Database db = new Database("demo", 25, new LockManager(), new ClockEvictionPolicy(), true);
@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.cli.visitor;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.Transaction;
 import edu.berkeley.cs186.database.cli.parser.*;
+import edu.berkeley.cs186.database.concurrency.DeadlockException;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
@@ -63,8 +64,16 @@ public class StatementListVisitor extends RookieParserDefaultVisitor {
                 default:
                     if (currTransaction == null) {
                         try (Transaction tmp = database.beginTransaction()) {
-                            visitor.execute(tmp, out);
+                            try {
+                                visitor.execute(tmp, out);
+                            } catch (DeadlockException e) {
+                                tmp.rollback();
+                                throw e;
+                            }
                             tmp.commit();
+                        } catch (DeadlockException e) {
+                            this.out.println(e.getMessage());
+                            this.out.println("ROLLBACK");
                         } catch (Exception e) {
                             e.printStackTrace(this.out);
                             this.out.println("Operation failed.");
@@ -72,6 +81,12 @@ public class StatementListVisitor extends RookieParserDefaultVisitor {
                     } else {
                         try {
                             visitor.execute(currTransaction, out);
+                        } catch (DeadlockException e) {
+                            // the transaction was chosen to break a deadlock
+                            currTransaction.rollback();
+                            currTransaction = null;
+                            this.out.println(e.getMessage());
+                            this.out.println("ROLLBACK");
                         } catch (Exception e) {
                             e.printStackTrace(this.out);
                             this.out.println("Operation failed.");
@@ -0,0 +1,120 @@
+package edu.berkeley.cs186.database.common;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * A small LZ77-style compressor, for byte arrays with long runs and repeats
+ * (e.g. page images in the log). Speed matters more than ratio here, so
+ * matches are found with a single hash table lookup, as in LZ4.
+ *
+ * Compressed data is a series of sequences, each of which is
+ *
+ *   [literal count][literals][match length - MIN_MATCH][match offset]
+ *
+ * where the counts are varints and the offset is an unsigned short. A match
+ * copies `match length` bytes starting `match offset` bytes back in the
+ * output, and may overlap the bytes it produces (so a run of zeros is a
+ * single zero followed by a match of offset 1). The last sequence has no
+ * match: the decompressor stops once it has produced as many bytes as the
+ * caller says the data had.
+ */
+public class LzCompression {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+
+    /**
+     * @param data bytes to compress
+     * @return compressed bytes; decompress needs data.length to restore them
+     */
+    public static byte[] compress(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 8);
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int i = 0;
+        while (i + MIN_MATCH <= data.length) {
+            int h = hash(data, i);
+            int candidate = table[h];
+            table[h] = i;
+            if (candidate < 0 || i - candidate > MAX_OFFSET || !matches(data, candidate, i)) {
+                ++i;
+                continue;
+            }
+            int length = MIN_MATCH;
+            while (i + length < data.length && data[candidate + length] == data[i + length]) {
+                ++length;
+            }
+            writeVarint(out, i - anchor);
+            out.write(data, anchor, i - anchor);
+            writeVarint(out, length - MIN_MATCH);
+            out.write((i - candidate) >>> 8);
+            out.write(i - candidate);
+            i += length;
+            anchor = i;
+        }
+        writeVarint(out, data.length - anchor);
+        out.write(data, anchor, data.length - anchor);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param compressed bytes returned by compress
+     * @param length number of bytes that were compressed
+     * @return the bytes that were compressed
+     */
+    public static byte[] decompress(byte[] compressed, int length) {
+        byte[] data = new byte[length];
+        int[] pos = new int[] {0};
+        int o = 0;
+        while (true) {
+            int literals = readVarint(compressed, pos);
+            System.arraycopy(compressed, pos[0], data, o, literals);
+            pos[0] += literals;
+            o += literals;
+            if (o == length) {
+                return data;
+            }
+            int matchLength = readVarint(compressed, pos) + MIN_MATCH;
+            int offset = ((compressed[pos[0]] & 0xFF) << 8) | (compressed[pos[0] + 1] & 0xFF);
+            pos[0] += 2;
+            for (int j = 0; j < matchLength; ++j, ++o) {
+                data[o] = data[o - offset];
+            }
+        }
+    }
+
+    private static int hash(byte[] data, int i) {
+        int v = (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16 | data[i + 3] << 24;
+        return (v * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    private static boolean matches(byte[] data, int a, int b) {
+        for (int j = 0; j < MIN_MATCH; ++j) {
+            if (data[a + j] != data[b + j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] bytes, int[] pos) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import java.util.*;
+
+/**
+ * A background thread that breaks deadlocks between the transactions of a
+ * lock manager (see DeadlockPolicy.DETECT).
+ *
+ * Every few milliseconds, the detector searches the waits-for graph for
+ * cycles. The graph has an edge T1 -> T2 if T1 is blocked on a request that
+ * cannot be granted until T2 releases a lock or has its own request granted:
+ *
+ *   queue of A: [T1: X(A)]   holders of A: T2: S(A)    T1 -> T2
+ *   queue of B: [T2: X(B)]   holders of B: T1: S(B)    T2 -> T1
+ *
+ * The search is incremental: a cycle can only be closed by a transaction
+ * that blocked since the last search, so the detector only follows edges
+ * from those transactions, computing the edges it needs from the lock queues
+ * as it goes. Every FULL_SEARCH_INTERVAL searches, it starts from every
+ * blocked transaction instead, in case a cycle was missed because the queues
+ * changed while they were being read.
+ *
+ * For each cycle found, one transaction is chosen as the victim according to
+ * the victim policy of the lock manager. The lock manager then checks that
+ * the cycle still exists with all the queues involved latched, drops the
+ * request of the victim from its queue, and unblocks it; the victim gets a
+ * DeadlockException from the call that requested the lock.
+ */
+public class DeadlockDetector {
+    // The default time between searches, in milliseconds.
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    // Every this many searches, a search starts from every blocked transaction.
+    static final int FULL_SEARCH_INTERVAL = 10;
+
+    private final LockManager lockman;
+    private final long intervalMillis;
+    private final Thread thread;
+    private volatile boolean stopped = false;
+
+    // The sequence number of the last request seen by a search.
+    private long lastSeq = 0;
+
+    // The number of searches so far.
+    private int numSearches = 0;
+
+    DeadlockDetector(LockManager lockman, long intervalMillis) {
+        this.lockman = lockman;
+        this.intervalMillis = intervalMillis;
+        this.thread = new Thread(this::run, "deadlock-detector");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            detect();
+        }
+    }
+
+    /**
+     * Searches the waits-for graph for cycles and aborts a victim in each.
+     *
+     * @return the number of transactions aborted
+     */
+    synchronized int detect() {
+        boolean full = ++numSearches % FULL_SEARCH_INTERVAL == 0;
+        List<LockRequest> starts = new ArrayList<>();
+        long maxSeq = lastSeq;
+        for (LockRequest request : lockman.getWaitingRequests()) {
+            if (full || request.seq > lastSeq) starts.add(request);
+            maxSeq = Math.max(maxSeq, request.seq);
+        }
+        lastSeq = maxSeq;
+
+        int numAborted = 0;
+        Map<Long, Set<Long>> edges = new HashMap<>();
+        Set<Long> done = new HashSet<>();
+        for (LockRequest start : starts) {
+            List<LockRequest> cycle;
+            while ((cycle = findCycle(start.transaction.getTransNum(), edges, done)) != null) {
+                boolean aborted = lockman.abortIfDeadlocked(cycle, chooseVictim(cycle));
+                // the queues changed: forget what was read from them
+                edges.clear();
+                done.clear();
+                if (!aborted) break;
+                numAborted++;
+            }
+        }
+        return numAborted;
+    }
+
+    /**
+     * Depth-first search of the waits-for graph from `start`. `edges` caches
+     * the edges read so far, and `done` holds the transactions from which no
+     * cycle is reachable.
+     *
+     * @return the requests of a cycle reachable from `start`, in waits-for
+     * order, or null if there is none
+     */
+    private List<LockRequest> findCycle(long start, Map<Long, Set<Long>> edges, Set<Long> done) {
+        List<Long> path = new ArrayList<>();
+        List<Iterator<Long>> iterators = new ArrayList<>();
+        Set<Long> onPath = new HashSet<>();
+        path.add(start);
+        onPath.add(start);
+        iterators.add(getEdges(start, edges).iterator());
+        while (!path.isEmpty()) {
+            Iterator<Long> next = iterators.get(iterators.size() - 1);
+            if (!next.hasNext()) {
+                long t = path.remove(path.size() - 1);
+                iterators.remove(iterators.size() - 1);
+                onPath.remove(t);
+                done.add(t);
+                continue;
+            }
+            long t = next.next();
+            if (done.contains(t)) continue;
+            if (onPath.contains(t)) {
+                List<LockRequest> cycle = new ArrayList<>();
+                for (long u : path.subList(path.indexOf(t), path.size())) {
+                    LockRequest request = lockman.getWaitingRequest(u);
+                    if (request == null) return null;
+                    cycle.add(request);
+                }
+                return cycle;
+            }
+            path.add(t);
+            onPath.add(t);
+            iterators.add(getEdges(t, edges).iterator());
+        }
+        return null;
+    }
+
+    /**
+     * @return the transactions that `transNum` waits for
+     */
+    private Set<Long> getEdges(long transNum, Map<Long, Set<Long>> edges) {
+        return edges.computeIfAbsent(transNum, t -> {
+            LockRequest request = lockman.getWaitingRequest(t);
+            Set<Long> blockers = request == null ? null : lockman.getBlockers(request);
+            return blockers == null ? Collections.emptySet() : blockers;
+        });
+    }
+
+    private LockRequest chooseVictim(List<LockRequest> cycle) {
+        Comparator<LockRequest> youngest = Comparator.comparingLong(r -> r.transaction.getTransNum());
+        if (lockman.getVictimPolicy() == VictimPolicy.YOUNGEST) {
+            return Collections.max(cycle, youngest);
+        }
+        Map<Long, Integer> numLocks = new HashMap<>();
+        for (LockRequest r : cycle) {
+            numLocks.put(r.transaction.getTransNum(), lockman.getNumLocks(r.transaction.getTransNum()));
+        }
+        Comparator<LockRequest> cheapest = Comparator.comparingInt(r -> -numLocks.get(r.transaction.getTransNum()));
+        return Collections.max(cycle, cheapest.thenComparing(youngest));
+    }
+}
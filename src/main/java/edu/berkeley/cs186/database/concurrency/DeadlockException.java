@@ -0,0 +1,14 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown by the lock manager to a transaction that was chosen to abort to
+ * break (or, under WAIT_DIE and WOUND_WAIT, to avoid) a deadlock. The lock
+ * that the transaction requested was not granted, and the transaction should
+ * be rolled back.
+ */
+@SuppressWarnings("serial")
+public class DeadlockException extends RuntimeException {
+    DeadlockException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,25 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * How a lock manager deals with deadlocks.
+ *
+ * - NONE: deadlocked transactions wait forever.
+ * - DETECT: a background DeadlockDetector looks for cycles in the waits-for
+ *   graph, and aborts one transaction of each cycle (see VictimPolicy).
+ * - WAIT_DIE: a transaction may only wait for younger transactions. A
+ *   transaction that would have to wait for an older one aborts instead.
+ * - WOUND_WAIT: a transaction may only wait for older transactions. A
+ *   transaction that would have to wait for a younger one aborts ("wounds")
+ *   the younger one instead, and waits for it to release its locks.
+ *
+ * Under WAIT_DIE and WOUND_WAIT the waits-for graph never has a cycle, so
+ * no detection work is needed, at the cost of aborting some transactions
+ * that would not have deadlocked. The age of a transaction is given by its
+ * transaction number: lower numbers are older.
+ */
+public enum DeadlockPolicy {
+    NONE,
+    DETECT,
+    WAIT_DIE,
+    WOUND_WAIT
+}
@@ -15,6 +15,14 @@ import java.util.concurrent.ConcurrentHashMap;
  * methods at a certain point in the hierarchy (database, table X, etc.)
  */
 public class LockContext {
+    // The default thresholds for auto escalation (see setEscalationThresholds).
+    public static final int DEFAULT_ESCALATION_LOCKS = 1024;
+    public static final double DEFAULT_ESCALATION_RATIO = 0.2;
+
+    // Contexts with fewer children than this are only escalated on the number
+    // of child locks held, not on saturation.
+    public static final int MIN_ESCALATION_CAPACITY = 10;
+
     // You should not remove any of these fields. You may add additional
     // fields/methods as you see fit.
 
@@ -41,6 +49,16 @@ public class LockContext {
     // Whether or not any new child LockContexts should be marked readonly.
     protected boolean childLocksDisabled;
 
+    // The number of children of this context (e.g. the number of pages of a
+    // table), or -1 if unknown. See setCapacity.
+    protected volatile int capacity = -1;
+
+    // The thresholds past which a transaction's locks on children of this
+    // context are escalated automatically, or 0 if auto escalation is
+    // disabled. See setEscalationThresholds.
+    protected volatile int escalationLocks = 0;
+    protected volatile double escalationRatio = 0;
+
     public LockContext(LockManager lockman, LockContext parent, String name) {
         this(lockman, parent, name, false);
     }
@@ -95,9 +113,20 @@ public class LockContext {
      */
     public void acquire(TransactionContext transaction, LockType lockType)
             throws InvalidLockException, DuplicateLockRequestException {
-        // TODO(proj4_part2): implement
-
-        return;
+        if (readonly) {
+            throw new UnsupportedOperationException("context is readonly");
+        }
+        if (lockType == LockType.NL) {
+            throw new InvalidLockException("cannot acquire an NL lock");
+        }
+        if (parent != null && !LockType.canBeParentLock(parent.getExplicitLockType(transaction), lockType)) {
+            throw new InvalidLockException("lock on parent does not allow " + lockType + " on " + name);
+        }
+        if ((lockType == LockType.S || lockType == LockType.IS) && hasSIXAncestor(transaction)) {
+            throw new InvalidLockException("SIX lock on an ancestor makes " + lockType + " on " + name + " redundant");
+        }
+        lockman.acquire(transaction, name, lockType);
+        if (parent != null) parent.numChildLocks.merge(transaction.getTransNum(), 1, Integer::sum);
     }
 
     /**
@@ -113,9 +142,17 @@ public class LockContext {
      */
     public void release(TransactionContext transaction)
             throws NoLockHeldException, InvalidLockException {
-        // TODO(proj4_part2): implement
-
-        return;
+        if (readonly) {
+            throw new UnsupportedOperationException("context is readonly");
+        }
+        if (getExplicitLockType(transaction) == LockType.NL) {
+            throw new NoLockHeldException(transaction.getTransNum() + " holds no lock on " + name);
+        }
+        if (getNumChildren(transaction) > 0) {
+            throw new InvalidLockException("cannot release " + name + " while holding locks on its children");
+        }
+        lockman.release(transaction, name);
+        if (parent != null) parent.removeChildLocks(transaction, 1);
     }
 
     /**
@@ -139,9 +176,37 @@ public class LockContext {
      */
     public void promote(TransactionContext transaction, LockType newLockType)
             throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException {
-        // TODO(proj4_part2): implement
-
-        return;
+        if (readonly) {
+            throw new UnsupportedOperationException("context is readonly");
+        }
+        LockType oldLockType = getExplicitLockType(transaction);
+        if (oldLockType == LockType.NL) {
+            throw new NoLockHeldException(transaction.getTransNum() + " holds no lock on " + name);
+        }
+        if (oldLockType == newLockType) {
+            throw new DuplicateLockRequestException(transaction.getTransNum() + " already holds " + newLockType);
+        }
+        if (parent != null && !LockType.canBeParentLock(parent.getExplicitLockType(transaction), newLockType)) {
+            throw new InvalidLockException("lock on parent does not allow " + newLockType + " on " + name);
+        }
+        if (newLockType == LockType.SIX) {
+            if (oldLockType != LockType.IS && oldLockType != LockType.IX && oldLockType != LockType.S) {
+                throw new InvalidLockException("Cannot promote " + oldLockType + " to SIX");
+            }
+            if (hasSIXAncestor(transaction)) {
+                throw new InvalidLockException("SIX lock on an ancestor makes SIX on " + name + " redundant");
+            }
+            List<ResourceName> released = sisDescendants(transaction);
+            List<ResourceName> releaseNames = new ArrayList<>(released);
+            releaseNames.add(name);
+            lockman.acquireAndRelease(transaction, name, newLockType, releaseNames);
+            releaseDescendants(transaction, released);
+            return;
+        }
+        if (!LockType.substitutable(newLockType, oldLockType)) {
+            throw new InvalidLockException("Cannot promote " + oldLockType + " to " + newLockType);
+        }
+        lockman.promote(transaction, name, newLockType);
     }
 
     /**
@@ -178,9 +243,29 @@ public class LockContext {
      * @throws UnsupportedOperationException if context is readonly
      */
     public void escalate(TransactionContext transaction) throws NoLockHeldException {
-        // TODO(proj4_part2): implement
+        if (readonly) {
+            throw new UnsupportedOperationException("context is readonly");
+        }
+        LockType explicit = getExplicitLockType(transaction);
+        if (explicit == LockType.NL) {
+            throw new NoLockHeldException(transaction.getTransNum() + " holds no lock on " + name);
+        }
+        boolean exclusive = explicit == LockType.X || explicit == LockType.IX || explicit == LockType.SIX;
+        List<ResourceName> descendants = new ArrayList<>();
+        for (Lock lock : lockman.getLocks(transaction)) {
+            if (!lock.name.isDescendantOf(name)) continue;
+            descendants.add(lock.name);
+            if (lock.lockType == LockType.X || lock.lockType == LockType.IX || lock.lockType == LockType.SIX) {
+                exclusive = true;
+            }
+        }
+        LockType target = exclusive ? LockType.X : LockType.S;
+        if (target == explicit && descendants.isEmpty()) return;
 
-        return;
+        List<ResourceName> releaseNames = new ArrayList<>(descendants);
+        releaseNames.add(name);
+        lockman.acquireAndRelease(transaction, name, target, releaseNames);
+        releaseDescendants(transaction, descendants);
     }
 
     /**
@@ -189,8 +274,7 @@ public class LockContext {
      */
     public LockType getExplicitLockType(TransactionContext transaction) {
         if (transaction == null) return LockType.NL;
-        // TODO(proj4_part2): implement
-        return LockType.NL;
+        return lockman.getLockType(transaction, name);
     }
 
     /**
@@ -201,8 +285,11 @@ public class LockContext {
      */
     public LockType getEffectiveLockType(TransactionContext transaction) {
         if (transaction == null) return LockType.NL;
-        // TODO(proj4_part2): implement
-        return LockType.NL;
+        LockType explicit = getExplicitLockType(transaction);
+        if (explicit != LockType.NL || parent == null) return explicit;
+        LockType inherited = parent.getEffectiveLockType(transaction);
+        if (inherited == LockType.SIX) return LockType.S;
+        return inherited.isIntent() ? LockType.NL : inherited;
     }
 
     /**
@@ -212,7 +299,9 @@ public class LockContext {
      * @return true if holds a SIX at an ancestor, false if not
      */
     private boolean hasSIXAncestor(TransactionContext transaction) {
-        // TODO(proj4_part2): implement
+        for (LockContext ctx = parent; ctx != null; ctx = ctx.parent) {
+            if (ctx.getExplicitLockType(transaction) == LockType.SIX) return true;
+        }
         return false;
     }
 
@@ -224,8 +313,28 @@ public class LockContext {
      * holds an S or IS lock.
      */
     private List<ResourceName> sisDescendants(TransactionContext transaction) {
-        // TODO(proj4_part2): implement
-        return new ArrayList<>();
+        List<ResourceName> names = new ArrayList<>();
+        for (Lock lock : lockman.getLocks(transaction)) {
+            if ((lock.lockType == LockType.S || lock.lockType == LockType.IS) && lock.name.isDescendantOf(name)) {
+                names.add(lock.name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Updates numChildLocks after `transaction`'s locks on the descendants
+     * `released` of this context were released.
+     */
+    private void releaseDescendants(TransactionContext transaction, List<ResourceName> released) {
+        for (ResourceName n : released) {
+            LockContext ctx = fromResourceName(lockman, n);
+            if (ctx.parent != null) ctx.parent.removeChildLocks(transaction, 1);
+        }
+    }
+
+    private void removeChildLocks(TransactionContext transaction, int count) {
+        numChildLocks.computeIfPresent(transaction.getTransNum(), (t, n) -> n > count ? n - count : null);
     }
 
     /**
@@ -240,6 +349,58 @@ public class LockContext {
         this.childLocksDisabled = true;
     }
 
+    /**
+     * Sets the number of children this context has, e.g. the number of data
+     * pages of a table. Used to compute saturation.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the number of children this context has, or -1 if unknown
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the fraction of the children of this context that `transaction`
+     * holds locks on, or 0 if the capacity is unknown
+     */
+    public double saturation(TransactionContext transaction) {
+        int capacity = this.capacity;
+        if (capacity <= 0) return 0;
+        return (double) getNumChildren(transaction) / capacity;
+    }
+
+    /**
+     * Enables auto escalation: a transaction's locks on children of this
+     * context are escalated to a single lock on this context (see
+     * LockUtil#ensureSufficientLockHeld) once the transaction holds at least
+     * `maxLocks` of them, or once it holds at least `maxSaturation` of the
+     * children of a context with a capacity of at least
+     * MIN_ESCALATION_CAPACITY. A `maxLocks` of 0 or less disables auto
+     * escalation.
+     */
+    public void setEscalationThresholds(int maxLocks, double maxSaturation) {
+        this.escalationLocks = Math.max(maxLocks, 0);
+        this.escalationRatio = maxSaturation;
+    }
+
+    /**
+     * @return true if `transaction` holds enough locks on children of this
+     * context that they should be escalated (see setEscalationThresholds)
+     */
+    public boolean shouldEscalate(TransactionContext transaction) {
+        int maxLocks = this.escalationLocks;
+        if (maxLocks <= 0 || readonly || transaction == null) return false;
+        int numChildren = getNumChildren(transaction);
+        if (numChildren == 0) return false;
+        if (numChildren >= maxLocks) return true;
+        return capacity >= MIN_ESCALATION_CAPACITY && saturation(transaction) >= escalationRatio;
+    }
+
     /**
      * Gets the parent context.
      */
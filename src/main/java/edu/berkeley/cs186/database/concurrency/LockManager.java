@@ -3,6 +3,9 @@ package edu.berkeley.cs186.database.concurrency;
 import edu.berkeley.cs186.database.TransactionContext;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * LockManager maintains the bookkeeping for what transactions have what locks
@@ -29,28 +32,84 @@ import java.util.*;
  *    queue: S(A) X(A) S(A)
  * only the first request should be removed from the queue when the queue is
  * processed.
+ *
+ * There is no lock over the whole lock manager. Resources are instead spread
+ * over a fixed number of stripes by the hash of their name, and each stripe
+ * has its own latch, which must be held to read or modify the entries of the
+ * stripe. Requests on resources in different stripes therefore never wait on
+ * each other:
+ *
+ *    stripe 0: latch | db/t1 -> entry, db/t3/5 -> entry
+ *    stripe 1: latch | db -> entry
+ *    stripe 2: latch | db/t2 -> entry, ...
+ *
+ * An acquire-and-release latches the stripes of all the resources it touches,
+ * always in increasing order of stripe so that two such calls cannot deadlock.
+ * Work that a queue triggers on other resources (releasing the locks of a
+ * granted acquire-and-release request, and unblocking the transactions whose
+ * requests were granted) is deferred until the latch of the queue has been
+ * dropped (see Wakeups).
+ *
+ * By default, deadlocked transactions wait forever. See DeadlockPolicy for
+ * the other ways of dealing with deadlocks: a transaction that is aborted to
+ * break or avoid a deadlock gets a DeadlockException from the call that
+ * requested the lock, and should then be rolled back.
  */
 public class LockManager {
+    // The default number of stripes the resources are spread over.
+    public static final int DEFAULT_NUM_STRIPES = 64;
+
     // transactionLocks is a mapping from transaction number to a list of lock
-    // objects held by that transaction.
-    private Map<Long, List<Lock>> transactionLocks = new HashMap<>();
+    // objects held by that transaction. A list is only read or modified inside
+    // a compute call on its transaction, which makes those accesses atomic.
+    private Map<Long, List<Lock>> transactionLocks = new ConcurrentHashMap<>();
 
     // resourceEntries is a mapping from resource names to a ResourceEntry
     // object, which contains a list of Locks on the object, as well as a
-    // queue for requests on that resource.
-    private Map<ResourceName, ResourceEntry> resourceEntries = new HashMap<>();
+    // queue for requests on that resource. The mapping is partitioned into
+    // stripes by the hash of the resource name.
+    private final Stripe[] resourceEntries;
+
+    // The request that each blocked transaction is waiting on.
+    private final Map<Long, LockRequest> waiting = new ConcurrentHashMap<>();
+
+    // Transactions wounded under WOUND_WAIT while they were not waiting.
+    // They abort on their next lock request.
+    private final Set<Long> wounded = ConcurrentHashMap.newKeySet();
+
+    // The sequence number of the last request queued.
+    private final AtomicLong requestSeq = new AtomicLong();
+
+    // How deadlocks are dealt with.
+    private volatile DeadlockPolicy deadlockPolicy = DeadlockPolicy.NONE;
+    private volatile VictimPolicy victimPolicy = VictimPolicy.YOUNGEST;
+
+    // The running detector, if the policy is DETECT.
+    private DeadlockDetector detector;
+
+    // A stripe of resourceEntries, with the latch guarding them.
+    private static class Stripe {
+        private final ReentrantLock latch = new ReentrantLock();
+        private final Map<ResourceName, ResourceEntry> entries = new HashMap<>();
+
+        private void lock() {
+            latch.lock();
+        }
+
+        private void unlock() {
+            latch.unlock();
+        }
+    }
 
     // A ResourceEntry contains the list of locks on a resource, as well as
-    // the queue for requests for locks on the resource.
+    // the queue for requests for locks on the resource. A ResourceEntry must
+    // only be used with the latch of its stripe held.
     private class ResourceEntry {
         // List of currently granted locks on the resource.
         List<Lock> locks = new ArrayList<>();
         // Queue for yet-to-be-satisfied lock requests on this resource.
         Deque<LockRequest> waitingQueue = new ArrayDeque<>();
 
-        // Below are a list of helper methods we suggest you implement.
-        // You're free to modify their type signatures, delete, or ignore them.
-
         /**
          * Check if `lockType` is compatible with preexisting locks. Allows
          * conflicts for locks held by transaction with id `except`, which is
@@ -58,8 +117,11 @@ public class LockManager {
          * the resource.
          */
         public boolean checkCompatible(LockType lockType, long except) {
-            // TODO(proj4_part1): implement
-            return false;
+            for (Lock lock : locks) {
+                if (lock.transactionNum == except) continue;
+                if (!LockType.compatible(lock.lockType, lockType)) return false;
+            }
+            return true;
         }
 
         /**
@@ -68,17 +130,38 @@ public class LockManager {
          * lock.
          */
         public void grantOrUpdateLock(Lock lock) {
-            // TODO(proj4_part1): implement
-            return;
+            for (int i = 0; i < locks.size(); ++i) {
+                if (locks.get(i).transactionNum.equals(lock.transactionNum)) {
+                    Lock old = locks.set(i, lock);
+                    transactionLocks.computeIfPresent(lock.transactionNum, (t, held) -> {
+                        held.set(held.indexOf(old), lock);
+                        return held;
+                    });
+                    return;
+                }
+            }
+            locks.add(lock);
+            transactionLocks.compute(lock.transactionNum, (t, held) -> {
+                if (held == null) held = new ArrayList<>();
+                held.add(lock);
+                return held;
+            });
         }
 
         /**
          * Releases the lock `lock` and processes the queue. Assumes that the
          * lock has been granted before.
          */
-        public void releaseLock(Lock lock) {
-            // TODO(proj4_part1): implement
-            return;
+        public void releaseLock(Lock lock, Wakeups wakeups) {
+            locks.remove(lock);
+            transactionLocks.computeIfPresent(lock.transactionNum, (t, held) -> {
+                held.remove(lock);
+                if (!held.isEmpty()) return held;
+                // nothing can wait for the transaction anymore
+                wounded.remove(t);
+                return null;
+            });
+            processQueue(wakeups);
         }
 
         /**
@@ -86,28 +169,104 @@ public class LockManager {
          * the end otherwise.
          */
         public void addToQueue(LockRequest request, boolean addFront) {
-            // TODO(proj4_part1): implement
-            return;
+            if (addFront) {
+                waitingQueue.addFirst(request);
+            } else {
+                waitingQueue.addLast(request);
+            }
         }
 
         /**
          * Grant locks to requests from front to back of the queue, stopping
          * when the next lock cannot be granted. Once a request is completely
          * granted, the transaction that made the request can be unblocked.
+         * Releasing the locks of a request and unblocking its transaction
+         * are left to `wakeups`.
          */
-        private void processQueue() {
+        private void processQueue(Wakeups wakeups) {
             Iterator<LockRequest> requests = waitingQueue.iterator();
+            while (requests.hasNext()) {
+                LockRequest request = requests.next();
+                if (!checkCompatible(request.lock.lockType, request.transaction.getTransNum())) {
+                    break;
+                }
+                requests.remove();
+                waiting.remove(request.transaction.getTransNum(), request);
+                grantOrUpdateLock(request.lock);
+                for (Lock released : request.releasedLocks) {
+                    if (!released.name.equals(request.lock.name)) wakeups.releases.add(released);
+                }
+                wakeups.transactions.add(request.transaction);
+            }
+        }
 
-            // TODO(proj4_part1): implement
-            return;
+        /**
+         * Gets the lock `transaction` has on this resource, or null.
+         */
+        public Lock getTransactionLock(long transaction) {
+            for (Lock lock : locks) {
+                if (lock.transactionNum == transaction) return lock;
+            }
+            return null;
         }
 
         /**
          * Gets the type of lock `transaction` has on this resource.
          */
         public LockType getTransactionLockType(long transaction) {
-            // TODO(proj4_part1): implement
-            return LockType.NL;
+            Lock lock = getTransactionLock(transaction);
+            return lock == null ? LockType.NL : lock.lockType;
+        }
+
+        /**
+         * Gets the transactions holding a lock on this resource that is not
+         * compatible with `request`.
+         */
+        public Set<Long> getConflictingHolders(LockRequest request) {
+            long transNum = request.transaction.getTransNum();
+            Set<Long> holders = new HashSet<>();
+            for (Lock lock : locks) {
+                if (lock.transactionNum != transNum && !LockType.compatible(lock.lockType, request.lock.lockType)) {
+                    holders.add(lock.transactionNum);
+                }
+            }
+            return holders;
+        }
+
+        /**
+         * Gets the transactions that queued `request` waits for: the holders
+         * of conflicting locks, and the request right ahead of it in the
+         * queue (which in turn waits for those ahead of it). Returns null if
+         * `request` is no longer queued.
+         */
+        public Set<Long> getBlockers(LockRequest request) {
+            LockRequest previous = null;
+            for (LockRequest r : waitingQueue) {
+                if (r == request) {
+                    Set<Long> blockers = getConflictingHolders(request);
+                    if (previous != null) blockers.add(previous.transaction.getTransNum());
+                    return blockers;
+                }
+                previous = r;
+            }
+            return null;
+        }
+
+        /**
+         * Drops `request` from the queue and marks it aborted. Does not
+         * process the queue.
+         *
+         * @return false if `request` was no longer queued
+         */
+        public boolean abortWaiting(LockRequest request) {
+            if (!waitingQueue.remove(request)) return false;
+            request.aborted = true;
+            waiting.remove(request.transaction.getTransNum(), request);
+            return true;
+        }
+
+        public boolean isEmpty() {
+            return locks.isEmpty() && waitingQueue.isEmpty();
         }
 
         @Override
@@ -117,16 +276,213 @@ public class LockManager {
         }
     }
 
+    // Work left to do once all latches are dropped: locks to release (whose
+    // queues must be processed in turn), transactions to wound, and then
+    // transactions to unblock.
+    private static class Wakeups {
+        Deque<Lock> releases = new ArrayDeque<>();
+        List<Long> wounds = new ArrayList<>();
+        List<TransactionContext> transactions = new ArrayList<>();
+    }
+
     // You should not modify or use this directly.
-    private Map<String, LockContext> contexts = new HashMap<>();
+    private Map<String, LockContext> contexts = new ConcurrentHashMap<>();
+
+    public LockManager() {
+        this(DEFAULT_NUM_STRIPES);
+    }
+
+    /**
+     * Creates a lock manager spreading resources over `numStripes` stripes,
+     * rounded up to a power of two.
+     */
+    public LockManager(int numStripes) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("A lock manager needs at least one stripe");
+        }
+        int n = Integer.highestOneBit(numStripes);
+        if (n < numStripes) n <<= 1;
+        this.resourceEntries = new Stripe[n];
+        for (int i = 0; i < n; ++i) {
+            this.resourceEntries[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @return the number of stripes of this lock manager
+     */
+    public int getNumStripes() {
+        return resourceEntries.length;
+    }
+
+    private int stripeIndex(ResourceName name) {
+        int h = name.hashCode();
+        h ^= h >>> 16;
+        return h & (resourceEntries.length - 1);
+    }
+
+    private Stripe getStripe(ResourceName name) {
+        return resourceEntries[stripeIndex(name)];
+    }
 
     /**
      * Helper method to fetch the resourceEntry corresponding to `name`.
      * Inserts a new (empty) resourceEntry into the map if no entry exists yet.
+     * The latch of the stripe of `name` must be held.
      */
     private ResourceEntry getResourceEntry(ResourceName name) {
-        resourceEntries.putIfAbsent(name, new ResourceEntry());
-        return resourceEntries.get(name);
+        return getStripe(name).entries.computeIfAbsent(name, n -> new ResourceEntry());
+    }
+
+    /**
+     * Drops the entry of `name` if it has neither locks nor waiting requests.
+     * The latch of the stripe of `name` must be held.
+     */
+    private void removeIfEmpty(ResourceName name) {
+        Map<ResourceName, ResourceEntry> entries = getStripe(name).entries;
+        ResourceEntry entry = entries.get(name);
+        if (entry != null && entry.isEmpty()) entries.remove(name);
+    }
+
+    /**
+     * Latches the stripes of all of `names`, in increasing order of stripe.
+     *
+     * @return the latched stripes, to be passed to unlatch
+     */
+    private List<Stripe> latch(Collection<ResourceName> names) {
+        SortedSet<Integer> indices = new TreeSet<>();
+        for (ResourceName name : names) indices.add(stripeIndex(name));
+        List<Stripe> stripes = new ArrayList<>(indices.size());
+        for (int i : indices) {
+            resourceEntries[i].lock();
+            stripes.add(resourceEntries[i]);
+        }
+        return stripes;
+    }
+
+    private void unlatch(List<Stripe> stripes) {
+        for (int i = stripes.size() - 1; i >= 0; --i) stripes.get(i).unlock();
+    }
+
+    /**
+     * Releases the locks and unblocks the transactions of `wakeups`. Must be
+     * called with no latch held.
+     */
+    private void finish(Wakeups wakeups) {
+        while (!wakeups.releases.isEmpty()) {
+            Lock lock = wakeups.releases.poll();
+            Stripe stripe = getStripe(lock.name);
+            stripe.lock();
+            try {
+                ResourceEntry entry = stripe.entries.get(lock.name);
+                Lock held = entry == null ? null : entry.getTransactionLock(lock.transactionNum);
+                if (held != null) {
+                    entry.releaseLock(held, wakeups);
+                    removeIfEmpty(lock.name);
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        for (long transNum : wakeups.wounds) {
+            wounded.add(transNum);
+            LockRequest request = waiting.get(transNum);
+            if (request == null) continue;
+            // the transaction is waiting: abort it now, without processing
+            // the queue, since the transaction is about to release its locks
+            Stripe stripe = getStripe(request.lock.name);
+            stripe.lock();
+            try {
+                ResourceEntry entry = stripe.entries.get(request.lock.name);
+                if (entry != null && entry.abortWaiting(request)) {
+                    wounded.remove(transNum);
+                    wakeups.transactions.add(request.transaction);
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        for (TransactionContext transaction : wakeups.transactions) {
+            transaction.unblock();
+        }
+    }
+
+    /**
+     * Queues `request` on `entry`, at the front if `addFront` is set, and
+     * prepares its transaction to block. Under WAIT_DIE and WOUND_WAIT, the
+     * waits-for edges the request adds are checked first, and the
+     * transactions that must abort are aborted (or wounded, see Wakeups). If
+     * the requesting transaction is one of them, nothing is queued and a
+     * DeadlockException is thrown. The latch of the stripe of `entry` must
+     * be held.
+     */
+    private void enqueue(ResourceEntry entry, LockRequest request, boolean addFront, Wakeups wakeups) {
+        TransactionContext transaction = request.transaction;
+        long transNum = transaction.getTransNum();
+        DeadlockPolicy policy = deadlockPolicy;
+        if (policy == DeadlockPolicy.WAIT_DIE || policy == DeadlockPolicy.WOUND_WAIT) {
+            // the request waits for conflicting holders and for the request
+            // ahead of it; at the front, the request behind it waits for it
+            Set<Long> blockers = entry.getConflictingHolders(request);
+            if (!addFront && !entry.waitingQueue.isEmpty()) {
+                blockers.add(entry.waitingQueue.getLast().transaction.getTransNum());
+            }
+            if (policy == DeadlockPolicy.WAIT_DIE) {
+                for (long blocker : blockers) {
+                    if (blocker < transNum) {
+                        throw new DeadlockException(String.format(
+                            "Transaction %d aborted: would wait for older transaction %d", transNum, blocker));
+                    }
+                }
+                while (addFront && !entry.waitingQueue.isEmpty()
+                        && entry.waitingQueue.getFirst().transaction.getTransNum() > transNum) {
+                    LockRequest behind = entry.waitingQueue.getFirst();
+                    entry.abortWaiting(behind);
+                    wakeups.transactions.add(behind.transaction);
+                }
+            } else {
+                LockRequest behind = addFront ? entry.waitingQueue.peekFirst() : null;
+                if (behind != null && behind.transaction.getTransNum() < transNum) {
+                    throw new DeadlockException(String.format(
+                        "Transaction %d aborted: older transaction %d would wait for it",
+                        transNum, behind.transaction.getTransNum()));
+                }
+                for (long blocker : blockers) {
+                    if (blocker > transNum) wakeups.wounds.add(blocker);
+                }
+            }
+        }
+
+        request.seq = requestSeq.incrementAndGet();
+        entry.addToQueue(request, addFront);
+        waiting.put(transNum, request);
+        if (wounded.remove(transNum)) {
+            entry.abortWaiting(request);
+            throw new DeadlockException("Transaction " + transNum + " aborted: wounded by an older transaction");
+        }
+        transaction.prepareBlock();
+    }
+
+    /**
+     * Blocks `transaction` until `request` is granted.
+     *
+     * @throws DeadlockException if the request was aborted instead
+     */
+    private void block(TransactionContext transaction, LockRequest request) {
+        transaction.block();
+        if (request.aborted) {
+            throw new DeadlockException(String.format("Transaction %d aborted to break a deadlock while waiting for %s",
+                                                      transaction.getTransNum(), request.lock));
+        }
+    }
+
+    /**
+     * Throws a DeadlockException if `transNum` was wounded under WOUND_WAIT.
+     */
+    private void checkWounded(long transNum) {
+        if (wounded.remove(transNum)) {
+            throw new DeadlockException("Transaction " + transNum + " aborted: wounded by an older transaction");
+        }
     }
 
     /**
@@ -155,16 +511,44 @@ public class LockManager {
     public void acquireAndRelease(TransactionContext transaction, ResourceName name,
                                   LockType lockType, List<ResourceName> releaseNames)
             throws DuplicateLockRequestException, NoLockHeldException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method. You are not required to keep
-        // all your code within the given synchronized block and are allowed to
-        // move the synchronized block elsewhere if you wish.
-        boolean shouldBlock = false;
-        synchronized (this) {
-            
+        long transNum = transaction.getTransNum();
+        checkWounded(transNum);
+        LockRequest blockedOn = null;
+        Wakeups wakeups = new Wakeups();
+        List<ResourceName> names = new ArrayList<>(releaseNames);
+        names.add(name);
+        List<Stripe> stripes = latch(names);
+        try {
+            ResourceEntry entry = getResourceEntry(name);
+            if (entry.getTransactionLockType(transNum) != LockType.NL && !releaseNames.contains(name)) {
+                throw new DuplicateLockRequestException(transNum + " already holds a lock on " + name);
+            }
+            List<Lock> releasedLocks = new ArrayList<>();
+            for (ResourceName releaseName : releaseNames) {
+                Lock held = getResourceEntry(releaseName).getTransactionLock(transNum);
+                if (held == null) {
+                    throw new NoLockHeldException(transNum + " holds no lock on " + releaseName);
+                }
+                if (!releaseName.equals(name)) releasedLocks.add(held);
+            }
+
+            Lock lock = new Lock(name, lockType, transNum);
+            if (entry.checkCompatible(lockType, transNum)) {
+                entry.grantOrUpdateLock(lock);
+                for (Lock released : releasedLocks) {
+                    getResourceEntry(released.name).releaseLock(released, wakeups);
+                }
+            } else {
+                blockedOn = new LockRequest(transaction, lock, releasedLocks);
+                enqueue(entry, blockedOn, true, wakeups);
+            }
+        } finally {
+            for (ResourceName n : names) removeIfEmpty(n);
+            unlatch(stripes);
+            finish(wakeups);
         }
-        if (shouldBlock) {
-            transaction.block();
+        if (blockedOn != null) {
+            block(transaction, blockedOn);
         }
     }
 
@@ -181,16 +565,31 @@ public class LockManager {
      */
     public void acquire(TransactionContext transaction, ResourceName name,
                         LockType lockType) throws DuplicateLockRequestException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method. You are not required to keep all your
-        // code within the given synchronized block and are allowed to move the
-        // synchronized block elsewhere if you wish.
-        boolean shouldBlock = false;
-        synchronized (this) {
-            
+        long transNum = transaction.getTransNum();
+        checkWounded(transNum);
+        LockRequest blockedOn = null;
+        Wakeups wakeups = new Wakeups();
+        Stripe stripe = getStripe(name);
+        stripe.lock();
+        try {
+            ResourceEntry entry = getResourceEntry(name);
+            if (entry.getTransactionLockType(transNum) != LockType.NL) {
+                throw new DuplicateLockRequestException(transNum + " already holds a lock on " + name);
+            }
+            Lock lock = new Lock(name, lockType, transNum);
+            if (entry.waitingQueue.isEmpty() && entry.checkCompatible(lockType, transNum)) {
+                entry.grantOrUpdateLock(lock);
+            } else {
+                blockedOn = new LockRequest(transaction, lock);
+                enqueue(entry, blockedOn, false, wakeups);
+            }
+        } finally {
+            removeIfEmpty(name);
+            stripe.unlock();
+            finish(wakeups);
         }
-        if (shouldBlock) {
-            transaction.block();
+        if (blockedOn != null) {
+            block(transaction, blockedOn);
         }
     }
 
@@ -206,11 +605,22 @@ public class LockManager {
      */
     public void release(TransactionContext transaction, ResourceName name)
             throws NoLockHeldException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method.
-        synchronized (this) {
-            
+        long transNum = transaction.getTransNum();
+        Wakeups wakeups = new Wakeups();
+        Stripe stripe = getStripe(name);
+        stripe.lock();
+        try {
+            ResourceEntry entry = stripe.entries.get(name);
+            Lock held = entry == null ? null : entry.getTransactionLock(transNum);
+            if (held == null) {
+                throw new NoLockHeldException(transNum + " holds no lock on " + name);
+            }
+            entry.releaseLock(held, wakeups);
+            removeIfEmpty(name);
+        } finally {
+            stripe.unlock();
         }
+        finish(wakeups);
     }
 
     /**
@@ -237,14 +647,37 @@ public class LockManager {
     public void promote(TransactionContext transaction, ResourceName name,
                         LockType newLockType)
             throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method.
-        boolean shouldBlock = false;
-        synchronized (this) {
-            
+        long transNum = transaction.getTransNum();
+        checkWounded(transNum);
+        LockRequest blockedOn = null;
+        Wakeups wakeups = new Wakeups();
+        Stripe stripe = getStripe(name);
+        stripe.lock();
+        try {
+            ResourceEntry entry = stripe.entries.get(name);
+            LockType oldLockType = entry == null ? LockType.NL : entry.getTransactionLockType(transNum);
+            if (oldLockType == LockType.NL) {
+                throw new NoLockHeldException(transNum + " holds no lock on " + name);
+            }
+            if (oldLockType == newLockType) {
+                throw new DuplicateLockRequestException(transNum + " already holds " + newLockType + " on " + name);
+            }
+            if (!LockType.substitutable(newLockType, oldLockType)) {
+                throw new InvalidLockException("Cannot promote " + oldLockType + " to " + newLockType);
+            }
+            Lock lock = new Lock(name, newLockType, transNum);
+            if (entry.checkCompatible(newLockType, transNum)) {
+                entry.grantOrUpdateLock(lock);
+            } else {
+                blockedOn = new LockRequest(transaction, lock);
+                enqueue(entry, blockedOn, true, wakeups);
+            }
+        } finally {
+            stripe.unlock();
+            finish(wakeups);
         }
-        if (shouldBlock) {
-            transaction.block();
+        if (blockedOn != null) {
+            block(transaction, blockedOn);
         }
     }
 
@@ -252,43 +685,174 @@ public class LockManager {
      * Return the type of lock `transaction` has on `name` or NL if no lock is
      * held.
      */
-    public synchronized LockType getLockType(TransactionContext transaction, ResourceName name) {
-        // TODO(proj4_part1): implement
-        ResourceEntry resourceEntry = getResourceEntry(name);
-        return LockType.NL;
+    public LockType getLockType(TransactionContext transaction, ResourceName name) {
+        Stripe stripe = getStripe(name);
+        stripe.lock();
+        try {
+            ResourceEntry entry = stripe.entries.get(name);
+            return entry == null ? LockType.NL : entry.getTransactionLockType(transaction.getTransNum());
+        } finally {
+            stripe.unlock();
+        }
     }
 
     /**
      * Returns the list of locks held on `name`, in order of acquisition.
      */
-    public synchronized List<Lock> getLocks(ResourceName name) {
-        return new ArrayList<>(resourceEntries.getOrDefault(name, new ResourceEntry()).locks);
+    public List<Lock> getLocks(ResourceName name) {
+        Stripe stripe = getStripe(name);
+        stripe.lock();
+        try {
+            ResourceEntry entry = stripe.entries.get(name);
+            return entry == null ? new ArrayList<>() : new ArrayList<>(entry.locks);
+        } finally {
+            stripe.unlock();
+        }
     }
 
     /**
      * Returns the list of locks held by `transaction`, in order of acquisition.
      */
-    public synchronized List<Lock> getLocks(TransactionContext transaction) {
-        return new ArrayList<>(transactionLocks.getOrDefault(transaction.getTransNum(),
-                Collections.emptyList()));
+    public List<Lock> getLocks(TransactionContext transaction) {
+        List<Lock> locks = new ArrayList<>();
+        transactionLocks.computeIfPresent(transaction.getTransNum(), (t, held) -> {
+            locks.addAll(held);
+            return held;
+        });
+        return locks;
+    }
+
+    // Deadlocks //////////////////////////////////////////////////////////////
+
+    /**
+     * Sets how deadlocks are dealt with (see DeadlockPolicy). DETECT starts a
+     * DeadlockDetector that checks for deadlocks every
+     * DeadlockDetector.DEFAULT_INTERVAL_MILLIS milliseconds.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+        setDeadlockPolicy(policy, DeadlockDetector.DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Sets how deadlocks are dealt with. If `policy` is DETECT, a
+     * DeadlockDetector checks for deadlocks every `intervalMillis`
+     * milliseconds. Switching away from DETECT stops the detector.
+     */
+    public synchronized void setDeadlockPolicy(DeadlockPolicy policy, long intervalMillis) {
+        if (detector != null) {
+            detector.stop();
+            detector = null;
+        }
+        this.deadlockPolicy = policy;
+        if (policy == DeadlockPolicy.DETECT) {
+            detector = new DeadlockDetector(this, intervalMillis);
+            detector.start();
+        }
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
+    }
+
+    /**
+     * Sets which transaction of a cycle is aborted under DETECT.
+     */
+    public void setVictimPolicy(VictimPolicy policy) {
+        this.victimPolicy = policy;
+    }
+
+    public VictimPolicy getVictimPolicy() {
+        return victimPolicy;
+    }
+
+    /**
+     * @return the requests that transactions are currently blocked on
+     */
+    List<LockRequest> getWaitingRequests() {
+        return new ArrayList<>(waiting.values());
+    }
+
+    /**
+     * @return the request that `transNum` is blocked on, or null
+     */
+    LockRequest getWaitingRequest(long transNum) {
+        return waiting.get(transNum);
+    }
+
+    /**
+     * @return the transactions that `request` waits for, or null if the
+     * request is no longer queued (see ResourceEntry#getBlockers)
+     */
+    Set<Long> getBlockers(LockRequest request) {
+        Stripe stripe = getStripe(request.lock.name);
+        stripe.lock();
+        try {
+            ResourceEntry entry = stripe.entries.get(request.lock.name);
+            return entry == null ? null : entry.getBlockers(request);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * @return the number of locks held by `transNum`
+     */
+    int getNumLocks(long transNum) {
+        int[] count = new int[1];
+        transactionLocks.computeIfPresent(transNum, (t, held) -> {
+            count[0] = held.size();
+            return held;
+        });
+        return count[0];
+    }
+
+    /**
+     * Aborts `victim` if `cycle` is still a deadlock, i.e. if each request of
+     * `cycle` still waits for the transaction of the next one (and the last
+     * for the first). The stripes of all the requests are latched while this
+     * is checked, so the check sees a consistent state even though the
+     * detector found the cycle without holding any latch.
+     *
+     * @return true if `victim` was aborted
+     */
+    boolean abortIfDeadlocked(List<LockRequest> cycle, LockRequest victim) {
+        List<ResourceName> names = new ArrayList<>();
+        for (LockRequest request : cycle) names.add(request.lock.name);
+        Wakeups wakeups = new Wakeups();
+        List<Stripe> stripes = latch(names);
+        try {
+            for (int i = 0; i < cycle.size(); ++i) {
+                LockRequest request = cycle.get(i);
+                long next = cycle.get((i + 1) % cycle.size()).transaction.getTransNum();
+                ResourceEntry entry = getStripe(request.lock.name).entries.get(request.lock.name);
+                Set<Long> blockers = entry == null ? null : entry.getBlockers(request);
+                if (blockers == null || !blockers.contains(next)) return false;
+            }
+            ResourceEntry entry = getStripe(victim.lock.name).entries.get(victim.lock.name);
+            entry.abortWaiting(victim);
+            entry.processQueue(wakeups);
+            wakeups.transactions.add(victim.transaction);
+            removeIfEmpty(victim.lock.name);
+            return true;
+        } finally {
+            unlatch(stripes);
+            finish(wakeups);
+        }
     }
 
     /**
      * Creates a lock context. See comments at the top of this file and the top
      * of LockContext.java for more information.
      */
-    public synchronized LockContext context(String name) {
-        if (!contexts.containsKey(name)) {
-            contexts.put(name, new LockContext(this, null, name));
-        }
-        return contexts.get(name);
+    public LockContext context(String name) {
+        return contexts.computeIfAbsent(name, n -> new LockContext(this, null, n));
     }
 
     /**
      * Create a lock context for the database. See comments at the top of this
      * file and the top of LockContext.java for more information.
      */
-    public synchronized LockContext databaseContext() {
+    public LockContext databaseContext() {
         return context("database");
     }
 }
@@ -15,6 +15,11 @@ class LockRequest {
     TransactionContext transaction;
     Lock lock;
     List<Lock> releasedLocks;
+    // Order in which requests were queued, used to tell which requests are
+    // new to a DeadlockDetector.
+    long seq;
+    // Set if the request was dropped from its queue to abort the transaction.
+    volatile boolean aborted;
 
     // Lock request for `lock`, that is not releasing anything.
     LockRequest(TransactionContext transaction, Lock lock) {
@@ -21,9 +21,15 @@ public enum LockType {
         if (a == null || b == null) {
             throw new NullPointerException("null lock type");
         }
-        // TODO(proj4_part1): implement
-
-        return false;
+        switch (a) {
+        case NL: return true;
+        case IS: return b != X;
+        case IX: return b == NL || b == IS || b == IX;
+        case S: return b == NL || b == IS || b == S;
+        case SIX: return b == NL || b == IS;
+        case X: return b == NL;
+        default: throw new UnsupportedOperationException("bad lock type");
+        }
     }
 
     /**
@@ -53,9 +59,16 @@ public enum LockType {
         if (parentLockType == null || childLockType == null) {
             throw new NullPointerException("null lock type");
         }
-        // TODO(proj4_part1): implement
-
-        return false;
+        if (childLockType == NL) return true;
+        switch (parentLockType) {
+        case IS: return childLockType == IS || childLockType == S;
+        case IX: return true;
+        case SIX: return childLockType == IX || childLockType == X;
+        case S:
+        case X:
+        case NL: return false;
+        default: throw new UnsupportedOperationException("bad lock type");
+        }
     }
 
     /**
@@ -68,9 +81,15 @@ public enum LockType {
         if (required == null || substitute == null) {
             throw new NullPointerException("null lock type");
         }
-        // TODO(proj4_part1): implement
-
-        return false;
+        switch (required) {
+        case NL: return true;
+        case IS: return substitute == IS || substitute == IX || substitute == SIX || substitute == X;
+        case IX: return substitute == IX || substitute == SIX || substitute == X;
+        case S: return substitute == S || substitute == SIX || substitute == X;
+        case SIX: return substitute == SIX || substitute == X;
+        case X: return substitute == X;
+        default: throw new UnsupportedOperationException("bad lock type");
+        }
     }
 
     /**
@@ -35,15 +35,62 @@ public class LockUtil {
         // Do nothing if the transaction or lockContext is null
         TransactionContext transaction = TransactionContext.getTransaction();
         if (transaction == null || lockContext == null) return;
+        if (requestType == LockType.NL) return;
+        // Read-only transactions read a snapshot instead (see VersionStore)
+        if (requestType == LockType.S && transaction.isReadOnly()) return;
 
-        // You may find these variables useful
         LockContext parentContext = lockContext.parentContext();
         LockType effectiveLockType = lockContext.getEffectiveLockType(transaction);
+        if (LockType.substitutable(effectiveLockType, requestType)) return;
+
+        // Escalate the locks on the siblings of this context first if there
+        // are enough of them: the lock on the parent may then be sufficient
+        if (parentContext != null && parentContext.shouldEscalate(transaction)) {
+            parentContext.escalate(transaction);
+            effectiveLockType = lockContext.getEffectiveLockType(transaction);
+            if (LockType.substitutable(effectiveLockType, requestType)) return;
+        }
+
         LockType explicitLockType = lockContext.getExplicitLockType(transaction);
+        if (explicitLockType == LockType.IX && requestType == LockType.S) {
+            // IX already allows the X locks below; SIX adds the S
+            lockContext.promote(transaction, LockType.SIX);
+            return;
+        }
+        if (explicitLockType.isIntent()) {
+            lockContext.escalate(transaction);
+            explicitLockType = lockContext.getExplicitLockType(transaction);
+            if (LockType.substitutable(explicitLockType, requestType)) return;
+        }
 
-        // TODO(proj4_part2): implement
-        return;
+        // The explicit lock is now NL, or S when X is requested
+        ensureAncestorsHeld(parentContext, LockType.parentLock(requestType));
+        if (explicitLockType == LockType.NL) {
+            lockContext.acquire(transaction, requestType);
+        } else {
+            lockContext.promote(transaction, requestType);
+        }
     }
 
-    // TODO(proj4_part2) add any helper methods you want
+    /**
+     * Ensures that the current transaction holds a lock that allows
+     * `intentType` (IS or IX) on `lockContext` and all of its ancestors,
+     * acquiring or promoting from the top down.
+     */
+    private static void ensureAncestorsHeld(LockContext lockContext, LockType intentType) {
+        if (lockContext == null) return;
+        TransactionContext transaction = TransactionContext.getTransaction();
+        ensureAncestorsHeld(lockContext.parentContext(), intentType);
+
+        LockType explicitLockType = lockContext.getExplicitLockType(transaction);
+        if (LockType.substitutable(explicitLockType, intentType)) return;
+        if (explicitLockType == LockType.NL) {
+            lockContext.acquire(transaction, intentType);
+        } else if (explicitLockType == LockType.S) {
+            // S only falls short of IX
+            lockContext.promote(transaction, LockType.SIX);
+        } else {
+            lockContext.promote(transaction, intentType);
+        }
+    }
 }
@@ -0,0 +1,14 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Which transaction of a deadlock cycle a DeadlockDetector aborts.
+ *
+ * - YOUNGEST: the transaction with the highest transaction number, which has
+ *   likely done the least work.
+ * - CHEAPEST: the transaction holding the fewest locks, with ties going to
+ *   the youngest.
+ */
+public enum VictimPolicy {
+    YOUNGEST,
+    CHEAPEST
+}
@@ -0,0 +1,35 @@
+package edu.berkeley.cs186.database.databox;
+
+/**
+ * A string value of a StringDictionary. An EncodedStringDataBox behaves
+ * exactly like a StringDataBox with the same string, except that checking two
+ * values of the same dictionary for equality only compares their codes. The
+ * hash code is that of the string, so that it agrees with StringDataBox.
+ * EncodedStringDataBoxes are only created by StringDictionary.
+ */
+public class EncodedStringDataBox extends StringDataBox {
+    private StringDictionary dictionary;
+    private int code;
+
+    EncodedStringDataBox(String s, int m, StringDictionary dictionary, int code) {
+        super(s, m);
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof EncodedStringDataBox && ((EncodedStringDataBox) o).dictionary == dictionary) {
+            return ((EncodedStringDataBox) o).code == code;
+        }
+        return super.equals(o);
+    }
+}
@@ -0,0 +1,115 @@
+package edu.berkeley.cs186.database.databox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A dictionary of the distinct values of a string column. Every value in the
+ * dictionary is assigned a small integer code (0, 1, 2, ...), so that a table
+ * can store the code of a value instead of the value itself:
+ *
+ *   StringDictionary d = new StringDictionary(10);
+ *   d.addCode("AIR");                 // 0
+ *   d.addCode("TRUCK");               // 1
+ *   d.addCode("AIR");                 // 0
+ *   d.getValue(1).getString();        // "TRUCK"
+ *
+ * Codes are assigned in insertion order and never change, so a dictionary can
+ * only grow. A dictionary with a Store hands every value it adds to the store,
+ * in code order, before the code of the value is returned, so that codes
+ * written to a table can always be decoded once the value is stored.
+ *
+ * Values read from the dictionary are EncodedStringDataBoxes, which remember
+ * their code. There is exactly one such DataBox per code, so reading a value
+ * never allocates, and two values from the same dictionary are checked for
+ * equality by comparing their codes.
+ */
+public class StringDictionary {
+    /**
+     * Durable storage for the values of a dictionary.
+     */
+    public interface Store {
+        /**
+         * Stores `value` as the value of `code`. Called with the dictionary
+         * locked, once per code, in code order.
+         */
+        void append(int code, String value);
+    }
+
+    // The width of the strings in the dictionary.
+    private int m;
+
+    // The value of each code.
+    private List<EncodedStringDataBox> values = new ArrayList<>();
+
+    // The code of each value.
+    private Map<String, Integer> codes = new HashMap<>();
+
+    // Where added values are stored, or null if the dictionary is not stored.
+    private Store store;
+
+    public StringDictionary(int m) {
+        this.m = m;
+    }
+
+    /**
+     * Sets the store that values added from now on are appended to.
+     */
+    public synchronized void setStore(Store store) {
+        this.store = store;
+    }
+
+    /**
+     * @return the code of `s`, or -1 if `s` is not in the dictionary
+     */
+    public synchronized int getCode(String s) {
+        Integer code = codes.get(s);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the code of `s`, adding `s` to the dictionary (and its store) if
+     * needed
+     */
+    public synchronized int addCode(String s) {
+        Integer code = codes.get(s);
+        if (code != null) return code;
+        EncodedStringDataBox value = new EncodedStringDataBox(s, m, this, values.size());
+        // the value may have been truncated or trimmed; check again
+        code = codes.get(value.getString());
+        if (code == null) {
+            code = values.size();
+            if (store != null) store.append(code, value.getString());
+            values.add(value);
+            codes.put(value.getString(), code);
+        }
+        return code;
+    }
+
+    /**
+     * @return the value with code `code`
+     */
+    public synchronized EncodedStringDataBox getValue(int code) {
+        if (code < 0 || code >= values.size()) {
+            throw new IllegalArgumentException("Unknown dictionary code " + code);
+        }
+        return values.get(code);
+    }
+
+    /**
+     * @return `d` as a value of this dictionary if it is a string in the
+     * dictionary, and `d` itself otherwise
+     */
+    public DataBox encode(DataBox d) {
+        if (d.getTypeId() != TypeId.STRING) return d;
+        if (d instanceof EncodedStringDataBox && ((EncodedStringDataBox) d).getDictionary() == this) return d;
+        int code = getCode(d.getString());
+        return code == -1 ? d : getValue(code);
+    }
+
+    public synchronized int size() {
+        return values.size();
+    }
+}
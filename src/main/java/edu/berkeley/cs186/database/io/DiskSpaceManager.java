@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database.io;
 
+import java.util.Arrays;
+
 public interface DiskSpaceManager extends AutoCloseable {
     short PAGE_SIZE = 4096 * 4; // size of a page in bytes
     long INVALID_PAGE_NUM = -1L; // a page number that is always invalid
@@ -65,6 +67,20 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void writePage(long page, byte[] buf);
 
+    /**
+     * Writes to consecutive pages of a partition, in as few writes to disk as
+     * possible.
+     *
+     * @param page number of the first page to be written
+     * @param buf byte buffer that contains the new data of the pages, one
+     *            after another
+     */
+    default void writePages(long page, byte[] buf) {
+        for (int i = 0; i < buf.length / PAGE_SIZE; ++i) {
+            writePage(page + i, Arrays.copyOfRange(buf, i * PAGE_SIZE, (i + 1) * PAGE_SIZE));
+        }
+    }
+
     /**
      * Checks if a page is allocated
      *
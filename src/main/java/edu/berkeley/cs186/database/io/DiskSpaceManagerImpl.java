@@ -312,6 +312,30 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    @Override
+    public void writePages(long page, byte[] buf) {
+        if (buf.length % PAGE_SIZE != 0) {
+            throw new IllegalArgumentException("writePages expects a whole number of pages");
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        this.managerLock.lock();
+        PartitionHandle pi;
+        try {
+            pi = getPartInfo(partNum);
+            pi.partitionLock.lock();
+        } finally {
+            this.managerLock.unlock();
+        }
+        try {
+            pi.writePages(pageNum, buf);
+        } catch (IOException e) {
+            throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
     @Override
     public boolean pageAllocated(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
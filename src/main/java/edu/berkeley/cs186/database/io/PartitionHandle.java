@@ -260,6 +260,38 @@ class PartitionHandle implements AutoCloseable {
         recoveryManager.diskIOHook(vpn);
     }
 
+    /**
+     * Writes to consecutive data pages, forcing them to disk once. Assumes
+     * that the partition lock is held.
+     * @param pageNum data page number of the first page to write to
+     * @param buf input buffer with new contents of the pages - assumed to be
+     *            a multiple of page size
+     */
+    void writePages(int pageNum, byte[] buf) throws IOException {
+        int numPages = buf.length / PAGE_SIZE;
+        for (int i = 0; i < numPages; ++i) {
+            if (this.isNotAllocatedPage(pageNum + i)) {
+                throw new PageException("page " + (pageNum + i) + " is not allocated");
+            }
+        }
+        // data pages are contiguous in the file, except around header pages
+        int i = 0;
+        while (i < numPages) {
+            int run = Math.min(numPages - i, DATA_PAGES_PER_HEADER - (pageNum + i) % DATA_PAGES_PER_HEADER);
+            ByteBuffer b = ByteBuffer.wrap(buf, i * PAGE_SIZE, run * PAGE_SIZE);
+            long position = PartitionHandle.dataPageOffset(pageNum + i);
+            while (b.hasRemaining()) {
+                position += this.fileChannel.write(b, position);
+            }
+            i += run;
+        }
+        this.fileChannel.force(false);
+
+        for (i = 0; i < numPages; ++i) {
+            recoveryManager.diskIOHook(DiskSpaceManager.getVirtualPageNum(partNum, pageNum + i));
+        }
+    }
+
     /**
      * Checks if page number is for an unallocated data page
      * @param pageNum data page number
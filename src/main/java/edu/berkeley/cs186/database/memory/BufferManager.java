@@ -526,7 +526,8 @@ public class BufferManager implements AutoCloseable {
         try {
             for (int i = 0; i < frames.length; ++i) {
                 Frame frame = frames[i];
-                if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
+                // frames of pages freed by freePage are already free
+                if (!frame.isFreed() && DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
                     this.pageToFrame.remove(frame.getPageNum(), i);
                     evictionPolicy.cleanup(frame);
                     frame.flush();
@@ -576,6 +577,26 @@ public class BufferManager implements AutoCloseable {
         }
     }
 
+    /**
+     * Calls flush on the frame of a page, leaving it loaded. If the page is
+     * not loaded, this does nothing.
+     * @param pageNum page number of page to flush
+     */
+    public void flush(long pageNum) {
+        Frame frame;
+        managerLock.lock();
+        try {
+            if (!pageToFrame.containsKey(pageNum)) {
+                return;
+            }
+            frame = frames[pageToFrame.get(pageNum)];
+        } finally {
+            managerLock.unlock();
+        }
+        // an evicted frame is invalid, and was written when it was evicted
+        frame.flush();
+    }
+
     /**
      * Calls evict on every frame in sequence.
      */
@@ -604,6 +625,13 @@ public class BufferManager implements AutoCloseable {
         }
     }
 
+    /**
+     * @return number of frames (pages) in the buffer
+     */
+    public int getNumFrames() {
+        return frames.length;
+    }
+
     /**
      * Get the number of I/Os since the buffer manager was started, excluding anything used in disk
      * space management, and not counting allocation/free. This is not really useful except as a
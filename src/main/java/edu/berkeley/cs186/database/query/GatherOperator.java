@@ -0,0 +1,389 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.query.expr.Expression;
+import edu.berkeley.cs186.database.table.ColumnVector;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+import java.lang.ref.Cleaner;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a pipeline made of a sequential scan and the selections and
+ * projections above it (see QueryOperator#isParallelizable) on several
+ * threads at once. The data pages of the scanned table are split into
+ * morsels of MORSEL_PAGES pages, which the threads of the transaction's
+ * worker pool (see Database#setDegreeOfParallelism) take one at a time,
+ * running the pipeline over each morsel and handing the batches it produces
+ * to the thread reading from this operator. Batches are returned in no
+ * particular order. Workers whose batches aren't all read are cancelled when
+ * the transaction closes.
+ *
+ * A projection computing aggregates over all the records of such a pipeline
+ * can be gathered too: each worker then updates its own copy of the
+ * aggregates with the batches of its morsels, and the copies are merged (see
+ * Expression#merge) into the single output record.
+ *
+ * The table is locked in S mode by the reading thread before the workers
+ * start, so that they can read pages without taking locks of their own.
+ * Pipelines over tables that can't be scanned in parallel (see
+ * Table#supportsParallelScan), or over too few pages to split, run on the
+ * reading thread as usual.
+ */
+public class GatherOperator extends QueryOperator {
+    // Number of data pages in a morsel
+    static final int MORSEL_PAGES = 8;
+    // Number of batches each worker may get ahead of the reading thread
+    private static final int BATCHES_PER_WORKER = 4;
+    // Marks the end of the batches of a worker
+    private static final RecordBatch DONE = new RecordBatch(new ColumnVector[0], 0);
+    // Stops the workers of iterators that are dropped before they are done
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private TransactionContext transaction;
+    private SequentialScanOperator scan;
+
+    /**
+     * @param transaction transaction running the query
+     * @param source pipeline to run in parallel, which must be parallelizable
+     *               or aggregate a parallelizable source (see canGather)
+     */
+    public GatherOperator(TransactionContext transaction, QueryOperator source) {
+        super(OperatorType.GATHER, source);
+        if (!canGather(source)) {
+            throw new IllegalArgumentException("Can't run " + source.str() + " in parallel");
+        }
+        this.transaction = transaction;
+        QueryOperator op = source;
+        while (op.getSource() != null) op = op.getSource();
+        this.scan = (SequentialScanOperator) op;
+        this.stats = this.estimateStats();
+    }
+
+    /**
+     * @return true if `source` can be run in parallel by a GatherOperator
+     */
+    public static boolean canGather(QueryOperator source) {
+        if (source.isParallelizable()) return true;
+        return source instanceof ProjectOperator && ((ProjectOperator) source).hasMergeableAggregates();
+    }
+
+    @Override
+    protected Schema computeSchema() {
+        return this.getSource().getSchema();
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return RecordBatch.toRecords(this.batchIterator());
+    }
+
+    @Override
+    public Iterator<RecordBatch> batchIterator() {
+        ForkJoinPool pool = this.transaction.getWorkerPool();
+        Table table = this.transaction.getTable(this.scan.getTableName());
+        if (pool == null || pool.getParallelism() < 2 || !table.supportsParallelScan()) {
+            return this.getSource().batchIterator();
+        }
+        List<Long> pageNums = table.getDataPageNums();
+        if (pageNums.size() <= MORSEL_PAGES) return this.getSource().batchIterator();
+        List<List<Long>> morsels = new ArrayList<>();
+        for (int i = 0; i < pageNums.size(); i += MORSEL_PAGES) {
+            morsels.add(pageNums.subList(i, Math.min(i + MORSEL_PAGES, pageNums.size())));
+        }
+        int numWorkers = Math.min(pool.getParallelism(), morsels.size());
+        if (this.getSource().isParallelizable()) return new GatherIterator(pool, numWorkers, morsels);
+        return aggregate(pool, numWorkers, morsels);
+    }
+
+    @Override
+    public String str() {
+        int workers = ParallelUtil.getParallelism(this.transaction);
+        return "Gather (workers=" + workers + ") (cost=" + this.estimateIOCost() + ")";
+    }
+
+    @Override
+    public TableStats estimateStats() {
+        return this.getSource().estimateStats();
+    }
+
+    @Override
+    public int estimateIOCost() {
+        return this.getSource().estimateIOCost();
+    }
+
+    /**
+     * Aggregates the records of the source of the aggregating projection that
+     * is the source of this operator, with `numWorkers` workers, and returns
+     * the resulting record as a single batch (or no batch at all if there are
+     * no records, as for a serial projection).
+     */
+    private Iterator<RecordBatch> aggregate(ForkJoinPool pool, int numWorkers, List<List<Long>> morsels) {
+        ProjectOperator project = (ProjectOperator) this.getSource();
+        QueryOperator pipeline = project.getSource();
+        AtomicInteger nextMorsel = new AtomicInteger();
+        List<Future<PartialAggregate>> futures = new ArrayList<>();
+        for (int i = 0; i < numWorkers; i++) {
+            PartialAggregate partial = new PartialAggregate(project.copyExpressions());
+            futures.add(pool.submit(() -> {
+                int m;
+                while ((m = nextMorsel.getAndIncrement()) < morsels.size()) {
+                    Iterator<RecordBatch> batches = pipeline.morselIterator(morsels.get(m));
+                    while (batches.hasNext()) partial.update(m, batches.next());
+                }
+                return partial;
+            }));
+        }
+        List<PartialAggregate> partials = new ArrayList<>();
+        for (Future<PartialAggregate> future : futures) {
+            partials.add(ParallelUtil.join(future));
+        }
+
+        // non-aggregates are evaluated on the first record of the source
+        PartialAggregate result = partials.get(0);
+        PartialAggregate first = result;
+        for (PartialAggregate partial : partials.subList(1, partials.size())) {
+            for (int i = 0; i < result.expressions.size(); i++) {
+                Expression expression = result.expressions.get(i);
+                if (expression.hasAgg()) expression.merge(partial.expressions.get(i));
+            }
+            if (partial.firstMorsel < first.firstMorsel) first = partial;
+        }
+        if (first.base == null) return Collections.emptyIterator();
+        ColumnVector[] columns = new ColumnVector[result.expressions.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = ColumnVector.boxed(this.getSchema().getFieldType(i), 1);
+            columns[i].set(0, result.expressions.get(i).evaluate(first.base));
+        }
+        return Collections.singletonList(new RecordBatch(columns, 1)).iterator();
+    }
+
+    /**
+     * The aggregates of one worker, and the first record it read, from the
+     * first morsel it read records from (workers take morsels in increasing
+     * order, so this is the first record of all the morsels of the worker).
+     */
+    private static class PartialAggregate {
+        private List<Expression> expressions;
+        private int firstMorsel = Integer.MAX_VALUE;
+        private Record base;
+
+        private PartialAggregate(List<Expression> expressions) {
+            this.expressions = expressions;
+        }
+
+        private void update(int morsel, RecordBatch batch) {
+            if (batch.size() == 0) return;
+            if (this.base == null) {
+                this.firstMorsel = morsel;
+                this.base = batch.getRecord(batch.getRow(0));
+            }
+            for (Expression expression : this.expressions) {
+                if (expression.hasAgg()) expression.update(batch);
+            }
+        }
+    }
+
+    /**
+     * State shared between a GatherIterator and its workers. The workers
+     * don't refer to the iterator itself, so that it can be garbage collected
+     * (which cancels the workers) if it is dropped early. The workers are
+     * also cancelled when the transaction closes, since they read pages under
+     * its locks.
+     *
+     * A worker that finds the queue full doesn't wait for room: it pauses,
+     * giving its thread back to the pool, and is resumed by the reading
+     * thread once it has taken batches off the queue. Workers of an iterator
+     * that is no longer read hold no threads.
+     */
+    private static class Exchange implements Runnable {
+        private final TransactionContext transaction;
+        private final ForkJoinPool pool;
+        private final QueryOperator source;
+        private final List<List<Long>> morsels;
+        private final BlockingQueue<RecordBatch> queue;
+        private final AtomicInteger nextMorsel = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        // number of workers running, and the paused workers, guarded by this
+        // exchange
+        private int numRunning = 0;
+        private final Deque<Paused> paused = new ArrayDeque<>();
+        // the first exception thrown by a worker
+        private volatile Throwable error;
+
+        private Exchange(TransactionContext transaction, ForkJoinPool pool, QueryOperator source,
+                         List<List<Long>> morsels, int numWorkers) {
+            this.transaction = transaction;
+            this.pool = pool;
+            this.source = source;
+            this.morsels = morsels;
+            this.queue = new ArrayBlockingQueue<>(numWorkers * BATCHES_PER_WORKER + numWorkers);
+        }
+
+        /**
+         * Runs a worker on the pool, from where it was paused if `from` isn't
+         * null.
+         */
+        private void start(Paused from) {
+            pool.execute(() -> work(from));
+        }
+
+        /**
+         * Runs the source over morsels until there are none left, handing
+         * over its batches to the reading thread, and then hands over DONE.
+         */
+        private void work(Paused from) {
+            synchronized (this) {
+                if (cancelled) return;
+                numRunning++;
+            }
+            RecordBatch pending = from == null ? null : from.batch;
+            Iterator<RecordBatch> batches = from == null ? Collections.emptyIterator() : from.batches;
+            try {
+                while (!cancelled) {
+                    if (pending != null) {
+                        if (!queue.offer(pending)) {
+                            pause(pending, batches);
+                            return;
+                        }
+                        if (pending == DONE) return;
+                        pending = null;
+                    } else if (batches.hasNext()) {
+                        RecordBatch batch = batches.next();
+                        if (batch.size() > 0) pending = batch;
+                    } else {
+                        int m = nextMorsel.getAndIncrement();
+                        if (m < morsels.size()) {
+                            batches = source.morselIterator(morsels.get(m));
+                        } else {
+                            pending = DONE;
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                if (error == null) error = t;
+                if (!queue.offer(DONE)) pause(DONE, Collections.emptyIterator());
+            } finally {
+                synchronized (this) {
+                    numRunning--;
+                    this.notifyAll();
+                }
+            }
+        }
+
+        private synchronized void pause(RecordBatch pending, Iterator<RecordBatch> batches) {
+            if (!cancelled) paused.add(new Paused(pending, batches));
+        }
+
+        /**
+         * Resumes as many paused workers as there is room for in the queue.
+         */
+        private synchronized void resume() {
+            int room = queue.remainingCapacity();
+            while (room-- > 0 && !paused.isEmpty()) start(paused.poll());
+        }
+
+        /**
+         * Cancels the workers, and waits for the running ones to stop.
+         */
+        @Override
+        public void run() {
+            boolean interrupted = false;
+            synchronized (this) {
+                cancelled = true;
+                paused.clear();
+                while (numRunning > 0) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            transaction.removeCloseHook(this);
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A paused worker: the batch it couldn't hand over, and the rest of the
+     * batches of its morsel.
+     */
+    private static class Paused {
+        private final RecordBatch batch;
+        private final Iterator<RecordBatch> batches;
+
+        private Paused(RecordBatch batch, Iterator<RecordBatch> batches) {
+            this.batch = batch;
+            this.batches = batches;
+        }
+    }
+
+    /**
+     * Returns the batches produced by the workers, as they come.
+     */
+    private class GatherIterator implements Iterator<RecordBatch> {
+        private Exchange exchange;
+        private int numWorkers;
+        private int numDone = 0;
+        private RecordBatch nextBatch;
+
+        private GatherIterator(ForkJoinPool pool, int numWorkers, List<List<Long>> morsels) {
+            this.exchange = new Exchange(GatherOperator.this.transaction, pool, GatherOperator.this.getSource(),
+                    morsels, numWorkers);
+            this.numWorkers = numWorkers;
+            CLEANER.register(this, this.exchange);
+            GatherOperator.this.transaction.addCloseHook(this.exchange);
+            for (int i = 0; i < numWorkers; i++) this.exchange.start(null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.nextBatch == null && this.numDone < this.numWorkers) {
+                this.exchange.resume();
+                RecordBatch batch;
+                try {
+                    batch = this.exchange.queue.poll(10, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    this.exchange.run();
+                    Thread.currentThread().interrupt();
+                    throw new DatabaseException(e);
+                }
+                if (batch == null) {
+                    if (this.exchange.cancelled) throw new DatabaseException("Query cancelled");
+                } else if (batch == DONE) {
+                    this.numDone++;
+                    if (this.exchange.error != null) {
+                        this.exchange.run();
+                        throw ParallelUtil.rethrow(this.exchange.error);
+                    }
+                    // nothing left to cancel: unregister the exchange
+                    if (this.numDone == this.numWorkers) this.exchange.run();
+                } else {
+                    this.nextBatch = batch;
+                }
+            }
+            return this.nextBatch != null;
+        }
+
+        @Override
+        public RecordBatch next() {
+            if (!this.hasNext()) throw new NoSuchElementException();
+            RecordBatch batch = this.nextBatch;
+            this.nextBatch = null;
+            return batch;
+        }
+    }
+}
@@ -2,17 +2,36 @@ package edu.berkeley.cs186.database.query;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.PageDirectory;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.stats.Histogram;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.*;
 
+/**
+ * Groups the records of its source, yielding the records of each group one
+ * after the other with a marker record between groups.
+ *
+ * If the source is sorted on every grouping column (see
+ * QueryOperator#sortedBy), the records of each group are already next to
+ * each other, and the operator streams: it yields records as it reads them
+ * and a marker whenever the group changes, with no I/O of its own. Otherwise
+ * it hashes the records of each group into a temporary table of their own.
+ *
+ * A ProjectOperator that aggregates the groups of a hashing GroupByOperator
+ * doesn't iterate over it if the groups fit in memory (see
+ * maxInMemoryGroups): it reads the source of this operator instead, and
+ * keeps a slot of aggregate state per group.
+ */
 class GroupByOperator extends QueryOperator {
     static final Record MARKER = new Record();
     private List<Integer> groupByColumnIndices;
     private List<String> groupByColumns;
     private TransactionContext transaction;
+    private boolean streaming;
 
     /**
      * Create a new GroupByOperator that pulls from source and groups by groupByColumn.
@@ -35,6 +54,7 @@ class GroupByOperator extends QueryOperator {
         for (String groupByColumn: this.groupByColumns) {
             this.groupByColumnIndices.add(sourceSchema.getFieldNames().indexOf(groupByColumn));
         }
+        this.streaming = this.isSourceSortedOnGroups();
 
         this.stats = this.estimateStats();
     }
@@ -44,11 +64,50 @@ class GroupByOperator extends QueryOperator {
         return true;
     }
 
+    /**
+     * @return true if the records of the source are sorted on every grouping
+     * column, in which case groups are streamed instead of hashed
+     */
+    boolean isStreaming() {
+        return this.streaming;
+    }
+
+    private boolean isSourceSortedOnGroups() {
+        Schema sourceSchema = this.getSource().getSchema();
+        Set<String> sortedColumns = new HashSet<>();
+        for (String column : this.getSource().sortedBy()) {
+            try {
+                sortedColumns.add(sourceSchema.matchFieldName(column));
+            } catch (RuntimeException e) {
+                // not a column of the source, or an ambiguous one
+            }
+        }
+        return sortedColumns.containsAll(this.groupByColumns);
+    }
+
     @Override
     public Iterator<Record> iterator() {
+        if (this.streaming) return new StreamingGroupByIterator();
         return new GroupByIterator();
     }
 
+    @Override
+    public List<String> sortedBy() {
+        if (this.streaming) return this.getSource().sortedBy();
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the values of the grouping columns of `record`
+     */
+    Record groupKey(Record record) {
+        List<DataBox> values = new ArrayList<>();
+        for (int index: this.groupByColumnIndices) {
+            values.add(record.getValue(index));
+        }
+        return new Record(values);
+    }
+
     @Override
     protected Schema computeSchema() {
         return this.getSource().getSchema();
@@ -59,7 +118,8 @@ class GroupByOperator extends QueryOperator {
         String columns;
         if (this.groupByColumns.size() == 1) columns = groupByColumns.get(0);
         else columns = "(" + String.join(", ", groupByColumns) + ")";
-        return "Group By (cost=" + this.estimateIOCost() + ")" +
+        String mode = this.streaming ? " (streaming)" : "";
+        return "Group By" + mode + " (cost=" + this.estimateIOCost() + ")" +
                "\n  columns: " + columns;
     }
 
@@ -73,13 +133,55 @@ class GroupByOperator extends QueryOperator {
         return this.getSource().estimateStats();
     }
 
+    /**
+     * Streaming costs nothing beyond reading the source. Hashing writes every
+     * record to the temporary table of its group and reads it back, and each
+     * group takes at least a page of its own.
+     */
     @Override
     public int estimateIOCost() {
-        int numBuffers = this.transaction.getWorkMemSize();
-        int N = getSource().estimateStats().getNumPages();
-        double pass0Runs = Math.ceil(N / (double)numBuffers);
-        double numPasses = 1 + Math.ceil(Math.log(pass0Runs) / Math.log(numBuffers - 1));
-        return (int) (2 * N * numPasses) + getSource().estimateIOCost();
+        if (this.streaming) return getSource().estimateIOCost();
+        return this.estimateHashIOCost();
+    }
+
+    /**
+     * @return the estimated I/O cost of grouping the source by hashing, which
+     * is only the cost of the source if the groups can be aggregated in
+     * memory
+     */
+    int estimateHashIOCost() {
+        TableStats sourceStats = getSource().estimateStats();
+        int N = sourceStats.getNumPages();
+        int numGroups = estimateNumGroups(sourceStats, this.groupByColumnIndices);
+        if (numGroups <= this.maxInMemoryGroups()) return getSource().estimateIOCost();
+        return 2 * (N + numGroups) + getSource().estimateIOCost();
+    }
+
+    /**
+     * @return the number of groups whose first records fit in the work memory
+     * of the transaction, which is how many groups a projection can aggregate
+     * in memory (the state of the aggregates of a group takes a few bytes)
+     */
+    int maxInMemoryGroups() {
+        int recordsPerPage = Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE,
+                this.getSource().getSchema());
+        return recordsPerPage * this.transaction.getWorkMemSize();
+    }
+
+    /**
+     * @return the estimated number of distinct combinations of values of the
+     * columns `columns` of records with statistics `stats`, from their
+     * histograms
+     */
+    static int estimateNumGroups(TableStats stats, List<Integer> columns) {
+        long numGroups = 1;
+        List<Histogram> histograms = stats.getHistograms();
+        for (int index : columns) {
+            if (index >= histograms.size()) continue;
+            numGroups *= Math.max(1, histograms.get(index).getNumDistinct());
+            if (numGroups >= stats.getNumRecords()) break;
+        }
+        return (int) Math.max(1, Math.min(numGroups, stats.getNumRecords()));
     }
 
     /**
@@ -100,11 +202,9 @@ class GroupByOperator extends QueryOperator {
             this.recordIterator = null;
             while (sourceIterator.hasNext()) {
                 Record record = sourceIterator.next();
-                List<DataBox> values = new ArrayList<>();
-                for (int index: groupByColumnIndices) {
-                    values.add(record.getValue(index));
-                }
-                Record key = new Record(values);
+                // values of dictionary-encoded columns are hashed and
+                // compared by code (see EncodedStringDataBox)
+                Record key = groupKey(record);
                 String tableName;
                 if (this.hashGroupTempTables.containsKey(key)) {
                     tableName = this.hashGroupTempTables.get(key);;
@@ -148,4 +248,45 @@ class GroupByOperator extends QueryOperator {
             throw new NoSuchElementException();
         }
     }
+
+    /**
+     * Yields the records of a source sorted on the grouping columns as they
+     * come, with a marker record whenever the group changes. Only the key of
+     * the current group is kept.
+     */
+    private class StreamingGroupByIterator implements Iterator<Record> {
+        private Iterator<Record> sourceIterator;
+        // key of the group of the last record yielded
+        private Record groupKey;
+        // first record of the next group, read before yielding the marker
+        private Record nextRecord;
+
+        private StreamingGroupByIterator() {
+            this.sourceIterator = GroupByOperator.this.getSource().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.nextRecord != null || this.sourceIterator.hasNext();
+        }
+
+        @Override
+        public Record next() {
+            if (!this.hasNext()) throw new NoSuchElementException();
+            if (this.nextRecord != null) {
+                Record record = this.nextRecord;
+                this.nextRecord = null;
+                return record;
+            }
+            Record record = this.sourceIterator.next();
+            Record key = groupKey(record);
+            boolean newGroup = this.groupKey != null && !this.groupKey.equals(key);
+            this.groupKey = key;
+            if (newGroup) {
+                this.nextRecord = record;
+                return MARKER;
+            }
+            return record;
+        }
+    }
 }
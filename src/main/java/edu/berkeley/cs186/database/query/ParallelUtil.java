@@ -0,0 +1,88 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TransactionContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers for operators that split their work between the threads of the
+ * transaction's worker pool (see TransactionContext#getWorkerPool). Tasks
+ * run on threads with no transaction, so they must only touch data that the
+ * transaction has already locked, or its temporary tables.
+ */
+public class ParallelUtil {
+    /**
+     * @return the number of workers of the worker pool of `transaction`, or 1
+     * if its queries run on the calling thread only
+     */
+    public static int getParallelism(TransactionContext transaction) {
+        ForkJoinPool pool = transaction.getWorkerPool();
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    /**
+     * Runs `tasks` on the worker pool of `transaction`, at most `numWorkers`
+     * at a time, and returns their results in the order of the tasks. If a
+     * task throws, the remaining tasks are skipped and the exception is
+     * rethrown once the running tasks are done.
+     */
+    public static <T> List<T> runAll(TransactionContext transaction, int numWorkers,
+                                     List<? extends Callable<T>> tasks) {
+        ForkJoinPool pool = transaction.getWorkerPool();
+        List<T> results = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) results.add(null);
+        AtomicInteger nextTask = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < Math.min(numWorkers, tasks.size()); w++) {
+            futures.add(pool.submit(() -> {
+                int i;
+                while ((i = nextTask.getAndIncrement()) < tasks.size()) {
+                    try {
+                        results.set(i, tasks.get(i).call());
+                    } catch (Exception e) {
+                        nextTask.set(tasks.size());
+                        throw e;
+                    }
+                }
+                return null;
+            }));
+        }
+        RuntimeException error = null;
+        for (Future<?> future : futures) {
+            try {
+                join(future);
+            } catch (RuntimeException e) {
+                if (error == null) error = e;
+            }
+        }
+        if (error != null) throw error;
+        return results;
+    }
+
+    /**
+     * @return the result of `future`, rethrowing whatever its task threw
+     */
+    public static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException(e);
+        }
+    }
+
+    /**
+     * Throws `t` if it is unchecked, and a DatabaseException otherwise.
+     */
+    public static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        throw new DatabaseException(t.getMessage());
+    }
+}
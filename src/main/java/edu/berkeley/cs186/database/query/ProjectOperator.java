@@ -1,8 +1,11 @@
 package edu.berkeley.cs186.database.query;
 
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.query.expr.CompiledExpression;
 import edu.berkeley.cs186.database.query.expr.Expression;
+import edu.berkeley.cs186.database.table.ColumnVector;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -22,6 +25,10 @@ public class ProjectOperator extends QueryOperator {
     // expression corresponds to one of the column names in outputColumns.
     private List<Expression> expressions;
 
+    // The expressions, compiled for evaluation on each record (see
+    // CompiledExpression). Only used if there is no aggregation.
+    private List<CompiledExpression> compiledExpressions;
+
     /**
      * Creates a new ProjectOperator that reads tuples from source and filters
      * out columns. Optionally computes an aggregate if it is specified.
@@ -48,7 +55,6 @@ public class ProjectOperator extends QueryOperator {
     public void initialize(QueryOperator source, List<String> columns, List<Expression> expressions, List<String> groupByColumns) {
         this.outputColumns = columns;
         this.groupByColumns = groupByColumns;
-        this.expressions = expressions;
         this.sourceSchema = source.getSchema();
         this.source = source;
         Schema schema = new Schema();
@@ -57,6 +63,9 @@ public class ProjectOperator extends QueryOperator {
             schema.add(columns.get(i), expressions.get(i).getType());
         }
         this.outputSchema = schema;
+        // Subexpressions repeated across columns are computed once per record
+        expressions = Expression.shareSubexpressions(expressions);
+        this.expressions = expressions;
 
         Set<Integer> groupByIndices = new HashSet<>();
         for (String colName: groupByColumns) {
@@ -66,7 +75,13 @@ public class ProjectOperator extends QueryOperator {
         for (int i = 0; i < expressions.size(); i++) {
             hasAgg |= expressions.get(i).hasAgg();
         }
-        if (!hasAgg) return;
+        if (!hasAgg) {
+            this.compiledExpressions = new ArrayList<>();
+            for (Expression expression: expressions) {
+                this.compiledExpressions.add(expression.compile());
+            }
+            return;
+        }
 
         for (int i = 0; i < expressions.size(); i++) {
             Set<Integer> dependencyIndices = new HashSet<>();
@@ -94,11 +109,104 @@ public class ProjectOperator extends QueryOperator {
         return this.outputSchema;
     }
 
+    /**
+     * Projections run in batches over a vectorized source, unless they
+     * compute aggregates over groups (whose boundaries are marked in the
+     * records of the source, see GroupByOperator).
+     */
+    @Override
+    public boolean isVectorized() {
+        return this.getSource().isVectorized() && this.groupByColumns.isEmpty();
+    }
+
     @Override
     public Iterator<Record> iterator() {
+        if (this.isVectorized()) return RecordBatch.toRecords(this.batchIterator());
+        if (this.getSource() instanceof GroupByOperator) {
+            GroupByOperator groupBy = (GroupByOperator) this.getSource();
+            if (!groupBy.isStreaming()) return new HashAggregateIterator(groupBy);
+        }
         return new ProjectIterator();
     }
 
+    @Override
+    public Iterator<RecordBatch> batchIterator() {
+        if (!this.isVectorized()) return super.batchIterator();
+        Iterator<RecordBatch> sourceIterator = this.getSource().batchIterator();
+        boolean hasAgg = false;
+        for (Expression func: expressions) {
+            hasAgg |= func.hasAgg();
+        }
+        if (hasAgg) return new AggregateBatchIterator(sourceIterator);
+        return evaluate(sourceIterator);
+    }
+
+    /**
+     * Projections without aggregates are parallelizable over a
+     * parallelizable source. Aggregates over all the records of a
+     * parallelizable source are computed in parallel by GatherOperator
+     * instead (see hasMergeableAggregates).
+     */
+    @Override
+    public boolean isParallelizable() {
+        return this.getSource().isParallelizable() && this.compiledExpressions != null;
+    }
+
+    @Override
+    public Iterator<RecordBatch> morselIterator(List<Long> pageNums) {
+        return evaluate(this.getSource().morselIterator(pageNums));
+    }
+
+    /**
+     * @return true if this projection computes aggregates over all the
+     * records of a parallelizable source, and every aggregate can be computed
+     * in parts (see Expression#isMergeable)
+     */
+    boolean hasMergeableAggregates() {
+        if (this.compiledExpressions != null || !this.groupByColumns.isEmpty()) return false;
+        for (Expression expression: this.expressions) {
+            if (!expression.isMergeable()) return false;
+        }
+        return this.getSource().isParallelizable();
+    }
+
+    /**
+     * @return fresh copies of the expressions of this projection, whose
+     * aggregates can be updated independently of this operator's
+     */
+    List<Expression> copyExpressions() {
+        List<Expression> copies = new ArrayList<>();
+        for (Expression expression: this.expressions) {
+            Expression copy = Expression.fromString(expression.toString());
+            copy.setSchema(this.sourceSchema);
+            copies.add(copy);
+        }
+        return Expression.shareSubexpressions(copies);
+    }
+
+    /**
+     * @return an iterator over the batches of `sourceIterator` with the
+     * expressions of this projection (which have no aggregates) evaluated
+     */
+    private Iterator<RecordBatch> evaluate(Iterator<RecordBatch> sourceIterator) {
+        return new Iterator<RecordBatch>() {
+            @Override
+            public boolean hasNext() {
+                return sourceIterator.hasNext();
+            }
+
+            @Override
+            public RecordBatch next() {
+                RecordBatch batch = sourceIterator.next();
+                ColumnVector[] columns = new ColumnVector[expressions.size()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = expressions.get(i).evaluate(batch);
+                }
+                return batch.withColumns(columns);
+            }
+        };
+    }
+
     @Override
     public String str() {
         String columns = "(" + String.join(", ", this.outputColumns) + ")";
@@ -106,9 +214,32 @@ public class ProjectOperator extends QueryOperator {
                 "\n\tcolumns: " + columns;
     }
 
+    /**
+     * A projection that aggregates yields a record per group (or a single
+     * record), and keeps the distinct values of the grouping columns it
+     * projects.
+     */
     @Override
     public TableStats estimateStats() {
-        return this.getSource().estimateStats();
+        TableStats sourceStats = this.getSource().estimateStats();
+        if (this.compiledExpressions != null && this.groupByColumns.isEmpty()) return sourceStats;
+        List<Integer> groupByIndices = new ArrayList<>();
+        for (String column: this.groupByColumns) {
+            groupByIndices.add(this.sourceSchema.findField(column));
+        }
+        int numGroups = 1;
+        if (!groupByIndices.isEmpty()) {
+            numGroups = GroupByOperator.estimateNumGroups(sourceStats, groupByIndices);
+        }
+        int[] columns = new int[this.expressions.size()];
+        for (int i = 0; i < columns.length; i++) {
+            Expression expression = this.expressions.get(i);
+            columns[i] = -1;
+            if (expression.hasAgg() || expression.getDependencies().size() != 1) continue;
+            int column = this.sourceSchema.findField(expression.getDependencies().iterator().next());
+            if (groupByIndices.contains(column)) columns[i] = column;
+        }
+        return sourceStats.copyWithAggregation(this.outputSchema, columns, numGroups);
     }
 
     @Override
@@ -116,6 +247,126 @@ public class ProjectOperator extends QueryOperator {
         return this.getSource().estimateIOCost();
     }
 
+    /**
+     * Computes aggregates over all the records of the source, which are
+     * returned as a single batch of one record (or no batch at all, if the
+     * source has no records).
+     */
+    private class AggregateBatchIterator implements Iterator<RecordBatch> {
+        private Iterator<RecordBatch> sourceIterator;
+        private boolean done = false;
+        private RecordBatch result;
+
+        private AggregateBatchIterator(Iterator<RecordBatch> sourceIterator) {
+            this.sourceIterator = sourceIterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!this.done) {
+                this.done = true;
+                this.result = this.aggregate();
+            }
+            return this.result != null;
+        }
+
+        @Override
+        public RecordBatch next() {
+            if (!this.hasNext()) throw new NoSuchElementException();
+            RecordBatch batch = this.result;
+            this.result = null;
+            return batch;
+        }
+
+        private RecordBatch aggregate() {
+            Record base = null; // We'll draw the values of non-aggregates from here
+            while (this.sourceIterator.hasNext()) {
+                RecordBatch batch = this.sourceIterator.next();
+                if (base == null && batch.size() > 0) base = batch.getRecord(batch.getRow(0));
+                for (Expression dataFunction: expressions) {
+                    if (dataFunction.hasAgg()) dataFunction.update(batch);
+                }
+            }
+            if (base == null) return null;
+            ColumnVector[] columns = new ColumnVector[expressions.size()];
+            for (int i = 0; i < columns.length; i++) {
+                Expression dataFunction = expressions.get(i);
+                columns[i] = ColumnVector.boxed(outputSchema.getFieldType(i), 1);
+                columns[i].set(0, dataFunction.evaluate(base));
+                if (dataFunction.hasAgg()) dataFunction.reset();
+            }
+            return new RecordBatch(columns, 1);
+        }
+    }
+
+    /**
+     * Aggregates the groups of a hashing GroupByOperator in one pass over its
+     * source, without writing the records of each group to a temporary
+     * table: each group gets a slot in the aggregates of this projection
+     * (see Expression#selectGroup), which are updated with its records as
+     * they are read. The first record of each group is kept in memory for
+     * the values of the grouping columns.
+     *
+     * If there turn out to be more groups than fit in memory (see
+     * GroupByOperator#maxInMemoryGroups), the groups are aggregated from the
+     * GroupByOperator instead, one at a time.
+     */
+    private class HashAggregateIterator implements Iterator<Record> {
+        private Iterator<Record> results;
+
+        private HashAggregateIterator(GroupByOperator groupBy) {
+            List<Expression> aggregates = new ArrayList<>();
+            for (Expression dataFunction: expressions) {
+                if (dataFunction.hasAgg()) aggregates.add(dataFunction);
+            }
+            int maxGroups = groupBy.maxInMemoryGroups();
+            Map<Record, Integer> slots = new HashMap<>();
+            List<Record> bases = new ArrayList<>(); // The first record of each group
+            Iterator<Record> sourceIterator = groupBy.getSource().iterator();
+            while (sourceIterator.hasNext()) {
+                Record record = sourceIterator.next();
+                Record key = groupBy.groupKey(record);
+                Integer slot = slots.get(key);
+                if (slot == null) {
+                    if (bases.size() == maxGroups) {
+                        for (Expression dataFunction: aggregates) dataFunction.resetGroups();
+                        this.results = new ProjectIterator();
+                        return;
+                    }
+                    slot = bases.size();
+                    slots.put(key, slot);
+                    bases.add(record);
+                }
+                for (Expression dataFunction: aggregates) {
+                    dataFunction.selectGroup(slot);
+                    dataFunction.update(record);
+                }
+            }
+
+            List<Record> results = new ArrayList<>(bases.size());
+            for (int slot = 0; slot < bases.size(); slot++) {
+                List<DataBox> values = new ArrayList<>();
+                for (Expression dataFunction: expressions) {
+                    dataFunction.selectGroup(slot);
+                    values.add(dataFunction.evaluate(bases.get(slot)));
+                }
+                results.add(new Record(values));
+            }
+            for (Expression dataFunction: aggregates) dataFunction.resetGroups();
+            this.results = results.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.results.hasNext();
+        }
+
+        @Override
+        public Record next() {
+            return this.results.next();
+        }
+    }
+
     private class ProjectIterator implements Iterator<Record> {
         private Iterator<Record> sourceIterator;
         private boolean hasAgg = false;
@@ -138,7 +389,7 @@ public class ProjectOperator extends QueryOperator {
             Record curr = this.sourceIterator.next();
             if (!this.hasAgg && groupByColumns.size() == 0 ) {
                 List<DataBox> newValues = new ArrayList<>();
-                for (Expression f: expressions) {
+                for (CompiledExpression f: compiledExpressions) {
                     newValues.add(f.evaluate(curr));
                 }
                 return new Record(newValues);
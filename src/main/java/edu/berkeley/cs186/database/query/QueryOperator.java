@@ -5,6 +5,7 @@ import edu.berkeley.cs186.database.common.iterator.ArrayBacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.table.PageDirectory;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -28,7 +29,8 @@ public abstract class QueryOperator implements Iterable<Record> {
         GROUP_BY,
         SORT,
         LIMIT,
-        MATERIALIZE
+        MATERIALIZE,
+        GATHER
     }
 
     private OperatorType type;
@@ -151,6 +153,50 @@ public abstract class QueryOperator implements Iterable<Record> {
      */
     public abstract Iterator<Record> iterator();
 
+    /**
+     * @return true if this operator produces batches of records itself (see
+     * batchIterator), rather than by grouping the records of iterator().
+     * Operators that read from a vectorized source may run in batches
+     * themselves.
+     */
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * @return an iterator over the output records of this operator, in
+     * batches (see RecordBatch). By default, this groups the records of
+     * iterator(), so that vectorized operators can read from any operator.
+     * Going the other way, RecordBatch.toRecords turns the batches of a
+     * vectorized operator back into records.
+     */
+    public Iterator<RecordBatch> batchIterator() {
+        return RecordBatch.fromRecords(this.iterator(), this.getSchema());
+    }
+
+    /**
+     * @return true if the batches of this operator can be computed separately
+     * for disjoint sets of data pages of the table scanned at the bottom of
+     * its pipeline (see morselIterator), so that the pages can be split
+     * between threads (see GatherOperator). Only true of sequential scans and
+     * of the selections and projections above them.
+     */
+    public boolean isParallelizable() {
+        return false;
+    }
+
+    /**
+     * @param pageNums data pages of the table scanned at the bottom of the
+     *                 pipeline of this operator
+     * @return an iterator over the batches this operator computes from the
+     * records on the pages `pageNums` alone. Only supported if
+     * isParallelizable(). Called from threads running no transaction, so the
+     * iterator must not share state with other iterators of the operator.
+     */
+    public Iterator<RecordBatch> morselIterator(List<Long> pageNums) {
+        throw new UnsupportedOperationException(this.type + " operators can't be parallelized");
+    }
+
     /**
      * @return true if the records of this query operator are materialized in a
      * table.
@@ -7,6 +7,8 @@ import edu.berkeley.cs186.database.query.expr.Expression;
 import edu.berkeley.cs186.database.query.join.*;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 
 import java.util.*;
 
@@ -16,6 +18,10 @@ import java.util.*;
  * and calling execute generates and executes a QueryPlan DAG.
  */
 public class QueryPlan {
+    // Fewest records per group of a table for its records to be aggregated
+    // before they are joined (see addEagerAggregation)
+    private static final int MIN_EAGER_REDUCTION = 10;
+
     // The transaction this query will be executed within
     private TransactionContext transaction;
     // A query operator representing the final query plan
@@ -24,6 +30,9 @@ public class QueryPlan {
     private List<String> projectColumns;
     // Used by command line version to pass expressions to evaluate
     private List<Expression> projectFunctions;
+    // The projections rewritten to combine partial aggregates computed below
+    // the joins, if execute() chose to (see addEagerAggregation)
+    private List<Expression> eagerProjectFunctions;
     // A list of aliased table names involved in this query (FROM clause)
     private List<String> tableNames;
     // A list of objects representing joins (INNER JOIN clauses)
@@ -281,7 +290,14 @@ public class QueryPlan {
             if (this.finalOperator == null) throw new RuntimeException(
                     "Can't add Project onto null finalOperator."
             );
-            if (this.projectFunctions == null) {
+            if (this.eagerProjectFunctions != null) {
+                this.finalOperator = new ProjectOperator(
+                        this.finalOperator,
+                        this.projectColumns,
+                        this.eagerProjectFunctions,
+                        this.groupByColumns
+                );
+            } else if (this.projectFunctions == null) {
                 this.finalOperator = new ProjectOperator(
                         this.finalOperator,
                         this.projectColumns,
@@ -298,6 +314,24 @@ public class QueryPlan {
         }
     }
 
+    // Gather //////////////////////////////////////////////////////////////////
+
+    /**
+     * Sets the final operator to a gather operator with the original final
+     * operator as its source, if the transaction may run queries in parallel
+     * and the final operator can be run in parallel (a sequential scan with
+     * selections and projections above it, see GatherOperator). Pipelines
+     * under a limit with no sort are left to run on the calling thread, since
+     * only their first few records are read.
+     */
+    private void addGather() {
+        if (this.transaction.getWorkerPool() == null) return;
+        if (this.limit >= 0 && this.sortColumn == null && this.finalOperator.isParallelizable()) return;
+        if (GatherOperator.canGather(this.finalOperator)) {
+            this.finalOperator = new GatherOperator(this.transaction, this.finalOperator);
+        }
+    }
+
     // Sort ////////////////////////////////////////////////////////////////////
     /**
      * Add a sort operator to the query plan on the given column.
@@ -345,15 +379,27 @@ public class QueryPlan {
 
     /**
      * Sets the final operator to a limit operator with the original final
-     * operator as its source. Does nothing if limit is negative.
+     * operator as its source. Does nothing if limit is negative. A sort
+     * directly below the limit is replaced by a single Top-N operator if its
+     * limit + offset records fit in memory.
      */
     private void addLimit() {
-        if (this.limit >= 0) {
-            this.finalOperator = new LimitOperator(
-                    this.finalOperator,
-                    this.limit, this.offset
-            );
+        if (this.limit < 0) return;
+        if (this.finalOperator instanceof SortOperator) {
+            QueryOperator source = this.finalOperator.getSource();
+            if (TopNOperator.fits(this.transaction, source.getSchema(), this.limit, this.offset)) {
+                this.finalOperator = new TopNOperator(
+                        this.transaction, source,
+                        this.finalOperator.sortedBy().get(0),
+                        this.limit, this.offset
+                );
+                return;
+            }
         }
+        this.finalOperator = new LimitOperator(
+                this.finalOperator,
+                this.limit, this.offset
+        );
     }
 
     // Select //////////////////////////////////////////////////////////////////
@@ -412,17 +458,33 @@ public class QueryPlan {
     /**
      * Sets the final operator to a GroupByOperator with the original final
      * operator as its source. Does nothing there are no group by columns.
+     * When grouping on a single column the source isn't sorted on, a sort is
+     * added below the GroupByOperator if sorting and streaming the groups is
+     * estimated to be cheaper than hashing them.
      */
     private void addGroupBy() {
         if (this.groupByColumns.size() > 0) {
             if (this.finalOperator == null) throw new RuntimeException(
                     "Can't add GroupBy onto null finalOperator."
             );
-            this.finalOperator = new GroupByOperator(
+            GroupByOperator groupBy = new GroupByOperator(
                     this.finalOperator,
                     this.transaction,
                     this.groupByColumns
             );
+            if (!groupBy.isStreaming() && this.groupByColumns.size() == 1) {
+                // sorting first lets the groups be streamed, which may beat
+                // hashing them into a temporary table per group
+                SortOperator sort = new SortOperator(
+                        this.transaction,
+                        this.finalOperator,
+                        this.groupByColumns.get(0)
+                );
+                if (sort.estimateIOCost() < groupBy.estimateHashIOCost()) {
+                    groupBy = new GroupByOperator(sort, this.transaction, this.groupByColumns);
+                }
+            }
+            this.finalOperator = groupBy;
         }
     }
 
@@ -573,7 +635,9 @@ public class QueryPlan {
      * minimum cost operator can be broken arbitrarily.
      */
     public QueryOperator minCostSingleAccess(String table) {
-        QueryOperator minOp = new SequentialScanOperator(this.transaction, table);
+        List<String> requiredColumns = getRequiredColumns(table);
+        QueryOperator minOp = new SequentialScanOperator(this.transaction, table, requiredColumns,
+                                                         getPagePredicates(table));
         int minCost = minOp.estimateIOCost();
 
         // TODO(proj3_part2): implement
@@ -602,6 +666,70 @@ public class QueryPlan {
         return minOp;
     }
 
+    /**
+     * @return the selection predicates on `table`, in the form used by a
+     * sequential scan of `table` to skip pages using the table's zone map
+     */
+    private List<ZoneMap.Predicate> getPagePredicates(String table) {
+        Schema schema = this.transaction.getFullyQualifiedSchema(table);
+        List<ZoneMap.Predicate> predicates = new ArrayList<>();
+        for (SelectPredicate p : this.selectPredicates) {
+            if (!p.tableName.equals(table)) continue;
+            int column = schema.findField(p.tableName + "." + p.column);
+            predicates.add(new ZoneMap.Predicate(column, p.operator, p.value));
+        }
+        return predicates;
+    }
+
+    /**
+     * Determines which columns of `table` are referenced anywhere in this
+     * query (SELECT, WHERE, JOIN ON, GROUP BY and ORDER BY clauses), so that
+     * scans of the table only need to decode those columns.
+     *
+     * @return the referenced columns in schema order, or null if every column
+     * of the table is needed (e.g. SELECT *)
+     */
+    private List<String> getRequiredColumns(String table) {
+        if (this.projectColumns.isEmpty()) return null;
+        Set<String> referenced = new HashSet<>();
+        try {
+            if (this.projectFunctions != null) {
+                for (Expression e : this.projectFunctions) referenced.addAll(e.getDependencies());
+            } else {
+                for (String column : this.projectColumns) {
+                    referenced.addAll(Expression.fromString(column).getDependencies());
+                }
+            }
+        } catch (RuntimeException e) {
+            // fall back to reading every column if a projection can't be parsed
+            return null;
+        }
+        for (SelectPredicate p : this.selectPredicates) {
+            referenced.add(p.tableName + "." + p.column);
+        }
+        for (JoinPredicate p : this.joinPredicates) {
+            referenced.add(p.leftColumn);
+            referenced.add(p.rightColumn);
+        }
+        referenced.addAll(this.groupByColumns);
+        if (this.sortColumn != null) referenced.add(this.sortColumn);
+
+        Schema schema = this.transaction.getSchema(table);
+        List<String> result = new ArrayList<>();
+        for (String fieldName : schema.getFieldNames()) {
+            for (String column : referenced) {
+                String[] parts = column.split("\\.");
+                boolean sameTable = parts.length == 1 || parts[0].equalsIgnoreCase(table);
+                if (sameTable && parts[parts.length - 1].equalsIgnoreCase(fieldName)) {
+                    result.add(fieldName);
+                    break;
+                }
+            }
+        }
+        if (result.isEmpty() || result.size() == schema.size()) return null;
+        return result;
+    }
+
     // Task 6: Join Selection //////////////////////////////////////////////////
 
     /**
@@ -740,6 +868,182 @@ public class QueryPlan {
         return minOp;
     }
 
+    /**
+     * Runs the passes of the search over join orders, starting from the table
+     * accesses of `pass1Map`.
+     *
+     * @return the lowest cost QueryOperator joining all the tables
+     */
+    private QueryOperator minCostJoinTree(Map<Set<String>, QueryOperator> pass1Map) {
+        Map<Set<String>, QueryOperator> prevMap = pass1Map;
+
+        for (int i = 0; i < tableNames.size() - 1; i++) {
+            prevMap = minCostJoins(prevMap, pass1Map);
+        }
+
+        return minCostOperator(prevMap);
+    }
+
+    // Eager Aggregation ///////////////////////////////////////////////////////
+
+    /**
+     * Eager aggregation: when a query aggregates the result of joins, and the
+     * aggregates only read columns of one table, the records of that table
+     * can be grouped on its join columns (and its GROUP BY columns) and
+     * reduced to a record of partial aggregates per group before they are
+     * joined. Every record of a group joins with the same records of the
+     * other tables, so the aggregates of the query can be computed from the
+     * partial aggregates (see Expression#splitAggregates), with smaller
+     * inputs to the joins.
+     *
+     * A table is only aggregated early if its records are estimated to be
+     * reduced at least MIN_EAGER_REDUCTION times, and if the resulting joins
+     * and grouping are estimated to be cheaper than those of `finalOperator`
+     * (or as cheap, with fewer joined records left to aggregate), in which
+     * case the joins over the partial aggregates replace it.
+     *
+     * @param pass1Map the table accesses the joins of `finalOperator` were
+     *                 searched from
+     */
+    private void addEagerAggregation(Map<Set<String>, QueryOperator> pass1Map) {
+        this.eagerProjectFunctions = null;
+        if (this.tableNames.size() < 2) return;
+        List<Expression> expressions = this.getProjectExpressions();
+        if (expressions == null) return;
+        boolean hasAgg = false;
+        for (Expression expression : expressions) hasAgg |= expression.hasAgg();
+        if (!hasAgg) return;
+
+        int minCost = this.estimateAggregationCost(this.finalOperator);
+        int minRecords = this.finalOperator.estimateStats().getNumRecords();
+        for (String table : this.tableNames) {
+            List<Expression> combined = new ArrayList<>();
+            QueryOperator partialAggregation = this.partialAggregation(table, pass1Map, expressions, combined);
+            if (partialAggregation == null) continue;
+            Map<Set<String>, QueryOperator> eagerPass1Map = new HashMap<>(pass1Map);
+            eagerPass1Map.put(Collections.singleton(table), partialAggregation);
+            QueryOperator joins = minCostJoinTree(eagerPass1Map);
+            int cost = this.estimateAggregationCost(joins);
+            int records = joins.estimateStats().getNumRecords();
+            if (cost < minCost || (cost == minCost && records < minRecords)) {
+                minCost = cost;
+                minRecords = records;
+                this.finalOperator = joins;
+                this.eagerProjectFunctions = combined;
+            }
+        }
+    }
+
+    /**
+     * Builds the partial aggregation of `table` for eager aggregation.
+     *
+     * @param expressions the expressions of the SELECT clause
+     * @param combined receives the expressions of the SELECT clause rewritten
+     *                 to combine the partial aggregates
+     * @return an operator yielding the join and grouping columns of `table`
+     * and the partial aggregates of each of their groups, or null if the
+     * aggregates of the query can't be computed this way or the records of
+     * the table aren't reduced enough
+     */
+    private QueryOperator partialAggregation(String table, Map<Set<String>, QueryOperator> pass1Map,
+                                             List<Expression> expressions, List<Expression> combined) {
+        QueryOperator access = pass1Map.get(Collections.singleton(table));
+        Schema schema = access.getSchema();
+        List<Expression> partials = new ArrayList<>();
+        for (Expression expression : expressions) {
+            Expression split = expression.splitAggregates(partials, i -> table + ".partial" + i);
+            if (split == null) return null;
+            combined.add(split);
+        }
+        // the aggregates must only read columns of this table
+        for (Expression partial : partials) {
+            for (String column : partial.getDependencies()) {
+                if (!table.equals(getColumnTable(column, pass1Map))) return null;
+            }
+        }
+
+        // group on the columns of the table used above the aggregation
+        List<String> keys = new ArrayList<>();
+        for (JoinPredicate p : this.joinPredicates) {
+            if (p.leftTable.equals(table)) keys.add(schema.matchFieldName(p.leftColumn));
+            if (p.rightTable.equals(table)) keys.add(schema.matchFieldName(p.rightColumn));
+        }
+        for (String column : this.groupByColumns) {
+            if (table.equals(getColumnTable(column, pass1Map))) keys.add(schema.matchFieldName(column));
+        }
+        keys = new ArrayList<>(new LinkedHashSet<>(keys));
+        for (Expression expression : combined) {
+            for (String column : expression.getDependencies()) {
+                if (column.startsWith(table + ".partial")) continue;
+                if (!table.equals(getColumnTable(column, pass1Map))) continue;
+                // columns of this table outside of aggregates must be grouped on
+                if (!keys.contains(schema.matchFieldName(column))) return null;
+            }
+        }
+
+        TableStats stats = access.estimateStats();
+        List<Integer> keyIndices = new ArrayList<>();
+        for (String key : keys) keyIndices.add(schema.findField(key));
+        int numGroups = GroupByOperator.estimateNumGroups(stats, keyIndices);
+        if (stats.getNumRecords() < (long) MIN_EAGER_REDUCTION * numGroups) return null;
+
+        List<String> columns = new ArrayList<>(keys);
+        List<Expression> columnExpressions = new ArrayList<>();
+        for (String key : keys) columnExpressions.add(Expression.column(key));
+        for (int i = 0; i < partials.size(); i++) {
+            columns.add(table + ".partial" + i);
+            columnExpressions.add(partials.get(i));
+        }
+        QueryOperator groupBy = new GroupByOperator(access, this.transaction, keys);
+        return new ProjectOperator(groupBy, columns, columnExpressions, keys);
+    }
+
+    /**
+     * @return the table among those accessed by `pass1Map` whose records
+     * hold `column`, or null if none or several do
+     */
+    private static String getColumnTable(String column, Map<Set<String>, QueryOperator> pass1Map) {
+        String result = null;
+        for (Map.Entry<Set<String>, QueryOperator> entry : pass1Map.entrySet()) {
+            try {
+                entry.getValue().getSchema().findField(column);
+            } catch (RuntimeException e) {
+                continue;
+            }
+            if (result != null) return null;
+            result = entry.getKey().iterator().next();
+        }
+        return result;
+    }
+
+    /**
+     * @return fresh copies of the expressions of the SELECT clause, or null
+     * if there are none or they can't be parsed
+     */
+    private List<Expression> getProjectExpressions() {
+        if (this.projectColumns.isEmpty()) return null;
+        List<Expression> expressions = new ArrayList<>();
+        try {
+            if (this.projectFunctions != null) {
+                for (Expression e : this.projectFunctions) expressions.add(Expression.fromString(e.toString()));
+            } else {
+                for (String column : this.projectColumns) expressions.add(Expression.fromString(column));
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+        return expressions;
+    }
+
+    /**
+     * @return the estimated cost of `joins` followed by the grouping of the
+     * query, if any
+     */
+    private int estimateAggregationCost(QueryOperator joins) {
+        if (this.groupByColumns.isEmpty()) return joins.estimateIOCost();
+        return new GroupByOperator(joins, this.transaction, this.groupByColumns).estimateIOCost();
+    }
+
     /**
      * Generates an optimized QueryPlan based on the System R cost-based query
      * optimizer.
@@ -767,15 +1071,11 @@ public class QueryPlan {
             pass1Map.put(bruh, minCostSingleAccess(tbl));
         }
 
-        Map<Set<String>, QueryOperator> prevMap = pass1Map;
-
-        for (int i = 0; i < tableNames.size() - 1; i++) {
-            prevMap = minCostJoins(prevMap, pass1Map);
-        }
-
-        finalOperator = minCostOperator(prevMap);
+        finalOperator = minCostJoinTree(pass1Map);
+        addEagerAggregation(pass1Map);
         addGroupBy();
         addProject();
+        addGather();
         addSort();
         addLimit();
 
@@ -871,6 +1171,7 @@ public class QueryPlan {
      */
     public Iterator<Record> executeNaive() {
         this.transaction.setAliasMap(this.aliases);
+        this.eagerProjectFunctions = null;
         int indexPredicate = this.getEligibleIndexColumnNaive();
         if (indexPredicate != -1) {
             this.generateIndexPlanNaive(indexPredicate);
@@ -886,6 +1187,7 @@ public class QueryPlan {
             this.addSelectsNaive();
             this.addGroupBy();
             this.addProject();
+            this.addGather();
             this.addSort();
             this.addLimit();
         }
@@ -2,11 +2,17 @@ package edu.berkeley.cs186.database.query;
 
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.EncodedStringDataBox;
+import edu.berkeley.cs186.database.databox.StringDictionary;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.table.ColumnVector;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 public class SelectOperator extends QueryOperator {
@@ -73,7 +79,174 @@ public class SelectOperator extends QueryOperator {
     }
 
     @Override
-    public Iterator<Record> iterator() { return new SelectIterator(); }
+    public List<String> sortedBy() {
+        return this.getSource().sortedBy();
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return this.getSource().isVectorized();
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        if (this.isVectorized()) return RecordBatch.toRecords(this.batchIterator());
+        return new SelectIterator();
+    }
+
+    /**
+     * Filters the batches of the source by narrowing their selection vectors.
+     * Comparisons of INT, LONG and FLOAT columns to a value of the same type
+     * are made on the primitive values of the column.
+     */
+    @Override
+    public Iterator<RecordBatch> batchIterator() {
+        return filter(this.getSource().batchIterator());
+    }
+
+    @Override
+    public boolean isParallelizable() {
+        return this.getSource().isParallelizable();
+    }
+
+    @Override
+    public Iterator<RecordBatch> morselIterator(List<Long> pageNums) {
+        return filter(this.getSource().morselIterator(pageNums));
+    }
+
+    /**
+     * @return an iterator over the non-empty batches of `sourceIterator`,
+     * filtered by the predicate
+     */
+    private Iterator<RecordBatch> filter(Iterator<RecordBatch> sourceIterator) {
+        return new Iterator<RecordBatch>() {
+            private Predicate predicate = new Predicate();
+            private RecordBatch nextBatch;
+
+            @Override
+            public boolean hasNext() {
+                while (this.nextBatch == null && sourceIterator.hasNext()) {
+                    RecordBatch batch = this.predicate.filter(sourceIterator.next());
+                    if (batch.size() > 0) this.nextBatch = batch;
+                }
+                return this.nextBatch != null;
+            }
+
+            @Override
+            public RecordBatch next() {
+                if (!this.hasNext()) throw new NoSuchElementException();
+                RecordBatch batch = this.nextBatch;
+                this.nextBatch = null;
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * The predicate of this operator, for one iterator over its records.
+     */
+    private class Predicate {
+        // the dictionary of the last encoded string seen, and the value
+        // encoded with that dictionary
+        private StringDictionary dictionary;
+        private DataBox encodedValue;
+
+        /**
+         * @return whether `d`, a value of the selected column, satisfies the
+         * predicate
+         */
+        private boolean matches(DataBox d) {
+            switch (SelectOperator.this.operator) {
+            case EQUALS: return d.equals(valueFor(d));
+            case NOT_EQUALS: return !d.equals(valueFor(d));
+            default: return matches(d.compareTo(value));
+            }
+        }
+
+        /**
+         * @return whether a value of the selected column that compares to the
+         * value of the predicate as `cmp` (see Comparable#compareTo)
+         * satisfies the predicate
+         */
+        private boolean matches(int cmp) {
+            switch (SelectOperator.this.operator) {
+            case EQUALS: return cmp == 0;
+            case NOT_EQUALS: return cmp != 0;
+            case LESS_THAN: return cmp < 0;
+            case LESS_THAN_EQUALS: return cmp <= 0;
+            case GREATER_THAN: return cmp > 0;
+            case GREATER_THAN_EQUALS: return cmp >= 0;
+            default: return false;
+            }
+        }
+
+        /**
+         * @return `batch` with only the records that satisfy the predicate
+         * selected
+         */
+        private RecordBatch filter(RecordBatch batch) {
+            ColumnVector column = batch.getColumn(SelectOperator.this.columnIndex);
+            TypeId typeId = column.getType().getTypeId();
+            int[] selection = new int[batch.size()];
+            int size = 0;
+            if (typeId != value.getTypeId()) typeId = TypeId.STRING; // compare DataBoxes
+            switch (typeId) {
+            case INT: {
+                int v = value.getInt();
+                for (int i = 0; i < batch.size(); ++i) {
+                    int row = batch.getRow(i);
+                    if (matches(Integer.compare(column.getInt(row), v))) selection[size++] = row;
+                }
+                break;
+            }
+            case LONG: {
+                long v = value.getLong();
+                for (int i = 0; i < batch.size(); ++i) {
+                    int row = batch.getRow(i);
+                    if (matches(Long.compare(column.getLong(row), v))) selection[size++] = row;
+                }
+                break;
+            }
+            case FLOAT: {
+                // FloatDataBox#equals compares with ==, and compareTo with
+                // Float.compare, which differ for NaN and -0.0
+                float v = value.getFloat();
+                boolean equality = operator == PredicateOperator.EQUALS || operator == PredicateOperator.NOT_EQUALS;
+                for (int i = 0; i < batch.size(); ++i) {
+                    int row = batch.getRow(i);
+                    float f = column.getFloat(row);
+                    boolean match = equality ? (f == v) == (operator == PredicateOperator.EQUALS)
+                                             : matches(Float.compare(f, v));
+                    if (match) selection[size++] = row;
+                }
+                break;
+            }
+            default:
+                for (int i = 0; i < batch.size(); ++i) {
+                    int row = batch.getRow(i);
+                    if (matches(column.get(row))) selection[size++] = row;
+                }
+                break;
+            }
+            return batch.select(selection, size);
+        }
+
+        /**
+         * @return the value to check `d`, a value of the selected column, against
+         * for equality. If the column holds a dictionary-encoded string, this is
+         * the value encoded with the same dictionary (if it is in the
+         * dictionary), so that the check only compares codes.
+         */
+        private DataBox valueFor(DataBox d) {
+            if (!(d instanceof EncodedStringDataBox)) return value;
+            StringDictionary dictionary = ((EncodedStringDataBox) d).getDictionary();
+            if (dictionary != this.dictionary) {
+                this.dictionary = dictionary;
+                this.encodedValue = dictionary.encode(value);
+            }
+            return this.encodedValue;
+        }
+    }
 
     /**
      * An implementation of Iterator that provides an iterator interface for this operator.
@@ -81,6 +254,7 @@ public class SelectOperator extends QueryOperator {
     private class SelectIterator implements Iterator<Record> {
         private Iterator<Record> sourceIterator;
         private Record nextRecord;
+        private Predicate predicate = new Predicate();
 
         private SelectIterator() {
             this.sourceIterator = SelectOperator.this.getSource().iterator();
@@ -99,51 +273,9 @@ public class SelectOperator extends QueryOperator {
             }
             while (this.sourceIterator.hasNext()) {
                 Record r = this.sourceIterator.next();
-                switch (SelectOperator.this.operator) {
-                case EQUALS:
-                    if (r.getValue(SelectOperator.this.columnIndex).equals(value)) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case NOT_EQUALS:
-                    if (!r.getValue(SelectOperator.this.columnIndex).equals(value)) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case LESS_THAN:
-                    if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) < 0) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case LESS_THAN_EQUALS:
-                    if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) < 0) {
-                        this.nextRecord = r;
-                        return true;
-                    } else if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case GREATER_THAN:
-                    if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) > 0) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case GREATER_THAN_EQUALS:
-                    if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) > 0) {
-                        this.nextRecord = r;
-                        return true;
-                    } else if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                default:
-                    break;
+                if (this.predicate.matches(r.getValue(SelectOperator.this.columnIndex))) {
+                    this.nextRecord = r;
+                    return true;
                 }
             }
             return false;
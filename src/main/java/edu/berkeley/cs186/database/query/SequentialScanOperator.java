@@ -3,14 +3,22 @@ package edu.berkeley.cs186.database.query;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 public class SequentialScanOperator extends QueryOperator {
     private TransactionContext transaction;
     private String tableName;
+    // Indices of the columns of the table to read, or null to read every column
+    private int[] columns;
+    // Predicates used to skip pages of the table using its zone map
+    private List<ZoneMap.Predicate> pagePredicates = Collections.emptyList();
 
     /**
      * Creates a new SequentialScanOperator that provides an iterator on all
@@ -27,6 +35,53 @@ public class SequentialScanOperator extends QueryOperator {
         this(OperatorType.SEQ_SCAN, transaction, tableName);
     }
 
+    /**
+     * Creates a new SequentialScanOperator that only reads the columns
+     * `columnNames` of each tuple in a table. The output schema consists of
+     * those columns, in the given order. Columns that are not needed are never
+     * decoded, which for wide tables (and especially tables in the PAX page
+     * format) saves most of the work of the scan.
+     *
+     * @param transaction
+     * @param tableName
+     * @param columnNames names of the columns to read, qualified or unqualified
+     */
+    public SequentialScanOperator(TransactionContext transaction,
+                                  String tableName, List<String> columnNames) {
+        this(transaction, tableName, columnNames, Collections.emptyList());
+    }
+
+    /**
+     * Creates a new SequentialScanOperator that only reads the columns
+     * `columnNames` (or every column, if null) of each tuple in a table, and
+     * skips pages whose zone map shows that they hold no tuple satisfying all
+     * of `pagePredicates`. Tuples on the remaining pages are returned whether
+     * or not they satisfy the predicates, so the predicates must still be
+     * applied by an operator above the scan.
+     *
+     * @param transaction
+     * @param tableName
+     * @param columnNames names of the columns to read, or null
+     * @param pagePredicates predicates on the columns of the table
+     */
+    public SequentialScanOperator(TransactionContext transaction, String tableName,
+                                  List<String> columnNames, List<ZoneMap.Predicate> pagePredicates) {
+        super(OperatorType.SEQ_SCAN);
+        this.transaction = transaction;
+        this.tableName = tableName;
+        this.pagePredicates = pagePredicates;
+        if (columnNames != null) {
+            Schema schema = this.transaction.getFullyQualifiedSchema(this.tableName);
+            this.columns = new int[columnNames.size()];
+            for (int i = 0; i < columns.length; i++) {
+                this.columns[i] = schema.findField(columnNames.get(i));
+            }
+        }
+        this.setOutputSchema(this.computeSchema());
+
+        this.stats = this.estimateStats();
+    }
+
     protected SequentialScanOperator(OperatorType type,
                                      TransactionContext transaction,
                                      String tableName) {
@@ -42,6 +97,14 @@ public class SequentialScanOperator extends QueryOperator {
         return this.tableName;
     }
 
+    /**
+     * @return indices of the columns of the table read by this scan, or null
+     * if every column is read
+     */
+    public int[] getColumns() {
+        return this.columns;
+    }
+
     @Override
     public boolean isSequentialScan() {
         return true;
@@ -57,27 +120,74 @@ public class SequentialScanOperator extends QueryOperator {
 
     @Override
     public BacktrackingIterator<Record> backtrackingIterator() {
-        return this.transaction.getRecordIterator(tableName);
+        if (this.pagePredicates.isEmpty()) {
+            if (this.columns == null) return this.transaction.getRecordIterator(tableName);
+            return this.transaction.getTable(tableName).iterator(this.columns);
+        }
+        return this.transaction.getTable(tableName).iterator(this.columns, this.pagePredicates);
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    public Iterator<RecordBatch> batchIterator() {
+        return this.transaction.getTable(tableName).batchIterator(this.columns, this.pagePredicates);
+    }
+
+    /**
+     * Scans of tables are parallelizable, but not those of the temporary
+     * tables of materialized operators.
+     */
+    @Override
+    public boolean isParallelizable() {
+        return this.getType() == OperatorType.SEQ_SCAN;
+    }
+
+    @Override
+    public Iterator<RecordBatch> morselIterator(List<Long> pageNums) {
+        return this.transaction.getTable(tableName).batchIterator(this.columns, this.pagePredicates, pageNums);
     }
 
     @Override
     public Schema computeSchema() {
-        return this.transaction.getFullyQualifiedSchema(this.tableName);
+        Schema schema = this.transaction.getFullyQualifiedSchema(this.tableName);
+        if (this.columns == null) return schema;
+        Schema projected = new Schema();
+        for (int column : this.columns) {
+            projected.add(schema.getFieldName(column), schema.getFieldType(column));
+        }
+        return projected;
     }
 
     @Override
     public String str() {
-        return "Seq Scan on " + this.tableName + " (cost=" + this.estimateIOCost() + ")";
+        String str = "Seq Scan on " + this.tableName + " (cost=" + this.estimateIOCost() + ")";
+        if (this.columns != null) {
+            str += "\n\tcolumns: (" + String.join(", ", this.getSchema().getFieldNames()) + ")";
+        }
+        if (!this.pagePredicates.isEmpty()) {
+            str += "\n\tzone map: " + this.pagePredicates;
+        }
+        return str;
     }
 
     @Override
     public TableStats estimateStats() {
-        return this.transaction.getStats(this.tableName);
+        TableStats stats = this.transaction.getStats(this.tableName);
+        if (this.columns == null) return stats;
+        return stats.copyWithProjection(this.columns);
     }
 
     @Override
     public int estimateIOCost() {
-        return this.transaction.getNumDataPages(this.tableName);
+        int numPages = this.transaction.getNumDataPages(this.tableName);
+        if (this.pagePredicates.isEmpty()) return numPages;
+        // pages that the zone map rules out are never read
+        ZoneMap zoneMap = this.transaction.getStats(this.tableName).getZoneMap();
+        return Math.max(numPages - zoneMap.countSkippablePages(this.pagePredicates), 0);
     }
 
 }
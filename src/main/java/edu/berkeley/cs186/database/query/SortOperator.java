@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.query;
 
+import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
@@ -9,8 +10,13 @@ import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 public class SortOperator extends QueryOperator {
+    // Fewest buffers a worker of a parallel sort may have: enough to merge
+    // two runs
+    private static final int MIN_WORKER_BUFFERS = 3;
+
     protected Comparator<Record> comparator;
     private TransactionContext transaction;
     private Run sortedRecords;
@@ -113,38 +119,33 @@ public class SortOperator extends QueryOperator {
         // TODO(proj3_part1): implement
         Run result = makeRun();
         PriorityQueue<Pair<Record, Integer>> pq = new PriorityQueue<>(new RecordPairComparator());
-        List<ArrayList<Record>> betterRuns = new ArrayList<>();
-        // Better for accessing since Run does not let you get a specific record
+        // Runs are read through their iterators, which hold a page of the run
+        // at a time, rather than loaded whole
+        List<Iterator<Record>> iterators = new ArrayList<>();
         for (Run run : runs) {
-            betterRuns.add(runToRecordList(run));
+            iterators.add(run.iterator());
         }
 
         // Add first entry of all Runs to priority queue
-        for (int i = 0; i < betterRuns.size(); i++) {
-            Pair<Record, Integer> temp = new Pair<>(betterRuns.get(i).remove(0), i);
-            pq.add(temp);
+        for (int i = 0; i < iterators.size(); i++) {
+            if (iterators.get(i).hasNext()) {
+                pq.add(new Pair<>(iterators.get(i).next(), i));
+            }
         }
 
         // Remove the smallest record from the PQ, then add another record from the same Run
         while (!pq.isEmpty()) {
             Pair<Record, Integer> temp = pq.remove();
             result.add(temp.getFirst());
-            if (betterRuns.get(temp.getSecond()).size() != 0) {
-                pq.add(new Pair<>(betterRuns.get(temp.getSecond()).remove(0), temp.getSecond()));
+            Iterator<Record> iterator = iterators.get(temp.getSecond());
+            if (iterator.hasNext()) {
+                pq.add(new Pair<>(iterator.next(), temp.getSecond()));
             }
         }
 
         return result;
     }
 
-    // Helper for mergeSortedRuns
-    public ArrayList<Record> runToRecordList(Run r) {
-        Iterator<Record> temp = r.iterator();
-        ArrayList<Record> result = new ArrayList<>();
-        temp.forEachRemaining(result::add);
-        return result;
-    }
-
     /**
      * Compares the two (record, integer) pairs based only on the record
      * component using the default comparator. You may find this useful for
@@ -200,6 +201,8 @@ public class SortOperator extends QueryOperator {
         if (!sourceIterator.hasNext()) {
             return makeRun();
         }
+        int numWorkers = Math.min(ParallelUtil.getParallelism(this.transaction), numBuffers / MIN_WORKER_BUFFERS);
+        if (numWorkers > 1) return parallelSort(sourceIterator, numWorkers);
 
         // TODO(proj3_part1): implement
         List<Run> sortedRuns = new ArrayList<>();
@@ -215,6 +218,60 @@ public class SortOperator extends QueryOperator {
         return sortedRuns.remove(0);
     }
 
+    /**
+     * Same as sort(), with the work split between `numWorkers` threads of the
+     * transaction's worker pool, which share the transaction's buffers: each
+     * worker gets numBuffers / numWorkers of them.
+     *
+     * In pass 0, this thread reads blocks of the source the size of a
+     * worker's buffers, and the workers sort them into runs. This thread
+     * waits for a worker to finish its run before reading the next block once
+     * all the workers are busy, so that at most numWorkers blocks are in
+     * memory at once. Each merge pass then merges groups of runs on the
+     * workers, with the fan-in allowed by a worker's buffers, until the runs
+     * are few enough for a last merge with all the buffers.
+     *
+     * @return a single run containing all of the records of
+     * `sourceIterator` in sorted order
+     */
+    private Run parallelSort(Iterator<Record> sourceIterator, int numWorkers) {
+        int workerBuffers = numBuffers / numWorkers;
+        Semaphore idleWorkers = new Semaphore(numWorkers);
+        ForkJoinPool pool = this.transaction.getWorkerPool();
+        List<Future<Run>> pass0 = new ArrayList<>();
+        try {
+            while (sourceIterator.hasNext()) {
+                idleWorkers.acquire();
+                Iterator<Record> block = getBlockIterator(sourceIterator, getSchema(), workerBuffers);
+                pass0.add(pool.submit(() -> {
+                    try {
+                        return sortRun(block);
+                    } finally {
+                        idleWorkers.release();
+                    }
+                }));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException(e);
+        }
+        List<Run> sortedRuns = new ArrayList<>();
+        for (Future<Run> run : pass0) {
+            sortedRuns.add(ParallelUtil.join(run));
+        }
+
+        while (sortedRuns.size() > numBuffers - 1) {
+            List<Callable<Run>> merges = new ArrayList<>();
+            for (int i = 0; i < sortedRuns.size(); i += workerBuffers - 1) {
+                List<Run> group = sortedRuns.subList(i, Math.min(i + workerBuffers - 1, sortedRuns.size()));
+                merges.add(() -> mergeSortedRuns(group));
+            }
+            sortedRuns = ParallelUtil.runAll(this.transaction, numWorkers, merges);
+        }
+        if (sortedRuns.size() == 1) return sortedRuns.get(0);
+        return mergeSortedRuns(sortedRuns);
+    }
+
     /**
      * @return a new empty run.
      */
@@ -0,0 +1,129 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.common.iterator.ArrayBacktrackingIterator;
+import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.table.PageDirectory;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+import java.util.*;
+
+/**
+ * Sorts the records of its source on a column and yields up to `limit` of
+ * them after skipping the first `offset`, as a SortOperator followed by a
+ * LimitOperator would. Only the first limit + offset records are needed, so
+ * instead of sorting every record into runs on disk, this operator keeps
+ * the smallest limit + offset records seen so far in a heap in memory, which
+ * takes a single pass over the source and no I/O of its own.
+ *
+ * Records with equal sort values are yielded in the order of the source.
+ */
+public class TopNOperator extends QueryOperator {
+    private TransactionContext transaction;
+    private int sortColumnIndex;
+    private String sortColumnName;
+    private int limit;
+    private int offset;
+    private List<Record> topRecords;
+
+    public TopNOperator(TransactionContext transaction, QueryOperator source,
+                        String columnName, int limit, int offset) {
+        super(OperatorType.SORT, source);
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("limit and offset must be non-negative");
+        }
+        this.transaction = transaction;
+        this.sortColumnIndex = getSchema().findField(columnName);
+        this.sortColumnName = getSchema().getFieldName(this.sortColumnIndex);
+        this.limit = limit;
+        this.offset = offset;
+        this.stats = this.estimateStats();
+    }
+
+    /**
+     * @return true if the limit + offset records of a TopNOperator with
+     * `limit` and `offset` over records of schema `schema` fit in the work
+     * memory of `transaction`
+     */
+    public static boolean fits(TransactionContext transaction, Schema schema, int limit, int offset) {
+        int recordsPerPage = Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE, schema);
+        return (long) limit + offset <= (long) recordsPerPage * transaction.getWorkMemSize();
+    }
+
+    @Override
+    protected Schema computeSchema() {
+        return getSource().getSchema();
+    }
+
+    @Override
+    public TableStats estimateStats() {
+        return getSource().estimateStats();
+    }
+
+    @Override
+    public int estimateIOCost() {
+        return getSource().estimateIOCost();
+    }
+
+    @Override
+    public String str() {
+        return "Top-N (column=" + this.sortColumnName + ", limit=" + this.limit +
+                ", offset=" + this.offset +
+                ") (cost=" + this.estimateIOCost() + ")";
+    }
+
+    @Override
+    public List<String> sortedBy() {
+        return Collections.singletonList(this.sortColumnName);
+    }
+
+    @Override
+    public boolean materialized() { return true; }
+
+    @Override
+    public BacktrackingIterator<Record> backtrackingIterator() {
+        if (this.topRecords == null) this.topRecords = this.topN(getSource().iterator());
+        return new ArrayBacktrackingIterator<>(this.topRecords);
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return this.backtrackingIterator();
+    }
+
+    /**
+     * Returns the records of `records` that a sort followed by a limit would
+     * yield, in order. The heap holds pairs of a record and its position in
+     * `records`, largest first, so that the root is the record to evict when
+     * a smaller one comes along.
+     */
+    private List<Record> topN(Iterator<Record> records) {
+        int n = this.limit + this.offset;
+        if (this.limit == 0) return Collections.emptyList();
+        Comparator<Pair<Record, Integer>> comparator = (p1, p2) -> {
+            int c = p1.getFirst().getValue(sortColumnIndex).compareTo(
+                    p2.getFirst().getValue(sortColumnIndex));
+            return c != 0 ? c : Integer.compare(p1.getSecond(), p2.getSecond());
+        };
+        PriorityQueue<Pair<Record, Integer>> heap = new PriorityQueue<>(
+                Math.min(n, 1024), comparator.reversed());
+        int position = 0;
+        while (records.hasNext()) {
+            Pair<Record, Integer> pair = new Pair<>(records.next(), position++);
+            if (heap.size() < n) {
+                heap.add(pair);
+            } else if (comparator.compare(pair, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(pair);
+            }
+        }
+        List<Record> result = new ArrayList<>(heap.size());
+        while (heap.size() > this.offset) result.add(heap.poll().getFirst());
+        Collections.reverse(result);
+        return result;
+    }
+}
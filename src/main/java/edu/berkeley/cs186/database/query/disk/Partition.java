@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.query.disk;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.query.SequentialScanOperator;
 import edu.berkeley.cs186.database.table.Record;
@@ -14,7 +15,7 @@ import java.util.List;
  * aren't using and free up memory. Automatically buffers reads and writes to
  * minimize I/Os incurred.
  */
-public class Partition implements Iterable<Record> {
+public class Partition implements BacktrackingIterable<Record> {
     // The transaction this partition will be used within
     private TransactionContext transaction;
     // Under the hood we'll be storing all the records in a temporary table
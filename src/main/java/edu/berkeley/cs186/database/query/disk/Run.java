@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.query.disk;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.EmptyBacktrackingIterator;
 import edu.berkeley.cs186.database.table.Record;
@@ -14,7 +15,7 @@ import java.util.List;
  * aren't using them and free up memory. Automatically buffers reads and writes
  * to minimize I/Os incurred.
  */
-public class Run implements Iterable<Record> {
+public class Run implements BacktrackingIterable<Record> {
     // The transaction this run will be used within
     private TransactionContext transaction;
     // Under the hood we'll be storing all the records in a temporary table
@@ -1,13 +1,36 @@
 package edu.berkeley.cs186.database.query.expr;
 
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.ColumnVector;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
 import edu.berkeley.cs186.database.table.Schema;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
-
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Aggregates can aggregate many groups of records at once (see
+ * Expression#selectGroup). The state of each group is kept in a slot of
+ * arrays of primitives, one array per field of the state (e.g. the sums and
+ * the counts of an AVG), so that updating a group with a record of a
+ * primitive type allocates nothing, and the state of many groups takes a
+ * few bytes each. update, evaluate and reset apply to the group of the
+ * current slot.
+ */
 abstract class AggregateFunction extends Expression {
     protected Type inputType;
+    // The argument of the aggregate, compiled (see CompiledExpression)
+    protected CompiledExpression input;
+    // The slot of the group that update, evaluate and reset apply to
+    protected int slot = 0;
+    // The number of groups the state arrays hold
+    private int numSlots = 1;
 
     AggregateFunction(Expression... children) {
         super(children);
@@ -25,6 +48,55 @@ abstract class AggregateFunction extends Expression {
         super.setSchema(s);
         this.inputType = this.children.get(0).getType();
         checkSchema();
+        this.input = this.children.get(0).compile();
+        this.slot = 0;
+        this.numSlots = 1;
+        this.resize(1);
+        this.reset();
+    }
+
+    @Override
+    public void selectGroup(int slot) {
+        if (slot >= this.numSlots) {
+            this.numSlots = Math.max(slot + 1, 2 * this.numSlots);
+            this.resize(this.numSlots);
+        }
+        this.slot = slot;
+    }
+
+    @Override
+    public void resetGroups() {
+        this.slot = 0;
+        this.numSlots = 1;
+        this.resize(1);
+        this.reset();
+    }
+
+    /**
+     * Resizes the state arrays of this aggregate to hold the state of
+     * `numSlots` groups. The state of groups in new slots is zero, false or
+     * null, as after reset(). Called once the input type is known.
+     */
+    protected abstract void resize(int numSlots);
+
+    static long[] resized(long[] state, int numSlots) {
+        return state == null ? new long[numSlots] : Arrays.copyOf(state, numSlots);
+    }
+
+    static float[] resized(float[] state, int numSlots) {
+        return state == null ? new float[numSlots] : Arrays.copyOf(state, numSlots);
+    }
+
+    static double[] resized(double[] state, int numSlots) {
+        return state == null ? new double[numSlots] : Arrays.copyOf(state, numSlots);
+    }
+
+    static boolean[] resized(boolean[] state, int numSlots) {
+        return state == null ? new boolean[numSlots] : Arrays.copyOf(state, numSlots);
+    }
+
+    static DataBox[] resized(DataBox[] state, int numSlots) {
+        return state == null ? new DataBox[numSlots] : Arrays.copyOf(state, numSlots);
     }
 
     @Override
@@ -36,6 +108,27 @@ abstract class AggregateFunction extends Expression {
         // Do nothing by default
     };
 
+    /**
+     * @return the row of the first record of `batch` whose value in `values`
+     * is better than those of all the records before it, where `better`
+     * decides from the result of compareTo whether a value is better than
+     * another (as for MIN and MAX)
+     */
+    static int extremeRow(ColumnVector values, RecordBatch batch, IntPredicate better) {
+        int best = batch.getRow(0);
+        TypeId type = values.isPrimitive() ? values.getType().getTypeId() : null;
+        for (int i = 1; i < batch.size(); i++) {
+            int row = batch.getRow(i);
+            int cmp;
+            if (type == TypeId.INT) cmp = Integer.compare(values.getInt(row), values.getInt(best));
+            else if (type == TypeId.LONG) cmp = Long.compare(values.getLong(row), values.getLong(best));
+            else if (type == TypeId.FLOAT) cmp = Float.compare(values.getFloat(row), values.getFloat(best));
+            else cmp = values.get(row).compareTo(values.get(best));
+            if (better.test(cmp)) best = row;
+        }
+        return best;
+    }
+
     @Override
     protected String subclassString() {
         StringBuilder s = new StringBuilder(this.getName());
@@ -49,9 +142,77 @@ abstract class AggregateFunction extends Expression {
     }
 
     public abstract void update(Record record);
+
+    /**
+     * Updates the aggregate with each record of `batch` in turn. Aggregates
+     * that can consume a column of values at a time override this.
+     */
+    @Override
+    public void update(RecordBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            update(batch.getRecord(batch.getRow(i)));
+        }
+    }
+
     public abstract void reset();
     public abstract String getName();
 
+    /**
+     * Aggregates are not mergeable unless they override merge.
+     */
+    @Override
+    public boolean isMergeable() {
+        return false;
+    }
+
+    @Override
+    public void merge(Expression other) {
+        throw new UnsupportedOperationException(getName() + " aggregates can't be merged.");
+    }
+
+    /**
+     * Aggregates can't be split into partial aggregates unless they override
+     * partialAggregates and combine.
+     */
+    @Override
+    boolean isDecomposable() {
+        return false;
+    }
+
+    /**
+     * @return the partial aggregates to compute over groups of records, from
+     * which combine() computes this aggregate
+     */
+    List<Expression> partialAggregates() {
+        throw new UnsupportedOperationException(getName() + " aggregates can't be split.");
+    }
+
+    /**
+     * @param partials the columns holding the values of the partial
+     *                 aggregates of this aggregate, one record per group
+     * @return an expression computing this aggregate from `partials`
+     */
+    Expression combine(List<Expression> partials) {
+        throw new UnsupportedOperationException(getName() + " aggregates can't be split.");
+    }
+
+    @Override
+    Expression replaceAggregates(List<Expression> partials, IntFunction<String> partialColumn) {
+        List<Expression> columns = new ArrayList<>();
+        for (Expression partial : this.partialAggregates()) {
+            columns.add(new Column(partialColumn.apply(partials.size())));
+            partials.add(partial);
+        }
+        return this.combine(columns);
+    }
+
+    /**
+     * @return a fresh copy of the argument of this aggregate
+     */
+    Expression copyArgument() {
+        return Expression.fromString(this.children.get(0).toString());
+    }
+
     /**
      * A SUM aggregate keeps a cumulative sum of the values it has seen so far
      * and returns that sum as a result. Undefined for non-numeric data types.
@@ -60,9 +221,10 @@ abstract class AggregateFunction extends Expression {
      * FLOAT the result type will be FLOAT.
     */
     static class SumAggregateFunction extends AggregateFunction {
-        private float floatSum = 0;
-        private int intSum = 0;
-        private long longSum = 0;
+        // The sum of each group: of BOOL, INT and LONG values in longSums, of
+        // FLOAT values in floatSums
+        private long[] longSums;
+        private float[] floatSums;
 
         public SumAggregateFunction(Expression... children) {
             super(children);
@@ -81,25 +243,55 @@ abstract class AggregateFunction extends Expression {
             }
         }
 
+        @Override
+        protected void resize(int numSlots) {
+            if (this.inputType.getTypeId() == TypeId.FLOAT) {
+                this.floatSums = resized(this.floatSums, numSlots);
+            } else {
+                this.longSums = resized(this.longSums, numSlots);
+            }
+        }
+
         @Override
         public void update(Record record) {
-            DataBox d = this.children.get(0).evaluate(record);
-            switch (d.getTypeId()) {
+            switch (this.inputType.getTypeId()) {
                 case BOOL:
-                    boolean b = d.getBool();
-                    if (b) intSum++;
+                    if (this.input.evaluateBool(record)) longSums[slot]++;
                     return;
                 case INT:
-                    int i = d.getInt();
-                    intSum += i;
+                    longSums[slot] += this.input.evaluateInt(record);
                     return;
                 case LONG:
-                    long l = d.getLong();
-                    longSum += l;
+                    longSums[slot] += this.input.evaluateLong(record);
                     return;
                 case FLOAT:
-                    float f = d.getFloat();
-                    floatSum += f;
+                    floatSums[slot] += this.input.evaluateFloat(record);
+                    return;
+            }
+            throw new IllegalStateException("Unreachable code.");
+        }
+
+        @Override
+        public void update(RecordBatch batch) {
+            ColumnVector values = this.children.get(0).evaluate(batch);
+            switch (this.inputType.getTypeId()) {
+                case BOOL:
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (toBool(values, batch.getRow(i))) longSums[slot]++;
+                    }
+                    return;
+                case INT:
+                case LONG:
+                    long longSum = 0;
+                    for (int i = 0; i < batch.size(); i++) {
+                        longSum += toLong(values, batch.getRow(i));
+                    }
+                    longSums[slot] += longSum;
+                    return;
+                case FLOAT:
+                    for (int i = 0; i < batch.size(); i++) {
+                        floatSums[slot] += toFloat(values, batch.getRow(i));
+                    }
                     return;
             }
             throw new IllegalStateException("Unreachable code.");
@@ -108,9 +300,9 @@ abstract class AggregateFunction extends Expression {
         @Override
         public DataBox evaluate(Record record) {
             switch (getType().getTypeId()) {
-                case INT: return new IntDataBox(intSum);
-                case LONG: return new LongDataBox(longSum);
-                case FLOAT: return new FloatDataBox(floatSum);
+                case INT: return new IntDataBox((int) longSums[slot]);
+                case LONG: return new LongDataBox(longSums[slot]);
+                case FLOAT: return new FloatDataBox(floatSums[slot]);
             }
             throw new IllegalStateException("Unreachable code.");
         }
@@ -131,9 +323,35 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public void reset() {
-            this.floatSum = 0;
-            this.longSum = 0;
-            this.intSum = 0;
+            if (this.floatSums != null) this.floatSums[slot] = 0;
+            if (this.longSums != null) this.longSums[slot] = 0;
+        }
+
+        @Override
+        public boolean isMergeable() {
+            return true;
+        }
+
+        @Override
+        public void merge(Expression other) {
+            SumAggregateFunction sum = (SumAggregateFunction) other;
+            if (this.floatSums != null) this.floatSums[slot] += sum.floatSums[sum.slot];
+            if (this.longSums != null) this.longSums[slot] += sum.longSums[sum.slot];
+        }
+
+        @Override
+        boolean isDecomposable() {
+            return true;
+        }
+
+        @Override
+        List<Expression> partialAggregates() {
+            return Collections.singletonList(new SumAggregateFunction(copyArgument()));
+        }
+
+        @Override
+        Expression combine(List<Expression> partials) {
+            return new SumAggregateFunction(partials.get(0));
         }
 
         @Override
@@ -143,26 +361,100 @@ abstract class AggregateFunction extends Expression {
     }
 
     /**
-     * A MIN aggregate keeps track of the smallest value it has seen and return that
-     * value as a result. Works for all data types and always returns the same data
-     * type as the column being aggregated.
+     * The base of MIN and MAX aggregates, which keep track of the value they
+     * have seen that is better than all the others.
      */
-    static class MinAggregateFunction extends AggregateFunction {
-        private DataBox min;
-
-        public MinAggregateFunction(Expression... children) {
+    abstract static class ExtremeAggregateFunction extends AggregateFunction {
+        // The best value of each group: BOOL, INT and LONG values in longs,
+        // FLOAT values in doubles, and values of other types in boxes. seen
+        // marks the groups that have a value.
+        private long[] longs;
+        private double[] doubles;
+        private DataBox[] boxes;
+        private boolean[] seen;
+
+        ExtremeAggregateFunction(Expression... children) {
             super(children);
         }
 
+        /**
+         * @return true if a value that compares to the best value so far as
+         * `cmp` (as returned by compareTo) is better than it
+         */
+        abstract boolean isBetter(int cmp);
+
+        @Override
+        protected void resize(int numSlots) {
+            this.seen = resized(this.seen, numSlots);
+            switch (this.inputType.getTypeId()) {
+                case BOOL:
+                case INT:
+                case LONG:
+                    this.longs = resized(this.longs, numSlots);
+                    return;
+                case FLOAT:
+                    this.doubles = resized(this.doubles, numSlots);
+                    return;
+            }
+            this.boxes = resized(this.boxes, numSlots);
+        }
+
+        private void add(long value) {
+            if (!seen[slot] || isBetter(Long.compare(value, longs[slot]))) {
+                longs[slot] = value;
+                seen[slot] = true;
+            }
+        }
+
+        private void add(double value) {
+            if (!seen[slot] || isBetter(Double.compare(value, doubles[slot]))) {
+                doubles[slot] = value;
+                seen[slot] = true;
+            }
+        }
+
+        private void add(DataBox value) {
+            if (!seen[slot] || isBetter(value.compareTo(boxes[slot]))) {
+                boxes[slot] = value;
+                seen[slot] = true;
+            }
+        }
+
         @Override
         public void update(Record record) {
-            DataBox d = children.get(0).evaluate(record);
-            if (min == null || d.compareTo(min) < 0) min = d;
+            switch (this.inputType.getTypeId()) {
+                case BOOL: add(this.input.evaluateBool(record) ? 1 : 0); return;
+                case INT: add(this.input.evaluateInt(record)); return;
+                case LONG: add(this.input.evaluateLong(record)); return;
+                case FLOAT: add(this.input.evaluateFloat(record)); return;
+            }
+            add(this.input.evaluate(record));
+        }
+
+        @Override
+        public void update(RecordBatch batch) {
+            if (batch.size() == 0) return;
+            ColumnVector values = children.get(0).evaluate(batch);
+            int best = extremeRow(values, batch, this::isBetter);
+            switch (this.inputType.getTypeId()) {
+                case BOOL: add(toBool(values, best) ? 1 : 0); return;
+                case INT:
+                case LONG: add(toLong(values, best)); return;
+                case FLOAT: add(toFloat(values, best)); return;
+            }
+            add(values.get(best));
         }
 
         @Override
         public DataBox evaluate(Record record) {
-            return min;
+            if (!seen[slot]) return null;
+            switch (this.inputType.getTypeId()) {
+                case BOOL: return new BoolDataBox(longs[slot] != 0);
+                case INT: return new IntDataBox((int) longs[slot]);
+                case LONG: return new LongDataBox(longs[slot]);
+                case FLOAT: return new FloatDataBox((float) doubles[slot]);
+            }
+            return boxes[slot];
         }
 
         @Override
@@ -172,7 +464,61 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public void reset() {
-            this.min = null;
+            this.seen[slot] = false;
+            if (this.boxes != null) this.boxes[slot] = null;
+        }
+
+        @Override
+        public boolean isMergeable() {
+            return true;
+        }
+
+        @Override
+        public void merge(Expression other) {
+            ExtremeAggregateFunction extreme = (ExtremeAggregateFunction) other;
+            if (!extreme.seen[extreme.slot]) return;
+            switch (this.inputType.getTypeId()) {
+                case BOOL:
+                case INT:
+                case LONG:
+                    add(extreme.longs[extreme.slot]);
+                    return;
+                case FLOAT:
+                    add(extreme.doubles[extreme.slot]);
+                    return;
+            }
+            add(extreme.boxes[extreme.slot]);
+        }
+
+        @Override
+        boolean isDecomposable() {
+            return true;
+        }
+    }
+
+    /**
+     * A MIN aggregate keeps track of the smallest value it has seen and return that
+     * value as a result. Works for all data types and always returns the same data
+     * type as the column being aggregated.
+     */
+    static class MinAggregateFunction extends ExtremeAggregateFunction {
+        public MinAggregateFunction(Expression... children) {
+            super(children);
+        }
+
+        @Override
+        boolean isBetter(int cmp) {
+            return cmp < 0;
+        }
+
+        @Override
+        List<Expression> partialAggregates() {
+            return Collections.singletonList(new MinAggregateFunction(copyArgument()));
+        }
+
+        @Override
+        Expression combine(List<Expression> partials) {
+            return new MinAggregateFunction(partials.get(0));
         }
 
         @Override
@@ -187,32 +533,24 @@ abstract class AggregateFunction extends Expression {
      * value as a result. Works for all data types and always returns the same data
      * type as the column being aggregated.
      */
-    static class MaxAggregateFunction extends AggregateFunction {
-        private DataBox max;
-
+    static class MaxAggregateFunction extends ExtremeAggregateFunction {
         public MaxAggregateFunction(Expression... children) {
             super(children);
         }
 
         @Override
-        public void update(Record record) {
-            DataBox d = children.get(0).evaluate(record);
-            if (max == null || d.compareTo(max) > 0) max = d;
+        boolean isBetter(int cmp) {
+            return cmp > 0;
         }
 
         @Override
-        public DataBox evaluate(Record r) {
-            return max;
+        List<Expression> partialAggregates() {
+            return Collections.singletonList(new MaxAggregateFunction(copyArgument()));
         }
 
         @Override
-        public Type getType() {
-            return this.inputType;
-        }
-
-        @Override
-        public void reset() {
-            this.max = null;
+        Expression combine(List<Expression> partials) {
+            return new MaxAggregateFunction(partials.get(0));
         }
 
         @Override
@@ -250,12 +588,37 @@ abstract class AggregateFunction extends Expression {
             }
         }
 
+        @Override
+        protected void resize(int numSlots) {
+            // the state is in maxAgg and minAgg
+        }
+
+        @Override
+        public void selectGroup(int slot) {
+            super.selectGroup(slot);
+            this.maxAgg.selectGroup(slot);
+            this.minAgg.selectGroup(slot);
+        }
+
+        @Override
+        public void resetGroups() {
+            super.resetGroups();
+            this.maxAgg.resetGroups();
+            this.minAgg.resetGroups();
+        }
+
         @Override
         public void update(Record record) {
             this.maxAgg.update(record);
             this.minAgg.update(record);
         }
 
+        @Override
+        public void update(RecordBatch batch) {
+            this.maxAgg.update(batch);
+            this.minAgg.update(batch);
+        }
+
         @Override
         public Type getType() {
             return this.maxAgg.getType();
@@ -277,10 +640,23 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public void reset() {
+            if (maxAgg.inputType == null) return; // no schema yet
             maxAgg.reset();
             minAgg.reset();
         }
 
+        @Override
+        public boolean isMergeable() {
+            return true;
+        }
+
+        @Override
+        public void merge(Expression other) {
+            RangeAggregateFunction range = (RangeAggregateFunction) other;
+            this.maxAgg.merge(range.maxAgg);
+            this.minAgg.merge(range.minAgg);
+        }
+
         @Override
         public String getName() {
             return "RANGE";
@@ -294,21 +670,25 @@ abstract class AggregateFunction extends Expression {
      * as the column being aggregated on.
      */
     static class FirstAggregateFunction extends AggregateFunction {
-        DataBox first;
+        DataBox[] firsts;
 
         public FirstAggregateFunction(Expression... children) {
             super(children);
         }
 
+        @Override
+        protected void resize(int numSlots) {
+            this.firsts = resized(this.firsts, numSlots);
+        }
+
         @Override
         public void update(Record record) {
-            DataBox value = this.children.get(0).evaluate(record);
-            if (this.first == null) this.first = value;
+            if (this.firsts[slot] == null) this.firsts[slot] = this.input.evaluate(record);
         }
 
         @Override
         public DataBox evaluate(Record r) {
-            return this.first;
+            return this.firsts[slot];
         }
 
         @Override
@@ -318,7 +698,7 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public void reset() {
-            this.first = null;
+            this.firsts[slot] = null;
         }
 
         @Override
@@ -334,21 +714,25 @@ abstract class AggregateFunction extends Expression {
      * as the column being aggregated on.
      */
     static class LastAggregateFunction extends AggregateFunction {
-        DataBox last;
+        DataBox[] lasts;
 
         public LastAggregateFunction(Expression... children) {
             super(children);
         }
 
+        @Override
+        protected void resize(int numSlots) {
+            this.lasts = resized(this.lasts, numSlots);
+        }
+
         @Override
         public void update(Record r) {
-            DataBox value = this.children.get(0).evaluate(r);
-            this.last = value;
+            this.lasts[slot] = this.input.evaluate(r);
         }
 
         @Override
         public DataBox evaluate(Record r) {
-            return this.last;
+            return this.lasts[slot];
         }
 
         @Override
@@ -358,7 +742,7 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public void reset() {
-            this.last = null;
+            this.lasts[slot] = null;
         }
 
         @Override
@@ -373,21 +757,31 @@ abstract class AggregateFunction extends Expression {
      * as a result. Works for all data types and always returns an INT type result.
      */
     static class CountAggregateFunction extends AggregateFunction {
-        private int count = 0;
+        private long[] counts;
 
         public CountAggregateFunction(Expression... children) {
             super(new Literal(new StringDataBox("*")));
             // Do nothing
         }
 
+        @Override
+        protected void resize(int numSlots) {
+            this.counts = resized(this.counts, numSlots);
+        }
+
         @Override
         public void update(Record r) {
-            count++;
+            counts[slot]++;
+        }
+
+        @Override
+        public void update(RecordBatch batch) {
+            counts[slot] += batch.size();
         }
 
         @Override
         public DataBox evaluate(Record r) {
-            return new IntDataBox(count);
+            return new IntDataBox((int) counts[slot]);
         }
 
         @Override
@@ -397,7 +791,36 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public void reset() {
-            this.count = 0;
+            this.counts[slot] = 0;
+        }
+
+        @Override
+        public boolean isMergeable() {
+            return true;
+        }
+
+        @Override
+        public void merge(Expression other) {
+            CountAggregateFunction count = (CountAggregateFunction) other;
+            this.counts[slot] += count.counts[count.slot];
+        }
+
+        @Override
+        boolean isDecomposable() {
+            return true;
+        }
+
+        @Override
+        List<Expression> partialAggregates() {
+            return Collections.singletonList(new CountAggregateFunction());
+        }
+
+        /**
+         * The count is the sum of the counts of the groups.
+         */
+        @Override
+        Expression combine(List<Expression> partials) {
+            return new SumAggregateFunction(partials.get(0));
         }
 
         @Override
@@ -413,8 +836,8 @@ abstract class AggregateFunction extends Expression {
      * data type as the column being aggregated.
      */
     static class RandomAggregateFunction extends AggregateFunction {
-        private int count = 0;
-        private DataBox value;
+        private long[] counts;
+        private DataBox[] values;
         private Random generator;
 
         public RandomAggregateFunction(Expression... children) {
@@ -422,18 +845,24 @@ abstract class AggregateFunction extends Expression {
             this.generator = new Random();
         }
 
+        @Override
+        protected void resize(int numSlots) {
+            this.counts = resized(this.counts, numSlots);
+            this.values = resized(this.values, numSlots);
+        }
+
         @Override
         public void update(Record record) {
-            DataBox value = this.children.get(0).evaluate(record);
-            count += 1;
-            if (generator.nextDouble() <= 1.0 / count) {
-                this.value = value;
+            DataBox value = this.input.evaluate(record);
+            counts[slot] += 1;
+            if (generator.nextDouble() <= 1.0 / counts[slot]) {
+                this.values[slot] = value;
             }
         }
 
         @Override
         public DataBox evaluate(Record r) {
-            return this.value;
+            return this.values[slot];
         }
 
         @Override
@@ -443,8 +872,8 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public void reset() {
-            this.value = null;
-            this.count = 0;
+            this.values[slot] = null;
+            this.counts[slot] = 0;
         }
 
         @Override
@@ -460,7 +889,7 @@ abstract class AggregateFunction extends Expression {
      */
     static class AverageAggregateFunction extends AggregateFunction {
         private SumAggregateFunction sumAgg;
-        float count = 0;
+        private long[] counts;
 
         public AverageAggregateFunction(Expression... children) {
             super(children);
@@ -480,15 +909,40 @@ abstract class AggregateFunction extends Expression {
             }
         }
 
+        @Override
+        protected void resize(int numSlots) {
+            // the sums are in sumAgg
+            this.counts = resized(this.counts, numSlots);
+        }
+
+        @Override
+        public void selectGroup(int slot) {
+            super.selectGroup(slot);
+            this.sumAgg.selectGroup(slot);
+        }
+
+        @Override
+        public void resetGroups() {
+            super.resetGroups();
+            this.sumAgg.resetGroups();
+        }
+
         @Override
         public void update(Record record) {
             this.sumAgg.update(record);
-            count++;
+            counts[slot]++;
+        }
+
+        @Override
+        public void update(RecordBatch batch) {
+            this.sumAgg.update(batch);
+            counts[slot] += batch.size();
         }
 
         @Override
         public DataBox evaluate(Record record) {
             DataBox sum = this.sumAgg.evaluate(record);
+            float count = counts[slot];
             if (count == 0) return new FloatDataBox(Float.NEGATIVE_INFINITY);
             switch (sum.getTypeId()) {
                 case INT: return new FloatDataBox(sum.getInt() / count);
@@ -505,8 +959,44 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public void reset() {
-            this.count = 0;
-            sumAgg.reset();
+            this.counts[slot] = 0;
+            if (sumAgg.inputType != null) sumAgg.reset();
+        }
+
+        @Override
+        public boolean isMergeable() {
+            return true;
+        }
+
+        @Override
+        public void merge(Expression other) {
+            AverageAggregateFunction avg = (AverageAggregateFunction) other;
+            this.sumAgg.merge(avg.sumAgg);
+            this.counts[slot] += avg.counts[avg.slot];
+        }
+
+        @Override
+        boolean isDecomposable() {
+            return true;
+        }
+
+        @Override
+        List<Expression> partialAggregates() {
+            return Arrays.asList(new SumAggregateFunction(copyArgument()), new CountAggregateFunction());
+        }
+
+        /**
+         * The average is the sum of the sums of the groups over the sum of
+         * their counts, divided as floats.
+         */
+        @Override
+        Expression combine(List<Expression> partials) {
+            Expression average = Expression.multiplicative(Arrays.asList('*', '/'),
+                    new SumAggregateFunction(partials.get(0)),
+                    Expression.literal(new FloatDataBox(1.0f)),
+                    new SumAggregateFunction(partials.get(1)));
+            average.needsParentheses = true;
+            return average;
         }
 
         @Override
@@ -526,14 +1016,21 @@ abstract class AggregateFunction extends Expression {
      * variance.
      */
     static class VarianceAggregateFunction extends AggregateFunction {
-        double M = 0.0;
-        double S = 0.0;
-        int k = 0;
+        double[] M;
+        double[] S;
+        long[] k;
 
         public VarianceAggregateFunction(Expression... children) {
             super(children);
         }
 
+        @Override
+        protected void resize(int numSlots) {
+            this.M = resized(this.M, numSlots);
+            this.S = resized(this.S, numSlots);
+            this.k = resized(this.k, numSlots);
+        }
+
         @Override
         public void checkSchema() {
             if (inputType.getTypeId() == TypeId.STRING || inputType.getTypeId() == TypeId.BYTE_ARRAY || inputType.getTypeId() == TypeId.DATE) {
@@ -543,36 +1040,40 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public void update(Record record) {
-            DataBox d = this.children.get(0).evaluate(record);
-            k++;
             float x = 0;
-            switch (d.getTypeId()) {
-                case BOOL:
-                    x = d.getBool() ? 1 : 0;
-                    break;
-                case INT:
-                    x = d.getInt();
-                    break;
-                case LONG:
-                    x = d.getLong();
-                    break;
-                case FLOAT:
-                    x = d.getFloat();
-                    break;
-                case STRING:
-                    throw new IllegalArgumentException("Can't compute variance of a String");
-                case DATE:
-                    throw new IllegalArgumentException("Can't compute variance of a Date");
+            if (this.input.isPrimitive()) {
+                x = this.input.evaluateFloat(record);
+            } else {
+                DataBox d = this.input.evaluate(record);
+                switch (d.getTypeId()) {
+                    case BOOL:
+                        x = d.getBool() ? 1 : 0;
+                        break;
+                    case INT:
+                        x = d.getInt();
+                        break;
+                    case LONG:
+                        x = d.getLong();
+                        break;
+                    case FLOAT:
+                        x = d.getFloat();
+                        break;
+                    case STRING:
+                        throw new IllegalArgumentException("Can't compute variance of a String");
+                    case DATE:
+                        throw new IllegalArgumentException("Can't compute variance of a Date");
+                }
             }
-            double delta = x - M;
-            M += delta / k;
-            S += delta * (x - M);
+            k[slot]++;
+            double delta = x - M[slot];
+            M[slot] += delta / k[slot];
+            S[slot] += delta * (x - M[slot]);
         }
 
         @Override
         public DataBox evaluate(Record record) {
-            if (k <= 1) return new FloatDataBox(0);
-            Double result = M / (k - 1);
+            if (k[slot] <= 1) return new FloatDataBox(0);
+            Double result = S[slot] / (k[slot] - 1);
             return new FloatDataBox(result.floatValue());
         }
 
@@ -583,9 +1084,9 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public void reset() {
-            this.M = 0.0;
-            this.S = 0.0;
-            this.k = 0;
+            this.M[slot] = 0.0;
+            this.S[slot] = 0.0;
+            this.k[slot] = 0;
         }
 
         @Override
@@ -621,11 +1122,33 @@ abstract class AggregateFunction extends Expression {
             }
         }
 
+        @Override
+        protected void resize(int numSlots) {
+            // the state is in varAgg
+        }
+
+        @Override
+        public void selectGroup(int slot) {
+            super.selectGroup(slot);
+            this.varAgg.selectGroup(slot);
+        }
+
+        @Override
+        public void resetGroups() {
+            super.resetGroups();
+            this.varAgg.resetGroups();
+        }
+
         @Override
         public void update(Record record) {
             this.varAgg.update(record);
         }
 
+        @Override
+        public void update(RecordBatch batch) {
+            this.varAgg.update(batch);
+        }
+
         @Override
         public DataBox evaluate(Record record) {
             Double result = Math.sqrt(varAgg.evaluate(record).getFloat());
@@ -639,7 +1162,7 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public void reset() {
-            varAgg.reset();
+            if (varAgg.inputType != null) varAgg.reset();
         }
 
         @Override
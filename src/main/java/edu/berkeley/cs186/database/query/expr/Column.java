@@ -2,7 +2,9 @@ package edu.berkeley.cs186.database.query.expr;
 
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.ColumnVector;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
 import edu.berkeley.cs186.database.table.Schema;
 
 class Column extends Expression {
@@ -21,6 +23,13 @@ class Column extends Expression {
         this.col = schema.findField(this.columnName);
     }
 
+    /**
+     * @return index of the column in the schema of this expression
+     */
+    int getIndex() {
+        return this.col;
+    }
+
     @Override
     public Type getType() {
         return schema.getFieldType(this.col);
@@ -31,6 +40,22 @@ class Column extends Expression {
         return record.getValue(this.col);
     }
 
+    @Override
+    public ColumnVector evaluate(RecordBatch batch) {
+        return batch.getColumn(this.col);
+    }
+
+    @Override
+    boolean isShareable() {
+        // Reading a column is as cheap as reading a shared value
+        return false;
+    }
+
+    @Override
+    String sharingKey() {
+        return "Column(" + this.columnName + ")";
+    }
+
     @Override
     protected OperationPriority priority() {
         return OperationPriority.ATOMIC;
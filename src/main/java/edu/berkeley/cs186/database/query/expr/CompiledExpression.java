@@ -0,0 +1,503 @@
+package edu.berkeley.cs186.database.query.expr;
+
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.Record;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * An expression compiled into a tree of closures over the column indices of
+ * its input records (see Expression#compile). Expression#evaluate boxes the
+ * value of every subexpression in a new DataBox; a compiled expression
+ * evaluates subexpressions of type INT, LONG, FLOAT and BOOL to primitive
+ * values instead. For example, `price * (1 - discount) * (1 + tax)` on FLOAT
+ * columns allocates nothing when read with evaluateFloat, and a single
+ * FloatDataBox when read with evaluate.
+ *
+ * Subexpressions that do not depend on the input record, like `1 + 2` or
+ * `UPPER('a')`, are evaluated once when the expression is compiled.
+ * Subexpressions with no specialized closure (functions like UPPER whose
+ * arguments depend on the record, and aggregates) are compiled into a call of
+ * their evaluate method, and their values are converted as Expression does
+ * (see Expression#toInt and friends).
+ *
+ * A subexpression shared by several expressions (see
+ * Expression#shareSubexpressions) is compiled once, into a closure that
+ * computes its value once for each record however many expressions use it.
+ * Such expressions must be evaluated by one thread at a time.
+ */
+public class CompiledExpression {
+    // The record that constant subexpressions are evaluated on
+    private static final Record EMPTY = new Record(Collections.emptyList());
+
+    interface FloatFunction {
+        float applyAsFloat(Record record);
+    }
+
+    private final Type type;
+    // The closure that computes the value of the expression: intFunc if the
+    // type of the expression is INT, and so on. Expressions of other types
+    // only have a boxedFunc.
+    private ToIntFunction<Record> intFunc;
+    private ToLongFunction<Record> longFunc;
+    private FloatFunction floatFunc;
+    private Predicate<Record> boolFunc;
+    private Function<Record, DataBox> boxedFunc;
+    // The value of the expression, if it does not depend on the record
+    private DataBox constant;
+
+    private CompiledExpression(Type type) {
+        this.type = type;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return true if the value of this expression does not depend on the
+     * input record
+     */
+    public boolean isConstant() {
+        return constant != null;
+    }
+
+    /**
+     * @return true if this expression is evaluated to a primitive value (which
+     * evaluateInt, evaluateLong, evaluateFloat or evaluateBool return,
+     * depending on the type of the expression)
+     */
+    public boolean isPrimitive() {
+        return intFunc != null || longFunc != null || floatFunc != null || boolFunc != null;
+    }
+
+    public DataBox evaluate(Record record) {
+        return asBoxed().apply(record);
+    }
+
+    public int evaluateInt(Record record) {
+        return asInt().applyAsInt(record);
+    }
+
+    public long evaluateLong(Record record) {
+        return asLong().applyAsLong(record);
+    }
+
+    public float evaluateFloat(Record record) {
+        return asFloat().applyAsFloat(record);
+    }
+
+    public boolean evaluateBool(Record record) {
+        return asBool().test(record);
+    }
+
+    // Conversions /////////////////////////////////////////////////////////////
+
+    /*
+     * Each of the functions below returns a closure computing the value of
+     * the expression cast to some type, the same way as Expression#toInt
+     * (and friends) cast a DataBox. The closure is built the first time it is
+     * needed.
+     */
+
+    private ToIntFunction<Record> intCast;
+    private ToLongFunction<Record> longCast;
+    private FloatFunction floatCast;
+    private Predicate<Record> boolCast;
+    private Function<Record, DataBox> boxedCast;
+
+    ToIntFunction<Record> asInt() {
+        if (intFunc != null) return intFunc;
+        if (intCast == null) {
+            if (boolFunc != null) {
+                Predicate<Record> f = boolFunc;
+                intCast = r -> f.test(r) ? 1 : 0;
+            } else {
+                Function<Record, DataBox> f = asBoxed();
+                intCast = r -> Expression.toInt(f.apply(r));
+            }
+        }
+        return intCast;
+    }
+
+    ToLongFunction<Record> asLong() {
+        if (longFunc != null) return longFunc;
+        if (longCast == null) {
+            if (intFunc != null) {
+                ToIntFunction<Record> f = intFunc;
+                longCast = f::applyAsInt;
+            } else if (boolFunc != null) {
+                Predicate<Record> f = boolFunc;
+                longCast = r -> f.test(r) ? 1 : 0;
+            } else {
+                Function<Record, DataBox> f = asBoxed();
+                longCast = r -> Expression.toLong(f.apply(r));
+            }
+        }
+        return longCast;
+    }
+
+    FloatFunction asFloat() {
+        if (floatFunc != null) return floatFunc;
+        if (floatCast == null) {
+            if (intFunc != null) {
+                ToIntFunction<Record> f = intFunc;
+                floatCast = f::applyAsInt;
+            } else if (longFunc != null) {
+                ToLongFunction<Record> f = longFunc;
+                floatCast = f::applyAsLong;
+            } else if (boolFunc != null) {
+                Predicate<Record> f = boolFunc;
+                floatCast = r -> f.test(r) ? 1 : 0;
+            } else {
+                Function<Record, DataBox> f = asBoxed();
+                floatCast = r -> Expression.toFloat(f.apply(r));
+            }
+        }
+        return floatCast;
+    }
+
+    Predicate<Record> asBool() {
+        if (boolFunc != null) return boolFunc;
+        if (boolCast == null) {
+            if (intFunc != null) {
+                ToIntFunction<Record> f = intFunc;
+                boolCast = r -> f.applyAsInt(r) != 0;
+            } else if (longFunc != null) {
+                ToLongFunction<Record> f = longFunc;
+                boolCast = r -> f.applyAsLong(r) != 0;
+            } else if (floatFunc != null) {
+                FloatFunction f = floatFunc;
+                boolCast = r -> f.applyAsFloat(r) != 0.0;
+            } else {
+                Function<Record, DataBox> f = asBoxed();
+                boolCast = r -> Expression.toBool(f.apply(r));
+            }
+        }
+        return boolCast;
+    }
+
+    Function<Record, DataBox> asBoxed() {
+        if (boxedFunc != null) return boxedFunc;
+        if (boxedCast == null) {
+            if (intFunc != null) {
+                ToIntFunction<Record> f = intFunc;
+                boxedCast = r -> new IntDataBox(f.applyAsInt(r));
+            } else if (longFunc != null) {
+                ToLongFunction<Record> f = longFunc;
+                boxedCast = r -> new LongDataBox(f.applyAsLong(r));
+            } else if (floatFunc != null) {
+                FloatFunction f = floatFunc;
+                boxedCast = r -> new FloatDataBox(f.applyAsFloat(r));
+            } else {
+                Predicate<Record> f = boolFunc;
+                boxedCast = r -> new BoolDataBox(f.test(r));
+            }
+        }
+        return boxedCast;
+    }
+
+    // Compilation /////////////////////////////////////////////////////////////
+
+    /**
+     * Compiles `expression`, whose schema must already be set.
+     */
+    static CompiledExpression compile(Expression expression) {
+        if (!expression.hasAgg() && expression.getDependencies().isEmpty()) {
+            try {
+                return constant(expression.evaluate(EMPTY));
+            } catch (RuntimeException e) {
+                // e.g. division by zero: leave the error to evaluation time
+            }
+        }
+        if (expression instanceof Column) {
+            return column(expression.getType(), ((Column) expression).getIndex());
+        }
+        if (expression instanceof SharedExpression) {
+            return ((SharedExpression) expression).compiled();
+        }
+        if (expression instanceof Expression.ArithmeticExpression) {
+            return arithmetic((Expression.ArithmeticExpression) expression);
+        }
+        if (expression instanceof Expression.NegateExpression) {
+            return negate(expression.getType(), compile(expression.children.get(0)));
+        }
+        IntPredicate comparison = comparison(expression);
+        if (comparison != null) {
+            return compare(compile(expression.children.get(0)), compile(expression.children.get(1)), comparison);
+        }
+        if (expression instanceof Expression.ConnectiveExpression) {
+            return connective(expression);
+        }
+        if (expression instanceof Expression.NotExpression) {
+            Predicate<Record> f = compile(expression.children.get(0)).asBool();
+            return bool(r -> !f.test(r));
+        }
+        CompiledExpression result = new CompiledExpression(expression.getType());
+        result.boxedFunc = expression::evaluate;
+        return result;
+    }
+
+    /**
+     * @return `expression`, computing its value once for each record it is
+     * evaluated on in a row (see SharedExpression): the value for the last
+     * record is kept and handed out again while the same record is evaluated
+     */
+    static CompiledExpression cached(CompiledExpression expression) {
+        if (expression.isConstant()) return expression;
+        CompiledExpression result = new CompiledExpression(expression.type);
+        Record[] last = new Record[1];
+        if (expression.intFunc != null) {
+            ToIntFunction<Record> f = expression.intFunc;
+            int[] value = new int[1];
+            result.intFunc = r -> {
+                if (r != last[0]) {
+                    value[0] = f.applyAsInt(r);
+                    last[0] = r;
+                }
+                return value[0];
+            };
+        } else if (expression.longFunc != null) {
+            ToLongFunction<Record> f = expression.longFunc;
+            long[] value = new long[1];
+            result.longFunc = r -> {
+                if (r != last[0]) {
+                    value[0] = f.applyAsLong(r);
+                    last[0] = r;
+                }
+                return value[0];
+            };
+        } else if (expression.floatFunc != null) {
+            FloatFunction f = expression.floatFunc;
+            float[] value = new float[1];
+            result.floatFunc = r -> {
+                if (r != last[0]) {
+                    value[0] = f.applyAsFloat(r);
+                    last[0] = r;
+                }
+                return value[0];
+            };
+        } else if (expression.boolFunc != null) {
+            Predicate<Record> f = expression.boolFunc;
+            boolean[] value = new boolean[1];
+            result.boolFunc = r -> {
+                if (r != last[0]) {
+                    value[0] = f.test(r);
+                    last[0] = r;
+                }
+                return value[0];
+            };
+        } else {
+            Function<Record, DataBox> f = expression.boxedFunc;
+            DataBox[] value = new DataBox[1];
+            result.boxedFunc = r -> {
+                if (r != last[0]) {
+                    value[0] = f.apply(r);
+                    last[0] = r;
+                }
+                return value[0];
+            };
+        }
+        return result;
+    }
+
+    private static CompiledExpression constant(DataBox value) {
+        CompiledExpression result = new CompiledExpression(value.type());
+        result.constant = value;
+        result.boxedFunc = r -> value;
+        switch (value.getTypeId()) {
+            case INT: {
+                int v = value.getInt();
+                result.intFunc = r -> v;
+                break;
+            }
+            case LONG: {
+                long v = value.getLong();
+                result.longFunc = r -> v;
+                break;
+            }
+            case FLOAT: {
+                float v = value.getFloat();
+                result.floatFunc = r -> v;
+                break;
+            }
+            case BOOL: {
+                boolean v = value.getBool();
+                result.boolFunc = r -> v;
+                break;
+            }
+            default: break;
+        }
+        return result;
+    }
+
+    private static CompiledExpression column(Type type, int col) {
+        CompiledExpression result = new CompiledExpression(type);
+        switch (type.getTypeId()) {
+            case INT: result.intFunc = r -> r.getValue(col).getInt(); break;
+            case LONG: result.longFunc = r -> r.getValue(col).getLong(); break;
+            case FLOAT: result.floatFunc = r -> r.getValue(col).getFloat(); break;
+            case BOOL: result.boolFunc = r -> r.getValue(col).getBool(); break;
+            default: result.boxedFunc = r -> r.getValue(col); break;
+        }
+        return result;
+    }
+
+    private static CompiledExpression bool(Predicate<Record> f) {
+        CompiledExpression result = new CompiledExpression(Type.boolType());
+        result.boolFunc = f;
+        return result;
+    }
+
+    private static CompiledExpression arithmetic(Expression.ArithmeticExpression expression) {
+        List<Expression> children = expression.children;
+        List<Character> ops = expression.getOps();
+        CompiledExpression result = new CompiledExpression(expression.getType());
+        CompiledExpression first = compile(children.get(0));
+        switch (expression.getType().getTypeId()) {
+            case INT: {
+                ToIntFunction<Record> f = first.asInt();
+                for (int i = 1; i < children.size(); i++) {
+                    f = combineInt(f, ops.get(i - 1), compile(children.get(i)).asInt());
+                }
+                result.intFunc = f;
+                break;
+            }
+            case LONG: {
+                ToLongFunction<Record> f = first.asLong();
+                for (int i = 1; i < children.size(); i++) {
+                    f = combineLong(f, ops.get(i - 1), compile(children.get(i)).asLong());
+                }
+                result.longFunc = f;
+                break;
+            }
+            case FLOAT: {
+                FloatFunction f = first.asFloat();
+                for (int i = 1; i < children.size(); i++) {
+                    f = combineFloat(f, ops.get(i - 1), compile(children.get(i)).asFloat());
+                }
+                result.floatFunc = f;
+                break;
+            }
+            default: throw new RuntimeException("Invalid result type for numeric expression: " + expression.getType().getTypeId());
+        }
+        return result;
+    }
+
+    private static ToIntFunction<Record> combineInt(ToIntFunction<Record> a, char op, ToIntFunction<Record> b) {
+        switch (op) {
+            case '+': return r -> a.applyAsInt(r) + b.applyAsInt(r);
+            case '-': return r -> a.applyAsInt(r) - b.applyAsInt(r);
+            case '*': return r -> a.applyAsInt(r) * b.applyAsInt(r);
+            case '/': return r -> a.applyAsInt(r) / b.applyAsInt(r);
+            case '%': return r -> a.applyAsInt(r) % b.applyAsInt(r);
+            default: throw new RuntimeException("Unexpected operator: " + op);
+        }
+    }
+
+    private static ToLongFunction<Record> combineLong(ToLongFunction<Record> a, char op, ToLongFunction<Record> b) {
+        switch (op) {
+            case '+': return r -> a.applyAsLong(r) + b.applyAsLong(r);
+            case '-': return r -> a.applyAsLong(r) - b.applyAsLong(r);
+            case '*': return r -> a.applyAsLong(r) * b.applyAsLong(r);
+            case '/': return r -> a.applyAsLong(r) / b.applyAsLong(r);
+            case '%': return r -> a.applyAsLong(r) % b.applyAsLong(r);
+            default: throw new RuntimeException("Unexpected operator: " + op);
+        }
+    }
+
+    private static FloatFunction combineFloat(FloatFunction a, char op, FloatFunction b) {
+        switch (op) {
+            case '+': return r -> a.applyAsFloat(r) + b.applyAsFloat(r);
+            case '-': return r -> a.applyAsFloat(r) - b.applyAsFloat(r);
+            case '*': return r -> a.applyAsFloat(r) * b.applyAsFloat(r);
+            case '/': return r -> a.applyAsFloat(r) / b.applyAsFloat(r);
+            case '%': return r -> a.applyAsFloat(r) % b.applyAsFloat(r);
+            default: throw new RuntimeException("Unexpected operator: " + op);
+        }
+    }
+
+    private static CompiledExpression negate(Type type, CompiledExpression child) {
+        CompiledExpression result = new CompiledExpression(type);
+        switch (type.getTypeId()) {
+            case INT: {
+                ToIntFunction<Record> f = child.asInt();
+                result.intFunc = r -> -f.applyAsInt(r);
+                break;
+            }
+            case LONG: {
+                ToLongFunction<Record> f = child.asLong();
+                result.longFunc = r -> -f.applyAsLong(r);
+                break;
+            }
+            case FLOAT: {
+                FloatFunction f = child.asFloat();
+                result.floatFunc = r -> -f.applyAsFloat(r);
+                break;
+            }
+            default: throw new RuntimeException("Unreachable code");
+        }
+        return result;
+    }
+
+    /**
+     * @return for a comparison, a test deciding from the result of compareTo
+     * whether the comparison holds, or null if `expression` is not one
+     */
+    private static IntPredicate comparison(Expression expression) {
+        if (expression instanceof Expression.LessThanExpression) return cmp -> cmp < 0;
+        if (expression instanceof Expression.LessThanEqualExpression) return cmp -> cmp <= 0;
+        if (expression instanceof Expression.GreaterThanExpression) return cmp -> cmp > 0;
+        if (expression instanceof Expression.GreaterThanEqualExpression) return cmp -> cmp >= 0;
+        if (expression instanceof Expression.EqualExpression) return cmp -> cmp == 0;
+        if (expression instanceof Expression.UnequalExpression) return cmp -> cmp != 0;
+        return null;
+    }
+
+    /**
+     * Compiles a comparison of `a` and `b`. Values of the same primitive type
+     * are compared without boxing them, the same way their DataBoxes compare.
+     */
+    private static CompiledExpression compare(CompiledExpression a, CompiledExpression b, IntPredicate test) {
+        if (a.intFunc != null && b.intFunc != null) {
+            ToIntFunction<Record> f = a.intFunc, g = b.intFunc;
+            return bool(r -> test.test(Integer.compare(f.applyAsInt(r), g.applyAsInt(r))));
+        }
+        if (a.longFunc != null && b.longFunc != null) {
+            ToLongFunction<Record> f = a.longFunc, g = b.longFunc;
+            return bool(r -> test.test(Long.compare(f.applyAsLong(r), g.applyAsLong(r))));
+        }
+        if (a.floatFunc != null && b.floatFunc != null) {
+            FloatFunction f = a.floatFunc, g = b.floatFunc;
+            return bool(r -> test.test(Float.compare(f.applyAsFloat(r), g.applyAsFloat(r))));
+        }
+        Function<Record, DataBox> f = a.asBoxed(), g = b.asBoxed();
+        return bool(r -> test.test(f.apply(r).compareTo(g.apply(r))));
+    }
+
+    /**
+     * Compiles an AND or OR, which like Expression#evaluate stops at the first
+     * child that decides its value, evaluating the children in the same order.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static CompiledExpression connective(Expression expression) {
+        boolean and = expression instanceof Expression.AndExpression;
+        List<Expression> order = ((Expression.ConnectiveExpression) expression).evaluationOrder();
+        Predicate<Record>[] children = new Predicate[order.size()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = compile(order.get(i)).asBool();
+        }
+        return bool(r -> {
+            for (Predicate<Record> child : children) {
+                if (child.test(r) != and) return !and;
+            }
+            return and;
+        });
+    }
+}
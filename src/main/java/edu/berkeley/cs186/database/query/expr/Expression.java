@@ -4,13 +4,17 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.cli.parser.ParseException;
 import edu.berkeley.cs186.database.cli.parser.RookieParser;
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.ColumnVector;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
 import edu.berkeley.cs186.database.table.Schema;
 
 import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
 
 /**
  * Expressions are groups of operations, literal values, and column names that
@@ -27,7 +31,18 @@ import java.util.function.Function;
  * 186! The most useful ones to know if you are curious though are:
  * - evaluate(Record r): evaluates the expression against the columns in `r`
  * - update(Record r): Used by aggregates to compute partial results
+ * - selectGroup(int slot): Switches aggregates between the groups they are
+ *   computed for (see ProjectOperator)
+ * - merge(Expression e): Combines partial results computed by copies of an
+ *   aggregate (see GatherOperator)
+ * - splitAggregates(...): Rewrites the expression to be computed from
+ *   partial aggregates of groups of records (see QueryPlan#execute)
+ * - evaluate(RecordBatch b) and update(RecordBatch b): the same, for a batch
+ *   of records at a time (see QueryOperator#batchIterator)
  * - Expression.fromString(String s): Creates an expression from a String!
+ * - compile(): Turns the expression into closures that evaluate it faster
+ * - shareSubexpressions(...): Evaluates subexpressions repeated across the
+ *   expressions of a projection once for each record (see ProjectOperator)
  */
 public abstract class Expression {
     // The dependencies of an expression are the names of columns whose values
@@ -84,6 +99,32 @@ public abstract class Expression {
      */
     public abstract DataBox evaluate(Record record);
 
+    /**
+     * @param batch The records that this expression will be evaluated on.
+     * @return A vector holding the expression's value for each record of
+     * `batch`, at the row of the record. Rows that are not selected in `batch`
+     * are left unset. By default the expression is evaluated on each record in
+     * turn; expressions that can be evaluated a column at a time override
+     * this.
+     */
+    public ColumnVector evaluate(RecordBatch batch) {
+        ColumnVector result = ColumnVector.boxed(getType(), batch.getNumRows());
+        for (int i = 0; i < batch.size(); i++) {
+            int row = batch.getRow(i);
+            result.set(row, evaluate(batch.getRecord(row)));
+        }
+        return result;
+    }
+
+    /**
+     * @return this expression compiled for fast evaluation on records (see
+     * CompiledExpression). The schema of the expression must already be set.
+     */
+    public CompiledExpression compile() {
+        assert this.schema != null;
+        return CompiledExpression.compile(this);
+    }
+
     /**
      * Sets the Schema of this expression. This schema should match the schema
      * of the records that will be passed to the update() and evaluate()
@@ -128,6 +169,18 @@ public abstract class Expression {
         }
     }
 
+    /**
+     * Same as calling update(Record) on each record of `batch`, in order.
+     * @param batch The records which the function will update it's internal
+     *              state with.
+     */
+    public void update(RecordBatch batch) {
+        assert this.schema != null;
+        for (Expression child: children) {
+            if (child.hasAgg()) child.update(batch);
+        }
+    }
+
     /**
      * Resets any internal state from previous calls to update(). Useful for
      * GROUP BY's, where you may need to run the same aggregate function over
@@ -139,6 +192,228 @@ public abstract class Expression {
         }
     }
 
+    /**
+     * Used for aggregate functions, which can aggregate many groups of
+     * records at once, each in a slot of its own (see AggregateFunction).
+     * Directs update(), evaluate() and reset() to the group in slot `slot`,
+     * numbered from 0. Until this is called, aggregates work on the single
+     * group in slot 0.
+     * @param slot The slot of the group to aggregate.
+     */
+    public void selectGroup(int slot) {
+        for (Expression child: children) {
+            if (child.hasAgg()) child.selectGroup(slot);
+        }
+    }
+
+    /**
+     * Discards the state of every group (see selectGroup), leaving aggregates
+     * with a single empty group in slot 0.
+     */
+    public void resetGroups() {
+        for (Expression child: children) {
+            if (child.hasAgg()) child.resetGroups();
+        }
+    }
+
+    /**
+     * @return Whether the aggregates of this expression can be updated
+     * separately with disjoint sets of records, by copies of the expression,
+     * and then combined with merge(). True for expressions without
+     * aggregates.
+     */
+    public boolean isMergeable() {
+        for (Expression child: children) {
+            if (!child.isMergeable()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Used for aggregate functions. Adds the internal state of the aggregates
+     * of `other`, a copy of this expression updated with other records, to
+     * the state of this expression, as if this expression had been updated
+     * with those records too. Only supported if isMergeable().
+     * @param other An expression parsed from the same string as this one.
+     */
+    public void merge(Expression other) {
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i).hasAgg()) children.get(i).merge(other.children.get(i));
+        }
+    }
+
+    /**
+     * Splits the aggregates of this expression for eager aggregation, where
+     * groups of records (for example the records of one side of a join that
+     * share a join key) are first reduced to partial aggregates, which are
+     * then combined into the aggregates of this expression.
+     *
+     * @param partials receives the partial aggregates to compute for each
+     *                 group of records
+     * @param partialColumn names the column holding the values of the partial
+     *                      aggregate at a given index of `partials`
+     * @return a new expression that computes the value of this one from
+     * records of partial aggregates, or null if some aggregate of this
+     * expression can't be computed from partial aggregates
+     */
+    public Expression splitAggregates(List<Expression> partials, IntFunction<String> partialColumn) {
+        if (!this.isDecomposable()) return null;
+        Expression copy = Expression.fromString(this.toString());
+        return copy.replaceAggregates(partials, partialColumn);
+    }
+
+    /**
+     * @return whether every aggregate of this expression can be computed
+     * from partial aggregates (see splitAggregates)
+     */
+    boolean isDecomposable() {
+        for (Expression child: children) {
+            if (!child.isDecomposable()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the aggregates of this expression, in place, with expressions
+     * combining their partial aggregates, which are added to `partials`.
+     * @return the expression to use in place of this one
+     */
+    Expression replaceAggregates(List<Expression> partials, IntFunction<String> partialColumn) {
+        if (!this.hasAgg) return this;
+        this.dependencies = new HashSet<>();
+        for (int i = 0; i < children.size(); i++) {
+            Expression child = children.get(i).replaceAggregates(partials, partialColumn);
+            children.set(i, child);
+            this.dependencies.addAll(child.dependencies);
+        }
+        return this;
+    }
+
+    /**
+     * Shares the subexpressions that occur more than once in `expressions`
+     * (for example the expressions of a projection), so that each is
+     * evaluated once per record instead of once per occurrence. In
+     *
+     *     SUM(price * (1 - discount)), SUM(price * (1 - discount) * (1 + tax))
+     *
+     * `price * (1 - discount)` is computed once for each record and used by
+     * both sums. Every occurrence of a repeated subexpression is replaced,
+     * in place, by a SharedExpression; expressions keep their string
+     * representation. Subexpressions with aggregates are not shared, since
+     * each occurrence of an aggregate has state of its own.
+     *
+     * The schema of the expressions must already be set, and is set again on
+     * the expressions returned.
+     *
+     * @return the expressions to use in place of `expressions`, in order
+     */
+    public static List<Expression> shareSubexpressions(List<Expression> expressions) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Expression expression: expressions) expression.countSubexpressions(counts);
+        Map<String, SharedExpression.Values> shared = new HashMap<>();
+        List<Expression> result = new ArrayList<>();
+        for (Expression expression: expressions) {
+            Expression e = expression.share(counts, shared);
+            e.setSchema(expression.schema);
+            result.add(e);
+        }
+        return result;
+    }
+
+    /**
+     * @return whether this expression can be shared by its occurrences (see
+     * shareSubexpressions): it must depend on the record, without being a
+     * plain column, and have no aggregates
+     */
+    boolean isShareable() {
+        return !this.hasAgg && !this.dependencies.isEmpty();
+    }
+
+    /**
+     * Counts the occurrences of the shareable subexpressions of this
+     * expression in `counts`, by their sharingKey(). The
+     * subexpressions of an occurrence that was already counted are not
+     * counted again, since they will be evaluated as part of the shared
+     * expression.
+     */
+    void countSubexpressions(Map<String, Integer> counts) {
+        if (isShareable() && counts.merge(sharingKey(), 1, Integer::sum) > 1) return;
+        for (Expression child: children) child.countSubexpressions(counts);
+    }
+
+    /**
+     * @return a key that is the same for expressions that compute the same
+     * value. Unlike toString(), it tells string literals from columns.
+     */
+    String sharingKey() {
+        return sharingKey(getClass().getSimpleName(), children);
+    }
+
+    static String sharingKey(String name, List<Expression> children) {
+        StringBuilder key = new StringBuilder(name).append('(');
+        for (Expression child: children) key.append(child.sharingKey()).append(',');
+        return key.append(')').toString();
+    }
+
+    /**
+     * Replaces the subexpressions of this expression that occur more than
+     * once, according to `counts`, by SharedExpressions over the values in
+     * `shared` (see shareSubexpressions).
+     * @return the expression to use in place of this one
+     */
+    Expression share(Map<String, Integer> counts, Map<String, SharedExpression.Values> shared) {
+        if (!isShareable()) return shareChildren(counts, shared);
+        String key = sharingKey();
+        if (counts.getOrDefault(key, 0) < 2) return shareChildren(counts, shared);
+        SharedExpression.Values values = shared.get(key);
+        if (values == null) {
+            // The first occurrence is the one that is evaluated
+            values = new SharedExpression.Values(key, shareChildren(counts, shared));
+            shared.put(key, values);
+        }
+        return new SharedExpression(values, this.needsParentheses);
+    }
+
+    Expression shareChildren(Map<String, Integer> counts, Map<String, SharedExpression.Values> shared) {
+        for (int i = 0; i < children.size(); i++) {
+            children.set(i, children.get(i).share(counts, shared));
+        }
+        return this;
+    }
+
+    // Evaluation order of AND and OR //////////////////////////////////////////
+
+    /**
+     * @return a rough estimate of the cost of evaluating this expression on
+     * a record: one for each operator and column, and more for functions
+     */
+    double estimateCost() {
+        double cost = 1;
+        for (Expression child: children) cost += child.estimateCost();
+        return cost;
+    }
+
+    /**
+     * @return a rough estimate of the fraction of records that this
+     * expression is true for, with the same defaults as System R (a tenth for
+     * equalities, a third for ranges, and a half otherwise)
+     */
+    double estimateSelectivity() {
+        return 0.5;
+    }
+
+    /**
+     * @return whether evaluating this expression may throw, like a division
+     * by zero: such expressions are never evaluated ahead of the operands of
+     * an AND or OR before them, which may guard against the error
+     */
+    boolean mayFail() {
+        for (Expression child: children) {
+            if (child.mayFail()) return true;
+        }
+        return false;
+    }
+
     public final String toString() {
         if (this.needsParentheses) return "(" + subclassString() + ")";
         return subclassString();
@@ -390,7 +665,76 @@ public abstract class Expression {
         throw new UnsupportedOperationException("Cannot cast type `" + d.getTypeId() + "` to INT");
     }
 
+    /*
+     * The functions below cast the value at row `row` of a vector like the
+     * functions above, without boxing values kept in primitive arrays.
+     */
+
+    static boolean toBool(ColumnVector v, int row) {
+        if (v.isPrimitive() && v.getType().getTypeId() == TypeId.BOOL) return v.getBool(row);
+        return toBool(v.get(row));
+    }
+
+    static int toInt(ColumnVector v, int row) {
+        if (!v.isPrimitive()) return toInt(v.get(row));
+        switch (v.getType().getTypeId()) {
+            case BOOL: return v.getBool(row) ? 1 : 0;
+            case INT: return v.getInt(row);
+        }
+        return toInt(v.get(row));
+    }
+
+    static long toLong(ColumnVector v, int row) {
+        if (!v.isPrimitive()) return toLong(v.get(row));
+        switch (v.getType().getTypeId()) {
+            case LONG: return v.getLong(row);
+            case BOOL: return v.getBool(row) ? 1 : 0;
+            case INT: return v.getInt(row);
+        }
+        return toLong(v.get(row));
+    }
+
+    static float toFloat(ColumnVector v, int row) {
+        if (!v.isPrimitive()) return toFloat(v.get(row));
+        switch (v.getType().getTypeId()) {
+            case FLOAT: return v.getFloat(row);
+            case LONG: return v.getLong(row);
+            case BOOL: return v.getBool(row) ? 1 : 0;
+            case INT: return v.getInt(row);
+        }
+        return toFloat(v.get(row));
+    }
+
     // Comparison functions ////////////////////////////////////////////////////
+
+    /**
+     * Evaluates a comparison of children 0 and 1 on `batch`. `test` decides
+     * from the result of compareTo whether the comparison holds. Values of
+     * the same primitive type are compared without boxing them, the same way
+     * their DataBoxes compare.
+     */
+    ColumnVector compare(RecordBatch batch, IntPredicate test) {
+        ColumnVector left = children.get(0).evaluate(batch);
+        ColumnVector right = children.get(1).evaluate(batch);
+        ColumnVector result = new ColumnVector(Type.boolType(), batch.getNumRows());
+        TypeId type = left.getType().getTypeId();
+        boolean primitive = left.isPrimitive() && right.isPrimitive() && type == right.getType().getTypeId();
+        for (int i = 0; i < batch.size(); i++) {
+            int row = batch.getRow(i);
+            int cmp;
+            if (primitive && type == TypeId.INT) {
+                cmp = Integer.compare(left.getInt(row), right.getInt(row));
+            } else if (primitive && type == TypeId.LONG) {
+                cmp = Long.compare(left.getLong(row), right.getLong(row));
+            } else if (primitive && type == TypeId.FLOAT) {
+                cmp = Float.compare(left.getFloat(row), right.getFloat(row));
+            } else {
+                cmp = left.get(row).compareTo(right.get(row));
+            }
+            result.setBool(row, test.test(cmp));
+        }
+        return result;
+    }
     static class LessThanExpression extends Expression {
         public LessThanExpression(Expression a, Expression b) {
             super(new Expression[]{a, b});
@@ -408,6 +752,16 @@ public abstract class Expression {
             return new BoolDataBox(left.compareTo(right) < 0);
         }
 
+        @Override
+        public ColumnVector evaluate(RecordBatch batch) {
+            return compare(batch, cmp -> cmp < 0);
+        }
+
+        @Override
+        double estimateSelectivity() {
+            return 1.0 / 3;
+        }
+
         @Override
         protected OperationPriority priority() {
             return OperationPriority.COMPARE;
@@ -437,6 +791,16 @@ public abstract class Expression {
             return new BoolDataBox(left.compareTo(right) <= 0);
         }
 
+        @Override
+        public ColumnVector evaluate(RecordBatch batch) {
+            return compare(batch, cmp -> cmp <= 0);
+        }
+
+        @Override
+        double estimateSelectivity() {
+            return 1.0 / 3;
+        }
+
         @Override
         protected OperationPriority priority() {
             return OperationPriority.COMPARE;
@@ -465,6 +829,16 @@ public abstract class Expression {
             return new BoolDataBox(left.compareTo(right) > 0);
         }
 
+        @Override
+        public ColumnVector evaluate(RecordBatch batch) {
+            return compare(batch, cmp -> cmp > 0);
+        }
+
+        @Override
+        double estimateSelectivity() {
+            return 1.0 / 3;
+        }
+
         @Override
         protected OperationPriority priority() {
             return OperationPriority.COMPARE;
@@ -493,6 +867,16 @@ public abstract class Expression {
             return new BoolDataBox(left.compareTo(right) >= 0);
         }
 
+        @Override
+        public ColumnVector evaluate(RecordBatch batch) {
+            return compare(batch, cmp -> cmp >= 0);
+        }
+
+        @Override
+        double estimateSelectivity() {
+            return 1.0 / 3;
+        }
+
         @Override
         protected OperationPriority priority() {
             return OperationPriority.COMPARE;
@@ -521,6 +905,16 @@ public abstract class Expression {
             return new BoolDataBox(left.compareTo(right) == 0);
         }
 
+        @Override
+        public ColumnVector evaluate(RecordBatch batch) {
+            return compare(batch, cmp -> cmp == 0);
+        }
+
+        @Override
+        double estimateSelectivity() {
+            return 0.1;
+        }
+
         @Override
         protected OperationPriority priority() {
             return OperationPriority.COMPARE;
@@ -549,6 +943,16 @@ public abstract class Expression {
             return new BoolDataBox(left.compareTo(right) != 0);
         }
 
+        @Override
+        public ColumnVector evaluate(RecordBatch batch) {
+            return compare(batch, cmp -> cmp != 0);
+        }
+
+        @Override
+        double estimateSelectivity() {
+            return 0.9;
+        }
+
         @Override
         protected OperationPriority priority() {
             return OperationPriority.COMPARE;
@@ -568,11 +972,85 @@ public abstract class Expression {
      */
 
 
-    static class AndExpression extends Expression {
+    /**
+     * An AND or OR, which stops evaluating its children at the first one
+     * that decides its value. The children are evaluated cheapest and most
+     * likely to decide the value first (see evaluationOrder), but a child
+     * that may fail is never evaluated ahead of the children before it, as
+     * in `x != 0 AND 10 / x > 2`.
+     */
+    static abstract class ConnectiveExpression extends Expression {
+        // The children of this expression, in the order they are evaluated
+        private List<Expression> order;
+
+        public ConnectiveExpression(Expression... children) {
+            super(children);
+        }
+
+        /**
+         * @return true for an AND, which is decided by a false child, and
+         * false for an OR, which is decided by a true child
+         */
+        abstract boolean isAnd();
+
+        @Override
+        public void setSchema(Schema s) {
+            super.setSchema(s);
+            this.order = null;
+            evaluationOrder();
+        }
+
+        /**
+         * Orders the children by the expected cost of evaluating each of
+         * them before it decides the value of the expression, the way
+         * predicates are ranked by cost over selectivity. Only children
+         * between those that may fail are reordered.
+         * @return the children of this expression in the order they are
+         * evaluated
+         */
+        List<Expression> evaluationOrder() {
+            if (this.order != null) return this.order;
+            List<Expression> order = new ArrayList<>();
+            List<Expression> segment = new ArrayList<>();
+            for (Expression child: this.children) {
+                if (child.mayFail()) {
+                    segment.sort(Comparator.comparingDouble(this::rank));
+                    order.addAll(segment);
+                    order.add(child);
+                    segment.clear();
+                } else {
+                    segment.add(child);
+                }
+            }
+            segment.sort(Comparator.comparingDouble(this::rank));
+            order.addAll(segment);
+            this.order = order;
+            return order;
+        }
+
+        private double rank(Expression child) {
+            double decides = isAnd() ? 1 - child.estimateSelectivity() : child.estimateSelectivity();
+            return decides == 0 ? Double.POSITIVE_INFINITY : child.estimateCost() / decides;
+        }
+    }
+
+    static class AndExpression extends ConnectiveExpression {
         public AndExpression(Expression... children) {
             super(children);
         }
 
+        @Override
+        boolean isAnd() {
+            return true;
+        }
+
+        @Override
+        double estimateSelectivity() {
+            double selectivity = 1;
+            for (Expression child: this.children) selectivity *= child.estimateSelectivity();
+            return selectivity;
+        }
+
         @Override
         public Type getType() {
             return Type.boolType();
@@ -580,7 +1058,7 @@ public abstract class Expression {
 
         @Override
         public DataBox evaluate(Record record) {
-            for (Expression child: this.children) {
+            for (Expression child: evaluationOrder()) {
                 // short circuit
                 if (!toBool(child.evaluate(record))) {
                     return new BoolDataBox(false);
@@ -589,6 +1067,29 @@ public abstract class Expression {
             return new BoolDataBox(true);
         }
 
+        @Override
+        public ColumnVector evaluate(RecordBatch batch) {
+            ColumnVector result = new ColumnVector(Type.boolType(), batch.getNumRows());
+            // Each child is only evaluated on the records that all the
+            // children before it are true for, as in evaluate(Record)
+            RecordBatch remaining = batch;
+            for (Expression child: evaluationOrder()) {
+                ColumnVector values = child.evaluate(remaining);
+                int[] selection = new int[remaining.size()];
+                int size = 0;
+                for (int i = 0; i < remaining.size(); i++) {
+                    int row = remaining.getRow(i);
+                    if (toBool(values, row)) selection[size++] = row;
+                    else result.setBool(row, false);
+                }
+                remaining = remaining.select(selection, size);
+            }
+            for (int i = 0; i < remaining.size(); i++) {
+                result.setBool(remaining.getRow(i), true);
+            }
+            return result;
+        }
+
         @Override
         protected OperationPriority priority() {
             return OperationPriority.AND;
@@ -607,11 +1108,23 @@ public abstract class Expression {
         }
     }
 
-    static class OrExpression extends Expression {
+    static class OrExpression extends ConnectiveExpression {
         public OrExpression(Expression... children) {
             super(children);
         }
 
+        @Override
+        boolean isAnd() {
+            return false;
+        }
+
+        @Override
+        double estimateSelectivity() {
+            double none = 1;
+            for (Expression child: this.children) none *= 1 - child.estimateSelectivity();
+            return 1 - none;
+        }
+
         @Override
         public Type getType() {
             return Type.boolType();
@@ -619,7 +1132,7 @@ public abstract class Expression {
 
         @Override
         public DataBox evaluate(Record record) {
-            for (Expression child: this.children) {
+            for (Expression child: evaluationOrder()) {
                 // short circuit
                 if (toBool(child.evaluate(record))) {
                     return new BoolDataBox(true);
@@ -628,6 +1141,29 @@ public abstract class Expression {
             return new BoolDataBox(false);
         }
 
+        @Override
+        public ColumnVector evaluate(RecordBatch batch) {
+            ColumnVector result = new ColumnVector(Type.boolType(), batch.getNumRows());
+            // Each child is only evaluated on the records that all the
+            // children before it are false for, as in evaluate(Record)
+            RecordBatch remaining = batch;
+            for (Expression child: evaluationOrder()) {
+                ColumnVector values = child.evaluate(remaining);
+                int[] selection = new int[remaining.size()];
+                int size = 0;
+                for (int i = 0; i < remaining.size(); i++) {
+                    int row = remaining.getRow(i);
+                    if (toBool(values, row)) result.setBool(row, true);
+                    else selection[size++] = row;
+                }
+                remaining = remaining.select(selection, size);
+            }
+            for (int i = 0; i < remaining.size(); i++) {
+                result.setBool(remaining.getRow(i), false);
+            }
+            return result;
+        }
+
         @Override
         protected OperationPriority priority() {
             return OperationPriority.OR;
@@ -663,6 +1199,22 @@ public abstract class Expression {
             return new BoolDataBox(!baseVal);
         }
 
+        @Override
+        public ColumnVector evaluate(RecordBatch batch) {
+            ColumnVector values = this.children.get(0).evaluate(batch);
+            ColumnVector result = new ColumnVector(Type.boolType(), batch.getNumRows());
+            for (int i = 0; i < batch.size(); i++) {
+                int row = batch.getRow(i);
+                result.setBool(row, !toBool(values, row));
+            }
+            return result;
+        }
+
+        @Override
+        double estimateSelectivity() {
+            return 1 - this.children.get(0).estimateSelectivity();
+        }
+
         @Override
         protected OperationPriority priority() {
             return OperationPriority.NOT;
@@ -782,6 +1334,92 @@ public abstract class Expression {
             }
         }
 
+        List<Character> getOps() {
+            return this.ops;
+        }
+
+        @Override
+        boolean mayFail() {
+            return this.ops.contains('/') || this.ops.contains('%') || super.mayFail();
+        }
+
+        /**
+         * Besides the subexpressions of its children, an arithmetic
+         * expression shares the first children of its own, like
+         * `price * (1 - discount)` in `price * (1 - discount) * (1 + tax)`.
+         */
+        @Override
+        void countSubexpressions(Map<String, Integer> counts) {
+            if (isShareable() && counts.merge(sharingKey(), 1, Integer::sum) > 1) return;
+            int from = 0;
+            for (int k = this.children.size() - 1; k >= 2; k--) {
+                if (!isShareablePrefix(k)) continue;
+                if (counts.merge(prefixKey(k), 1, Integer::sum) > 1) {
+                    from = k;
+                    break;
+                }
+            }
+            for (Expression child: this.children.subList(from, this.children.size())) {
+                child.countSubexpressions(counts);
+            }
+        }
+
+        @Override
+        Expression shareChildren(Map<String, Integer> counts, Map<String, SharedExpression.Values> shared) {
+            for (int k = this.children.size() - 1; k >= 2; k--) {
+                if (!isShareablePrefix(k) || counts.getOrDefault(prefixKey(k), 0) < 2) continue;
+                Expression prefix = withChildren(this.ops.subList(0, k - 1), this.children.subList(0, k));
+                prefix.setSchema(this.schema);
+                List<Expression> children = new ArrayList<>();
+                children.add(prefix.share(counts, shared));
+                for (Expression child: this.children.subList(k, this.children.size())) {
+                    children.add(child.share(counts, shared));
+                }
+                Expression result = withChildren(this.ops.subList(k - 1, this.ops.size()), children);
+                result.needsParentheses = this.needsParentheses;
+                return result;
+            }
+            return super.shareChildren(counts, shared);
+        }
+
+        /**
+         * @return whether the first `k` children of this expression compute
+         * the same value on their own as they do in this expression, which is
+         * computed entirely in its result type
+         */
+        private boolean isShareablePrefix(int k) {
+            List<Expression> prefix = this.children.subList(0, k);
+            boolean dependent = false;
+            for (Expression child: prefix) {
+                if (child.hasAgg()) return false;
+                dependent |= !child.getDependencies().isEmpty();
+            }
+            return dependent && resultType(prefix).equals(this.type);
+        }
+
+        @Override
+        String sharingKey() {
+            return prefixKey(this.children.size());
+        }
+
+        /**
+         * @return the sharingKey() of the first `k` children of this
+         * expression, and the operators between them
+         */
+        private String prefixKey(int k) {
+            String name = getClass().getSimpleName() + this.ops.subList(0, k - 1);
+            return sharingKey(name, this.children.subList(0, k));
+        }
+
+        /**
+         * @return an expression of the same kind as this one over `children`
+         */
+        private Expression withChildren(List<Character> ops, List<Expression> children) {
+            Expression[] array = children.toArray(new Expression[0]);
+            if (this instanceof AdditiveExpression) return new AdditiveExpression(new ArrayList<>(ops), array);
+            return new MultiplicativeExpression(new ArrayList<>(ops), array);
+        }
+
         @Override
         public Type getType() {
             return this.type;
@@ -792,6 +1430,72 @@ public abstract class Expression {
             return this.evalFunc.apply(record);
         }
 
+        /**
+         * Evaluates the expression a child at a time: the result for every
+         * record is computed from the values of the first child, then
+         * combined with the values of the second child, and so on.
+         */
+        @Override
+        public ColumnVector evaluate(RecordBatch batch) {
+            TypeId typeId = this.type.getTypeId();
+            ColumnVector result = new ColumnVector(this.type, batch.getNumRows());
+            ColumnVector first = this.children.get(0).evaluate(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                int row = batch.getRow(i);
+                switch (typeId) {
+                    case INT: result.setInt(row, toInt(first, row)); break;
+                    case LONG: result.setLong(row, toLong(first, row)); break;
+                    default: result.setFloat(row, toFloat(first, row)); break;
+                }
+            }
+            for (int c = 1; c < this.children.size(); c++) {
+                ColumnVector curr = this.children.get(c).evaluate(batch);
+                char op = ops.get(c - 1);
+                for (int i = 0; i < batch.size(); i++) {
+                    int row = batch.getRow(i);
+                    switch (typeId) {
+                        case INT: result.setInt(row, apply(op, result.getInt(row), toInt(curr, row))); break;
+                        case LONG: result.setLong(row, apply(op, result.getLong(row), toLong(curr, row))); break;
+                        default: result.setFloat(row, apply(op, result.getFloat(row), toFloat(curr, row))); break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static int apply(char op, int a, int b) {
+            switch (op) {
+                case '+': return a + b;
+                case '-': return a - b;
+                case '*': return a * b;
+                case '/': return a / b;
+                case '%': return a % b;
+                default: throw new RuntimeException("Unexpected operator: " + op);
+            }
+        }
+
+        private static long apply(char op, long a, long b) {
+            switch (op) {
+                case '+': return a + b;
+                case '-': return a - b;
+                case '*': return a * b;
+                case '/': return a / b;
+                case '%': return a % b;
+                default: throw new RuntimeException("Unexpected operator: " + op);
+            }
+        }
+
+        private static float apply(char op, float a, float b) {
+            switch (op) {
+                case '+': return a + b;
+                case '-': return a - b;
+                case '*': return a * b;
+                case '/': return a / b;
+                case '%': return a % b;
+                default: throw new RuntimeException("Unexpected operator: " + op);
+            }
+        }
+
         @Override
         protected String subclassString() {
             StringBuilder builder = new StringBuilder();
@@ -857,6 +1561,22 @@ public abstract class Expression {
             }
         }
 
+        @Override
+        public ColumnVector evaluate(RecordBatch batch) {
+            ColumnVector values = children.get(0).evaluate(batch);
+            ColumnVector result = new ColumnVector(this.type, batch.getNumRows());
+            for (int i = 0; i < batch.size(); i++) {
+                int row = batch.getRow(i);
+                switch (this.type.getTypeId()) {
+                    case INT: result.setInt(row, -toInt(values, row)); break;
+                    case LONG: result.setLong(row, -toLong(values, row)); break;
+                    case FLOAT: result.setFloat(row, -toFloat(values, row)); break;
+                    default: throw new RuntimeException("Unreachable code");
+                }
+            }
+            return result;
+        }
+
         @Override
         protected OperationPriority priority() {
             return OperationPriority.NEGATE;
@@ -2,7 +2,10 @@ package edu.berkeley.cs186.database.query.expr;
 
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.table.ColumnVector;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
 
 class Literal extends Expression {
     private DataBox data;
@@ -22,6 +25,33 @@ class Literal extends Expression {
         return data;
     }
 
+    @Override
+    public ColumnVector evaluate(RecordBatch batch) {
+        ColumnVector result = new ColumnVector(data.type(), batch.getNumRows());
+        for (int i = 0; i < batch.size(); i++) {
+            result.set(batch.getRow(i), data);
+        }
+        return result;
+    }
+
+    @Override
+    double estimateCost() {
+        return 0;
+    }
+
+    @Override
+    double estimateSelectivity() {
+        if (data.getTypeId() != TypeId.BOOL) return super.estimateSelectivity();
+        return data.getBool() ? 1 : 0;
+    }
+
+    @Override
+    String sharingKey() {
+        // String literals print without quotes, like column names
+        String value = data.toString();
+        return "Literal(" + data.type() + " " + value.length() + " " + value + ")";
+    }
+
     @Override
     protected OperationPriority priority() {
         return OperationPriority.ATOMIC;
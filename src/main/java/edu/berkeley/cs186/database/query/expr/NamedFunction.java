@@ -29,6 +29,17 @@ abstract class NamedFunction extends Expression {
         return OperationPriority.ATOMIC;
     }
 
+    @Override
+    double estimateCost() {
+        // Functions box their values, and some of them copy strings
+        return 10 + super.estimateCost();
+    }
+
+    @Override
+    boolean mayFail() {
+        return true;
+    }
+
     public abstract String getName();
 
 
@@ -0,0 +1,126 @@
+package edu.berkeley.cs186.database.query.expr;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.ColumnVector;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
+import edu.berkeley.cs186.database.table.Schema;
+
+import java.util.Map;
+
+/**
+ * An occurrence of a subexpression that occurs more than once in a list of
+ * expressions (see Expression#shareSubexpressions). Every occurrence reads
+ * the same Values, which hold the subexpression and its value for the last
+ * record (when compiled) and the last batch of records it was evaluated on,
+ * so the subexpression is only evaluated by the first occurrence to need
+ * it.
+ *
+ * An occurrence prints as the subexpression does, and has the same type,
+ * dependencies and priority.
+ */
+class SharedExpression extends Expression {
+    /**
+     * The subexpression shared by its occurrences, and its last values.
+     */
+    static class Values {
+        private final String key;
+        private final Expression expression;
+        // The subexpression compiled for `schema`, caching its value for the
+        // last record (see CompiledExpression#cached)
+        private CompiledExpression compiled;
+        private Schema schema;
+        // The batch that the subexpression was last evaluated on by each
+        // thread, since projections evaluate batches in parallel
+        private final ThreadLocal<LastBatch> lastBatch = ThreadLocal.withInitial(LastBatch::new);
+
+        Values(String key, Expression expression) {
+            this.key = key;
+            this.expression = expression;
+        }
+    }
+
+    private static class LastBatch {
+        private RecordBatch batch;
+        private ColumnVector values;
+    }
+
+    private final Values values;
+
+    SharedExpression(Values values, boolean needsParentheses) {
+        super(values.expression);
+        this.values = values;
+        this.needsParentheses = needsParentheses;
+    }
+
+    @Override
+    public Type getType() {
+        return values.expression.getType();
+    }
+
+    /**
+     * Records are evaluated without the cache of the compiled expression,
+     * which isn't safe to use from several threads at once.
+     */
+    @Override
+    public DataBox evaluate(Record record) {
+        return values.expression.evaluate(record);
+    }
+
+    @Override
+    public ColumnVector evaluate(RecordBatch batch) {
+        LastBatch last = values.lastBatch.get();
+        if (last.batch != batch) {
+            last.values = values.expression.evaluate(batch);
+            last.batch = batch;
+        }
+        return last.values;
+    }
+
+    /**
+     * @return the compiled subexpression shared by every occurrence
+     */
+    CompiledExpression compiled() {
+        if (values.compiled == null || !this.schema.equals(values.schema)) {
+            values.compiled = CompiledExpression.cached(values.expression.compile());
+            values.schema = this.schema;
+        }
+        return values.compiled;
+    }
+
+    @Override
+    boolean isShareable() {
+        return false;
+    }
+
+    @Override
+    String sharingKey() {
+        return values.key;
+    }
+
+    @Override
+    void countSubexpressions(Map<String, Integer> counts) {
+        // Already shared: the subexpression is counted where it is evaluated
+    }
+
+    @Override
+    Expression share(Map<String, Integer> counts, Map<String, Values> shared) {
+        return this;
+    }
+
+    @Override
+    double estimateSelectivity() {
+        return values.expression.estimateSelectivity();
+    }
+
+    @Override
+    protected OperationPriority priority() {
+        return this.children.get(0).priority();
+    }
+
+    @Override
+    protected String subclassString() {
+        return values.expression.subclassString();
+    }
+}
@@ -1,11 +1,16 @@
 package edu.berkeley.cs186.database.query.join;
 
+import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.HashFunc;
 import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.common.iterator.ArrayBacktrackingIterator;
+import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.common.iterator.ConcatBacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.query.JoinOperator;
+import edu.berkeley.cs186.database.query.ParallelUtil;
 import edu.berkeley.cs186.database.query.QueryOperator;
 import edu.berkeley.cs186.database.query.disk.Partition;
 import edu.berkeley.cs186.database.query.disk.Run;
@@ -13,10 +18,18 @@ import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 public class GHJOperator extends JoinOperator {
+    // Fewest buffers a worker of a parallel join may have: an input buffer,
+    // a queued input page and two partitions when partitioning
+    private static final int MIN_WORKER_BUFFERS = 4;
+
     private int numBuffers;
     private Run joinedRecords;
+    // The runs holding the joined records of a parallel join (see
+    // parallelRun), or null
+    private List<BacktrackingIterable<Record>> joinedRuns;
 
     public GHJOperator(QueryOperator leftSource,
                        QueryOperator rightSource,
@@ -46,8 +59,17 @@ public class GHJOperator extends JoinOperator {
             // instead we'll accumulate all of our joined records in this run
             // and return an iterator over it once the algorithm completes
             this.joinedRecords = new Run(getTransaction(), getSchema());
-            this.run(getLeftSource(), getRightSource(), 1);
+            int numWorkers = Math.min(ParallelUtil.getParallelism(getTransaction()),
+                                      this.numBuffers / MIN_WORKER_BUFFERS);
+            if (numWorkers > 1) {
+                this.parallelRun(numWorkers);
+            } else {
+                this.run(getLeftSource(), getRightSource(), 1);
+            }
         };
+        if (joinedRuns != null) {
+            return new ConcatBacktrackingIterator<>(new ArrayBacktrackingIterator<>(joinedRuns));
+        }
         return joinedRecords.iterator();
     }
 
@@ -90,6 +112,18 @@ public class GHJOperator extends JoinOperator {
      * matching records found during the probing stage to this.joinedRecords.
      */
     private void buildAndProbe(Partition leftPartition, Partition rightPartition) {
+        buildAndProbe(leftPartition, leftPartition.getNumPages(), rightPartition, rightPartition.getNumPages(),
+                      this.numBuffers, this.joinedRecords);
+    }
+
+    /**
+     * Same as buildAndProbe(leftPartition, rightPartition), for the records
+     * of a partition stored on `leftPages` and `rightPages` pages, with
+     * `numBuffers` buffers, adding the matching records found to `output`.
+     */
+    private void buildAndProbe(Iterable<Record> leftPartition, int leftPages,
+                               Iterable<Record> rightPartition, int rightPages,
+                               int numBuffers, Run output) {
         // true if the probe records come from the left partition, false otherwise
         boolean probeFirst;
         // We'll build our in memory hash table with these records
@@ -101,13 +135,13 @@ public class GHJOperator extends JoinOperator {
         // The index of the join column for the probe records
         int probeColumnIndex;
 
-        if (leftPartition.getNumPages() <= this.numBuffers - 2) {
+        if (leftPages <= numBuffers - 2) {
             buildRecords = leftPartition;
             buildColumnIndex = getLeftColumnIndex();
             probeRecords = rightPartition;
             probeColumnIndex = getRightColumnIndex();
             probeFirst = false;
-        } else if (rightPartition.getNumPages() <= this.numBuffers - 2) {
+        } else if (rightPages <= numBuffers - 2) {
             buildRecords = rightPartition;
             buildColumnIndex = getRightColumnIndex();
             probeRecords = leftPartition;
@@ -144,8 +178,8 @@ public class GHJOperator extends JoinOperator {
             // a matching key
             for (Record buildRecord : hashTable.get(probeJoinValue)) {
                 Record joinedRecord = buildRecord.concat(probeRecord);
-                // Accumulate joined records in this.joinedRecords
-                this.joinedRecords.add(joinedRecord);
+                // Accumulate joined records in the output run
+                output.add(joinedRecord);
             }
         }
 
@@ -196,6 +230,138 @@ public class GHJOperator extends JoinOperator {
         }
     }
 
+    /**
+     * Runs the grace hash join algorithm with `numWorkers` threads of the
+     * transaction's worker pool, which share the transaction's buffers.
+     *
+     * Both inputs are partitioned by the workers: this thread reads the
+     * records of an input a page at a time and queues the pages, and each
+     * worker takes pages from the queue and partitions their records into
+     * its own set of partitions. With B / numWorkers buffers, a worker needs
+     * one buffer for its input page, one for the page it may have queued,
+     * and one for each of its partitions. Partition i of the input is then
+     * made of partition i of every worker.
+     *
+     * The pairs of partitions are then built and probed by the workers, each
+     * with its share of the buffers, into a run per pair. Pairs where neither
+     * side fits in a worker's share are joined afterwards by this thread,
+     * with all the buffers (see run).
+     */
+    private void parallelRun(int numWorkers) {
+        int workerBuffers = this.numBuffers / numWorkers;
+        int numPartitions = workerBuffers - 2;
+        Partition[][] leftPartitions = parallelPartition(getLeftSource(), true, numWorkers, numPartitions);
+        Partition[][] rightPartitions = parallelPartition(getRightSource(), false, numWorkers, numPartitions);
+
+        List<Callable<Run>> joins = new ArrayList<>();
+        List<Integer> oversized = new ArrayList<>();
+        for (int i = 0; i < numPartitions; i++) {
+            List<BacktrackingIterable<Record>> left = new ArrayList<>();
+            List<BacktrackingIterable<Record>> right = new ArrayList<>();
+            int leftPages = 0;
+            int rightPages = 0;
+            for (int w = 0; w < numWorkers; w++) {
+                left.add(leftPartitions[w][i]);
+                leftPages += leftPartitions[w][i].getNumPages();
+                right.add(rightPartitions[w][i]);
+                rightPages += rightPartitions[w][i].getNumPages();
+            }
+            if (Math.min(leftPages, rightPages) > workerBuffers - 2) {
+                oversized.add(i);
+                continue;
+            }
+            int numLeftPages = leftPages;
+            int numRightPages = rightPages;
+            joins.add(() -> {
+                Run output = new Run(getTransaction(), getSchema());
+                buildAndProbe(concat(left), numLeftPages, concat(right), numRightPages, workerBuffers, output);
+                return output;
+            });
+        }
+        this.joinedRuns = new ArrayList<>(ParallelUtil.runAll(getTransaction(), numWorkers, joins));
+
+        for (int i : oversized) {
+            List<BacktrackingIterable<Record>> left = new ArrayList<>();
+            List<BacktrackingIterable<Record>> right = new ArrayList<>();
+            for (int w = 0; w < numWorkers; w++) {
+                left.add(leftPartitions[w][i]);
+                right.add(rightPartitions[w][i]);
+            }
+            this.run(concat(left), concat(right), 2);
+        }
+        this.joinedRuns.add(this.joinedRecords);
+    }
+
+    /**
+     * Partitions the records of `source` with `numWorkers` workers, each
+     * into its own `numPartitions` partitions, using the hash function of the
+     * first pass.
+     *
+     * @return the partitions of each worker
+     */
+    private Partition[][] parallelPartition(QueryOperator source, boolean left, int numWorkers, int numPartitions) {
+        Partition[][] partitions = new Partition[numWorkers][numPartitions];
+        for (int w = 0; w < numWorkers; w++) {
+            for (int i = 0; i < numPartitions; i++) {
+                partitions[w][i] = createPartition(left);
+            }
+        }
+        // pages of records to partition, and an empty page for each worker
+        // to mark the end of the input
+        BlockingQueue<List<Record>> pages = new ArrayBlockingQueue<>(numWorkers);
+        List<Record> end = new ArrayList<>();
+        List<Callable<Void>> producers = new ArrayList<>();
+        for (int w = 0; w < numWorkers; w++) {
+            Partition[] workerPartitions = partitions[w];
+            producers.add(() -> {
+                RuntimeException error = null;
+                List<Record> page;
+                // keep taking pages after an error, so that this thread
+                // doesn't wait on a full queue
+                while ((page = pages.take()) != end) {
+                    try {
+                        if (error == null) partition(workerPartitions, page, left, 1);
+                    } catch (RuntimeException e) {
+                        error = e;
+                    }
+                }
+                if (error != null) throw error;
+                return null;
+            });
+        }
+        ForkJoinPool pool = getTransaction().getWorkerPool();
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> producer : producers) futures.add(pool.submit(producer));
+        try {
+            Iterator<Record> records = source.iterator();
+            while (records.hasNext()) {
+                List<Record> page = new ArrayList<>();
+                getBlockIterator(records, source.getSchema(), 1).forEachRemaining(page::add);
+                pages.put(page);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException(e);
+        } finally {
+            for (int w = 0; w < numWorkers; w++) {
+                try {
+                    pages.put(end);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        for (Future<Void> future : futures) ParallelUtil.join(future);
+        return partitions;
+    }
+
+    /**
+     * @return the records of `iterables`, one after the other
+     */
+    private static Iterable<Record> concat(List<BacktrackingIterable<Record>> iterables) {
+        return () -> new ConcatBacktrackingIterator<>(new ArrayBacktrackingIterator<>(iterables));
+    }
+
     // Provided Helpers ////////////////////////////////////////////////////////
 
     /**
@@ -147,11 +147,16 @@ public class LFJOperator extends JoinOperator {
 
                 if (LFJOcompare(x, y, p, isZeroLeftSource) == 0) {
                     // All iters at same key
-                    for (Integer indexX : iters[p].indicesWithValue(x, p, isZeroLeftSource)) {
-                        for (Integer indexY : iters[Math.floorMod(p - 1, 2)].indicesWithValue(y, Math.floorMod(p - 1, 2), isZeroLeftSource)) {
+                    // Joined records are left record first, whichever iterator is at p
+                    boolean isPLeftSource = (p == 0) == isZeroLeftSource;
+                    // Each iterator is searched with the other's key, since
+                    // LFJOcompare compares against a record of the other source
+                    for (Integer indexX : iters[p].indicesWithValue(y, p, isZeroLeftSource)) {
+                        for (Integer indexY : iters[Math.floorMod(p - 1, 2)].indicesWithValue(x, Math.floorMod(p - 1, 2), isZeroLeftSource)) {
+                            Record recordX = iters[p].keyAt(indexX);
+                            Record recordY = iters[Math.floorMod(p - 1, 2)].keyAt(indexY);
                             this.savedRecordsToReturn.add(
-                                    iters[p].keyAt(indexX)
-                                            .concat(iters[Math.floorMod(p - 1, 2)].keyAt(indexY)));
+                                    isPLeftSource ? recordX.concat(recordY) : recordY.concat(recordX));
                             iters[p].resetToIndex(indexX);
                             iters[Math.floorMod(p - 1, 2)].resetToIndex(indexY);
                         }
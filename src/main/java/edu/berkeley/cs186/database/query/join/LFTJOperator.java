@@ -158,8 +158,10 @@ public class LFTJOperator extends JoinOperator {
             }
             this.depth -= 1; // While loop adds extra depth
             // Concat all records that share these column values and store additional records we can't return right away
-            for (Record r1 : iters[0].currNode.getRecords()) {
-                for (Record r2 : iters[1].currNode.getRecords()) {
+            LeapfrogTrieIterator left = iters[0].currNode.isLeftSource ? iters[0] : iters[1];
+            LeapfrogTrieIterator right = left == iters[0] ? iters[1] : iters[0];
+            for (Record r1 : left.currNode.getRecords()) {
+                for (Record r2 : right.currNode.getRecords()) {
                     savedRecordsToReturn.add(r1.concat(r2));
                 }
             }
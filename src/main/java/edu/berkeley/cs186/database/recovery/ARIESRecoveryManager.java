@@ -9,7 +9,9 @@ import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.*;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 
 /**
@@ -35,6 +37,30 @@ public class ARIESRecoveryManager implements RecoveryManager {
     // to prevent DPT entries from being flushed during restartRedo.
     boolean redoComplete;
 
+    // Page updates are redone in batches of at most this many records...
+    static final int REDO_BATCH_SIZE = 4096;
+    // ...and batches smaller than this are redone on the recovering thread.
+    static final int PARALLEL_REDO_THRESHOLD = 64;
+    // Number of threads page updates are redone on.
+    private int redoThreads = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+
+    // A checkpoint is taken in the background whenever this many bytes of log
+    // have been written since the last one (0 to never take one).
+    static final long DEFAULT_CHECKPOINT_VOLUME = 4 * 1024 * 1024;
+    private volatile long checkpointVolume = DEFAULT_CHECKPOINT_VOLUME;
+    // Held while taking a checkpoint, so that checkpoints don't interleave.
+    private final Object checkpointLock = new Object();
+    // Held shared by a thread from appending a log record until the
+    // transaction table and DPT reflect the record, and exclusively by
+    // checkpoint while appending its begin record. The tables a checkpoint
+    // reads then reflect every record before its begin record.
+    private final ReadWriteLock logLatch = new ReentrantReadWriteLock();
+    // LSN of the begin checkpoint record of the last checkpoint.
+    private volatile long lastCheckpointLSN = 0;
+    // Bytes of log before the last checkpoint, and of its own records.
+    private volatile long lastCheckpointBytes = 0;
+    private Checkpointer checkpointer;
+
     public ARIESRecoveryManager(Function<Long, Transaction> newTransaction) {
         this.newTransaction = newTransaction;
     }
@@ -64,7 +90,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
     public void setManagers(DiskSpaceManager diskSpaceManager, BufferManager bufferManager) {
         this.diskSpaceManager = diskSpaceManager;
         this.bufferManager = bufferManager;
-        this.logManager = new LogManager(bufferManager);
+        this.logManager = new LogManager(diskSpaceManager);
     }
 
     // Forward Processing //////////////////////////////////////////////////////
@@ -78,7 +104,12 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public synchronized void startTransaction(Transaction transaction) {
-        this.transactionTable.put(transaction.getTransNum(), new TransactionTableEntry(transaction));
+        TransactionTableEntry entry = new TransactionTableEntry(transaction);
+        // Records appended from now on go after the flushed part of the log.
+        // Transactions started before redo is complete are the ones restart
+        // recovery finds in the log, which may have records anywhere in it.
+        if (redoComplete) entry.startLSN = logManager.getFlushedLSN() + 1;
+        this.transactionTable.put(transaction.getTransNum(), entry);
     }
 
     /**
@@ -86,14 +117,47 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *
      * A commit record should be appended, the log should be flushed,
      * and the transaction table and the transaction status should be updated.
+     * The flush is shared with the other transactions committing at the same
+     * time (see LogManager#awaitFlush).
      *
      * @param transNum transaction being committed
      * @return LSN of the commit record
      */
     @Override
     public long commit(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        long LSN;
+        logLatch.readLock().lock();
+        try {
+            LogRecord record = new CommitTransactionLogRecord(transNum, transactionEntry.lastLSN);
+            LSN = logManager.appendToLog(record);
+            transactionEntry.lastLSN = LSN;
+        } finally {
+            logLatch.readLock().unlock();
+        }
+        logManager.awaitFlush(LSN);
+        transactionEntry.transaction.setStatus(Transaction.Status.COMMITTING);
+        return LSN;
+    }
+
+    /**
+     * Sets how commits are batched into log flushes (see
+     * LogManager#setGroupCommit).
+     */
+    @Override
+    public void setGroupCommit(long maxWaitMillis, int maxBatchSize) {
+        logManager.setGroupCommit(maxWaitMillis, maxBatchSize);
+    }
+
+    /**
+     * Sets where the log removed after checkpoints is archived (see
+     * LogManager#setArchiveDirectory).
+     */
+    @Override
+    public void setLogArchive(String directory) {
+        logManager.setArchiveDirectory(directory);
     }
 
     /**
@@ -108,8 +172,19 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long abort(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        logLatch.readLock().lock();
+        try {
+            LogRecord record = new AbortTransactionLogRecord(transNum, transactionEntry.lastLSN);
+            long LSN = logManager.appendToLog(record);
+            transactionEntry.lastLSN = LSN;
+            transactionEntry.transaction.setStatus(Transaction.Status.ABORTING);
+            return LSN;
+        } finally {
+            logLatch.readLock().unlock();
+        }
     }
 
     /**
@@ -126,8 +201,24 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long end(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        Transaction.Status status = transactionEntry.transaction.getStatus();
+        if (status == Transaction.Status.ABORTING || status == Transaction.Status.RECOVERY_ABORTING) {
+            rollbackToLSN(transNum, 0L);
+        }
+        long LSN;
+        logLatch.readLock().lock();
+        try {
+            LogRecord record = new EndTransactionLogRecord(transNum, transactionEntry.lastLSN);
+            LSN = logManager.appendToLog(record);
+            transactionTable.remove(transNum);
+        } finally {
+            logLatch.readLock().unlock();
+        }
+        transactionEntry.transaction.setStatus(Transaction.Status.COMPLETE);
+        return LSN;
     }
 
     /**
@@ -154,7 +245,21 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // Small optimization: if the last record is a CLR we can start rolling
         // back from the next record that hasn't yet been undone.
         long currentLSN = lastRecord.getUndoNextLSN().orElse(lastRecordLSN);
-        // TODO(proj5) implement the rollback logic described above
+        while (currentLSN > LSN) {
+            LogRecord record = logManager.fetchLogRecord(currentLSN);
+            if (record.isUndoable()) {
+                LogRecord clr = record.undo(transactionEntry.lastLSN);
+                // redoing the CLR adds its page to the DPT
+                logLatch.readLock().lock();
+                try {
+                    transactionEntry.lastLSN = logManager.appendToLog(clr);
+                    clr.redo(this, diskSpaceManager, bufferManager);
+                } finally {
+                    logLatch.readLock().unlock();
+                }
+            }
+            currentLSN = record.getUndoNextLSN().orElse(record.getPrevLSN().orElse(0L));
+        }
     }
 
     /**
@@ -204,8 +309,21 @@ public class ARIESRecoveryManager implements RecoveryManager {
                              byte[] after) {
         assert (before.length == after.length);
         assert (before.length <= BufferManager.EFFECTIVE_PAGE_SIZE / 2);
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        logLatch.readLock().lock();
+        try {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord record = new UpdatePageLogRecord(transNum, pageNum, prevLSN, pageOffset, before, after);
+            long LSN = logManager.appendToLog(record);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+            dirtyPage(pageNum, LSN);
+            return LSN;
+        } finally {
+            logLatch.readLock().unlock();
+        }
     }
 
     /**
@@ -228,11 +346,17 @@ public class ARIESRecoveryManager implements RecoveryManager {
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
         assert (transactionEntry != null);
 
-        long prevLSN = transactionEntry.lastLSN;
-        LogRecord record = new AllocPartLogRecord(transNum, partNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
-        // Update lastLSN
-        transactionEntry.lastLSN = LSN;
+        long LSN;
+        logLatch.readLock().lock();
+        try {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord record = new AllocPartLogRecord(transNum, partNum, prevLSN);
+            LSN = logManager.appendToLog(record);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+        } finally {
+            logLatch.readLock().unlock();
+        }
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -259,11 +383,17 @@ public class ARIESRecoveryManager implements RecoveryManager {
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
         assert (transactionEntry != null);
 
-        long prevLSN = transactionEntry.lastLSN;
-        LogRecord record = new FreePartLogRecord(transNum, partNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
-        // Update lastLSN
-        transactionEntry.lastLSN = LSN;
+        long LSN;
+        logLatch.readLock().lock();
+        try {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord record = new FreePartLogRecord(transNum, partNum, prevLSN);
+            LSN = logManager.appendToLog(record);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+        } finally {
+            logLatch.readLock().unlock();
+        }
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -290,11 +420,17 @@ public class ARIESRecoveryManager implements RecoveryManager {
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
         assert (transactionEntry != null);
 
-        long prevLSN = transactionEntry.lastLSN;
-        LogRecord record = new AllocPageLogRecord(transNum, pageNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
-        // Update lastLSN
-        transactionEntry.lastLSN = LSN;
+        long LSN;
+        logLatch.readLock().lock();
+        try {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord record = new AllocPageLogRecord(transNum, pageNum, prevLSN);
+            LSN = logManager.appendToLog(record);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+        } finally {
+            logLatch.readLock().unlock();
+        }
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -321,12 +457,18 @@ public class ARIESRecoveryManager implements RecoveryManager {
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
         assert (transactionEntry != null);
 
-        long prevLSN = transactionEntry.lastLSN;
-        LogRecord record = new FreePageLogRecord(transNum, pageNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
-        // Update lastLSN
-        transactionEntry.lastLSN = LSN;
-        dirtyPageTable.remove(pageNum);
+        long LSN;
+        logLatch.readLock().lock();
+        try {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord record = new FreePageLogRecord(transNum, pageNum, prevLSN);
+            LSN = logManager.appendToLog(record);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+            dirtyPageTable.remove(pageNum);
+        } finally {
+            logLatch.readLock().unlock();
+        }
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -379,9 +521,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
         // All of the transaction's changes strictly after the record at LSN should be undone.
         long savepointLSN = transactionEntry.getSavepoint(name);
-
-        // TODO(proj5): implement
-        return;
+        rollbackToLSN(transNum, savepointLSN);
     }
 
     /**
@@ -396,28 +536,139 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * figure out when to write an end checkpoint record.
      *
      * Finally, the master record should be rewritten with the LSN of the
-     * begin checkpoint record.
+     * begin checkpoint record, after which the log before the oldest record
+     * restart recovery could still need is removed (see truncateLog).
+     *
+     * Checkpoints are fuzzy: the DPT and transaction table are read while
+     * transactions keep running, and nothing is flushed but the log. Anything
+     * that changes after the begin checkpoint record is also in the log after
+     * it, which is where analysis picks up from the end checkpoint records.
+     * Records before the begin checkpoint record are already in the tables,
+     * since their loggers hold logLatch until the tables are updated.
      */
     @Override
-    public synchronized void checkpoint() {
-        // Create begin checkpoint log record and write to log
-        LogRecord beginRecord = new BeginCheckpointLogRecord();
-        long beginLSN = logManager.appendToLog(beginRecord);
+    public void checkpoint() {
+        synchronized (checkpointLock) {
+            // Create begin checkpoint log record and write to log, once no
+            // thread is between appending a record and updating the tables
+            long beginLSN;
+            // Bytes of log before this checkpoint, plus those of its own
+            // records: records appended by other threads meanwhile count
+            // towards the next checkpoint
+            long checkpointBytes;
+            logLatch.writeLock().lock();
+            try {
+                LogRecord beginRecord = new BeginCheckpointLogRecord();
+                checkpointBytes = logManager.getAppendedBytes() + beginRecord.toBytes().length;
+                beginLSN = logManager.appendToLog(beginRecord);
+            } finally {
+                logLatch.writeLock().unlock();
+            }
 
-        Map<Long, Long> chkptDPT = new HashMap<>();
-        Map<Long, Pair<Transaction.Status, Long>> chkptTxnTable = new HashMap<>();
+            Map<Long, Long> chkptDPT = new HashMap<>();
+            Map<Long, Pair<Transaction.Status, Long>> chkptTxnTable = new HashMap<>();
+            // Smallest recLSN in the checkpoint, where redo would start
+            long redoLSN = beginLSN;
 
-        // TODO(proj5): generate end checkpoint record(s) for DPT and transaction table
+            for (Map.Entry<Long, Long> entry : dirtyPageTable.entrySet()) {
+                redoLSN = Math.min(redoLSN, entry.getValue());
+                if (!EndCheckpointLogRecord.fitsInOneRecord(chkptDPT.size() + 1, chkptTxnTable.size())) {
+                    checkpointBytes += appendEndCheckpoint(chkptDPT, chkptTxnTable);
+                    chkptDPT.clear();
+                }
+                chkptDPT.put(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
+                if (!EndCheckpointLogRecord.fitsInOneRecord(chkptDPT.size(), chkptTxnTable.size() + 1)) {
+                    checkpointBytes += appendEndCheckpoint(chkptDPT, chkptTxnTable);
+                    chkptDPT.clear();
+                    chkptTxnTable.clear();
+                }
+                TransactionTableEntry transactionEntry = entry.getValue();
+                chkptTxnTable.put(entry.getKey(), new Pair<>(
+                        transactionEntry.transaction.getStatus(), transactionEntry.lastLSN));
+            }
 
-        // Last end checkpoint record
-        LogRecord endRecord = new EndCheckpointLogRecord(chkptDPT, chkptTxnTable);
-        logManager.appendToLog(endRecord);
-        // Ensure checkpoint is fully flushed before updating the master record
-        flushToLSN(endRecord.getLSN());
+            // Last end checkpoint record
+            LogRecord endRecord = new EndCheckpointLogRecord(chkptDPT, chkptTxnTable);
+            checkpointBytes += endRecord.toBytes().length;
+            logManager.appendToLog(endRecord);
+            // Ensure checkpoint is fully flushed before updating the master record
+            flushToLSN(endRecord.getLSN());
 
-        // Update master record
-        MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
-        logManager.rewriteMasterRecord(masterRecord);
+            // Update master record
+            MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
+            logManager.rewriteMasterRecord(masterRecord);
+
+            lastCheckpointLSN = beginLSN;
+            lastCheckpointBytes = checkpointBytes;
+            truncateLog(redoLSN);
+        }
+    }
+
+    /**
+     * Appends an end checkpoint record with the given entries.
+     *
+     * @return the size of the record in bytes
+     */
+    private int appendEndCheckpoint(Map<Long, Long> chkptDPT,
+                                    Map<Long, Pair<Transaction.Status, Long>> chkptTxnTable) {
+        LogRecord record = new EndCheckpointLogRecord(chkptDPT, chkptTxnTable);
+        logManager.appendToLog(record);
+        return record.toBytes().length;
+    }
+
+    /**
+     * Removes the log before the oldest record restart recovery could need
+     * if we crashed now: analysis starts at the last checkpoint, redo at the
+     * smallest recLSN of the checkpoint's DPT (`redoLSN`) or of a page dirtied
+     * since, and undo goes back to the first record of each transaction
+     * still running.
+     */
+    private void truncateLog(long redoLSN) {
+        long LSN = redoLSN;
+        for (long recLSN : dirtyPageTable.values()) {
+            LSN = Math.min(LSN, recLSN);
+        }
+        for (TransactionTableEntry entry : transactionTable.values()) {
+            LSN = Math.min(LSN, entry.startLSN);
+        }
+        logManager.truncate(LSN);
+    }
+
+    /**
+     * Sets how many bytes of log may be written before a checkpoint is taken
+     * in the background. 0 disables background checkpoints.
+     */
+    public void setCheckpointVolume(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("checkpoint volume must not be negative");
+        }
+        this.checkpointVolume = bytes;
+    }
+
+    /**
+     * @return whether enough log has been written since the last checkpoint
+     * to take another
+     */
+    boolean needsCheckpoint() {
+        long volume = checkpointVolume;
+        return volume > 0 && logManager.getAppendedBytes() - lastCheckpointBytes >= volume;
+    }
+
+    /**
+     * Writes out the pages that have been dirty since before the begin
+     * checkpoint record of the last checkpoint, so that the next checkpoint
+     * moves the point redo starts from past it. Pages are written one at a
+     * time, each once the threads using it have unpinned it.
+     */
+    void flushOldPages() {
+        long before = lastCheckpointLSN;
+        for (Map.Entry<Long, Long> entry : dirtyPageTable.entrySet()) {
+            if (entry.getValue() < before) {
+                bufferManager.flush(entry.getKey());
+            }
+        }
     }
 
     /**
@@ -442,12 +693,27 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     @Override
     public void close() {
+        if (this.checkpointer != null) {
+            this.checkpointer.stop();
+            this.checkpointer = null;
+        }
         this.checkpoint();
         this.logManager.close();
     }
 
     // Restart Recovery ////////////////////////////////////////////////////////
 
+    /**
+     * Sets the number of threads the redo pass of restart recovery redoes page
+     * updates on (see restartRedo).
+     */
+    public void setRedoThreads(int redoThreads) {
+        if (redoThreads < 1) {
+            throw new IllegalArgumentException("redo needs at least one thread");
+        }
+        this.redoThreads = redoThreads;
+    }
+
     /**
      * Called whenever the database starts up, and performs restart recovery.
      * Recovery is complete when the Runnable returned is run to termination.
@@ -466,6 +732,9 @@ public class ARIESRecoveryManager implements RecoveryManager {
         this.cleanDPT();
         this.restartUndo();
         this.checkpoint();
+        if (this.checkpointer != null) this.checkpointer.stop();
+        this.checkpointer = new Checkpointer(this, Checkpointer.DEFAULT_INTERVAL_MILLIS);
+        this.checkpointer.start();
     }
 
     /**
@@ -519,8 +788,94 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long LSN = masterRecord.lastCheckpointLSN;
         // Set of transactions that have completed
         Set<Long> endedTransactions = new HashSet<>();
-        // TODO(proj5): implement
-        return;
+
+        Iterator<LogRecord> records = logManager.scanFrom(LSN);
+        while (records.hasNext()) {
+            record = records.next();
+            if (record.getTransNum().isPresent()) {
+                long transNum = record.getTransNum().get();
+                if (!transactionTable.containsKey(transNum)) {
+                    startTransaction(newTransaction.apply(transNum));
+                }
+                transactionTable.get(transNum).lastLSN = record.getLSN();
+            }
+            if (record.getPageNum().isPresent()) {
+                long pageNum = record.getPageNum().get();
+                switch (record.getType()) {
+                case UPDATE_PAGE:
+                case UNDO_UPDATE_PAGE:
+                    dirtyPageTable.putIfAbsent(pageNum, record.getLSN());
+                    break;
+                case FREE_PAGE:
+                case UNDO_ALLOC_PAGE:
+                    dirtyPageTable.remove(pageNum);
+                    break;
+                default:
+                    break;
+                }
+            }
+            switch (record.getType()) {
+            case COMMIT_TRANSACTION:
+                transactionTable.get(record.getTransNum().get()).transaction
+                        .setStatus(Transaction.Status.COMMITTING);
+                break;
+            case ABORT_TRANSACTION:
+                transactionTable.get(record.getTransNum().get()).transaction
+                        .setStatus(Transaction.Status.RECOVERY_ABORTING);
+                break;
+            case END_TRANSACTION: {
+                long transNum = record.getTransNum().get();
+                Transaction transaction = transactionTable.remove(transNum).transaction;
+                transaction.cleanup();
+                transaction.setStatus(Transaction.Status.COMPLETE);
+                endedTransactions.add(transNum);
+                break;
+            }
+            case END_CHECKPOINT:
+                dirtyPageTable.putAll(record.getDirtyPageTable());
+                for (Map.Entry<Long, Pair<Transaction.Status, Long>> e : record.getTransactionTable().entrySet()) {
+                    long transNum = e.getKey();
+                    if (endedTransactions.contains(transNum)) continue;
+                    if (!transactionTable.containsKey(transNum)) {
+                        startTransaction(newTransaction.apply(transNum));
+                    }
+                    TransactionTableEntry entry = transactionTable.get(transNum);
+                    entry.lastLSN = Math.max(entry.lastLSN, e.getValue().getSecond());
+                    // only move the status forward: the log records read so
+                    // far are more recent than the checkpoint
+                    Transaction.Status status = e.getValue().getFirst();
+                    if (entry.transaction.getStatus() == Transaction.Status.RUNNING) {
+                        if (status == Transaction.Status.ABORTING) {
+                            entry.transaction.setStatus(Transaction.Status.RECOVERY_ABORTING);
+                        } else if (status == Transaction.Status.COMMITTING) {
+                            entry.transaction.setStatus(Transaction.Status.COMMITTING);
+                        }
+                    }
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        for (TransactionTableEntry entry : new ArrayList<>(transactionTable.values())) {
+            Transaction transaction = entry.transaction;
+            long transNum = transaction.getTransNum();
+            switch (transaction.getStatus()) {
+            case COMMITTING:
+                transaction.cleanup();
+                transaction.setStatus(Transaction.Status.COMPLETE);
+                logManager.appendToLog(new EndTransactionLogRecord(transNum, entry.lastLSN));
+                transactionTable.remove(transNum);
+                break;
+            case RUNNING:
+                transaction.setStatus(Transaction.Status.RECOVERY_ABORTING);
+                entry.lastLSN = logManager.appendToLog(new AbortTransactionLogRecord(transNum, entry.lastLSN));
+                break;
+            default:
+                break;
+            }
+        }
     }
 
     /**
@@ -534,10 +889,132 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * - modifies a page (Update/UndoUpdate/Free/UndoAlloc....Page) in
      *   the dirty page table with LSN >= recLSN, the page is fetched from disk,
      *   the pageLSN is checked, and the record is redone if needed.
+     *
+     * Page updates only depend on earlier updates of the same page, so they
+     * are collected into batches and each batch is partitioned by page
+     * number across redoThreads threads, each of which redoes the updates of
+     * its pages in LSN order. Before redoing its updates, each thread reads
+     * the pages it will need in page number order, so that the pages are read
+     * sequentially rather than in log order. All other records change the
+     * disk space manager, so the pending batch is finished before they are
+     * redone on the recovering thread.
      */
     void restartRedo() {
-        // TODO(proj5): implement
-        return;
+        if (dirtyPageTable.isEmpty()) return;
+        long startLSN = Collections.min(dirtyPageTable.values());
+
+        ExecutorService workers = null;
+        if (redoThreads > 1) {
+            workers = Executors.newFixedThreadPool(redoThreads, r -> {
+                Thread thread = new Thread(r, "redo");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        try {
+            List<LogRecord> batch = new ArrayList<>();
+            Iterator<LogRecord> records = logManager.scanFrom(startLSN);
+            while (records.hasNext()) {
+                LogRecord record = records.next();
+                if (!record.isRedoable()) continue;
+                switch (record.getType()) {
+                case UPDATE_PAGE:
+                case UNDO_UPDATE_PAGE:
+                    if (!isDirtyAt(record)) break;
+                    batch.add(record);
+                    if (batch.size() >= REDO_BATCH_SIZE) redoBatch(batch, workers);
+                    break;
+                case FREE_PAGE:
+                case UNDO_ALLOC_PAGE:
+                    if (!isDirtyAt(record)) break;
+                    redoBatch(batch, workers);
+                    redoIfNewer(record);
+                    break;
+                default:
+                    // partition operations and page allocations
+                    redoBatch(batch, workers);
+                    record.redo(this, diskSpaceManager, bufferManager);
+                    break;
+                }
+            }
+            redoBatch(batch, workers);
+        } finally {
+            if (workers != null) workers.shutdown();
+        }
+    }
+
+    /**
+     * @return whether the page of `record` was dirty when `record` was
+     * written, according to the dirty page table
+     */
+    private boolean isDirtyAt(LogRecord record) {
+        Long recLSN = dirtyPageTable.get(record.getPageNum().get());
+        return recLSN != null && record.getLSN() >= recLSN;
+    }
+
+    /**
+     * Redoes `record` if its page does not already reflect it.
+     */
+    private void redoIfNewer(LogRecord record) {
+        Page page = bufferManager.fetchPage(new DummyLockContext(), record.getPageNum().get());
+        try {
+            if (page.getPageLSN() >= record.getLSN()) return;
+        } finally {
+            page.unpin();
+        }
+        record.redo(this, diskSpaceManager, bufferManager);
+    }
+
+    /**
+     * Redoes a batch of page updates (see restartRedo), and empties it.
+     */
+    private void redoBatch(List<LogRecord> batch, ExecutorService workers) {
+        if (batch.isEmpty()) return;
+        if (workers == null || batch.size() < PARALLEL_REDO_THRESHOLD) {
+            for (LogRecord record : batch) redoIfNewer(record);
+            batch.clear();
+            return;
+        }
+        List<List<LogRecord>> partitions = new ArrayList<>();
+        for (int i = 0; i < redoThreads; ++i) partitions.add(new ArrayList<>());
+        for (LogRecord record : batch) {
+            int partition = Math.floorMod(Long.hashCode(record.getPageNum().get()), redoThreads);
+            partitions.get(partition).add(record);
+        }
+        // leave half of the buffer to pages that are not being prefetched
+        int prefetchPages = bufferManager.getNumFrames() / (2 * redoThreads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (List<LogRecord> partition : partitions) {
+            if (partition.isEmpty()) continue;
+            futures.add(workers.submit(() -> {
+                prefetch(partition, prefetchPages);
+                for (LogRecord record : partition) redoIfNewer(record);
+            }));
+        }
+        try {
+            for (Future<?> future : futures) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted during redo", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        batch.clear();
+    }
+
+    /**
+     * Reads up to `maxPages` of the pages updated by `records` into the
+     * buffer, in page number order.
+     */
+    private void prefetch(List<LogRecord> records, int maxPages) {
+        SortedSet<Long> pageNums = new TreeSet<>();
+        for (LogRecord record : records) pageNums.add(record.getPageNum().get());
+        for (long pageNum : pageNums) {
+            if (maxPages-- <= 0) break;
+            bufferManager.fetchPage(new DummyLockContext(), pageNum).unpin();
+        }
     }
 
     /**
@@ -554,8 +1031,32 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *   and remove from transaction table.
      */
     void restartUndo() {
-        // TODO(proj5): implement
-        return;
+        PriorityQueue<Pair<Long, Long>> toUndo = new PriorityQueue<>(new PairFirstReverseComparator<>());
+        for (TransactionTableEntry entry : transactionTable.values()) {
+            if (entry.transaction.getStatus() == Transaction.Status.RECOVERY_ABORTING) {
+                toUndo.add(new Pair<>(entry.lastLSN, entry.transaction.getTransNum()));
+            }
+        }
+        while (!toUndo.isEmpty()) {
+            Pair<Long, Long> next = toUndo.poll();
+            long transNum = next.getSecond();
+            TransactionTableEntry entry = transactionTable.get(transNum);
+            LogRecord record = logManager.fetchLogRecord(next.getFirst());
+            if (record.isUndoable()) {
+                LogRecord clr = record.undo(entry.lastLSN);
+                entry.lastLSN = logManager.appendToLog(clr);
+                clr.redo(this, diskSpaceManager, bufferManager);
+            }
+            long undoNextLSN = record.getUndoNextLSN().orElse(record.getPrevLSN().orElse(0L));
+            if (undoNextLSN == 0L) {
+                entry.transaction.cleanup();
+                entry.transaction.setStatus(Transaction.Status.COMPLETE);
+                logManager.appendToLog(new EndTransactionLogRecord(transNum, entry.lastLSN));
+                transactionTable.remove(transNum);
+            } else {
+                toUndo.add(new Pair<>(undoNextLSN, transNum));
+            }
+        }
     }
 
     /**
@@ -0,0 +1,68 @@
+package edu.berkeley.cs186.database.recovery;
+
+/**
+ * A background thread that takes a checkpoint (see
+ * ARIESRecoveryManager#checkpoint) whenever enough log has been written since
+ * the last one, which bounds how much log the analysis pass of restart
+ * recovery has to read.
+ *
+ * Redo starts at the smallest recLSN of the dirty page table, so a page that
+ * stays dirty in the buffer for a long time would keep redo starting further
+ * and further back, however often checkpoints are taken. Before each
+ * checkpoint, the checkpointer therefore also writes out the pages that have
+ * been dirty since before the previous checkpoint, so that the redo start
+ * point advances by at least one checkpoint each time.
+ */
+class Checkpointer {
+    // The time between checks of the log volume, in milliseconds.
+    static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private final ARIESRecoveryManager recoveryManager;
+    private final long intervalMillis;
+    private final Thread thread;
+    private volatile boolean stopped = false;
+
+    Checkpointer(ARIESRecoveryManager recoveryManager, long intervalMillis) {
+        this.recoveryManager = recoveryManager;
+        this.intervalMillis = intervalMillis;
+        this.thread = new Thread(this::run, "checkpointer");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the checkpointer, waiting for a checkpoint in progress to finish.
+     */
+    void stop() {
+        stopped = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (!stopped) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                if (recoveryManager.needsCheckpoint()) {
+                    recoveryManager.flushOldPages();
+                    recoveryManager.checkpoint();
+                }
+            } catch (RuntimeException e) {
+                // a failed checkpoint is retried at the next check, rather
+                // than stopping checkpoints for the life of the database
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -27,6 +27,12 @@ public class DummyRecoveryManager implements RecoveryManager {
         return 0L;
     }
 
+    @Override
+    public void setGroupCommit(long maxWaitMillis, int maxBatchSize) {}
+
+    @Override
+    public void setLogArchive(String directory) {}
+
     @Override
     public long abort(long transNum) {
         throw new UnsupportedOperationException("proj5 must be implemented to use abort");
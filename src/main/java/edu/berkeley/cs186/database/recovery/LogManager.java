@@ -1,73 +1,240 @@
 package edu.berkeley.cs186.database.recovery;
 
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.ConcatBacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.IndexBacktrackingIterator;
-import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
-import edu.berkeley.cs186.database.io.PageException;
-import edu.berkeley.cs186.database.memory.BufferManager;
-import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * The LogManager is responsible for interfacing with the log itself. The log is stored
- * on its own partition (partition 0). Since log pages are never deleted, the page number
- * is always increasing, so we assign LSNs as follow:
+ * on its own partition (partition 0). Since log pages are only ever added after the last
+ * one, the page number is always increasing, so we assign LSNs as follow:
  * - page 1: [ LSN 10000, LSN 10040, LSN 10080, ...]
  * - page 2: [ LSN 20000, LSN 20030, LSN 20055, ...]
  * - page 3: [ LSN 30000, LSN 30047, LSN 30090, ...]
  * allowing for up to 10,000 log entries per page. The index (last 4 digits) is the offset
- * within the page where the log record starts. Log entries are not fixed width,
+ * within the page where the log record starts, so no record starts past offset 9999 of
+ * a page, even if the page is larger. Log entries are not fixed width,
  * so backwards iteration is not as easy as forward iteration. Page 0 is reserved for the
  * master record, which only contains a few log entries: the master record, with LSN 0, followed
  * by an empty begin and end checkpoint record. The master record is the only record in the
  * entire log that may be rewritten.
  *
- * The LogManager is also responsible for writing pageLSNs onto pages and flushing the log
- * when pages are flushed, and therefore has a few methods that must be called by the buffer
- * manager when pages are fetched and evicted (fetchPageHook, fetchNewPageHook, and pageEvictHook).
- * These must be called from the buffer manager to ensure that pageLSN is up to date, and
- * that flushedLSN >= any pageLSN on disk.
+ * The end of the log is kept in a log buffer of its own, a ring of page-sized slots
+ * (log page i goes in slot i % the number of slots), rather than in the buffer manager, so
+ * that log records never compete with data pages for buffer frames. The log manager reads
+ * and writes the log partition directly through the disk space manager.
+ *
+ * Appending a record takes no lock: the appender reserves space for the record by moving
+ * the tail of the log (the byte the next record goes at) past it with a compare-and-set,
+ * and then copies the record into its slot, in parallel with other appenders. A record
+ * that does not fit on the tail page (or would start past offset 9999) moves the tail to
+ * the next page instead, and the rest of the tail page is left empty. Each slot counts the
+ * bytes copied into it, so a page is completely written once the count reaches the page
+ * size. Completely written pages are written out to the log partition in order, as many
+ * consecutive pages at a time as possible, whenever the log is flushed (see flushToLSN) or
+ * an appender needs the slot of a page that has not been written out yet.
+ *
+ * Flushing the log through a page that is still the tail page ends the page, as if the
+ * next record did not fit on it: a page is only ever written out once.
+ *
+ * The log manager is also responsible for making sure that flushedLSN >= any pageLSN on
+ * disk: the buffer manager flushes the log through the pageLSN of a page (via
+ * RecoveryManager#pageFlushHook) before writing the page.
+ *
+ * The beginning of the log, which restart recovery no longer needs once a checkpoint has
+ * been taken, is removed with truncate: the pages before a given LSN (but page 0) are freed,
+ * after being copied to an archive directory if one is set (see setArchiveDirectory). The
+ * page numbers of removed pages are never reused, so the log is pages 0 and
+ * firstLivePage, firstLivePage + 1, ..., up to the tail. On startup, the pages still in
+ * the log are found around the page of the last checkpoint, which is never removed.
+ *
+ * Committing transactions flush the log through awaitFlush, which implements group commit:
+ * instead of each commit flushing the log tail itself, commits enqueue the LSN of their
+ * commit record and block, and a single flusher thread flushes the log once for every
+ * commit that arrived while the previous flush was running. The flusher can also be made
+ * to wait a little for more commits to join a batch (see setGroupCommit), trading commit
+ * latency for fewer log writes.
  */
 public class LogManager implements Iterable<LogRecord>, AutoCloseable {
-    private BufferManager bufferManager;
-    private Deque<Page> unflushedLogTail;
-    private Page logTail;
-    private Buffer logTailBuffer;
-    private boolean logTailPinned = false;
-    private long flushedLSN;
+    private static final int PAGE_SIZE = DiskSpaceManager.PAGE_SIZE;
 
     public static final int LOG_PARTITION = 0;
 
-    LogManager(BufferManager bufferManager) {
-        this.bufferManager = bufferManager;
-        this.unflushedLogTail = new ArrayDeque<>();
+    // The largest offset an LSN can address within a page.
+    static final int MAX_LSN_INDEX = 9999;
+
+    // Number of pages in the log buffer by default.
+    public static final int DEFAULT_LOG_BUFFER_PAGES = 32;
+    // Number of log pages no longer in the log buffer that are kept in memory
+    // after being read from disk.
+    static final int READ_CACHE_PAGES = 8;
+
+    /**
+     * A slot of the log buffer.
+     */
+    private static class LogPage {
+        final byte[] contents = new byte[PAGE_SIZE];
+        // The log page in the slot, or -1 if there is none yet.
+        volatile long pageNum = -1L;
+        // The number of bytes of the page that records have been copied to,
+        // counting the empty space at the end of a page that was ended.
+        final AtomicInteger written = new AtomicInteger();
+        // Held to read the contents of the slot, and exclusively to reuse the
+        // slot for another page.
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    }
+
+    private final DiskSpaceManager diskSpaceManager;
+    private final LogPage[] buffer;
+    // The byte of the log the next record goes at: the log page it's on times
+    // the page size, plus its offset within the page.
+    private final AtomicLong tail;
+    // The number of appends that have reserved space or are about to, but
+    // have not copied their record yet.
+    private final AtomicInteger pendingAppends = new AtomicInteger();
+    // Number of bytes of log records appended so far.
+    private final AtomicLong appendedBytes = new AtomicLong();
+
+    // Held while writing log pages out.
+    private final Object flushLock = new Object();
+    // The first log page that has not been written out yet. Only increased
+    // while holding flushLock.
+    private volatile long flushedPages;
+    private volatile long flushedLSN;
+
+    // Held while removing pages from the beginning of the log.
+    private final Object truncateLock = new Object();
+    // The first log page after page 0 that has not been removed.
+    private volatile long firstLivePage;
+    // Directory removed log pages are archived to, or null if they are
+    // discarded.
+    private volatile String archiveDirectory;
+
+    // Held while using the disk space manager, and guards the fields below.
+    private final Object ioLock = new Object();
+    // The first log page not allocated in the log partition yet.
+    private long allocatedPages;
+    private long numIOs = 0;
+    // Log pages that were written out and read back, least recently used first.
+    private final LinkedHashMap<Long, byte[]> readCache = new LinkedHashMap<>(16, 0.75f, true);
+
+    // By default, the flusher does not wait for more commits before flushing.
+    public static final long DEFAULT_GROUP_COMMIT_WAIT_MILLIS = 0;
+    public static final int DEFAULT_GROUP_COMMIT_BATCH_SIZE = 64;
+
+    // Guards the group commit state below. Never acquired while holding
+    // flushLock.
+    private final Object commitLock = new Object();
+    private long groupCommitWaitMillis = DEFAULT_GROUP_COMMIT_WAIT_MILLIS;
+    private int groupCommitBatchSize = DEFAULT_GROUP_COMMIT_BATCH_SIZE;
+    // The largest LSN a committing transaction is waiting to be flushed.
+    private long requestedLSN = -1L;
+    // The number of commits that joined the next batch.
+    private int batchSize = 0;
+    // The flusher thread, started by the first commit.
+    private Thread flusher;
+    private boolean closed = false;
+    // The exception the last flush of the flusher failed with, if any.
+    private RuntimeException flushError;
+
+    LogManager(DiskSpaceManager diskSpaceManager) {
+        this(diskSpaceManager, DEFAULT_LOG_BUFFER_PAGES);
+    }
 
-        this.logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
-        this.unflushedLogTail.add(this.logTail);
-        this.logTailBuffer = this.logTail.getBuffer();
-        this.logTail.unpin();
+    /**
+     * @param diskSpaceManager disk space manager of the log partition
+     * @param bufferPages number of pages in the log buffer, at least 2
+     */
+    LogManager(DiskSpaceManager diskSpaceManager, int bufferPages) {
+        if (bufferPages < 2) {
+            throw new IllegalArgumentException("the log buffer needs at least 2 pages");
+        }
+        this.diskSpaceManager = diskSpaceManager;
+        this.buffer = new LogPage[bufferPages];
+        for (int i = 0; i < bufferPages; ++i) {
+            this.buffer[i] = new LogPage();
+        }
 
-        this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L);
+        // the log continues on a new page after the pages already on disk
+        long firstPage = 0;
+        this.firstLivePage = 1;
+        if (diskSpaceManager.pageAllocated(logPageNum(0))) {
+            long checkpointPage = getLSNPage(readCheckpointLSN());
+            firstPage = checkpointPage + 1;
+            while (diskSpaceManager.pageAllocated(logPageNum(firstPage))) {
+                ++firstPage;
+            }
+            this.firstLivePage = Math.max(checkpointPage, 1);
+            while (firstLivePage > 1 && diskSpaceManager.pageAllocated(logPageNum(firstLivePage - 1))) {
+                --firstLivePage;
+            }
+        }
+        this.allocatedPages = firstPage;
+        this.tail = new AtomicLong(firstPage * PAGE_SIZE);
+        this.flushedPages = firstPage;
+        this.flushedLSN = maxLSN(firstPage - 1L);
+    }
+
+    /**
+     * Reads the LSN of the last checkpoint off the master record on disk.
+     * @return LSN of the last checkpoint, or 0 if there is no master record
+     */
+    private long readCheckpointLSN() {
+        byte[] contents = new byte[PAGE_SIZE];
+        diskSpaceManager.readPage(logPageNum(0), contents);
+        ++numIOs;
+        Optional<LogRecord> record = LogRecord.fromBytes(ByteBuffer.wrap(contents));
+        if (record.isPresent() && record.get() instanceof MasterLogRecord) {
+            return ((MasterLogRecord) record.get()).lastCheckpointLSN;
+        }
+        return 0L;
     }
 
     /**
      * Writes to the first record in the log.
      * @param record log record to replace first record with
      */
-    public synchronized void rewriteMasterRecord(MasterLogRecord record) {
-        Page firstPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
-        try {
-            firstPage.getBuffer().put(record.toBytes());
-            firstPage.flush();
-        } finally {
-            firstPage.unpin();
+    public void rewriteMasterRecord(MasterLogRecord record) {
+        byte[] bytes = record.toBytes();
+        synchronized (flushLock) {
+            LogPage page = buffer[slot(0)];
+            if (page.pageNum == 0) {
+                System.arraycopy(bytes, 0, page.contents, 0, bytes.length);
+            }
+            if (flushedPages > 0) {
+                synchronized (ioLock) {
+                    byte[] contents = new byte[PAGE_SIZE];
+                    if (page.pageNum == 0) {
+                        System.arraycopy(page.contents, 0, contents, 0, PAGE_SIZE);
+                    } else {
+                        diskSpaceManager.readPage(logPageNum(0), contents);
+                        ++numIOs;
+                        System.arraycopy(bytes, 0, contents, 0, bytes.length);
+                    }
+                    diskSpaceManager.writePage(logPageNum(0), contents);
+                    ++numIOs;
+                    readCache.remove(0L);
+                }
+                return;
+            }
         }
+        // the first page has not been written out yet
+        flushToLSN(maxLSN(0));
     }
 
     /**
@@ -75,32 +242,36 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @param record log record to append to the log
      * @return LSN of new log record
      */
-    public synchronized long appendToLog(LogRecord record) {
+    public long appendToLog(LogRecord record) {
         byte[] bytes = record.toBytes();
-        // loop in case accessing log tail requires flushing the log in order to evict dirty page to load log tail
-        do {
-            if (logTailBuffer == null || bytes.length > DiskSpaceManager.PAGE_SIZE - logTailBuffer.position()) {
-                logTailPinned = true;
-                logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
-                unflushedLogTail.add(logTail);
-                logTailBuffer = logTail.getBuffer();
-            } else {
-                logTailPinned = true;
-                logTail.pin();
-                if (logTailBuffer == null) {
-                    logTail.unpin();
+        pendingAppends.incrementAndGet();
+        try {
+            long position;
+            while (true) {
+                long tail = this.tail.get();
+                int index = (int) (tail % PAGE_SIZE);
+                position = tail;
+                if (index > MAX_LSN_INDEX || index + bytes.length > PAGE_SIZE) {
+                    position = (tail / PAGE_SIZE + 1) * PAGE_SIZE;
+                }
+                if (this.tail.compareAndSet(tail, position + bytes.length)) {
+                    if (position != tail) {
+                        endPage(tail);
+                    }
+                    break;
                 }
             }
-        } while (logTailBuffer == null);
-        try {
-            int pos = logTailBuffer.position();
-            logTailBuffer.put(bytes);
-            long LSN = makeLSN(unflushedLogTail.getLast().getPageNum(), pos);
+            long pageNum = position / PAGE_SIZE;
+            int index = (int) (position % PAGE_SIZE);
+            LogPage page = acquire(pageNum);
+            System.arraycopy(bytes, 0, page.contents, index, bytes.length);
+            page.written.addAndGet(bytes.length);
+            appendedBytes.addAndGet(bytes.length);
+            long LSN = makeLSN(pageNum, index);
             record.LSN = LSN;
             return LSN;
         } finally {
-            logTail.unpin();
-            logTailPinned = false;
+            pendingAppends.decrementAndGet();
         }
     }
 
@@ -110,20 +281,26 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @return log record with the specified LSN
      */
     public LogRecord fetchLogRecord(long LSN) {
+        long pageNum = getLSNPage(LSN);
+        LogPage page = buffer[slot(pageNum)];
+        page.lock.readLock().lock();
         try {
-            Page logPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), getLSNPage(LSN));
-            try {
-                Buffer buf = logPage.getBuffer();
-                buf.position(getLSNIndex(LSN));
-                Optional<LogRecord> record = LogRecord.fromBytes(buf);
-                record.ifPresent((LogRecord e) -> e.setLSN(LSN));
-                return record.orElse(null);
-            } finally {
-                logPage.unpin();
+            if (page.pageNum == pageNum) {
+                return toRecord(page.contents, LSN);
             }
-        } catch (PageException e) {
-            return null;
+        } finally {
+            page.lock.readLock().unlock();
         }
+        byte[] contents = readPage(pageNum);
+        return contents == null ? null : toRecord(contents, LSN);
+    }
+
+    private static LogRecord toRecord(byte[] contents, long LSN) {
+        Buffer buf = ByteBuffer.wrap(contents);
+        buf.position(getLSNIndex(LSN));
+        Optional<LogRecord> record = LogRecord.fromBytes(buf);
+        record.ifPresent((LogRecord e) -> e.setLSN(LSN));
+        return record.orElse(null);
     }
 
     /**
@@ -132,24 +309,202 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * that contains the record specified by the LSN.
      * @param LSN LSN up to which the log should be flushed
      */
-    public synchronized void flushToLSN(long LSN) {
-        Iterator<Page> iter = unflushedLogTail.iterator();
+    public void flushToLSN(long LSN) {
         long pageNum = getLSNPage(LSN);
-        while (iter.hasNext()) {
-            Page page = iter.next();
-            if (page.getPageNum() > pageNum) {
+        while (true) {
+            long tail = this.tail.get();
+            if (tail / PAGE_SIZE > pageNum || tail % PAGE_SIZE == 0) {
                 break;
             }
-            page.flush();
-            iter.remove();
+            // end the tail page, so that it can be written out
+            if (this.tail.compareAndSet(tail, (tail / PAGE_SIZE + 1) * PAGE_SIZE)) {
+                endPage(tail);
+                break;
+            }
+        }
+        flushPages(Math.min(pageNum, this.tail.get() / PAGE_SIZE - 1));
+    }
+
+    /**
+     * Flushes the log to at least the specified record on behalf of a
+     * committing transaction, batching the flush with those of other
+     * transactions committing at the same time. Blocks until the record is
+     * on disk.
+     * @param LSN LSN up to which the log should be flushed
+     */
+    public void awaitFlush(long LSN) {
+        if (flushedLSN >= LSN) return;
+        synchronized (commitLock) {
+            if (!closed) {
+                if (flusher == null) {
+                    flusher = new Thread(this::runFlusher, "log-flusher");
+                    flusher.setDaemon(true);
+                    flusher.start();
+                }
+                requestedLSN = Math.max(requestedLSN, LSN);
+                batchSize++;
+                commitLock.notifyAll();
+                boolean interrupted = false;
+                while (flushedLSN < LSN && flushError == null) {
+                    try {
+                        commitLock.wait();
+                    } catch (InterruptedException e) {
+                        // the commit record must be flushed before returning
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+                if (flushedLSN >= LSN) return;
+                throw flushError;
+            }
         }
-        flushedLSN = Math.max(flushedLSN, maxLSN(pageNum));
-        if (unflushedLogTail.size() == 0) {
-            if (!logTailPinned) {
-                logTail = null;
+        flushToLSN(LSN);
+    }
+
+    /**
+     * Sets how the flusher batches commits: after a flush, it waits up to
+     * `maxWaitMillis` milliseconds for at least `maxBatchSize` commits to
+     * arrive before flushing the log again. A `maxWaitMillis` of 0 flushes as
+     * soon as the previous flush is done, so that only the commits that
+     * arrived during a flush are batched.
+     */
+    public void setGroupCommit(long maxWaitMillis, int maxBatchSize) {
+        synchronized (commitLock) {
+            this.groupCommitWaitMillis = maxWaitMillis;
+            this.groupCommitBatchSize = maxBatchSize;
+        }
+    }
+
+    private void runFlusher() {
+        while (true) {
+            long LSN;
+            synchronized (commitLock) {
+                try {
+                    while (requestedLSN <= flushedLSN && !closed) {
+                        commitLock.wait();
+                    }
+                    if (requestedLSN <= flushedLSN) return;
+                    long deadline = System.currentTimeMillis() + groupCommitWaitMillis;
+                    long remaining = groupCommitWaitMillis;
+                    while (batchSize < groupCommitBatchSize && remaining > 0 && !closed) {
+                        commitLock.wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                LSN = requestedLSN;
+                batchSize = 0;
+            }
+            try {
+                flushToLSN(LSN);
+            } catch (RuntimeException e) {
+                synchronized (commitLock) {
+                    flushError = e;
+                    commitLock.notifyAll();
+                }
+                return;
+            }
+            synchronized (commitLock) {
+                commitLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Removes the pages of the log before the page of the record at `LSN`
+     * (except page 0), which must no longer be needed by restart recovery:
+     * the master record must already point to a checkpoint at or after
+     * `LSN`. Only pages that have been written out are removed. If an archive
+     * directory is set, the pages are copied to it before being removed.
+     *
+     * Records on removed pages are no longer fetched or scanned by the log
+     * manager; scans from an LSN before the first page left start at that page.
+     * Does nothing when called from a transaction, since freeing the pages
+     * would then be logged as a change made by the transaction.
+     * @param LSN LSN of the oldest record still needed
+     * @return number of pages removed
+     */
+    public int truncate(long LSN) {
+        if (TransactionContext.getTransaction() != null) {
+            return 0;
+        }
+        synchronized (truncateLock) {
+            long start = firstLivePage;
+            long end = Math.min(getLSNPage(LSN), flushedPages);
+            if (end <= start) {
+                return 0;
+            }
+            String directory = archiveDirectory;
+            if (directory != null) {
+                archive(directory, start, end);
+            }
+            firstLivePage = end;
+            // pages are removed in order, so that the log is still contiguous
+            // if we crash part way through
+            synchronized (ioLock) {
+                for (long pageNum = start; pageNum < end; ++pageNum) {
+                    diskSpaceManager.freePage(logPageNum(pageNum));
+                    readCache.remove(pageNum);
+                }
+            }
+            return (int) (end - start);
+        }
+    }
+
+    /**
+     * Sets the directory log pages removed by truncate are archived to. Each
+     * truncation writes one file to the directory, named after the first and
+     * last page it contains (e.g. 0000000001-0000000041.log), which holds the
+     * contents of those pages in order. With the archive, the log can be
+     * replayed from further back than the last checkpoint.
+     * @param directory archive directory (created if it does not exist), or
+     *                  null to discard removed pages
+     */
+    public void setArchiveDirectory(String directory) {
+        if (directory != null) {
+            File dir = new File(directory);
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new DatabaseException("could not create log archive directory " + directory);
             }
-            logTailBuffer = null;
         }
+        this.archiveDirectory = directory;
+    }
+
+    /**
+     * Copies log pages [start, end), which have all been written out, to a
+     * file in the archive directory, and forces the file to disk.
+     */
+    private void archive(String directory, long start, long end) {
+        File file = new File(directory, String.format("%010d-%010d.log", start, end - 1));
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            byte[] contents = new byte[PAGE_SIZE];
+            for (long pageNum = start; pageNum < end; ++pageNum) {
+                synchronized (ioLock) {
+                    diskSpaceManager.readPage(logPageNum(pageNum), contents);
+                    ++numIOs;
+                }
+                out.write(contents);
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            throw new DatabaseException("could not archive log pages to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return LSN of the start of the first page after page 0 that has not
+     * been removed by truncate
+     */
+    public long getFirstLSN() {
+        return makeLSN(firstLivePage, 0);
+    }
+
+    /**
+     * @return number of bytes of log records appended by this log manager
+     */
+    public long getAppendedBytes() {
+        return appendedBytes.get();
     }
 
     /**
@@ -159,6 +514,151 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         return flushedLSN;
     }
 
+    /**
+     * @return number of reads and writes of the log partition so far (a
+     * write of several pages at once counts as one)
+     */
+    public long getNumIOs() {
+        synchronized (ioLock) {
+            return numIOs;
+        }
+    }
+
+    /**
+     * Counts the rest of the page of the log at `position` (the tail before
+     * it was moved to the next page) as written.
+     */
+    private void endPage(long position) {
+        acquire(position / PAGE_SIZE).written.addAndGet(PAGE_SIZE - (int) (position % PAGE_SIZE));
+    }
+
+    /**
+     * Gets the slot of the log buffer for a log page that space has been
+     * reserved on, setting it up for the page if nobody has yet. The page
+     * that was in the slot before is written out first if it has not been:
+     * with it, the oldest half of the log buffer is written out.
+     */
+    private LogPage acquire(long pageNum) {
+        LogPage page = buffer[slot(pageNum)];
+        while (page.pageNum != pageNum) {
+            if (flushedPages <= pageNum - buffer.length) {
+                flushPages(Math.min(pageNum - buffer.length / 2, pageNum - 1));
+                continue;
+            }
+            page.lock.writeLock().lock();
+            try {
+                if (page.pageNum < pageNum) {
+                    Arrays.fill(page.contents, (byte) 0);
+                    page.written.set(0);
+                    page.pageNum = pageNum;
+                }
+            } finally {
+                page.lock.writeLock().unlock();
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Writes out all log pages up to and including `lastPage`, which must
+     * have been ended (the tail of the log is on a later page).
+     */
+    private void flushPages(long lastPage) {
+        synchronized (flushLock) {
+            while (flushedPages <= lastPage) {
+                long firstPage = flushedPages;
+                int numPages = (int) Math.min(lastPage - firstPage + 1, buffer.length);
+                byte[] contents = new byte[numPages * PAGE_SIZE];
+                for (int i = 0; i < numPages; ++i) {
+                    LogPage page = buffer[slot(firstPage + i)];
+                    // wait for the appenders of the page to finish copying
+                    while (page.pageNum != firstPage + i || page.written.get() < PAGE_SIZE) {
+                        Thread.yield();
+                    }
+                    System.arraycopy(page.contents, 0, contents, i * PAGE_SIZE, PAGE_SIZE);
+                }
+                synchronized (ioLock) {
+                    for (; allocatedPages < firstPage + numPages; ++allocatedPages) {
+                        diskSpaceManager.allocPage(logPageNum(allocatedPages));
+                    }
+                    diskSpaceManager.writePages(logPageNum(firstPage), contents);
+                    ++numIOs;
+                }
+                flushedPages = firstPage + numPages;
+                flushedLSN = Math.max(flushedLSN, maxLSN(firstPage + numPages - 1));
+            }
+        }
+    }
+
+    /**
+     * Reads a log page that is not in the log buffer from disk.
+     * @return the contents of the page, or null if there is no such page
+     */
+    private byte[] readPage(long pageNum) {
+        synchronized (ioLock) {
+            byte[] contents = readCache.get(pageNum);
+            if (contents != null) {
+                return contents;
+            }
+            if (pageNum < 0 || !diskSpaceManager.pageAllocated(logPageNum(pageNum))) {
+                return null;
+            }
+            contents = new byte[PAGE_SIZE];
+            diskSpaceManager.readPage(logPageNum(pageNum), contents);
+            ++numIOs;
+            // pages that have not been written out yet may still change
+            if (pageNum < flushedPages) {
+                readCache.put(pageNum, contents);
+                if (readCache.size() > READ_CACHE_PAGES) {
+                    readCache.remove(readCache.keySet().iterator().next());
+                }
+            }
+            return contents;
+        }
+    }
+
+    /**
+     * Gets the records of a log page, for scanning. Only records that were
+     * completely appended when this was called are included.
+     * @return the contents of the page, or null if there is no such page
+     */
+    private byte[] getPageContents(long pageNum) {
+        long tail = this.tail.get();
+        // wait for the records the tail was moved past to be copied
+        while (pendingAppends.get() > 0) {
+            Thread.yield();
+        }
+        long tailPage = tail / PAGE_SIZE;
+        if (pageNum > tailPage) {
+            return null;
+        }
+        LogPage page = buffer[slot(pageNum)];
+        page.lock.readLock().lock();
+        try {
+            if (page.pageNum == pageNum) {
+                int length = pageNum < tailPage ? PAGE_SIZE : (int) (tail % PAGE_SIZE);
+                byte[] contents = new byte[PAGE_SIZE];
+                System.arraycopy(page.contents, 0, contents, 0, length);
+                return contents;
+            }
+        } finally {
+            page.lock.readLock().unlock();
+        }
+        if (pageNum == tailPage) {
+            // nothing has been appended to the tail page yet
+            return new byte[PAGE_SIZE];
+        }
+        return readPage(pageNum);
+    }
+
+    private int slot(long pageNum) {
+        return (int) (pageNum % buffer.length);
+    }
+
+    private static long logPageNum(long pageNum) {
+        return DiskSpaceManager.getVirtualPageNum(LOG_PARTITION, (int) pageNum);
+    }
+
     /**
      * Generates LSN from log page number and index
      * @param pageNum page number of log page
@@ -175,7 +675,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @return max possible LSN on the log page
      */
     static long maxLSN(long pageNum) {
-        return makeLSN(pageNum, 9999);
+        return makeLSN(pageNum, MAX_LSN_INDEX);
     }
 
     /**
@@ -215,59 +715,62 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     }
 
     @Override
-    public synchronized void close() {
-        if (!this.unflushedLogTail.isEmpty()) {
-            this.flushToLSN(maxLSN(unflushedLogTail.getLast().getPageNum()));
+    public void close() {
+        Thread flusher;
+        synchronized (commitLock) {
+            closed = true;
+            flusher = this.flusher;
+            commitLock.notifyAll();
         }
+        if (flusher != null) {
+            // let the flusher serve the commits that are already waiting
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushToLSN(maxLSN(tail.get() / PAGE_SIZE));
     }
 
     private class LogPageIterator extends IndexBacktrackingIterator<LogRecord> {
-        private Page logPage;
+        private long pageNum;
+        private byte[] contents;
         private int startIndex;
 
-        private LogPageIterator(Page logPage, int startIndex) {
-            super(DiskSpaceManager.PAGE_SIZE);
-            this.logPage = logPage;
+        private LogPageIterator(long pageNum, byte[] contents, int startIndex) {
+            super(PAGE_SIZE);
+            this.pageNum = pageNum;
+            this.contents = contents;
             this.startIndex = startIndex;
-            this.logPage.unpin();
         }
 
         @Override
         protected int getNextNonEmpty(int currentIndex) {
-            logPage.pin();
-            try {
-                Buffer buf = logPage.getBuffer();
-                if (currentIndex == -1) {
-                    currentIndex = startIndex;
-                    buf.position(currentIndex);
-                } else {
-                    buf.position(currentIndex);
-                    LogRecord.fromBytes(buf);
-                    currentIndex = buf.position();
-                }
+            Buffer buf = ByteBuffer.wrap(contents);
+            if (currentIndex == -1) {
+                currentIndex = startIndex;
+                buf.position(currentIndex);
+            } else {
+                buf.position(currentIndex);
+                LogRecord.fromBytes(buf);
+                currentIndex = buf.position();
+            }
 
-                if (LogRecord.fromBytes(buf).isPresent()) {
-                    return currentIndex;
-                } else {
-                    return DiskSpaceManager.PAGE_SIZE;
-                }
-            } finally {
-                logPage.unpin();
+            if (currentIndex < PAGE_SIZE && LogRecord.fromBytes(buf).isPresent()) {
+                return currentIndex;
+            } else {
+                return PAGE_SIZE;
             }
         }
 
         @Override
         protected LogRecord getValue(int index) {
-            logPage.pin();
-            try {
-                Buffer buf = logPage.getBuffer();
-                buf.position(index);
-                LogRecord record = LogRecord.fromBytes(buf).orElseThrow(NoSuchElementException::new);
-                record.setLSN(makeLSN(logPage.getPageNum(), index));
-                return record;
-            } finally {
-                logPage.unpin();
-            }
+            Buffer buf = ByteBuffer.wrap(contents);
+            buf.position(index);
+            LogRecord record = LogRecord.fromBytes(buf).orElseThrow(NoSuchElementException::new);
+            record.setLSN(makeLSN(pageNum, index));
+            return record;
         }
     }
 
@@ -277,12 +780,14 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
 
         private LogPagesIterator(long startLSN) {
             nextIndex = getLSNPage(startLSN);
-            try {
-                Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
-                nextIter = new LogPageIterator(page, getLSNIndex(startLSN));
-            } catch (PageException e) {
-                nextIter = null;
+            int startIndex = getLSNIndex(startLSN);
+            if (nextIndex > 0 && nextIndex < firstLivePage) {
+                // the records before the first page left were removed
+                nextIndex = firstLivePage;
+                startIndex = 0;
             }
+            byte[] contents = getPageContents(nextIndex);
+            nextIter = contents == null ? null : new LogPageIterator(nextIndex, contents, startIndex);
         }
 
         @Override
@@ -313,13 +818,12 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
 
                 nextIter = null;
                 do {
-                    ++nextIndex;
-                    try {
-                        Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
-                        nextIter = new LogPageIterator(page, 0);
-                    } catch (PageException e) {
+                    nextIndex = Math.max(nextIndex + 1, firstLivePage);
+                    byte[] contents = getPageContents(nextIndex);
+                    if (contents == null) {
                         break;
                     }
+                    nextIter = new LogPageIterator(nextIndex, contents, 0);
                 } while (!nextIter.hasNext());
 
                 return iterable;
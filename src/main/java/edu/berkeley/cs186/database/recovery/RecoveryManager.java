@@ -36,6 +36,22 @@ public interface RecoveryManager extends AutoCloseable {
      */
     long commit(long transNum);
 
+    /**
+     * Sets how the log flushes of committing transactions are batched: a
+     * flush waits up to `maxWaitMillis` milliseconds for `maxBatchSize`
+     * commits to join it.
+     * @param maxWaitMillis longest time a commit waits for others to join its flush
+     * @param maxBatchSize number of commits after which a flush stops waiting
+     */
+    void setGroupCommit(long maxWaitMillis, int maxBatchSize);
+
+    /**
+     * Sets the directory that log no longer needed for restart recovery is
+     * copied to before it is removed after a checkpoint.
+     * @param directory archive directory, or null to discard the log
+     */
+    void setLogArchive(String directory);
+
     /**
      * Called when a transaction is set to be aborted.
      * @param transNum transaction being aborted
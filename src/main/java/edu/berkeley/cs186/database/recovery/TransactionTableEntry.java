@@ -12,6 +12,8 @@ class TransactionTableEntry {
     Transaction transaction;
     // lastLSN of transaction, or 0 if no log entries for the transaction exist.
     long lastLSN = 0;
+    // No log entry of the transaction is before this LSN (0 if not known).
+    long startLSN = 0;
     // map of transaction's savepoints
     private Map<String, Long> savepoints = new HashMap<>();
 
@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.recovery.records;
 
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.common.LzCompression;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
@@ -10,11 +11,30 @@ import edu.berkeley.cs186.database.recovery.LogRecord;
 import edu.berkeley.cs186.database.recovery.LogType;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.Optional;
 
+/**
+ * Log record for a write to a page, which stores the bytes in the written
+ * range before and after the write.
+ *
+ * The two images usually agree on most of their bytes (the write range is
+ * the changed bytes of the write, merged across short unchanged gaps), and
+ * page images tend to have long runs of zeros. So unless it would not save
+ * any space, the record is written to the log delta encoded: the before image
+ * followed by the XOR of the two images (zero wherever they agree), together
+ * LZ compressed. Most records are small writes, for which the header is
+ * most of the record, so the numbers in the header are written as varints.
+ * Either way, the record read back has the full before and after images, so
+ * redo and undo work the same whatever the encoding.
+ */
 public class UpdatePageLogRecord extends LogRecord {
+    // Flags of the format byte that follows the type of a record in the log.
+    private static final int VARINT_HEADER = 1;
+    private static final int DELTA_IMAGES = 2;
+
     private long transNum; // transaction that updated the page
     private long pageNum; // page that was updated
     private long prevLSN; // previous log's LSN
@@ -85,31 +105,117 @@ public class UpdatePageLogRecord extends LogRecord {
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[31 + before.length + after.length];
-        ByteBuffer.wrap(b)
-        .put((byte) getType().getValue())
-        .putLong(transNum)
-        .putLong(pageNum)
-        .putLong(prevLSN)
-        .putShort(offset)
-        .putShort((short) before.length)
-        .putShort((short) after.length)
-        .put(before)
-        .put(after);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 + before.length + after.length);
+        out.write(getType().getValue());
+        out.write(0);
+        int format = 0;
+
+        // header: varints unless that would take more space (e.g. for
+        // negative numbers, which only tests use)
+        ByteArrayOutputStream header = new ByteArrayOutputStream(30);
+        writeVarint(header, transNum);
+        writeVarint(header, pageNum);
+        writeVarint(header, prevLSN);
+        writeVarint(header, offset);
+        writeVarint(header, before.length);
+        writeVarint(header, after.length);
+        if (header.size() < 30) {
+            format |= VARINT_HEADER;
+            byte[] varints = header.toByteArray();
+            out.write(varints, 0, varints.length);
+        } else {
+            byte[] fixed = new byte[30];
+            ByteBuffer.wrap(fixed)
+            .putLong(transNum)
+            .putLong(pageNum)
+            .putLong(prevLSN)
+            .putShort(offset)
+            .putShort((short) before.length)
+            .putShort((short) after.length);
+            out.write(fixed, 0, fixed.length);
+        }
+
+        // images: delta encoded unless that would take more space
+        byte[] delta = null;
+        if (before.length == after.length) {
+            byte[] images = Arrays.copyOf(before, 2 * before.length);
+            for (int i = 0; i < after.length; ++i) {
+                images[before.length + i] = (byte) (before[i] ^ after[i]);
+            }
+            delta = LzCompression.compress(images);
+        }
+        if (delta != null && 2 + delta.length < before.length + after.length) {
+            format |= DELTA_IMAGES;
+            writeVarint(out, delta.length);
+            out.write(delta, 0, delta.length);
+        } else {
+            out.write(before, 0, before.length);
+            out.write(after, 0, after.length);
+        }
+
+        byte[] b = out.toByteArray();
+        b[1] = (byte) format;
         return b;
     }
 
     public static Optional<LogRecord> fromBytes(Buffer buf) {
-        long transNum = buf.getLong();
-        long pageNum = buf.getLong();
-        long prevLSN = buf.getLong();
-        short offset = buf.getShort();
-        byte[] before = new byte[buf.getShort()];
-        byte[] after = new byte[buf.getShort()];
-        buf.get(before).get(after);
+        int format = buf.get();
+        long transNum, pageNum, prevLSN;
+        short offset;
+        byte[] before, after;
+        if ((format & VARINT_HEADER) != 0) {
+            transNum = readVarint(buf);
+            pageNum = readVarint(buf);
+            prevLSN = readVarint(buf);
+            offset = (short) readVarint(buf);
+            before = new byte[(int) readVarint(buf)];
+            after = new byte[(int) readVarint(buf)];
+        } else {
+            transNum = buf.getLong();
+            pageNum = buf.getLong();
+            prevLSN = buf.getLong();
+            offset = buf.getShort();
+            before = new byte[buf.getShort()];
+            after = new byte[buf.getShort()];
+        }
+        if ((format & DELTA_IMAGES) != 0) {
+            byte[] delta = new byte[(int) readVarint(buf)];
+            buf.get(delta);
+            byte[] images = LzCompression.decompress(delta, 2 * before.length);
+            System.arraycopy(images, 0, before, 0, before.length);
+            for (int i = 0; i < after.length; ++i) {
+                after[i] = (byte) (before[i] ^ images[before.length + i]);
+            }
+        } else {
+            buf.get(before).get(after);
+        }
         return Optional.of(new UpdatePageLogRecord(transNum, pageNum, prevLSN, offset, before, after));
     }
 
+    /**
+     * Writes a zigzag encoded varint: 7 bits per byte, least significant
+     * first, so that numbers close to 0 take few bytes.
+     */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.write((int) (zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.write((int) zigzag);
+    }
+
+    private static long readVarint(Buffer buf) {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.get();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) { return true; }
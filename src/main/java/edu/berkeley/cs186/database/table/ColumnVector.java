@@ -0,0 +1,153 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.databox.*;
+
+/**
+ * The values of one column of a RecordBatch. Values of INT, LONG, FLOAT and
+ * BOOL columns are kept in an array of the primitive type, so that operators
+ * can loop over a batch without allocating (or unboxing) a DataBox per value.
+ * Values of the other types are kept as DataBoxes, as are the values of a
+ * vector created with boxed(), which get(row) returns as they were set.
+ *
+ * The primitive getters work on either kind of vector, but only for values of
+ * the matching type: getInt on an INT vector, getLong on a LONG vector, and so
+ * on. Code that has a fast path for a type should check getType() first.
+ */
+public class ColumnVector {
+    private final Type type;
+    private final int capacity;
+    private int[] ints;
+    private long[] longs;
+    private float[] floats;
+    private boolean[] bools;
+    private DataBox[] values;
+
+    /**
+     * @param type type of the values of the vector
+     * @param capacity number of rows of the vector
+     */
+    public ColumnVector(Type type, int capacity) {
+        this.type = type;
+        this.capacity = capacity;
+        switch (type.getTypeId()) {
+            case INT: this.ints = new int[capacity]; break;
+            case LONG: this.longs = new long[capacity]; break;
+            case FLOAT: this.floats = new float[capacity]; break;
+            case BOOL: this.bools = new boolean[capacity]; break;
+            default: this.values = new DataBox[capacity]; break;
+        }
+    }
+
+    private ColumnVector(Type type, DataBox[] values) {
+        this.type = type;
+        this.capacity = values.length;
+        this.values = values;
+    }
+
+    /**
+     * @return a vector of `type` that keeps the DataBoxes it is given, for
+     * values that are only known as DataBoxes (e.g. the results of an
+     * expression evaluated row by row)
+     */
+    public static ColumnVector boxed(Type type, int capacity) {
+        return new ColumnVector(type, new DataBox[capacity]);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return true if the values of this vector are kept in a primitive array
+     */
+    public boolean isPrimitive() {
+        return values == null;
+    }
+
+    public int getInt(int row) {
+        return ints != null ? ints[row] : values[row].getInt();
+    }
+
+    public long getLong(int row) {
+        return longs != null ? longs[row] : values[row].getLong();
+    }
+
+    public float getFloat(int row) {
+        return floats != null ? floats[row] : values[row].getFloat();
+    }
+
+    public boolean getBool(int row) {
+        return bools != null ? bools[row] : values[row].getBool();
+    }
+
+    public void setInt(int row, int value) {
+        ints[row] = value;
+    }
+
+    public void setLong(int row, long value) {
+        longs[row] = value;
+    }
+
+    public void setFloat(int row, float value) {
+        floats[row] = value;
+    }
+
+    public void setBool(int row, boolean value) {
+        bools[row] = value;
+    }
+
+    /**
+     * @return the value of row `row` as a DataBox
+     */
+    public DataBox get(int row) {
+        if (values != null) return values[row];
+        switch (type.getTypeId()) {
+            case INT: return new IntDataBox(ints[row]);
+            case LONG: return new LongDataBox(longs[row]);
+            case FLOAT: return new FloatDataBox(floats[row]);
+            case BOOL: return new BoolDataBox(bools[row]);
+            default: throw new IllegalStateException("Unreachable code.");
+        }
+    }
+
+    /**
+     * Sets row `row` to `value`, which must be of the type of the vector
+     * unless the vector is boxed.
+     */
+    public void set(int row, DataBox value) {
+        if (values != null) {
+            values[row] = value;
+            return;
+        }
+        switch (type.getTypeId()) {
+            case INT: ints[row] = value.getInt(); break;
+            case LONG: longs[row] = value.getLong(); break;
+            case FLOAT: floats[row] = value.getFloat(); break;
+            case BOOL: bools[row] = value.getBool(); break;
+            default: throw new IllegalStateException("Unreachable code.");
+        }
+    }
+
+    /**
+     * Sets row `row` to the value serialized (see DataBox#toBytes) at the
+     * position of `buf`, and advances the position of `buf` past it.
+     */
+    public void read(Buffer buf, int row) {
+        if (values != null) {
+            values[row] = DataBox.fromBytes(buf, type);
+            return;
+        }
+        switch (type.getTypeId()) {
+            case INT: ints[row] = buf.getInt(); break;
+            case LONG: longs[row] = buf.getLong(); break;
+            case FLOAT: floats[row] = buf.getFloat(); break;
+            case BOOL: bools[row] = buf.get() == 1; break;
+            default: throw new IllegalStateException("Unreachable code.");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDictionary;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * The values of a record read from a data page, decoded lazily. Instead of
+ * decoding every field of the record up front, a LazyRecordValues keeps a
+ * copy of the bytes of the record (in the fixed-length layout of
+ * Record::toBytes) and only decodes a field the first time it is accessed:
+ *
+ *   Record r = new Record(new LazyRecordValues(bytes, schema, offsets, null));
+ *   r.getValue(2);    // decodes field 2 only
+ *   r.getValue(2);    // returns the DataBox decoded above
+ *
+ * so that a scan feeding a selection or a join on one column never decodes
+ * (or allocates strings for) the other columns of records that are filtered
+ * out. The bytes are copied out of the page because the page is unpinned as
+ * soon as the record is returned.
+ *
+ * This is a read-only List, so a Record backed by it compares equal to (and
+ * has the same hash code as) a Record of the same values built any other way.
+ */
+class LazyRecordValues extends AbstractList<DataBox> implements RandomAccess {
+    // The bytes of the record.
+    private final byte[] bytes;
+
+    // The schema the record is stored with.
+    private final Schema schema;
+
+    // The offset of each field within `bytes`.
+    private final int[] offsets;
+
+    // The dictionary of each dictionary-encoded field, and null for the other
+    // fields. May itself be null if no field is encoded.
+    private final StringDictionary[] dictionaries;
+
+    // The fields decoded so far, allocated on first access.
+    private DataBox[] decoded;
+
+    // A buffer over `bytes`, allocated on first access.
+    private Buffer buf;
+
+    LazyRecordValues(byte[] bytes, Schema schema, int[] offsets, StringDictionary[] dictionaries) {
+        this.bytes = bytes;
+        this.schema = schema;
+        this.offsets = offsets;
+        this.dictionaries = dictionaries;
+    }
+
+    @Override
+    public DataBox get(int i) {
+        if (i < 0 || i >= offsets.length) {
+            throw new IndexOutOfBoundsException("Field " + i + " of " + offsets.length);
+        }
+        if (decoded == null) {
+            decoded = new DataBox[offsets.length];
+            buf = ByteBuffer.wrap(bytes);
+        }
+        DataBox value = decoded[i];
+        if (value == null) {
+            buf.position(offsets[i]);
+            value = DataBox.fromBytes(buf, schema.getFieldType(i));
+            if (dictionaries != null && dictionaries[i] != null) {
+                value = dictionaries[i].getValue(value.getInt());
+            }
+            decoded[i] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return offsets.length;
+    }
+}
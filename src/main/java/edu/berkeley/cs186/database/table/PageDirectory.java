@@ -14,8 +14,12 @@ import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.function.LongPredicate;
 
 /**
  * An implementation of a heap file, using a page directory. Assumes data pages are packed (but record
@@ -90,6 +94,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         this.emptyPageMetadataSize = emptyPageMetadataSize;
         this.lockContext = lockContext;
         this.firstHeader = new HeaderPage(pageNum, 0, true);
+        this.lockContext.setCapacity(getNumDataPages());
     }
 
     public short getEffectivePageSize() {
@@ -113,15 +118,30 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         Page page = this.firstHeader.loadPageWithSpace(requiredSpace);
+        // a new data page may have been allocated
+        lockContext.setCapacity(getNumDataPages());
         LockContext pageContext = lockContext.childContext(page.getPageNum());
-        // TODO(proj4_part2): Update the following line
-        LockUtil.ensureSufficientLockHeld(pageContext, LockType.NL);
+        LockUtil.ensureSufficientLockHeld(pageContext, LockType.X);
 
         return new DataPage(pageDirectoryId, page);
     }
 
+    /**
+     * Sets the amount of free space recorded for a data page. A page may be
+     * recorded as having no free space at all (e.g. a completely full slotted
+     * page). If the page is entirely free, it is freed.
+     */
     public void updateFreeSpace(Page page, short newFreeSpace) {
-        if (newFreeSpace <= 0 || newFreeSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+        updateFreeSpace(page, newFreeSpace, false);
+    }
+
+    /**
+     * Sets the amount of free space recorded for a data page, as above,
+     * except that an entirely free page is kept (and recorded as entirely
+     * free) if `keepEmpty` is set.
+     */
+    public void updateFreeSpace(Page page, short newFreeSpace, boolean keepEmpty) {
+        if (newFreeSpace < 0 || newFreeSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
             throw new IllegalArgumentException("bad size for data page free space");
         }
 
@@ -141,12 +161,43 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         for (int i = 0; i < headerIndex; ++i) {
             headerPage = headerPage.nextPage;
         }
-        headerPage.updateSpace(page, offset, newFreeSpace);
+        headerPage.updateSpace(page, offset, newFreeSpace, keepEmpty);
+    }
+
+    /**
+     * Frees the data page `pageNum` if it is one of the pages of this
+     * directory and is recorded as entirely free (see updateFreeSpace).
+     */
+    public void freePageIfEmpty(long pageNum) {
+        firstHeader.freePageIfEmpty(pageNum);
     }
 
     @Override
     public BacktrackingIterator<Page> iterator() {
-        return new ConcatBacktrackingIterator<>(new HeaderPageIterator());
+        return iterator(pageNum -> true);
+    }
+
+    /**
+     * @param include decides, given its page number, whether a data page is
+     * returned. Pages that are not included are never fetched.
+     * @return an iterator over the included data pages of this page directory
+     */
+    public BacktrackingIterator<Page> iterator(LongPredicate include) {
+        return new ConcatBacktrackingIterator<>(new HeaderPageIterator(include));
+    }
+
+    /**
+     * @return the page numbers of the data pages of this page directory, in
+     * the order iterator() returns the pages. No data page is fetched.
+     */
+    public List<Long> getDataPageNums() {
+        List<Long> pageNums = new ArrayList<>();
+        Iterator<Page> iter = iterator(pageNum -> {
+            pageNums.add(pageNum);
+            return false;
+        });
+        while (iter.hasNext()) iter.next();
+        return pageNums;
     }
 
     public int getNumDataPages() {
@@ -364,10 +415,10 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         // updates free space
-        private void updateSpace(Page dataPage, short index, short newFreeSpace) {
+        private void updateSpace(Page dataPage, short index, short newFreeSpace, boolean keepEmpty) {
             this.page.pin();
             try {
-                if (newFreeSpace < EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+                if (newFreeSpace < EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize || keepEmpty) {
                     // write new free space to disk
                     Buffer b = this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
@@ -387,15 +438,48 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             }
         }
 
+        // frees the data page `pageNum` if this or a later header page
+        // records it as entirely free
+        private void freePageIfEmpty(long pageNum) {
+            this.page.pin();
+            try {
+                Buffer b = this.page.getBuffer();
+                b.position(HEADER_HEADER_SIZE);
+                for (short i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
+                    if (dpe.pageNum != pageNum) continue;
+                    if (dpe.freeSpace >= EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+                        Page dataPage = bufferManager.fetchPage(lockContext, pageNum);
+                        try {
+                            updateSpace(dataPage, i, dpe.freeSpace, false);
+                        } finally {
+                            dataPage.unpin();
+                        }
+                    }
+                    return;
+                }
+            } finally {
+                this.page.unpin();
+            }
+            if (this.nextPage != null) this.nextPage.freePageIfEmpty(pageNum);
+        }
+
         @Override
         public BacktrackingIterator<Page> iterator() {
-            return new HeaderPageIterator();
+            return iterator(pageNum -> true);
+        }
+
+        private BacktrackingIterator<Page> iterator(LongPredicate include) {
+            return new HeaderPageIterator(include);
         }
 
         // iterator over the data pages managed by this header page
         private class HeaderPageIterator extends IndexBacktrackingIterator<Page> {
-            private HeaderPageIterator() {
+            private LongPredicate include;
+
+            private HeaderPageIterator(LongPredicate include) {
                 super(HEADER_ENTRY_COUNT);
+                this.include = include;
             }
 
             @Override
@@ -406,7 +490,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * ++currentIndex);
                     for (int i = currentIndex; i < HEADER_ENTRY_COUNT; ++i) {
                         DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                        if (dpe.isValid()) {
+                        if (dpe.isValid() && include.test(dpe.pageNum)) {
                             return i;
                         }
                     }
@@ -438,8 +522,10 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         private HeaderPage nextPage;
         private HeaderPage prevPage;
         private HeaderPage markedPage;
+        private LongPredicate include;
 
-        private HeaderPageIterator() {
+        private HeaderPageIterator(LongPredicate include) {
+            this.include = include;
             this.nextPage = firstHeader;
             this.prevPage = null;
             this.markedPage = null;
@@ -451,14 +537,14 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         @Override
-        public HeaderPage next() {
+        public BacktrackingIterable<Page> next() {
             if (!this.hasNext()) {
                 throw new NoSuchElementException();
             }
             HeaderPage next = this.nextPage;
             this.prevPage = next;
             this.nextPage = next.nextPage;
-            return next;
+            return () -> next.iterator(include);
         }
 
         @Override
@@ -0,0 +1,36 @@
+package edu.berkeley.cs186.database.table;
+
+/**
+ * The on-page layout used to store the records of a table. The format of a
+ * table is chosen when the table is created and is persisted alongside its
+ * schema in _metadata.tables.
+ *
+ * - FIXED_LENGTH: the original layout. Every data page begins with a bitmap
+ *   followed by fixed-width record slots of schema.getSizeInBytes() bytes each.
+ * - SLOTTED: a slotted page with a slot directory at the front of the page and
+ *   variable-length records packed at the back of the page. Strings are stored
+ *   using only as many bytes as they need. See SlottedPage for details.
+ * - PAX: the same bitmap and number of records per page as FIXED_LENGTH, but
+ *   the values of each column are stored together in a per-column minipage,
+ *   so that a scan which only needs a few columns only decodes those.
+ */
+public enum PageFormat {
+    FIXED_LENGTH,
+    SLOTTED,
+    PAX;
+
+    /**
+     * @return the byte used to persist this format. FIXED_LENGTH is 0 so that
+     * tables created before formats existed load as FIXED_LENGTH.
+     */
+    public byte toByte() {
+        return (byte) ordinal();
+    }
+
+    public static PageFormat fromByte(byte b) {
+        if (b < 0 || b >= values().length) {
+            throw new IllegalArgumentException("Unknown page format " + b);
+        }
+        return values()[b];
+    }
+}
@@ -2,14 +2,21 @@ package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.databox.TypeId;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 
-/** A Record is just list of DataBoxes. */
+/**
+ * A Record is just list of DataBoxes. The values of records read from a
+ * table may be decoded lazily, as they are accessed (see LazyRecordValues).
+ */
 public class Record {
     private List<DataBox> values;
 
@@ -49,15 +56,82 @@ public class Record {
         return byteBuffer.array();
     }
 
+    /**
+     * Serializes this record into the variable-length encoding used by
+     * slotted pages (see PageFormat.SLOTTED). Strings are written as a 2-byte
+     * length followed by only the bytes of the string, without padding. All
+     * other types are written exactly as in toBytes.
+     */
+    public byte[] toVariableLengthBytes(Schema schema) {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(getMaxVariableLengthSize(schema));
+        for (DataBox value : values) {
+            if (value.getTypeId() == TypeId.STRING) {
+                byte[] bytes = value.getString().getBytes(StandardCharsets.US_ASCII);
+                byteBuffer.putShort((short) bytes.length).put(bytes);
+            } else {
+                byteBuffer.put(value.toBytes());
+            }
+        }
+        byte[] bytes = new byte[byteBuffer.position()];
+        System.arraycopy(byteBuffer.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * @return the largest number of bytes that toVariableLengthBytes can
+     * produce for a record of `schema`.
+     */
+    public static int getMaxVariableLengthSize(Schema schema) {
+        int size = schema.getSizeInBytes();
+        for (Type t : schema.getFieldTypes()) {
+            if (t.getTypeId() == TypeId.STRING) size += Short.BYTES;
+        }
+        return size;
+    }
+
+    /**
+     * Returns a new record consisting of the values of this record at the
+     * given positions, in the given order.
+     */
+    public Record project(int[] columns) {
+        List<DataBox> values = new ArrayList<>(columns.length);
+        for (int column : columns) {
+            values.add(this.values.get(column));
+        }
+        return new Record(values);
+    }
+
     /**
      * Returns a new records consisting of this record's values with the other record's
      * values appended to the right of it. i.e. if record a contains [1,2,3] and record b
      * contains [4,5,6], a.concat(b) would be a record consisting of [1,2,3,4,5,6].
+     * The values of both records are not copied (or decoded) until they are
+     * accessed.
      */
     public Record concat(Record other) {
-        List<DataBox> values = new ArrayList<>(this.values);
-        values.addAll(other.getValues());
-        return new Record(values);
+        return new Record(new ConcatenatedValues(this.values, other.values));
+    }
+
+    // The values of two records, one after the other.
+    private static class ConcatenatedValues extends AbstractList<DataBox> implements RandomAccess {
+        private final List<DataBox> left;
+        private final List<DataBox> right;
+
+        private ConcatenatedValues(List<DataBox> left, List<DataBox> right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public DataBox get(int i) {
+            int n = left.size();
+            return i < n ? left.get(i) : right.get(i - n);
+        }
+
+        @Override
+        public int size() {
+            return left.size() + right.size();
+        }
     }
 
     /**
@@ -76,6 +150,27 @@ public class Record {
         return new Record(values);
     }
 
+    /**
+     * Decodes a record written by toVariableLengthBytes.
+     *
+     * @param buf the buffer to decode, positioned at the start of the record
+     * @param schema the schema used for this record
+     * @return the decoded Record
+     */
+    public static Record fromVariableLengthBytes(Buffer buf, Schema schema) {
+        List<DataBox> values = new ArrayList<>();
+        for (Type t : schema.getFieldTypes()) {
+            if (t.getTypeId() == TypeId.STRING) {
+                byte[] bytes = new byte[buf.getShort()];
+                buf.get(bytes);
+                values.add(new StringDataBox(new String(bytes, StandardCharsets.US_ASCII), t.getSizeInBytes()));
+            } else {
+                values.add(DataBox.fromBytes(buf, t));
+            }
+        }
+        return new Record(values);
+    }
+
     /**
      * @return the number of values in this record
      */
@@ -0,0 +1,174 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A batch of records stored column by column, for vectorized query execution
+ * (see QueryOperator#batchIterator). Column i of a batch is a ColumnVector
+ * holding field i of each of its rows.
+ *
+ * Operators that filter records don't copy the columns of a batch. They
+ * return a batch with the same columns and a selection vector instead, which
+ * lists the rows that are still part of the batch, in order. The records of a
+ * batch are only its selected rows:
+ *
+ *   for (int i = 0; i < batch.size(); ++i) {
+ *       int row = batch.getRow(i);
+ *       ... batch.getColumn(c).getInt(row) ...
+ *   }
+ *
+ * Batches are never modified once they are returned by an iterator, so
+ * operators are free to share column vectors between batches.
+ */
+public class RecordBatch {
+    // Number of rows in the batches produced by scans and adapters
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final ColumnVector[] columns;
+    private final int numRows;
+    // The selected rows, in order, or null if every row is selected
+    private final int[] selection;
+    private final int size;
+
+    /**
+     * @param columns columns of the batch
+     * @param numRows number of rows of the batch, all of which are selected
+     */
+    public RecordBatch(ColumnVector[] columns, int numRows) {
+        this(columns, numRows, null, numRows);
+    }
+
+    /**
+     * @param columns columns of the batch
+     * @param numRows number of rows of the batch
+     * @param selection rows of the batch that are selected, in increasing
+     *                  order, or null if every row is
+     * @param size number of entries of `selection` that are used
+     */
+    public RecordBatch(ColumnVector[] columns, int numRows, int[] selection, int size) {
+        this.columns = columns;
+        this.numRows = numRows;
+        this.selection = selection;
+        this.size = size;
+    }
+
+    public int getNumColumns() {
+        return columns.length;
+    }
+
+    public ColumnVector getColumn(int i) {
+        return columns[i];
+    }
+
+    /**
+     * @return number of rows of the batch, whether selected or not
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return number of records in the batch, i.e. of selected rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the row of the i-th record of the batch
+     */
+    public int getRow(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * @return a batch with the same columns as this one, whose records are
+     * the rows in the first `size` entries of `selection`
+     */
+    public RecordBatch select(int[] selection, int size) {
+        return new RecordBatch(columns, numRows, selection, size);
+    }
+
+    /**
+     * @return a batch with the same records as this one, made of `columns`
+     * (which must have the rows of this batch)
+     */
+    public RecordBatch withColumns(ColumnVector[] columns) {
+        return new RecordBatch(columns, numRows, selection, size);
+    }
+
+    /**
+     * @return the values of row `row` as a Record
+     */
+    public Record getRecord(int row) {
+        List<DataBox> values = new ArrayList<>(columns.length);
+        for (ColumnVector column : columns) {
+            values.add(column.get(row));
+        }
+        return new Record(values);
+    }
+
+    /**
+     * @return an iterator over the records of `records` in batches of
+     * DEFAULT_SIZE rows, which are read from `records` as each batch is
+     * requested
+     */
+    public static Iterator<RecordBatch> fromRecords(Iterator<Record> records, Schema schema) {
+        return new Iterator<RecordBatch>() {
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public RecordBatch next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                ColumnVector[] columns = new ColumnVector[schema.size()];
+                for (int i = 0; i < columns.length; ++i) {
+                    columns[i] = new ColumnVector(schema.getFieldType(i), DEFAULT_SIZE);
+                }
+                int numRows = 0;
+                while (numRows < DEFAULT_SIZE && records.hasNext()) {
+                    Record record = records.next();
+                    for (int i = 0; i < columns.length; ++i) {
+                        columns[i].set(numRows, record.getValue(i));
+                    }
+                    ++numRows;
+                }
+                return new RecordBatch(columns, numRows);
+            }
+        };
+    }
+
+    /**
+     * @return an iterator over the records of the batches of `batches`, in
+     * order
+     */
+    public static Iterator<Record> toRecords(Iterator<RecordBatch> batches) {
+        return new Iterator<Record>() {
+            private RecordBatch batch;
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                while (batch == null || next == batch.size()) {
+                    if (!batches.hasNext()) return false;
+                    batch = batches.next();
+                    next = 0;
+                }
+                return true;
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return batch.getRecord(batch.getRow(next++));
+            }
+        };
+    }
+}
@@ -0,0 +1,250 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+
+import java.util.Arrays;
+
+/**
+ * Helpers for reading and writing data pages in the slotted page format
+ * (PageFormat.SLOTTED). A slotted page is laid out as follows:
+ *
+ *   +------------+-----------+--------+--------+-----+-------------+----------+
+ *   | num slots  | heap      | slot 0 | slot 1 | ... | free space  | records  |
+ *   | (2 bytes)  | (2 bytes) | (4 B)  | (4 B)  |     | -->     <-- |          |
+ *   +------------+-----------+--------+--------+-----+-------------+----------+
+ *
+ * - num slots is the number of entries in the slot directory.
+ * - heap is the offset of the lowest byte used by a record. Records are packed
+ *   from the end of the page towards the slot directory. A value of 0 means
+ *   that no record has been written yet (i.e. the heap starts at the end of the
+ *   page), which lets freshly allocated, zeroed pages be used as-is.
+ * - each slot is a 2-byte offset followed by a 2-byte length. An offset of 0
+ *   marks an empty slot, since offset 0 is always part of the page header. The
+ *   top bits of the length are used as flags (see FORWARD and MOVED).
+ *
+ * The entry number of a RecordId is the index of its slot, so record ids stay
+ * stable when records on the page are moved around by compaction. When an
+ * update makes a record too large for its page, the record is moved to
+ * another page and its original slot is turned into a forwarding stub that
+ * holds the serialized RecordId of the new location (flagged FORWARD). The
+ * moved copy is flagged MOVED so that scans do not return it twice.
+ *
+ * Every record is given at least MIN_RECORD_SIZE bytes so that a record can
+ * always be replaced in place by a forwarding stub.
+ *
+ * All methods take the buffer of the data page (as returned by
+ * Page::getBuffer) and the usable size of that buffer in bytes.
+ */
+class SlottedPage {
+    // size in bytes of the page header (num slots + heap offset)
+    static final int HEADER_SIZE = 4;
+
+    // size in bytes of a single slot directory entry
+    static final int SLOT_SIZE = 4;
+
+    // smallest allocation for a record, so that it can be replaced by a stub
+    static final int MIN_RECORD_SIZE = RecordId.getSizeInBytes();
+
+    // slot flag: the slot holds the RecordId of the relocated record
+    static final int FORWARD = 0x8000;
+
+    // slot flag: the slot holds a record relocated here from another page
+    static final int MOVED = 0x4000;
+
+    private static final int LENGTH_MASK = 0x3FFF;
+
+    private SlottedPage() {}
+
+    /**
+     * @return the maximum number of slots that a page of `pageSize` bytes can
+     * hold. A slot is only appended when every existing slot is in use, and a
+     * used slot takes up at least SLOT_SIZE + MIN_RECORD_SIZE bytes.
+     */
+    static int maxSlots(int pageSize) {
+        return (pageSize - HEADER_SIZE) / (SLOT_SIZE + MIN_RECORD_SIZE);
+    }
+
+    /**
+     * @return an estimate of the number of records of `schema` that fit on a
+     * page, assuming strings are on average half as long as their declared
+     * width. Used for cost estimation only.
+     */
+    static int estimateRecordsPerPage(int pageSize, Schema schema) {
+        int size = Record.getMaxVariableLengthSize(schema);
+        for (Type t : schema.getFieldTypes()) {
+            if (t.getTypeId() == TypeId.STRING) size -= t.getSizeInBytes() / 2;
+        }
+        size = Math.max(size, MIN_RECORD_SIZE);
+        return Math.max(1, Math.min(maxSlots(pageSize), (pageSize - HEADER_SIZE) / (SLOT_SIZE + size)));
+    }
+
+    static int getNumSlots(Buffer b) {
+        return b.getShort(0);
+    }
+
+    private static int getHeapStart(Buffer b, int pageSize) {
+        int heap = b.getShort(2);
+        return heap == 0 ? pageSize : heap;
+    }
+
+    private static int slotPosition(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    static int getOffset(Buffer b, int slot) {
+        return b.getShort(slotPosition(slot));
+    }
+
+    static int getLength(Buffer b, int slot) {
+        return b.getShort(slotPosition(slot) + 2) & LENGTH_MASK;
+    }
+
+    private static int getFlags(Buffer b, int slot) {
+        return b.getShort(slotPosition(slot) + 2) & ~LENGTH_MASK;
+    }
+
+    private static void setSlot(Buffer b, int slot, int offset, int length, int flags) {
+        b.putShort(slotPosition(slot), (short) offset);
+        b.putShort(slotPosition(slot) + 2, (short) (length | flags));
+    }
+
+    /**
+     * @return true if `slot` exists and holds a record or a forwarding stub
+     */
+    static boolean isUsed(Buffer b, int slot) {
+        return slot >= 0 && slot < getNumSlots(b) && getOffset(b, slot) != 0;
+    }
+
+    static boolean isForward(Buffer b, int slot) {
+        return (getFlags(b, slot) & FORWARD) != 0;
+    }
+
+    static boolean isMoved(Buffer b, int slot) {
+        return (getFlags(b, slot) & MOVED) != 0;
+    }
+
+    /**
+     * @return the number of bytes available for new records and slots,
+     * including space that is only available after compaction
+     */
+    static int getFreeSpace(Buffer b, int pageSize) {
+        int numSlots = getNumSlots(b);
+        int used = HEADER_SIZE + numSlots * SLOT_SIZE;
+        for (int i = 0; i < numSlots; ++i) {
+            if (getOffset(b, i) != 0) used += getLength(b, i);
+        }
+        return pageSize - used;
+    }
+
+    /**
+     * Inserts `data` into the first empty slot of the page (appending a new
+     * slot if there is none), compacting the page if necessary.
+     *
+     * @return the slot the data was written to, or -1 if the page does not have
+     * enough free space
+     */
+    static int insert(Buffer b, int pageSize, byte[] data, int flags) {
+        int numSlots = getNumSlots(b);
+        int slot = 0;
+        while (slot < numSlots && getOffset(b, slot) != 0) ++slot;
+        int length = Math.max(data.length, MIN_RECORD_SIZE);
+        int slotSpace = slot == numSlots ? SLOT_SIZE : 0;
+        if (getFreeSpace(b, pageSize) < length + slotSpace) return -1;
+
+        if (slot == numSlots) {
+            b.putShort(0, (short) (numSlots + 1));
+            // reserve the new slot so compaction keeps the directory clear of records
+            setSlot(b, slot, 0, 0, 0);
+        }
+        int offset = allocate(b, pageSize, length);
+        b.position(offset);
+        b.put(data);
+        setSlot(b, slot, offset, length, flags);
+        return slot;
+    }
+
+    /**
+     * Overwrites the contents of `slot` with `data`. The data is written in
+     * place if it fits in the space already allocated to the slot, and
+     * otherwise moved within the page.
+     *
+     * @return false if the page does not have enough free space for `data`, in
+     * which case the page is left unmodified
+     */
+    static boolean update(Buffer b, int pageSize, int slot, byte[] data, int flags) {
+        int oldOffset = getOffset(b, slot);
+        int oldLength = getLength(b, slot);
+        if (data.length <= oldLength) {
+            b.position(oldOffset);
+            b.put(data);
+            setSlot(b, slot, oldOffset, oldLength, flags);
+            return true;
+        }
+        if (getFreeSpace(b, pageSize) + oldLength < data.length) return false;
+
+        setSlot(b, slot, 0, 0, 0);
+        int offset = allocate(b, pageSize, data.length);
+        b.position(offset);
+        b.put(data);
+        setSlot(b, slot, offset, data.length, flags);
+        return true;
+    }
+
+    /**
+     * Empties `slot`, and drops any trailing empty slots from the slot
+     * directory.
+     */
+    static void delete(Buffer b, int pageSize, int slot) {
+        setSlot(b, slot, 0, 0, 0);
+        int numSlots = getNumSlots(b);
+        while (numSlots > 0 && getOffset(b, numSlots - 1) == 0) --numSlots;
+        b.putShort(0, (short) numSlots);
+        if (numSlots == 0) b.putShort(2, (short) 0);
+    }
+
+    /**
+     * @return a position in the page where `length` contiguous bytes can be
+     * written, compacting the page first if necessary. The caller must have
+     * already checked that the page has enough free space.
+     */
+    private static int allocate(Buffer b, int pageSize, int length) {
+        int directoryEnd = HEADER_SIZE + getNumSlots(b) * SLOT_SIZE;
+        int heap = getHeapStart(b, pageSize);
+        if (heap - directoryEnd < length) {
+            heap = compact(b, pageSize);
+        }
+        heap -= length;
+        b.putShort(2, (short) heap);
+        return heap;
+    }
+
+    /**
+     * Moves all records to the end of the page, removing any holes left by
+     * deleted or shrunk records.
+     *
+     * @return the new start of the heap
+     */
+    private static int compact(Buffer b, int pageSize) {
+        byte[] page = new byte[pageSize];
+        b.position(0);
+        b.get(page);
+
+        byte[] packed = new byte[pageSize];
+        int numSlots = getNumSlots(b);
+        int heap = pageSize;
+        for (int i = 0; i < numSlots; ++i) {
+            int offset = getOffset(b, i);
+            if (offset == 0) continue;
+            int length = getLength(b, i);
+            heap -= length;
+            System.arraycopy(page, offset, packed, heap, length);
+            setSlot(b, i, heap, length, getFlags(b, i));
+        }
+        b.position(heap);
+        b.put(Arrays.copyOfRange(packed, heap, pageSize));
+        b.putShort(2, (short) heap);
+        return heap;
+    }
+}
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
@@ -10,13 +11,22 @@ import edu.berkeley.cs186.database.common.iterator.IndexBacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDictionary;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * # Overview
@@ -89,6 +99,45 @@ import java.util.Map;
  * only supports locking at the page level, so in cases where tuple-level locks are
  * necessary even at the cost of an I/O per tuple, a full page record may be desirable),
  * and may be explicitly toggled on with the setFullPageRecords method.
+ *
+ * # Slotted Pages
+ * Tables created with PageFormat.SLOTTED store variable-length records instead.
+ * Strings only take up as many bytes as they need, and each data page keeps a
+ * slot directory at its front that maps entry numbers to the offset and length
+ * of each record on the page (see SlottedPage for the exact layout). The entry
+ * number of a RecordId is the record's slot, so record ids remain valid when
+ * records are moved within a page or, if an update no longer fits on the page,
+ * forwarded to another page. Free space on slotted pages is tracked exactly in
+ * the page directory, so a record is inserted into the first page with room
+ * for it.
+ *
+ * # PAX Pages
+ * Tables created with PageFormat.PAX hold the same number of records per page
+ * as the default format, and also begin each data page with a bitmap.
+ * However, the rest of the page is split into one minipage per column, and
+ * minipage i holds field i of every record on the page:
+ *
+ *   | bitmap | x0 x1 x2 ... xn | y0 y1 y2 ... yn | z0 z1 z2 ... zn |
+ *
+ * Fields of a column are stored contiguously, so a scan that only requests
+ * some of the columns of a table (see iterator(int[])) never decodes the
+ * others.
+ *
+ * # Dictionary Encoding
+ * String columns with few distinct values can be dictionary-encoded (see
+ * StringDictionary). The data pages of the table then hold the integer code
+ * of each value of such a column instead of the string itself, so a record
+ * takes up less space and more records fit on a page. Encoding and decoding
+ * happen in addRecord, updateRecord, and getRecord, so users of the table
+ * only ever see strings. The strings returned are the EncodedStringDataBoxes
+ * of the dictionary, which lets operators compare them by code.
+ *
+ * # Zone Maps
+ * The statistics of each table include a zone map (see ZoneMap) with the
+ * smallest and largest value of every column on each data page, which is
+ * kept up to date by addRecord, updateRecord, and deleteRecord. Scans given
+ * predicates (see iterator(int[], List)) use it to skip pages that cannot
+ * contain a matching record without fetching them.
  */
 public class Table implements BacktrackingIterable<Record> {
     // The name of the table.
@@ -97,40 +146,102 @@ public class Table implements BacktrackingIterable<Record> {
     // The schema of the table.
     private Schema schema;
 
+    // The schema of the records stored on data pages. Same as schema, except
+    // that dictionary-encoded columns are stored as integer codes.
+    private Schema storageSchema;
+
+    // The dictionary of each dictionary-encoded column, and null for the
+    // other columns.
+    private StringDictionary[] dictionaries;
+
     // The page directory persisting the table.
     private PageDirectory pageDirectory;
 
     // The size (in bytes) of the bitmap found at the beginning of each data page.
     private int bitmapSizeInBytes;
 
-    // The number of records on each data page.
+    // The number of records on each data page. For slotted pages, this is the
+    // maximum number of slots on a data page.
     private int numRecordsPerPage;
 
+    // The layout of the data pages of the table.
+    private PageFormat format;
+
+    // The offset of each field within a fixed-length record.
+    private int[] fieldOffsets;
+
     // The lock context of the table.
     private LockContext tableContext;
 
     // Statistics about the contents of the database.
     Map<String, TableStats> stats;
 
+    // The old versions of the records of the database, or null if the
+    // records of this table are not versioned (see setVersionStore).
+    private VersionStore versions;
+
     // Constructors ////////////////////////////////////////////////////////////
     /**
      * Load a table named `name` with schema `schema` from `pageDirectory`. `lockContext`
      * is the lock context of the table (use a DummyLockContext() to disable locking). A
      * new table will be created if none exists in the pageDirectory.
      */
-    public Table(String name, Schema schema, PageDirectory pageDirectory, LockContext lockContext, Map<String, TableStats> stats) {
+    public Table(String name, Schema schema, PageDirectory pageDirectory, LockContext lockContext,
+                 Map<String, TableStats> stats, PageFormat format, StringDictionary[] dictionaries) {
         this.name = name;
         this.pageDirectory = pageDirectory;
         this.schema = schema;
         this.tableContext = lockContext;
+        this.format = format;
+        this.dictionaries = dictionaries == null ? new StringDictionary[schema.size()] : dictionaries;
+        if (this.dictionaries.length != schema.size()) {
+            throw new DatabaseException("Expected a dictionary entry for each column of " + name);
+        }
+        this.storageSchema = new Schema();
+        for (int i = 0; i < schema.size(); ++i) {
+            Type type = schema.getFieldType(i);
+            if (this.dictionaries[i] != null) {
+                if (type.getTypeId() != TypeId.STRING) {
+                    throw new DatabaseException("Only string columns can be dictionary-encoded");
+                }
+                type = Type.intType();
+            }
+            this.storageSchema.add(schema.getFieldName(i), type);
+        }
+        this.fieldOffsets = new int[storageSchema.size()];
+        for (int i = 1; i < storageSchema.size(); ++i) {
+            fieldOffsets[i] = fieldOffsets[i - 1] + storageSchema.getFieldType(i - 1).getSizeInBytes();
+        }
 
-        this.bitmapSizeInBytes = computeBitmapSizeInBytes(pageDirectory.getEffectivePageSize(), schema);
-        this.numRecordsPerPage = computeNumRecordsPerPage(pageDirectory.getEffectivePageSize(), schema);
-        // mark everything that is not used for records as metadata
-        this.pageDirectory.setEmptyPageMetadataSize((short) (pageDirectory.getEffectivePageSize() - numRecordsPerPage
-                                               * schema.getSizeInBytes()));
+        int pageSize = pageDirectory.getEffectivePageSize();
+        int estimatedRecordsPerPage;
+        if (format == PageFormat.SLOTTED) {
+            if (Record.getMaxVariableLengthSize(storageSchema) + SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE > pageSize) {
+                throw new DatabaseException("Schema is too large for a slotted page");
+            }
+            this.numRecordsPerPage = SlottedPage.maxSlots(pageSize);
+            this.bitmapSizeInBytes = (numRecordsPerPage + 7) / 8;
+            this.pageDirectory.setEmptyPageMetadataSize((short) SlottedPage.HEADER_SIZE);
+            estimatedRecordsPerPage = SlottedPage.estimateRecordsPerPage(pageSize, storageSchema);
+        } else {
+            this.bitmapSizeInBytes = computeBitmapSizeInBytes(pageSize, storageSchema);
+            this.numRecordsPerPage = computeNumRecordsPerPage(pageSize, storageSchema);
+            // mark everything that is not used for records as metadata
+            this.pageDirectory.setEmptyPageMetadataSize((short) (pageSize - numRecordsPerPage
+                                                   * storageSchema.getSizeInBytes()));
+            estimatedRecordsPerPage = numRecordsPerPage;
+        }
         this.stats = stats;
-        if (!this.stats.containsKey(name)) this.stats.put(name, new TableStats(this.schema, this.numRecordsPerPage));
+        if (!this.stats.containsKey(name)) this.stats.put(name, new TableStats(this.schema, estimatedRecordsPerPage));
+    }
+
+    public Table(String name, Schema schema, PageDirectory pageDirectory, LockContext lockContext,
+                 Map<String, TableStats> stats, PageFormat format) {
+        this(name, schema, pageDirectory, lockContext, stats, format, null);
+    }
+
+    public Table(String name, Schema schema, PageDirectory pageDirectory, LockContext lockContext, Map<String, TableStats> stats) {
+        this(name, schema, pageDirectory, lockContext, stats, PageFormat.FIXED_LENGTH);
     }
 
     public Table(String name, Schema schema, PageDirectory pageDirectory, LockContext lockContext) {
@@ -149,27 +260,90 @@ public class Table implements BacktrackingIterable<Record> {
         return numRecordsPerPage;
     }
 
+    public PageFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the dictionary of each column, or null for columns that are not
+     * dictionary-encoded
+     */
+    public StringDictionary[] getDictionaries() {
+        return dictionaries;
+    }
+
+    public boolean isEncoded() {
+        for (StringDictionary dictionary : dictionaries) {
+            if (dictionary != null) return true;
+        }
+        return false;
+    }
+
     public void setFullPageRecords() {
+        format = PageFormat.FIXED_LENGTH;
         numRecordsPerPage = 1;
         bitmapSizeInBytes = 0;
         pageDirectory.setEmptyPageMetadataSize((short) (pageDirectory.getEffectivePageSize() -
-                                          schema.getSizeInBytes()));
+                                          storageSchema.getSizeInBytes()));
     }
 
     public TableStats getStats() {
         return this.stats.get(name);
     }
 
+    /**
+     * Versions the records of this table in `versions`: writes record the
+     * versions they replace, and read-only transactions read the records of
+     * their snapshot instead of the latest ones (see VersionStore).
+     */
+    public void setVersionStore(VersionStore versions) {
+        this.versions = versions;
+    }
+
     public int getNumDataPages() {
         return this.pageDirectory.getNumDataPages();
     }
 
+    /**
+     * Locks this table in S mode and returns the page numbers of its data
+     * pages, in the order a scan reads them. As long as the lock is held, the
+     * pages may be read with batchIterator(columns, predicates, pageNums) by
+     * threads that run no transaction.
+     */
+    public List<Long> getDataPageNums() {
+        LockUtil.ensureSufficientLockHeld(tableContext, LockType.S);
+        return this.pageDirectory.getDataPageNums();
+    }
+
+    /**
+     * @return true if the pages of this table can be scanned by several
+     * threads at once for the current transaction (see getDataPageNums),
+     * which requires fixed field positions and the latest version of each
+     * record
+     */
+    public boolean supportsParallelScan() {
+        return format != PageFormat.SLOTTED && getSnapshot() < 0;
+    }
+
     public int getPartNum() {
         return pageDirectory.getPartNum();
     }
 
     private byte[] getBitMap(Page page) {
-        if (bitmapSizeInBytes > 0) {
+        if (format == PageFormat.SLOTTED) {
+            // Slotted pages have no bitmap; build one from the slot directory.
+            // Records that were moved here from another page are reached
+            // through their forwarding stub, so they are left out.
+            byte[] bytes = new byte[bitmapSizeInBytes];
+            Buffer buf = page.getBuffer();
+            int numSlots = SlottedPage.getNumSlots(buf);
+            for (int i = 0; i < numSlots; ++i) {
+                if (SlottedPage.isUsed(buf, i) && !SlottedPage.isMoved(buf, i)) {
+                    Bits.setBit(bytes, i, Bits.Bit.ONE);
+                }
+            }
+            return bytes;
+        } else if (bitmapSizeInBytes > 0) {
             byte[] bytes = new byte[bitmapSizeInBytes];
             page.getBuffer().get(bytes, 0, bitmapSizeInBytes);
             return bytes;
@@ -232,8 +406,27 @@ public class Table implements BacktrackingIterable<Record> {
     }
 
     private synchronized void insertRecord(Page page, int entryNum, Record record) {
-        int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
-        page.getBuffer().position(offset).put(record.toBytes(schema));
+        if (format == PageFormat.PAX) {
+            Buffer buf = page.getBuffer();
+            for (int i = 0; i < storageSchema.size(); ++i) {
+                buf.position(fieldPosition(entryNum, i)).put(record.getValue(i).toBytes());
+            }
+            return;
+        }
+        int offset = bitmapSizeInBytes + (entryNum * storageSchema.getSizeInBytes());
+        page.getBuffer().position(offset).put(record.toBytes(storageSchema));
+    }
+
+    /**
+     * @return the position in a data page of field `field` of the record with
+     * entry number `entryNum`. Only valid for fixed-length and PAX pages.
+     */
+    private int fieldPosition(int entryNum, int field) {
+        if (format == PageFormat.PAX) {
+            return bitmapSizeInBytes + numRecordsPerPage * fieldOffsets[field]
+                   + entryNum * storageSchema.getFieldType(field).getSizeInBytes();
+        }
+        return bitmapSizeInBytes + entryNum * storageSchema.getSizeInBytes() + fieldOffsets[field];
     }
 
     /**
@@ -245,8 +438,22 @@ public class Table implements BacktrackingIterable<Record> {
      * the page with index 3 and the bitmap is updated to 0b11111000.
      */
     public synchronized RecordId addRecord(Record record) {
+        checkWritable();
         record = schema.verify(record);
-        Page page = pageDirectory.getPageWithSpace(schema.getSizeInBytes());
+        Record stored = encode(record);
+        if (format == PageFormat.SLOTTED) {
+            RecordId rid = insertSlottedRecord(stored.toVariableLengthBytes(storageSchema), 0);
+            Page page = fetchPage(rid.getPageNum());
+            try {
+                boolean pageWasEmpty = numRecordsOnPage(page) == 1;
+                stats.get(name).getZoneMap().addRecord(rid.getPageNum(), record, pageWasEmpty);
+            } finally {
+                page.unpin();
+            }
+            stats.get(name).addRecord(record);
+            return rid;
+        }
+        Page page = pageDirectory.getPageWithSpace(storageSchema.getSizeInBytes());
         try {
             // Find the first empty slot in the bitmap.
             // entry number of the first free slot and store it in entryNum; and (2) we
@@ -262,15 +469,19 @@ public class Table implements BacktrackingIterable<Record> {
                 entryNum = 0;
             }
             assert (entryNum < numRecordsPerPage);
+            boolean pageWasEmpty = numRecordsPerPage == 1 || numRecordsOnPage(page) == 0;
 
             // Insert the record and update the bitmap.
-            insertRecord(page, entryNum, record);
+            RecordId rid = new RecordId(page.getPageNum(), (short) entryNum);
+            recordWrite(rid, null);
+            insertRecord(page, entryNum, stored);
             Bits.setBit(bitmap, entryNum, Bits.Bit.ONE);
             writeBitMap(page, bitmap);
 
             // Update the metadata.
             stats.get(name).addRecord(record);
-            return new RecordId(page.getPageNum(), (short) entryNum);
+            stats.get(name).getZoneMap().addRecord(page.getPageNum(), record, pageWasEmpty);
+            return rid;
         } finally {
             page.unpin();
         }
@@ -281,7 +492,51 @@ public class Table implements BacktrackingIterable<Record> {
      * exists.
      */
     public synchronized Record getRecord(RecordId rid) {
+        return getRecord(rid, null);
+    }
+
+    /**
+     * Retrieves the fields `columns` of a record from the table, in the order
+     * given, throwing an exception if no such record exists. Fields that are
+     * not requested are not decoded. If `columns` is null, every field is
+     * retrieved.
+     */
+    public synchronized Record getRecord(RecordId rid, int[] columns) {
+        long snapshot = getSnapshot();
+        if (snapshot < 0) return getLatestRecord(rid, columns);
+
+        // read the page first: see VersionStore
+        Record latest = null;
+        DatabaseException missing = null;
+        try {
+            latest = getLatestRecord(rid, columns);
+        } catch (DatabaseException e) {
+            missing = e;
+        }
+        VersionStore.Version overwritten = versions.getOverwritten(rid, snapshot);
+        if (overwritten == null) {
+            if (missing != null) throw missing;
+            return latest;
+        }
+        if (overwritten.before == null) {
+            String msg = String.format("Record %s does not exist.", rid);
+            throw new DatabaseException(msg);
+        }
+        return columns == null ? overwritten.before : overwritten.before.project(columns);
+    }
+
+    /**
+     * Retrieves the fields `columns` of the latest version of a record, i.e.
+     * the one on its data page (see getRecord).
+     */
+    private Record getLatestRecord(RecordId rid, int[] columns) {
         validateRecordId(rid);
+        if (format == PageFormat.SLOTTED) {
+            // variable-length fields have no fixed position, so decode the
+            // whole record and drop the fields that were not requested
+            Record record = decode(getSlottedRecord(rid, false));
+            return columns == null ? record : record.project(columns);
+        }
         Page page = fetchPage(rid.getPageNum());
         try {
             byte[] bitmap = getBitMap(page);
@@ -290,10 +545,24 @@ public class Table implements BacktrackingIterable<Record> {
                 throw new DatabaseException(msg);
             }
 
-            int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
             Buffer buf = page.getBuffer();
-            buf.position(offset);
-            return Record.fromBytes(buf, schema);
+            if (columns == null && format == PageFormat.FIXED_LENGTH) {
+                // copy the bytes of the record out of the page, and leave
+                // decoding the fields to whoever reads them
+                byte[] bytes = new byte[storageSchema.getSizeInBytes()];
+                buf.position(bitmapSizeInBytes + (rid.getEntryNum() * storageSchema.getSizeInBytes()));
+                buf.get(bytes);
+                return new Record(new LazyRecordValues(bytes, storageSchema, fieldOffsets,
+                                                       isEncoded() ? dictionaries : null));
+            }
+            int numColumns = columns == null ? schema.size() : columns.length;
+            List<DataBox> values = new ArrayList<>(numColumns);
+            for (int i = 0; i < numColumns; ++i) {
+                int field = columns == null ? i : columns[i];
+                buf.position(fieldPosition(rid.getEntryNum(), field));
+                values.add(decode(field, DataBox.fromBytes(buf, storageSchema.getFieldType(field))));
+            }
+            return new Record(values);
         } finally {
             page.unpin();
         }
@@ -305,22 +574,29 @@ public class Table implements BacktrackingIterable<Record> {
      * not correspond to an existing record in the table.
      */
     public synchronized Record updateRecord(RecordId rid, Record updated) {
+        checkWritable();
         validateRecordId(rid);
         // If we're updating a record we'll need exclusive access to the page
         // its on.
         LockContext pageContext = tableContext.childContext(rid.getPageNum());
-        // TODO(proj4_part2): Update the following line
-        LockUtil.ensureSufficientLockHeld(pageContext, LockType.NL);
+        LockUtil.ensureSufficientLockHeld(pageContext, LockType.X);
 
         Record newRecord = schema.verify(updated);
         Record oldRecord = getRecord(rid);
 
+        Record stored = encode(newRecord);
         Page page = fetchPage(rid.getPageNum());
         try {
-            insertRecord(page, rid.getEntryNum(), newRecord);
+            recordWrite(rid, oldRecord);
+            if (format == PageFormat.SLOTTED) {
+                updateSlottedRecord(rid, stored.toVariableLengthBytes(storageSchema));
+            } else {
+                insertRecord(page, rid.getEntryNum(), stored);
+            }
 
             this.stats.get(name).removeRecord(oldRecord);
             this.stats.get(name).addRecord(newRecord);
+            this.stats.get(name).getZoneMap().addRecord(rid.getPageNum(), newRecord, false);
             return oldRecord;
         } finally {
             page.unpin();
@@ -333,15 +609,21 @@ public class Table implements BacktrackingIterable<Record> {
      * if rid does not correspond to an existing record in the table.
      */
     public synchronized Record deleteRecord(RecordId rid) {
+        checkWritable();
         validateRecordId(rid);
+        freeEmptyPages();
         LockContext pageContext = tableContext.childContext(rid.getPageNum());
-
-        // TODO(proj4_part2): Update the following line
-        LockUtil.ensureSufficientLockHeld(pageContext, LockType.NL);
+        LockUtil.ensureSufficientLockHeld(pageContext, LockType.X);
 
         Page page = fetchPage(rid.getPageNum());
         try {
             Record record = getRecord(rid);
+            recordWrite(rid, record);
+            if (format == PageFormat.SLOTTED) {
+                deleteSlottedRecord(rid);
+                stats.get(name).removeRecord(record);
+                return record;
+            }
 
             byte[] bitmap = getBitMap(page);
             Bits.setBit(bitmap, rid.getEntryNum(), Bits.Bit.ZERO);
@@ -349,8 +631,9 @@ public class Table implements BacktrackingIterable<Record> {
 
             stats.get(name).removeRecord(record);
             int numRecords = numRecordsPerPage == 1 ? 0 : numRecordsOnPage(page);
-            pageDirectory.updateFreeSpace(page,
-                                     (short) ((numRecordsPerPage - numRecords) * schema.getSizeInBytes()));
+            if (numRecords == 0) stats.get(name).getZoneMap().removePage(page.getPageNum());
+            updateFreeSpace(page, (short) ((numRecordsPerPage - numRecords) * storageSchema.getSizeInBytes()),
+                            numRecords == 0);
             return record;
         } finally {
             page.unpin();
@@ -363,6 +646,38 @@ public class Table implements BacktrackingIterable<Record> {
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
+    /**
+     * @return `record` with the value of each dictionary-encoded column
+     * replaced by its code, adding values to the dictionaries as needed
+     */
+    private Record encode(Record record) {
+        if (!isEncoded()) return record;
+        List<DataBox> values = record.getValues();
+        for (int i = 0; i < values.size(); ++i) {
+            if (dictionaries[i] == null) continue;
+            values.set(i, new IntDataBox(dictionaries[i].addCode(values.get(i).getString())));
+        }
+        return new Record(values);
+    }
+
+    /**
+     * @return a record read from a data page with the code of each
+     * dictionary-encoded column replaced by its value
+     */
+    private Record decode(Record stored) {
+        if (!isEncoded()) return stored;
+        List<DataBox> values = stored.getValues();
+        for (int i = 0; i < values.size(); ++i) {
+            values.set(i, decode(i, values.get(i)));
+        }
+        return new Record(values);
+    }
+
+    private DataBox decode(int field, DataBox stored) {
+        if (dictionaries[field] == null) return stored;
+        return dictionaries[field].getValue(stored.getInt());
+    }
+
     private Page fetchPage(long pageNum) {
         try {
             return pageDirectory.getPage(pageNum);
@@ -371,6 +686,197 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    // Slotted Pages ///////////////////////////////////////////////////////////
+
+    /**
+     * Inserts `bytes` into a slot of the first page with enough space and
+     * returns the id of that slot.
+     */
+    private RecordId insertSlottedRecord(byte[] bytes, int flags) {
+        int pageSize = pageDirectory.getEffectivePageSize();
+        short requiredSpace = (short) (Math.max(bytes.length, SlottedPage.MIN_RECORD_SIZE)
+                                       + SlottedPage.SLOT_SIZE);
+        while (true) {
+            Page page = pageDirectory.getPageWithSpace(requiredSpace);
+            try {
+                int slot = SlottedPage.insert(page.getBuffer(), pageSize, bytes, flags);
+                // getPageWithSpace reserves space for a new slot, which may not
+                // have been needed, so always write back the exact free space.
+                // If the insert failed, this keeps the page from being picked again.
+                if (slot != -1 && flags == 0) {
+                    // a new record, rather than one moved from another page
+                    recordWrite(new RecordId(page.getPageNum(), (short) slot), null);
+                }
+                updateSlottedFreeSpace(page);
+                if (slot != -1) {
+                    return new RecordId(page.getPageNum(), (short) slot);
+                }
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
+    /**
+     * Reads the record in the slot `rid`, following a forwarding stub if the
+     * record was moved to another page. Records that were moved to this slot
+     * from another page are only visible if `moved` is set.
+     */
+    private Record getSlottedRecord(RecordId rid, boolean moved) {
+        RecordId forward;
+        Page page = fetchPage(rid.getPageNum());
+        try {
+            Buffer buf = page.getBuffer();
+            int slot = rid.getEntryNum();
+            if (!SlottedPage.isUsed(buf, slot) || SlottedPage.isMoved(buf, slot) != moved) {
+                String msg = String.format("Record %s does not exist.", rid);
+                throw new DatabaseException(msg);
+            }
+            buf.position(SlottedPage.getOffset(buf, slot));
+            if (!SlottedPage.isForward(buf, slot)) {
+                return Record.fromVariableLengthBytes(buf, storageSchema);
+            }
+            forward = RecordId.fromBytes(buf);
+        } finally {
+            page.unpin();
+        }
+        return getSlottedRecord(forward, true);
+    }
+
+    /**
+     * Overwrites the record in the slot `rid` with `bytes`. If the record no
+     * longer fits on its page, it is moved to another page and its slot is
+     * replaced by a forwarding stub, so that `rid` stays valid.
+     */
+    private void updateSlottedRecord(RecordId rid, byte[] bytes) {
+        int pageSize = pageDirectory.getEffectivePageSize();
+        Page page = fetchPage(rid.getPageNum());
+        try {
+            Buffer buf = page.getBuffer();
+            int slot = rid.getEntryNum();
+            RecordId forward = null;
+            if (SlottedPage.isForward(buf, slot)) {
+                buf.position(SlottedPage.getOffset(buf, slot));
+                forward = RecordId.fromBytes(buf);
+            }
+
+            if (SlottedPage.update(buf, pageSize, slot, bytes, 0)) {
+                // the record fits on its own page (again)
+                if (forward != null) deleteSlottedRecord(forward);
+            } else if (forward == null || !updateMovedRecord(forward, bytes)) {
+                if (forward != null) deleteSlottedRecord(forward);
+                forward = insertSlottedRecord(bytes, SlottedPage.MOVED);
+                // a stub is never larger than the space allocated to a record
+                SlottedPage.update(buf, pageSize, slot, forward.toBytes(), SlottedPage.FORWARD);
+            }
+            updateSlottedFreeSpace(page);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Overwrites a record that was moved to `rid` from another page, if it
+     * still fits on that page.
+     */
+    private boolean updateMovedRecord(RecordId rid, byte[] bytes) {
+        Page page = fetchPage(rid.getPageNum());
+        try {
+            int pageSize = pageDirectory.getEffectivePageSize();
+            if (!SlottedPage.update(page.getBuffer(), pageSize, rid.getEntryNum(), bytes, SlottedPage.MOVED)) {
+                return false;
+            }
+            updateSlottedFreeSpace(page);
+            return true;
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Empties the slot `rid`, along with the slot it forwards to (if any).
+     */
+    private void deleteSlottedRecord(RecordId rid) {
+        Page page = fetchPage(rid.getPageNum());
+        try {
+            Buffer buf = page.getBuffer();
+            int slot = rid.getEntryNum();
+            if (SlottedPage.isForward(buf, slot)) {
+                buf.position(SlottedPage.getOffset(buf, slot));
+                deleteSlottedRecord(RecordId.fromBytes(buf));
+            }
+            SlottedPage.delete(buf, pageDirectory.getEffectivePageSize(), slot);
+            if (numRecordsOnPage(page) == 0) stats.get(name).getZoneMap().removePage(page.getPageNum());
+            updateSlottedFreeSpace(page);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Records the exact amount of free space on a slotted page in the page
+     * directory. Frees the page if it no longer holds any records.
+     */
+    private void updateSlottedFreeSpace(Page page) {
+        Buffer buf = page.getBuffer();
+        int freeSpace = SlottedPage.getFreeSpace(buf, pageDirectory.getEffectivePageSize());
+        updateFreeSpace(page, (short) freeSpace, SlottedPage.getNumSlots(buf) == 0);
+    }
+
+    /**
+     * Records `freeSpace` as the free space of `page` in the page directory.
+     * A page left `empty` is freed, unless it has versions: snapshots read
+     * them through the page, so it is kept (and may be reused by inserts)
+     * until they are dropped (see VersionStore).
+     */
+    private void updateFreeSpace(Page page, short freeSpace, boolean empty) {
+        boolean keep = empty && versions != null && versions.hasVersions(page.getPageNum());
+        pageDirectory.updateFreeSpace(page, freeSpace, keep);
+        if (keep) versions.keepEmptyPage(page.getPageNum());
+    }
+
+    /**
+     * Frees the pages of this table that were kept for their versions, once
+     * the versions are dropped, if the pages are still empty.
+     */
+    private void freeEmptyPages() {
+        if (versions == null) return;
+        for (long pageNum : versions.takeCollectedEmptyPages(getPartNum())) {
+            LockUtil.ensureSufficientLockHeld(tableContext.childContext(pageNum), LockType.X);
+            pageDirectory.freePageIfEmpty(pageNum);
+        }
+    }
+
+    /**
+     * @return the timestamp of the snapshot that the current transaction
+     * reads, or -1 if it reads the latest version of each record
+     */
+    private long getSnapshot() {
+        if (versions == null) return -1;
+        TransactionContext transaction = TransactionContext.getTransaction();
+        return transaction == null ? -1 : transaction.getSnapshot();
+    }
+
+    private void checkWritable() {
+        if (versions == null) return;
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null && transaction.isReadOnly()) {
+            throw new DatabaseException("Cannot modify table " + name + " in a read-only transaction.");
+        }
+    }
+
+    /**
+     * Records `before`, the version of `rid` about to be replaced by the
+     * current transaction (see VersionStore). Must be called with the page of
+     * `rid` pinned, before the page is modified.
+     */
+    private void recordWrite(RecordId rid, Record before) {
+        if (versions == null) return;
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction == null) return;
+        versions.recordWrite(rid, before, transaction.getTransNum());
+    }
+
     private int numRecordsOnPage(Page page) {
         byte[] bitmap = getBitMap(page);
         int numRecords = 0;
@@ -405,11 +911,32 @@ public class Table implements BacktrackingIterable<Record> {
      * records
      */
     public BacktrackingIterator<RecordId> ridIterator() {
-        // TODO(proj4_part2): Update the following line
-        LockUtil.ensureSufficientLockHeld(tableContext, LockType.NL);
+        // A full scan reads every page: lock the table rather than each page
+        LockUtil.ensureSufficientLockHeld(tableContext, LockType.S);
 
         BacktrackingIterator<Page> iter = pageDirectory.iterator();
-        return new ConcatBacktrackingIterator<>(new PageIterator(iter, false));
+        return new ConcatBacktrackingIterator<>(new PageIterator(iter, false, null));
+    }
+
+    /**
+     * @param predicates predicates that every record returned by the scan
+     * must satisfy
+     * @return Performs a scan on the table to return id's of existing records,
+     * skipping pages that the zone map of the table shows cannot contain a
+     * record satisfying all of `predicates`. Records on pages that are not
+     * skipped are returned whether or not they satisfy the predicates.
+     */
+    public BacktrackingIterator<RecordId> ridIterator(List<ZoneMap.Predicate> predicates) {
+        // the zone map describes the latest versions of the records
+        if (predicates.isEmpty() || getSnapshot() >= 0) return ridIterator();
+        // Only the pages that are not skipped are read, and S-locked as they
+        // are (see Page). LockUtil escalates those locks to one lock on the
+        // table once the scan holds enough of them (see
+        // LockContext#setEscalationThresholds).
+
+        ZoneMap zoneMap = getStats().getZoneMap();
+        BacktrackingIterator<Page> iter = pageDirectory.iterator(pageNum -> zoneMap.mayMatch(pageNum, predicates));
+        return new ConcatBacktrackingIterator<>(new PageIterator(iter, false, zoneMap));
     }
 
     /**
@@ -419,9 +946,8 @@ public class Table implements BacktrackingIterable<Record> {
      * will also support backtracking.
      */
     public BacktrackingIterator<Record> recordIterator(Iterator<RecordId> rids) {
-        // TODO(proj4_part2): Update the following line
-        LockUtil.ensureSufficientLockHeld(tableContext, LockType.NL);
-        return new RecordIterator(rids);
+        LockUtil.ensureSufficientLockHeld(tableContext, LockType.S);
+        return new RecordIterator(rids, null);
     }
 
     public BacktrackingIterator<Page> pageIterator() {
@@ -431,7 +957,117 @@ public class Table implements BacktrackingIterable<Record> {
     @Override
     public BacktrackingIterator<Record> iterator() {
         // returns an iterator over all the records in this table
-        return new RecordIterator(ridIterator());
+        return new RecordIterator(ridIterator(), null);
+    }
+
+    /**
+     * @param columns indices of the fields to return for each record
+     * @return an iterator over all the records in this table that only
+     * decodes the given fields. Each record returned contains the fields
+     * `columns`, in that order.
+     */
+    public BacktrackingIterator<Record> iterator(int[] columns) {
+        return new RecordIterator(ridIterator(), columns);
+    }
+
+    /**
+     * @param columns indices of the fields to return for each record, or null
+     * for every field
+     * @param predicates predicates used to skip pages (see ridIterator)
+     * @return an iterator over the records in this table on pages that may
+     * hold records satisfying `predicates`. The caller is still responsible
+     * for filtering the records that are returned.
+     */
+    public BacktrackingIterator<Record> iterator(int[] columns, List<ZoneMap.Predicate> predicates) {
+        return new RecordIterator(ridIterator(predicates), columns);
+    }
+
+    /**
+     * @param columns indices of the fields to return for each record, or null
+     * for every field
+     * @param predicates predicates used to skip pages (see ridIterator)
+     * @return an iterator over the same records as iterator(columns,
+     * predicates), in batches of up to RecordBatch.DEFAULT_SIZE records.
+     * Fields are read from each page straight into the columns of a batch,
+     * without building a Record for each record on the page.
+     */
+    public Iterator<RecordBatch> batchIterator(int[] columns, List<ZoneMap.Predicate> predicates) {
+        if (columns == null) {
+            columns = new int[schema.size()];
+            for (int i = 0; i < columns.length; ++i) columns[i] = i;
+        }
+        Schema projected = new Schema();
+        for (int field : columns) {
+            projected.add(schema.getFieldName(field), schema.getFieldType(field));
+        }
+        if (format == PageFormat.SLOTTED || getSnapshot() >= 0) {
+            // slotted pages have no fixed field positions, and snapshot reads
+            // need the version store: read records one at a time
+            return RecordBatch.fromRecords(iterator(columns, predicates), projected);
+        }
+        if (predicates.isEmpty()) {
+            LockUtil.ensureSufficientLockHeld(tableContext, LockType.S);
+            return new BatchIterator(pageDirectory.iterator(), null, columns, projected, false);
+        }
+        ZoneMap zoneMap = getStats().getZoneMap();
+        BacktrackingIterator<Page> iter = pageDirectory.iterator(pageNum -> zoneMap.mayMatch(pageNum, predicates));
+        return new BatchIterator(iter, zoneMap, columns, projected, false);
+    }
+
+    /**
+     * Same as batchIterator(columns, predicates), but only reads the data
+     * pages `pageNums`, so that the pages of the table can be split between
+     * threads. Takes no locks: the table must be locked in S mode by the
+     * transaction the pages are read for (see getDataPageNums), and the table
+     * must support parallel scans.
+     */
+    public Iterator<RecordBatch> batchIterator(int[] columns, List<ZoneMap.Predicate> predicates,
+                                               List<Long> pageNums) {
+        if (columns == null) {
+            columns = new int[schema.size()];
+            for (int i = 0; i < columns.length; ++i) columns[i] = i;
+        }
+        Schema projected = new Schema();
+        for (int field : columns) {
+            projected.add(schema.getFieldName(field), schema.getFieldType(field));
+        }
+        ZoneMap zoneMap = predicates.isEmpty() ? null : getStats().getZoneMap();
+        Iterator<Long> pageNumIter = pageNums.iterator();
+        Iterator<Page> pages = new Iterator<Page>() {
+            private long nextPageNum = -1;
+
+            @Override
+            public boolean hasNext() {
+                while (nextPageNum < 0 && pageNumIter.hasNext()) {
+                    long pageNum = pageNumIter.next();
+                    if (zoneMap == null || zoneMap.mayMatch(pageNum, predicates)) nextPageNum = pageNum;
+                }
+                return nextPageNum >= 0;
+            }
+
+            @Override
+            public Page next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Page page = fetchPage(nextPageNum);
+                nextPageNum = -1;
+                return page;
+            }
+        };
+        return new BatchIterator(pages, zoneMap, columns, projected, true);
+    }
+
+    /**
+     * Sets the zone map range of `page` from the records currently on it.
+     */
+    private synchronized void buildZoneMap(Page page) {
+        byte[] bitmap = getBitMap(page);
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < numRecordsPerPage; ++i) {
+            if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
+                records.add(getRecord(new RecordId(page.getPageNum(), (short) i)));
+            }
+        }
+        getStats().getZoneMap().buildPage(page.getPageNum(), records);
     }
 
     /**
@@ -450,6 +1086,10 @@ public class Table implements BacktrackingIterable<Record> {
             this.page = page;
             this.bitmap = getBitMap(page);
             page.unpin();
+            long snapshot = getSnapshot();
+            if (snapshot >= 0) {
+                this.bitmap = versions.getVisible(page.getPageNum(), bitmap, snapshot);
+            }
         }
 
         @Override
@@ -471,10 +1111,13 @@ public class Table implements BacktrackingIterable<Record> {
     private class PageIterator implements BacktrackingIterator<BacktrackingIterable<RecordId>> {
         private BacktrackingIterator<Page> sourceIterator;
         private boolean pinOnFetch;
+        // zone map to fill in for pages that have no range yet, or null
+        private ZoneMap zoneMap;
 
-        private PageIterator(BacktrackingIterator<Page> sourceIterator, boolean pinOnFetch) {
+        private PageIterator(BacktrackingIterator<Page> sourceIterator, boolean pinOnFetch, ZoneMap zoneMap) {
             this.sourceIterator = sourceIterator;
             this.pinOnFetch = pinOnFetch;
+            this.zoneMap = zoneMap;
         }
 
         @Override
@@ -499,7 +1142,11 @@ public class Table implements BacktrackingIterable<Record> {
 
         @Override
         public BacktrackingIterable<RecordId> next() {
-            return new InnerIterable(sourceIterator.next());
+            Page page = sourceIterator.next();
+            if (zoneMap != null && !zoneMap.hasPage(page.getPageNum())) {
+                buildZoneMap(page);
+            }
+            return new InnerIterable(page);
         }
 
         private class InnerIterable implements BacktrackingIterable<RecordId> {
@@ -520,14 +1167,125 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    /**
+     * Reads the records of a series of pages into batches. Pages are only
+     * pinned while records are read from them.
+     */
+    private class BatchIterator implements Iterator<RecordBatch> {
+        private Iterator<Page> pages;
+        // zone map to fill in for pages that have no range yet, or null
+        private ZoneMap zoneMap;
+        private int[] columns;
+        private Schema schema;
+        // The page being read, its bitmap, and the entry number of the next
+        // record to read from it
+        private Page page;
+        private byte[] bitmap;
+        private int nextEntry;
+        // true if the whole table is locked in S mode, so that no record can
+        // change while pages are read, and reads need not exclude writes
+        private boolean tableLocked;
+
+        private BatchIterator(Iterator<Page> pages, ZoneMap zoneMap, int[] columns, Schema schema,
+                              boolean tableLocked) {
+            this.pages = pages;
+            this.zoneMap = zoneMap;
+            this.columns = columns;
+            this.schema = schema;
+            this.tableLocked = tableLocked;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return advance();
+        }
+
+        @Override
+        public RecordBatch next() {
+            if (!advance()) throw new NoSuchElementException();
+            ColumnVector[] vectors = new ColumnVector[columns.length];
+            for (int i = 0; i < columns.length; ++i) {
+                vectors[i] = new ColumnVector(schema.getFieldType(i), RecordBatch.DEFAULT_SIZE);
+            }
+            int numRows = 0;
+            while (numRows < RecordBatch.DEFAULT_SIZE && advance()) {
+                numRows = readPage(vectors, numRows);
+            }
+            return new RecordBatch(vectors, numRows);
+        }
+
+        /**
+         * Moves nextEntry to the next record to read, fetching pages as
+         * needed, and returns false if there is no record left.
+         */
+        private boolean advance() {
+            while (true) {
+                if (bitmap != null) {
+                    while (nextEntry < numRecordsPerPage && Bits.getBit(bitmap, nextEntry) == Bits.Bit.ZERO) {
+                        ++nextEntry;
+                    }
+                    if (nextEntry < numRecordsPerPage) return true;
+                }
+                if (!pages.hasNext()) return false;
+                page = pages.next();
+                try {
+                    if (zoneMap != null && !zoneMap.hasPage(page.getPageNum())) {
+                        buildZoneMap(page);
+                    }
+                    bitmap = getBitMap(page);
+                } finally {
+                    page.unpin();
+                }
+                nextEntry = 0;
+            }
+        }
+
+        /**
+         * Reads records of the current page into rows numRows, numRows + 1,
+         * ... of `vectors`, until either the page or the batch runs out, and
+         * returns the number of rows of `vectors` that are filled.
+         */
+        private int readPage(ColumnVector[] vectors, int numRows) {
+            page.pin();
+            try {
+                if (tableLocked) return readEntries(vectors, numRows);
+                synchronized (Table.this) {
+                    return readEntries(vectors, numRows);
+                }
+            } finally {
+                page.unpin();
+            }
+        }
+
+        private int readEntries(ColumnVector[] vectors, int numRows) {
+            Buffer buf = page.getBuffer();
+            for (; nextEntry < numRecordsPerPage && numRows < RecordBatch.DEFAULT_SIZE; ++nextEntry) {
+                if (Bits.getBit(bitmap, nextEntry) == Bits.Bit.ZERO) continue;
+                for (int i = 0; i < columns.length; ++i) {
+                    int field = columns[i];
+                    buf.position(fieldPosition(nextEntry, field));
+                    if (dictionaries[field] != null) {
+                        vectors[i].set(numRows, dictionaries[field].getValue(buf.getInt()));
+                    } else {
+                        vectors[i].read(buf, numRows);
+                    }
+                }
+                ++numRows;
+            }
+            return numRows;
+        }
+    }
+
     /**
      * Wraps an iterator of record ids to form an iterator over records.
      */
     private class RecordIterator implements BacktrackingIterator<Record> {
         private Iterator<RecordId> ridIter;
+        private int[] columns;
 
-        public RecordIterator(Iterator<RecordId> ridIter) {
+        public RecordIterator(Iterator<RecordId> ridIter, int[] columns) {
             this.ridIter = ridIter;
+            this.columns = columns;
         }
 
         @Override
@@ -538,7 +1296,7 @@ public class Table implements BacktrackingIterable<Record> {
         @Override
         public Record next() {
             try {
-                return getRecord(ridIter.next());
+                return getRecord(ridIter.next(), columns);
             } catch (DatabaseException e) {
                 throw new IllegalStateException(e);
             }
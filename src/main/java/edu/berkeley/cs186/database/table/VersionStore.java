@@ -0,0 +1,255 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The old versions of the records of the tables of a database, kept so that
+ * read-only transactions can read a consistent snapshot of the database
+ * without taking any locks (multi-version snapshot isolation).
+ *
+ * Data pages only ever hold the latest version of each record. Before a
+ * transaction overwrites, deletes or inserts a record, the table records the
+ * version being replaced (null for an insert) here, at the head of the
+ * version chain of the record:
+ *
+ *   page:  rid 3 -> (3, "c")
+ *   chain: rid 3 -> [before (3, "b"), end PENDING]  (T5 updated it, running)
+ *                -> [before (3, "a"), end 7]        (T2 updated it, committed at 7)
+ *
+ * Each version has an end timestamp: the commit timestamp of the transaction
+ * that replaced it, or PENDING until that transaction commits. Commit
+ * timestamps are handed out by commit(), and a snapshot taken at timestamp S
+ * sees the changes of exactly the transactions that committed at or before
+ * S. So a snapshot at S sees the before-image of the oldest version of the
+ * chain whose end is after S, or the record on the page if there is none.
+ * Above, a snapshot taken at 6 sees (3, "a"), one taken at 7 sees (3, "b"),
+ * and neither sees (3, "c").
+ *
+ * Versions are recorded while the page of the record is pinned (which
+ * latches it), and readers read the page before the chain, so a reader that
+ * sees a change on a page always also sees the version it replaced.
+ *
+ * A version is garbage once no running snapshot is older than its end: every
+ * snapshot then sees the newer version. Committed versions are queued in
+ * commit order and dropped from the front of the queue whenever a
+ * transaction commits or a snapshot ends. Versions of transactions that abort
+ * are dropped once the transaction is rolled back.
+ *
+ * Snapshots find the versions of a record through the data page of the
+ * record, so a data page emptied by deletes is not freed while it has
+ * versions: it is kept as an entirely free page (see keepEmptyPage), and
+ * freed by a later delete from its table once its versions are dropped (see
+ * takeCollectedEmptyPages).
+ */
+public class VersionStore {
+    // The end timestamp of a version replaced by a running transaction.
+    public static final long PENDING = Long.MAX_VALUE;
+
+    /**
+     * A version of a record that was replaced by a write.
+     */
+    static class Version {
+        final RecordId rid;
+        // The record before the write, or null if the write inserted it.
+        final Record before;
+        final long writer;
+        volatile long end = PENDING;
+        // The next older version of the record, or null.
+        volatile Version older;
+        // The next newer version of the record, or null if this is the head
+        // of the chain. Only used under the lock of the store.
+        Version newer;
+
+        Version(RecordId rid, Record before, long writer) {
+            this.rid = rid;
+            this.before = before;
+            this.writer = writer;
+        }
+    }
+
+    // The head of the version chain of each record, by page number and then
+    // entry number.
+    private final Map<Long, Map<Short, Version>> chains = new ConcurrentHashMap<>();
+
+    // The versions replaced by each running transaction.
+    private final Map<Long, List<Version>> pending = new HashMap<>();
+
+    // Committed versions, in commit order.
+    private final Deque<Version> committed = new ArrayDeque<>();
+
+    // The number of running snapshots taken at each timestamp.
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+
+    // The commit timestamp of the last transaction to commit.
+    private long clock = 0;
+
+    // Data pages emptied by deletes while they had versions.
+    private final Set<Long> emptyPages = new HashSet<>();
+
+    /**
+     * Takes a snapshot of the committed state of the database.
+     *
+     * @return the timestamp of the snapshot, to be passed to endSnapshot
+     * once the snapshot is no longer used
+     */
+    public synchronized long beginSnapshot() {
+        snapshots.merge(clock, 1, Integer::sum);
+        return clock;
+    }
+
+    /**
+     * Releases a snapshot taken by beginSnapshot.
+     */
+    public synchronized void endSnapshot(long timestamp) {
+        snapshots.computeIfPresent(timestamp, (t, n) -> n == 1 ? null : n - 1);
+        collectGarbage();
+    }
+
+    /**
+     * Records that transaction `transNum` is about to replace the record
+     * `rid`, which is `before` (null if the record does not exist yet). Only
+     * the first write of a transaction to a record is recorded: that is the
+     * version the snapshots taken before the transaction commits see. Must
+     * be called with the page of `rid` pinned.
+     */
+    public synchronized void recordWrite(RecordId rid, Record before, long transNum) {
+        Map<Short, Version> page = chains.computeIfAbsent(rid.getPageNum(), p -> new ConcurrentHashMap<>());
+        Version head = page.get(rid.getEntryNum());
+        if (head != null && head.end == PENDING && head.writer == transNum) return;
+        Version version = new Version(rid, before, transNum);
+        version.older = head;
+        if (head != null) head.newer = version;
+        page.put(rid.getEntryNum(), version);
+        pending.computeIfAbsent(transNum, t -> new ArrayList<>()).add(version);
+    }
+
+    /**
+     * Makes the writes of transaction `transNum` visible to the snapshots
+     * taken from now on.
+     */
+    public synchronized void commit(long transNum) {
+        List<Version> versions = pending.remove(transNum);
+        if (versions == null) return;
+        long timestamp = ++clock;
+        for (Version version : versions) {
+            version.end = timestamp;
+            committed.add(version);
+        }
+        collectGarbage();
+    }
+
+    /**
+     * Drops the versions replaced by transaction `transNum`. Must only be
+     * called once the writes of the transaction have been undone.
+     */
+    public synchronized void abort(long transNum) {
+        List<Version> versions = pending.remove(transNum);
+        if (versions == null) return;
+        for (Version version : versions) unlink(version);
+    }
+
+    /**
+     * @return the oldest version of `rid` replaced by a write that the
+     * snapshot at `timestamp` does not see, or null if the snapshot sees the
+     * record currently on the page. Must be called after reading the page.
+     */
+    Version getOverwritten(RecordId rid, long timestamp) {
+        Map<Short, Version> page = chains.get(rid.getPageNum());
+        if (page == null) return null;
+        Version overwritten = null;
+        for (Version v = page.get(rid.getEntryNum()); v != null && v.end > timestamp; v = v.older) {
+            overwritten = v;
+        }
+        return overwritten;
+    }
+
+    /**
+     * @return `bitmap` (the bitmap of the records currently on page
+     * `pageNum`) with the bits of the records whose visibility differs in
+     * the snapshot at `timestamp` flipped. Must be called after reading the
+     * page.
+     */
+    byte[] getVisible(long pageNum, byte[] bitmap, long timestamp) {
+        Map<Short, Version> page = chains.get(pageNum);
+        if (page == null) return bitmap;
+        byte[] visible = bitmap.clone();
+        for (short entryNum : page.keySet()) {
+            Version overwritten = getOverwritten(new RecordId(pageNum, entryNum), timestamp);
+            if (overwritten == null) continue;
+            Bits.setBit(visible, entryNum, overwritten.before == null ? Bits.Bit.ZERO : Bits.Bit.ONE);
+        }
+        return visible;
+    }
+
+    /**
+     * @return true if there are versions of records of page `pageNum`
+     */
+    boolean hasVersions(long pageNum) {
+        return chains.containsKey(pageNum);
+    }
+
+    /**
+     * Records that data page `pageNum`, which has versions, was emptied by a
+     * delete and kept rather than freed.
+     */
+    synchronized void keepEmptyPage(long pageNum) {
+        emptyPages.add(pageNum);
+    }
+
+    /**
+     * @return the pages of partition `partNum` recorded by keepEmptyPage
+     * whose versions have all been dropped since, which are forgotten
+     */
+    synchronized List<Long> takeCollectedEmptyPages(int partNum) {
+        List<Long> collected = new ArrayList<>();
+        Iterator<Long> iter = emptyPages.iterator();
+        while (iter.hasNext()) {
+            long pageNum = iter.next();
+            if (DiskSpaceManager.getPartNum(pageNum) == partNum && !chains.containsKey(pageNum)) {
+                collected.add(pageNum);
+                iter.remove();
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * @return the number of versions currently kept
+     */
+    public synchronized int size() {
+        int size = committed.size();
+        for (List<Version> versions : pending.values()) size += versions.size();
+        return size;
+    }
+
+    /**
+     * Drops the committed versions that no running snapshot needs, i.e. those
+     * that ended at or before the oldest running snapshot. Snapshots taken
+     * later will be at least as new as the clock.
+     */
+    private void collectGarbage() {
+        long oldest = snapshots.isEmpty() ? clock : snapshots.firstKey();
+        while (!committed.isEmpty() && committed.peekFirst().end <= oldest) {
+            unlink(committed.pollFirst());
+        }
+    }
+
+    private void unlink(Version version) {
+        if (version.older != null) version.older.newer = version.newer;
+        if (version.newer != null) {
+            version.newer.older = version.older;
+            return;
+        }
+        Map<Short, Version> page = chains.get(version.rid.getPageNum());
+        if (version.older != null) {
+            page.put(version.rid.getEntryNum(), version.older);
+        } else {
+            page.remove(version.rid.getEntryNum());
+            if (page.isEmpty()) chains.remove(version.rid.getPageNum());
+        }
+    }
+}
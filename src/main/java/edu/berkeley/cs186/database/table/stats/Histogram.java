@@ -113,11 +113,18 @@ public class Histogram {
      *              final buckunreachableet is inclusive on the last value.
      */
     public void buildHistogram(Table table, int attribute) {
+        buildHistogram((Iterable<Record>) table, attribute);
+    }
+
+    /** Builds the histogram in the same way from a collection of records
+     *  that is not stored in a table (e.g. rows that are about to be loaded).
+     */
+    public void buildHistogram(Iterable<Record> records, int attribute) {
         // 1. first calculate the min and the max values
         // 2. calculate the width of each bin
         // 3. create each bucket object
         // 4. populate the data using the increment(value) method
-        Iterator<Record> iter = table.iterator();
+        Iterator<Record> iter = records.iterator();
         while (iter.hasNext()) {
             Record record = iter.next();
             float quantizedValue = quantization(record, attribute);
@@ -131,7 +138,7 @@ public class Histogram {
             buckets[i] = new Bucket(this.minValue + (i) * width, this.minValue + (i + 1) * width);
         }
 
-        iter = table.iterator();
+        iter = records.iterator();
         while (iter.hasNext()) {
             Record record = iter.next();
             float quantizedValue = quantization(record, attribute);
@@ -432,6 +439,21 @@ public class Histogram {
         return new Histogram(newBuckets);
     }
 
+    // Reduces the counts uniformly by `reduction`, but keeps every distinct
+    // value, as grouping records on this column does
+    public Histogram copyWithGrouping(float reduction) {
+        Bucket[] newBuckets = new Bucket[this.buckets.length];
+        for (int i = 0; i < this.buckets.length; i++) {
+            newBuckets[i] = new Bucket(this.buckets[i]);
+            int count = this.buckets[i].getCount();
+            int distinctCount = this.buckets[i].getDistinctCount();
+            int newCount = Math.max(Math.round(reduction * count), Math.min(count, distinctCount));
+            newBuckets[i].setCount(newCount);
+            newBuckets[i].setDistinctCount(Math.min(distinctCount, newCount));
+        }
+        return new Histogram(newBuckets);
+    }
+
     // Updates the count of each
     public Histogram copyWithJoin(int newTotal, float reduction) {
         Bucket[] newBuckets = new Bucket[this.buckets.length];
@@ -44,12 +44,16 @@ import java.util.List;
  *   stats.getNumRecords(); // Estimated number of records.
  *   stats.getNumPages();   // Estimated number of pages.
  *   stats.getHistograms(); // Histograms on each column.
+ *
+ * The statistics of a stored table also include a zone map, which Table
+ * keeps up to date as records are added, updated, and removed.
  */
 public class TableStats {
     private Schema schema;
     private int numRecordsPerPage;
     private int numRecords;
     private List<Histogram> histograms;
+    private ZoneMap zoneMap = new ZoneMap();
 
     /** Construct a TableStats for an empty table with schema `schema`. */
     public TableStats(Schema schema, int numRecordsPerPage) {
@@ -113,7 +117,51 @@ public class TableStats {
         return histograms;
     }
 
+    /**
+     * @return the per-page ranges of the values of the table. Only maintained
+     * for the statistics of a stored table, not for estimated statistics.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
     // Copiers ///////////////////////////////////////////////////////////////////
+    /**
+     * Returns the statistics of the records produced by reading only the
+     * columns `columns` (in that order) of this table. The number of records
+     * and of pages does not change, since every page still has to be read.
+     */
+    public TableStats copyWithProjection(int[] columns) {
+        Schema projectedSchema = new Schema();
+        List<Histogram> copyHistograms = new ArrayList<>();
+        for (int column : columns) {
+            projectedSchema.add(schema.getFieldName(column), schema.getFieldType(column));
+            if (column < histograms.size()) copyHistograms.add(histograms.get(column));
+        }
+        return new TableStats(projectedSchema, this.numRecordsPerPage, this.numRecords, copyHistograms);
+    }
+
+    /**
+     * Returns the statistics of the `numGroups` records produced by grouping
+     * the records of this table and computing the columns of `schema` for
+     * each group. Column i of the result holds the grouping column
+     * `columns[i]` of this table, whose distinct values are all kept, or an
+     * aggregate if `columns[i]` is -1, which gets an empty histogram.
+     */
+    public TableStats copyWithAggregation(Schema schema, int[] columns, int numGroups) {
+        float reduction = this.numRecords == 0 ? 1.0f : Math.min(1.0f, (float) numGroups / this.numRecords);
+        List<Histogram> copyHistograms = new ArrayList<>();
+        for (int column : columns) {
+            if (column >= 0 && column < histograms.size()) {
+                copyHistograms.add(histograms.get(column).copyWithGrouping(reduction));
+            } else {
+                copyHistograms.add(new Histogram());
+            }
+        }
+        int recordsPerPage = Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE, schema);
+        return new TableStats(schema, recordsPerPage, numGroups, copyHistograms);
+    }
+
     /**
      * Estimates the table statistics for the table that would be produced after
      * filtering column `i` with `predicate` and `value`. For simplicity, we
@@ -0,0 +1,177 @@
+package edu.berkeley.cs186.database.table.stats;
+
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.table.Record;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A zone map keeps the smallest and largest value of every column over the
+ * records of each data page of a table. A scan with a predicate such as
+ * `x > 10` can skip any page whose largest value of x is at most 10 without
+ * reading the page at all:
+ *
+ *   Page 1: x in [1, 8]     <- skipped
+ *   Page 2: x in [4, 15]    <- may contain matches, read
+ *   Page 3: x in [12, 30]   <- may contain matches, read
+ *
+ * The range of a page is always a superset of the values on the page: it is
+ * widened when records are added or updated, but not narrowed when records
+ * are removed. Pages are identified by the page number of the RecordIds of
+ * their records, so a record is accounted for on the page of its RecordId
+ * even if it is physically stored elsewhere (see SlottedPage).
+ *
+ * Zone maps are only kept in memory. A page without a range (e.g. a page
+ * written before the database was restarted) may contain anything and is
+ * never skipped; its range is rebuilt the next time it is scanned with a
+ * predicate (see Table::iterator).
+ */
+public class ZoneMap {
+    // The range of values of each column on each page, keyed by page number.
+    private Map<Long, Zone> zones = new ConcurrentHashMap<>();
+
+    /**
+     * A predicate `column operator value` on a column of the table, used to
+     * decide whether a page may contain matching records.
+     */
+    public static class Predicate {
+        private int column;
+        private PredicateOperator operator;
+        private DataBox value;
+
+        public Predicate(int column, PredicateOperator operator, DataBox value) {
+            this.column = column;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("column %d %s %s", column, operator.toSymbol(), value);
+        }
+    }
+
+    // The range of each column of a page. Columns whose values can't be
+    // ordered (byte arrays) have no range.
+    private static class Zone {
+        private DataBox[] min;
+        private DataBox[] max;
+
+        private Zone(Record record) {
+            this.min = record.getValues().toArray(new DataBox[0]);
+            this.max = record.getValues().toArray(new DataBox[0]);
+            for (int i = 0; i < min.length; ++i) {
+                if (min[i].getTypeId() == TypeId.BYTE_ARRAY) {
+                    min[i] = null;
+                    max[i] = null;
+                }
+            }
+        }
+
+        private synchronized void widen(Record record) {
+            for (int i = 0; i < min.length; ++i) {
+                if (min[i] == null) continue;
+                DataBox value = record.getValue(i);
+                if (value.compareTo(min[i]) < 0) min[i] = value;
+                if (value.compareTo(max[i]) > 0) max[i] = value;
+            }
+        }
+
+        private synchronized boolean mayMatch(Predicate p) {
+            DataBox lo = min[p.column];
+            DataBox hi = max[p.column];
+            if (lo == null) return true;
+            try {
+                switch (p.operator) {
+                case EQUALS:
+                    return lo.compareTo(p.value) <= 0 && hi.compareTo(p.value) >= 0;
+                case NOT_EQUALS:
+                    // values of another type never compare equal (see SelectOperator)
+                    if (lo.getTypeId() != p.value.getTypeId()) return true;
+                    return lo.compareTo(p.value) != 0 || hi.compareTo(p.value) != 0;
+                case LESS_THAN:
+                    return lo.compareTo(p.value) < 0;
+                case LESS_THAN_EQUALS:
+                    return lo.compareTo(p.value) <= 0;
+                case GREATER_THAN:
+                    return hi.compareTo(p.value) > 0;
+                case GREATER_THAN_EQUALS:
+                    return hi.compareTo(p.value) >= 0;
+                }
+            } catch (RuntimeException e) {
+                // values that can't be compared are left to the caller
+            }
+            return true;
+        }
+    }
+
+    // Modifiers /////////////////////////////////////////////////////////////////
+    /**
+     * Accounts for `record` being added to (or updated on) page `pageNum`.
+     * If the page has no range yet, one is only started if `pageWasEmpty` is
+     * set, since otherwise the range would miss the records already on the
+     * page.
+     */
+    public void addRecord(long pageNum, Record record, boolean pageWasEmpty) {
+        if (pageWasEmpty) {
+            zones.put(pageNum, new Zone(record));
+            return;
+        }
+        Zone zone = zones.get(pageNum);
+        if (zone != null) zone.widen(record);
+    }
+
+    /**
+     * Sets the range of page `pageNum` to the range of `records`, which must
+     * be every record on the page.
+     */
+    public void buildPage(long pageNum, Iterable<Record> records) {
+        Zone zone = null;
+        for (Record record : records) {
+            if (zone == null) zone = new Zone(record);
+            else zone.widen(record);
+        }
+        if (zone != null) zones.put(pageNum, zone);
+    }
+
+    /**
+     * Forgets the range of page `pageNum`, e.g. because the page is now empty.
+     */
+    public void removePage(long pageNum) {
+        zones.remove(pageNum);
+    }
+
+    // Accessors /////////////////////////////////////////////////////////////////
+    public boolean hasPage(long pageNum) {
+        return zones.containsKey(pageNum);
+    }
+
+    /**
+     * @return false if no record on page `pageNum` can satisfy all of
+     * `predicates`, and true otherwise (including when the page has no range)
+     */
+    public boolean mayMatch(long pageNum, List<Predicate> predicates) {
+        Zone zone = zones.get(pageNum);
+        if (zone == null) return true;
+        for (Predicate p : predicates) {
+            if (!zone.mayMatch(p)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of pages that a scan with `predicates` can skip
+     */
+    public int countSkippablePages(List<Predicate> predicates) {
+        if (predicates.isEmpty()) return 0;
+        int count = 0;
+        for (Long pageNum : zones.keySet()) {
+            if (!mayMatch(pageNum, predicates)) count++;
+        }
+        return count;
+    }
+}
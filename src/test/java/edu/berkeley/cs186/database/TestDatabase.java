@@ -8,9 +8,11 @@ import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.table.PageFormat;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -19,10 +21,15 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -306,4 +313,213 @@ public class TestDatabase {
             assertFalse(iter.hasNext());
         }
     }
+
+    @Test
+    public void testDictionaryEncodedTable() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("firstName", Type.stringType(10))
+                .add("lastName", Type.stringType(10));
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, "table1", PageFormat.FIXED_LENGTH, Collections.singletonList("lastName"));
+            t1.insert("table1", 1, "Jane", "Doe");
+            t1.insert("table1", 2, "John", "Doe");
+            t1.insert("table1", 3, "Ada", "Lovelace");
+            t1.commit();
+        }
+
+        db.close();
+        db = new Database(this.filename, 32);
+
+        try (Transaction t2 = db.beginTransaction()) {
+            t2.insert("table1", 4, "Alan", "Turing");
+            QueryPlan query = t2.query("table1");
+            query.select("lastName", PredicateOperator.EQUALS, "Doe");
+            Iterator<Record> iter = query.execute();
+            assertEquals(new Record(1, "Jane", "Doe"), iter.next());
+            assertEquals(new Record(2, "John", "Doe"), iter.next());
+            assertFalse(iter.hasNext());
+            t2.commit();
+        }
+
+        db.close();
+        db = new Database(this.filename, 32);
+
+        try (Transaction t3 = db.beginTransaction()) {
+            Iterator<Record> iter = t3.query("table1").execute();
+            assertEquals(new Record(1, "Jane", "Doe"), iter.next());
+            assertEquals(new Record(2, "John", "Doe"), iter.next());
+            assertEquals(new Record(3, "Ada", "Lovelace"), iter.next());
+            assertEquals(new Record(4, "Alan", "Turing"), iter.next());
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testDictionaryEncodedTableManyValues() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("lastName", Type.stringType(10));
+        int numRecords = 1000;
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, "table1", PageFormat.FIXED_LENGTH, Collections.singletonList("lastName"));
+            for (int i = 0; i < numRecords; i++) t1.insert("table1", i, "last" + i);
+        }
+
+        db.close();
+        db = new Database(this.filename, 32);
+
+        try (Transaction t2 = db.beginTransaction()) {
+            List<Record> records = scan(t2, "table1");
+            assertEquals(numRecords, records.size());
+            for (int i = 0; i < numRecords; i++) assertEquals(new Record(i, "last" + i), records.get(i));
+        }
+    }
+
+    @Test
+    public void testDictionaryEncodedTablePages() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("firstName", Type.stringType(10))
+                .add("lastName", Type.stringType(10));
+        int numRecords = 3000;
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, "table1", PageFormat.FIXED_LENGTH, Collections.singletonList("lastName"));
+            for (int i = 0; i < numRecords; i++) t1.insert("table1", i, "name" + i, "last" + (i % 3));
+            // records are packed into pages as tightly as their encoded size
+            // allows, rather than getting a page each
+            Table table = t1.getTransactionContext().getTable("table1");
+            int perPage = table.getNumRecordsPerPage();
+            assertTrue(perPage > 1);
+            assertEquals((numRecords + perPage - 1) / perPage, table.getNumDataPages());
+            assertEquals(numRecords, scan(t1, "table1").size());
+        }
+    }
+
+    /**
+     * @return the records of `tableName`, read by `t`
+     */
+    private List<Record> scan(Transaction t, String tableName) {
+        List<Record> records = new ArrayList<>();
+        t.getTransactionContext().getRecordIterator(tableName).forEachRemaining(records::add);
+        return records;
+    }
+
+    /**
+     * Makes `t` the transaction running on this thread.
+     */
+    private void switchTo(Transaction t) {
+        TransactionContext.unsetTransaction();
+        TransactionContext.setTransaction(t.getTransactionContext());
+    }
+
+    @Test
+    public void testSnapshotRead() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(10));
+        List<Record> original = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        try (Transaction t0 = db.beginTransaction()) {
+            t0.createTable(s, "table1");
+            for (int i = 0; i < 10; ++i) {
+                Record record = new Record(i, "name" + i);
+                original.add(record);
+                rids.add(t0.getTransactionContext().addRecord("table1", record));
+            }
+        }
+
+        // a writer updates, deletes and inserts records...
+        Transaction writer = db.beginTransaction();
+        RecordId inserted = writer.getTransactionContext().addRecord("table1", new Record(10, "inserted"));
+        writer.getTransactionContext().updateRecord("table1", rids.get(0), new Record(0, "updated"));
+        writer.getTransactionContext().deleteRecord("table1", rids.get(1));
+
+        // ...which a reader that started before it committed never sees
+        TransactionContext.unsetTransaction();
+        Transaction reader = db.beginReadOnlyTransaction();
+        assertEquals(original, scan(reader, "table1"));
+        assertEquals(original.get(1), reader.getTransactionContext().getRecord("table1", rids.get(1)));
+
+        switchTo(writer);
+        writer.commit();
+        TransactionContext.setTransaction(reader.getTransactionContext());
+        assertEquals(original, scan(reader, "table1"));
+        try {
+            reader.getTransactionContext().getRecord("table1", inserted);
+            fail();
+        } catch (DatabaseException e) {
+            /* do nothing */
+        }
+        try {
+            reader.getTransactionContext().addRecord("table1", new Record(11, "readonly"));
+            fail();
+        } catch (DatabaseException e) {
+            /* do nothing */
+        }
+
+        // a reader that starts after the commit sees everything
+        TransactionContext.unsetTransaction();
+        List<Record> expected = new ArrayList<>(original);
+        expected.set(0, new Record(0, "updated"));
+        expected.remove(1);
+        expected.add(new Record(10, "inserted"));
+        try (Transaction later = db.beginReadOnlyTransaction()) {
+            List<Record> actual = scan(later, "table1");
+            assertEquals(expected.size(), actual.size());
+            assertTrue(actual.containsAll(expected));
+        }
+
+        // versions are kept until the first reader is done with them
+        assertEquals(3, db.getVersionStore().size());
+        TransactionContext.setTransaction(reader.getTransactionContext());
+        reader.commit();
+        assertEquals(0, db.getVersionStore().size());
+    }
+
+    @Test
+    public void testSnapshotReadEmptiedPage() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(10));
+        List<Record> original = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        int perPage;
+        try (Transaction t0 = db.beginTransaction()) {
+            t0.createTable(s, "table1");
+            perPage = t0.getTransactionContext().getTable("table1").getNumRecordsPerPage();
+            // a full page, and a second page with five records
+            for (int i = 0; i < perPage + 5; ++i) {
+                Record record = new Record(i, "name" + i);
+                original.add(record);
+                rids.add(t0.getTransactionContext().addRecord("table1", record));
+            }
+            assertEquals(2, t0.getTransactionContext().getNumDataPages("table1"));
+        }
+        List<RecordId> secondPage = rids.subList(perPage, perPage + 5);
+
+        // a writer empties the second page after a reader started...
+        Transaction reader = db.beginReadOnlyTransaction();
+        TransactionContext.unsetTransaction();
+        try (Transaction writer = db.beginTransaction()) {
+            for (RecordId rid : secondPage) writer.getTransactionContext().deleteRecord("table1", rid);
+        }
+
+        // ...so the page is kept for the reader, which still sees its records
+        TransactionContext.setTransaction(reader.getTransactionContext());
+        assertEquals(original, scan(reader, "table1"));
+        assertEquals(original.get(perPage + 2), reader.getTransactionContext().getRecord("table1", secondPage.get(2)));
+        assertEquals(2, reader.getTransactionContext().getNumDataPages("table1"));
+        reader.commit();
+        assertEquals(0, db.getVersionStore().size());
+
+        // once the reader is done, the next delete frees it
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.getTransactionContext().deleteRecord("table1", rids.get(0));
+        }
+        try (Transaction t2 = db.beginTransaction()) {
+            assertEquals(1, t2.getTransactionContext().getNumDataPages("table1"));
+            assertEquals(perPage - 1, scan(t2, "table1").size());
+        }
+    }
 }
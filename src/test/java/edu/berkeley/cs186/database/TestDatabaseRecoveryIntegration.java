@@ -6,6 +6,7 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.table.PageFormat;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import org.junit.Before;
@@ -20,6 +21,7 @@ import org.junit.rules.Timeout;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -406,6 +408,34 @@ public class TestDatabaseRecoveryIntegration {
         this.db.close();
     }
 
+    @Test
+    public void testRollbackDictionaryValue() {
+        /**
+         * T1 adds "Doe" to the dictionary of a dictionary-encoded column and
+         * aborts, after which T2 stores the code of "Doe" and commits. The
+         * dictionary value must survive the rollback of T1, and be read back
+         * after the database is reopened, since T2's record needs it.
+         */
+        Schema s = new Schema().add("id", Type.intType()).add("name", Type.stringType(10));
+        try (Transaction t0 = db.beginTransaction()) {
+            t0.createTable(s, "names", PageFormat.FIXED_LENGTH, Collections.singletonList("name"));
+        }
+        Transaction t1 = db.beginTransaction();
+        t1.insert("names", 1, "Doe");
+        t1.rollback();
+        try (Transaction t2 = db.beginTransaction()) {
+            t2.insert("names", 2, "Doe");
+        }
+
+        reloadDatabase();
+        List<Record> records = new ArrayList<>();
+        try (Transaction t3 = db.beginTransaction()) {
+            t3.query("names").execute().forEachRemaining(records::add);
+        }
+        assertEquals(Collections.singletonList(new Record(2, "Doe")), records);
+        this.db.close();
+    }
+
     @Test
     public void testRebootCreateTable() {
         // Creates tables, commits, and then reboots
@@ -189,10 +189,10 @@ public class TestUtils {
 
     public static ArrayList<Record> getExampleSource3Records() {
         ArrayList<Record> result = new ArrayList<>();
-        result.add((new Record(1, 1, 1, "b")).concat(new Record(1, 1, 1, "c")));
-        result.add((new Record(1, 1, 1, "a")).concat(new Record(1, 1, 1, "c")));
+        result.add((new Record(1, 1, 1, "c")).concat(new Record(1, 1, 1, "b")));
+        result.add((new Record(1, 1, 1, "c")).concat(new Record(1, 1, 1, "a")));
         result.add((new Record(1, 1, 3, "a")).concat(new Record(1, 1, 3, "a")));
-        result.add((new Record(2, 2, 1, "b")).concat(new Record(2, 2, 1, "a")));
+        result.add((new Record(2, 2, 1, "a")).concat(new Record(2, 2, 1, "b")));
         return result;
     }
 
@@ -0,0 +1,61 @@
+package edu.berkeley.cs186.database.common;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestLzCompression {
+    private static byte[] roundTrip(byte[] data) {
+        byte[] compressed = LzCompression.compress(data);
+        assertArrayEquals(data, LzCompression.decompress(compressed, data.length));
+        return compressed;
+    }
+
+    @Test
+    public void testEmptyAndShort() {
+        roundTrip(new byte[0]);
+        roundTrip(new byte[] {1});
+        roundTrip(new byte[] {1, 2, 3, 4, 5});
+    }
+
+    @Test
+    public void testRuns() {
+        byte[] data = new byte[8000];
+        for (int i = 4000; i < 4100; ++i) {
+            data[i] = 7;
+        }
+        assertTrue(roundTrip(data).length < 20);
+    }
+
+    @Test
+    public void testRepeats() {
+        byte[] data = new byte[10000];
+        byte[] pattern = "the quick brown fox ".getBytes();
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = pattern[i % pattern.length];
+        }
+        assertTrue(roundTrip(data).length < 100);
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(186);
+        for (int n : new int[] {10, 100, 1000, 70000}) {
+            byte[] data = new byte[n];
+            random.nextBytes(data);
+            roundTrip(data);
+            // mix in some runs
+            for (int i = 0; i < n; i += 7) {
+                data[i] = 0;
+            }
+            roundTrip(data);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TransactionContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the throughput of LockManager#acquire and LockManager#release as
+ * the number of threads grows, for a lock manager with a single stripe (i.e.
+ * a single latch, as if the lock manager were synchronized) and one with the
+ * default number of stripes.
+ *
+ * Each thread runs its own transaction, which repeatedly takes an IS lock on
+ * one of a few tables and an S lock on one of the pages of that table, and
+ * then releases both. The locks never conflict, so the only thing threads
+ * wait on is the lock manager itself.
+ *
+ * Not a unit test: run it with
+ *
+ *   java edu.berkeley.cs186.database.concurrency.LockManagerBenchmark [seconds per run]
+ */
+public class LockManagerBenchmark {
+    private static final int NUM_TABLES = 8;
+    private static final int NUM_PAGES = 1024;
+
+    public static void main(String[] args) throws InterruptedException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%8s %16s %16s%n", "threads", "1 stripe (op/s)",
+                          LockManager.DEFAULT_NUM_STRIPES + " stripes (op/s)");
+        for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+            long single = run(new LockManager(1), threads, seconds);
+            long striped = run(new LockManager(), threads, seconds);
+            System.out.printf("%8d %16d %16d%n", threads, single, striped);
+        }
+    }
+
+    /**
+     * @return the number of acquire and release calls per second made by
+     * `numThreads` threads on `lockman`
+     */
+    private static long run(LockManager lockman, int numThreads, double seconds) throws InterruptedException {
+        ResourceName db = new ResourceName("database");
+        ResourceName[] tables = new ResourceName[NUM_TABLES];
+        ResourceName[][] pages = new ResourceName[NUM_TABLES][NUM_PAGES];
+        for (int i = 0; i < NUM_TABLES; ++i) {
+            tables[i] = new ResourceName(db, "table" + i);
+            for (int j = 0; j < NUM_PAGES; ++j) {
+                pages[i][j] = new ResourceName(tables[i], Integer.toString(j));
+            }
+        }
+
+        LoggingLockManager log = new LoggingLockManager();
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            TransactionContext transaction = new DummyTransactionContext(log, t);
+            Random random = new Random(t);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long count = 0;
+                while ((count & 0xFF) != 0 || System.nanoTime() < deadline[0]) {
+                    int table = random.nextInt(NUM_TABLES);
+                    ResourceName page = pages[table][random.nextInt(NUM_PAGES)];
+                    lockman.acquire(transaction, tables[table], LockType.IS);
+                    lockman.acquire(transaction, page, LockType.S);
+                    lockman.release(transaction, page);
+                    lockman.release(transaction, tables[table]);
+                    count += 4;
+                }
+                ops.add(count);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long begin = System.nanoTime();
+        deadline[0] = begin + (long) (seconds * 1e9);
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        return (long) (ops.sum() / ((System.nanoTime() - begin) / 1e9));
+    }
+}
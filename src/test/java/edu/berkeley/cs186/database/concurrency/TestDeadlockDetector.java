@@ -0,0 +1,203 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj4Part1Tests;
+import edu.berkeley.cs186.database.categories.Proj4Tests;
+import edu.berkeley.cs186.database.categories.PublicTests;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+@Category({Proj4Tests.class, Proj4Part1Tests.class})
+public class TestDeadlockDetector {
+    private LoggingLockManager lockman;
+    private TransactionContext[] transactions;
+    private ResourceName[] tables;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setUp() {
+        lockman = new LoggingLockManager();
+        transactions = new TransactionContext[4];
+        ResourceName dbResource = new ResourceName("database");
+        tables = new ResourceName[transactions.length];
+        for (int i = 0; i < transactions.length; ++i) {
+            transactions[i] = new DummyTransactionContext(lockman, i);
+            tables[i] = new ResourceName(dbResource, "table" + i);
+        }
+    }
+
+    /**
+     * @return a task that acquires `lockType` on `name` for `transaction`,
+     * and sets `aborted` instead of failing if it gets a DeadlockException
+     */
+    private Runnable acquire(TransactionContext transaction, ResourceName name, LockType lockType,
+                             AtomicBoolean aborted) {
+        return () -> {
+            try {
+                lockman.acquire(transaction, name, lockType);
+            } catch (DeadlockException e) {
+                aborted.set(true);
+            }
+        };
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testNoDeadlock() {
+        /**
+         * Transaction 1 waits for transaction 0, which isn't waiting:
+         * nothing should be aborted
+         */
+        DeterministicRunner runner = new DeterministicRunner(2);
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[0], LockType.S));
+
+        DeadlockDetector detector = new DeadlockDetector(lockman, 0);
+        assertEquals(0, detector.detect());
+        assertTrue(transactions[1].getBlocked());
+
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        assertFalse(transactions[1].getBlocked());
+        assertEquals(LockType.S, lockman.getLockType(transactions[1], tables[0]));
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testAbortYoungest() {
+        /**
+         * Transaction 0 holds X(table0) and waits for X(table1)
+         * Transaction 1 holds X(table1) and waits for X(table0)
+         * The detector should abort transaction 1 (the younger one), and
+         * transaction 0 should get its lock once transaction 1 releases table1
+         */
+        AtomicBoolean aborted0 = new AtomicBoolean();
+        AtomicBoolean aborted1 = new AtomicBoolean();
+        DeterministicRunner runner = new DeterministicRunner(2);
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[1], LockType.X));
+        runner.run(0, acquire(transactions[0], tables[1], LockType.X, aborted0));
+        runner.run(1, acquire(transactions[1], tables[0], LockType.X, aborted1));
+        assertTrue(transactions[0].getBlocked());
+        assertTrue(transactions[1].getBlocked());
+
+        DeadlockDetector detector = new DeadlockDetector(lockman, 0);
+        assertEquals(1, detector.detect());
+
+        runner.run(1, () -> lockman.release(transactions[1], tables[1]));
+        assertFalse(aborted0.get());
+        assertTrue(aborted1.get());
+        assertFalse(transactions[0].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[0], tables[1]));
+        assertEquals(0, detector.detect());
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testAbortCheapest() {
+        /**
+         * Transaction 0 holds X(table0) and waits for X(table1)
+         * Transaction 1 holds X(table1), X(table2), X(table3) and waits for X(table0)
+         * Under VictimPolicy.CHEAPEST, the detector should abort transaction
+         * 0, which holds the fewest locks
+         */
+        lockman.setVictimPolicy(VictimPolicy.CHEAPEST);
+        AtomicBoolean aborted0 = new AtomicBoolean();
+        AtomicBoolean aborted1 = new AtomicBoolean();
+        DeterministicRunner runner = new DeterministicRunner(2);
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> {
+            lockman.acquire(transactions[1], tables[1], LockType.X);
+            lockman.acquire(transactions[1], tables[2], LockType.X);
+            lockman.acquire(transactions[1], tables[3], LockType.X);
+        });
+        runner.run(0, acquire(transactions[0], tables[1], LockType.X, aborted0));
+        runner.run(1, acquire(transactions[1], tables[0], LockType.X, aborted1));
+
+        DeadlockDetector detector = new DeadlockDetector(lockman, 0);
+        assertEquals(1, detector.detect());
+
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        assertTrue(aborted0.get());
+        assertFalse(aborted1.get());
+        assertEquals(LockType.X, lockman.getLockType(transactions[1], tables[0]));
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testLongCycle() {
+        /**
+         * Transaction i holds S(table i) and waits for X(table i+1), with
+         * transaction 3 waiting for X(table0): a single cycle of 4
+         */
+        AtomicBoolean[] aborted = new AtomicBoolean[4];
+        DeterministicRunner runner = new DeterministicRunner(4);
+        for (int i = 0; i < 4; ++i) {
+            int t = i;
+            aborted[i] = new AtomicBoolean();
+            runner.run(i, () -> lockman.acquire(transactions[t], tables[t], LockType.S));
+        }
+        for (int i = 0; i < 4; ++i) {
+            runner.run(i, acquire(transactions[i], tables[(i + 1) % 4], LockType.X, aborted[i]));
+        }
+
+        DeadlockDetector detector = new DeadlockDetector(lockman, 0);
+        assertEquals(1, detector.detect());
+
+        runner.run(3, () -> lockman.release(transactions[3], tables[3]));
+        assertTrue(aborted[3].get());
+        assertEquals(LockType.X, lockman.getLockType(transactions[2], tables[3]));
+        for (int i = 0; i < 3; ++i) assertFalse(aborted[i].get());
+
+        // the rest of the chain is granted as each transaction finishes
+        runner.run(2, () -> lockman.release(transactions[2], tables[2]));
+        assertEquals(LockType.X, lockman.getLockType(transactions[1], tables[2]));
+        runner.run(1, () -> lockman.release(transactions[1], tables[1]));
+        assertEquals(LockType.X, lockman.getLockType(transactions[0], tables[1]));
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testBackgroundDetection() throws InterruptedException {
+        /**
+         * Same deadlock as testAbortYoungest, broken by the detector thread
+         */
+        lockman.setDeadlockPolicy(DeadlockPolicy.DETECT, 10);
+        try {
+            AtomicBoolean aborted0 = new AtomicBoolean();
+            AtomicBoolean aborted1 = new AtomicBoolean();
+            DeterministicRunner runner = new DeterministicRunner(2);
+            runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+            runner.run(1, () -> lockman.acquire(transactions[1], tables[1], LockType.X));
+            runner.run(0, acquire(transactions[0], tables[1], LockType.X, aborted0));
+            runner.run(1, acquire(transactions[1], tables[0], LockType.X, aborted1));
+
+            while (!aborted1.get()) {
+                Thread.sleep(5);
+            }
+            runner.run(1, () -> lockman.release(transactions[1], tables[1]));
+            assertFalse(aborted0.get());
+            assertEquals(LockType.X, lockman.getLockType(transactions[0], tables[1]));
+            runner.joinAll();
+        } finally {
+            lockman.setDeadlockPolicy(DeadlockPolicy.NONE);
+        }
+    }
+}
@@ -756,5 +756,133 @@ public class TestLockManager {
         runner.joinAll();
     }
 
-}
+    @Test
+    @Category(PublicTests.class)
+    public void testConcurrentExclusiveLocks() throws InterruptedException {
+        /**
+         * Each transaction repeatedly takes an X lock on one table, moves it
+         * to the next table with an acquire-and-release, and releases it.
+         * Tables are spread over different stripes, and no two transactions
+         * should ever hold an X lock on the same table at once.
+         */
+        int[] holders = new int[tables.length];
+        AtomicBoolean violated = new AtomicBoolean(false);
+        Random random = new Random(0);
+        List<Thread> threads = new ArrayList<>();
+        for (TransactionContext t : transactions) {
+            long seed = random.nextLong();
+            Thread thread = new Thread(() -> {
+                Random r = new Random(seed);
+                for (int i = 0; i < 200; ++i) {
+                    int k = r.nextInt(tables.length - 1);
+                    lockman.acquire(t, tables[k], LockType.X);
+                    synchronized (holders) {
+                        if (++holders[k] != 1) violated.set(true);
+                        --holders[k];
+                    }
+                    lockman.acquireAndRelease(t, tables[k + 1], LockType.X,
+                                              new ArrayList<>(Collections.singletonList(tables[k])));
+                    synchronized (holders) {
+                        if (++holders[k + 1] != 1) violated.set(true);
+                        --holders[k + 1];
+                    }
+                    lockman.release(t, tables[k + 1]);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertFalse(violated.get());
+        for (TransactionContext t : transactions) {
+            assertEquals(Collections.emptyList(), lockman.getLocks(t));
+        }
+        for (ResourceName table : tables) {
+            assertEquals(Collections.emptyList(), lockman.getLocks(table));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testWaitDie() {
+        /**
+         * Transaction 0 acquires an X lock on table0
+         * Transaction 1 acquires an X lock on table1
+         * Transaction 1 requests an X lock on table0: it is younger than
+         * transaction 0, so it dies instead of waiting
+         * Transaction 0 requests an X lock on table1: it is older than
+         * transaction 1, so it waits
+         */
+        lockman.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        AtomicBoolean died = new AtomicBoolean(false);
+        DeterministicRunner runner = new DeterministicRunner(2);
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[1], LockType.X));
+        runner.run(1, () -> {
+            try {
+                lockman.acquire(transactions[1], tables[0], LockType.X);
+            } catch (DeadlockException e) {
+                died.set(true);
+            }
+        });
+        assertTrue(died.get());
+        assertFalse(transactions[1].getBlocked());
+        assertEquals(1, lockman.getLocks(transactions[1]).size());
+
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[1], LockType.X));
+        assertTrue(transactions[0].getBlocked());
 
+        runner.run(1, () -> lockman.release(transactions[1], tables[1]));
+        assertFalse(transactions[0].getBlocked());
+        assertTrue(holds(lockman, transactions[0], tables[1], LockType.X));
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testWoundWait() {
+        /**
+         * Transaction 2 acquires an X lock on table0
+         * Transaction 1 acquires an X lock on table1
+         * Transaction 1 requests an X lock on table0: it is older than
+         * transaction 2, so it wounds transaction 2 and waits
+         * Transaction 0 requests an X lock on table1: transaction 1 is
+         * younger and waiting, so it is aborted right away
+         * Transaction 2 requests another lock, and finds out it was wounded
+         */
+        lockman.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        AtomicBoolean aborted1 = new AtomicBoolean(false);
+        AtomicBoolean aborted2 = new AtomicBoolean(false);
+        DeterministicRunner runner = new DeterministicRunner(3);
+        runner.run(2, () -> lockman.acquire(transactions[2], tables[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[1], LockType.X));
+        runner.run(1, () -> {
+            try {
+                lockman.acquire(transactions[1], tables[0], LockType.X);
+            } catch (DeadlockException e) {
+                aborted1.set(true);
+            }
+        });
+        assertTrue(transactions[1].getBlocked());
+        assertFalse(aborted1.get());
+
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[1], LockType.X));
+        assertTrue(transactions[0].getBlocked());
+        runner.run(1, () -> lockman.release(transactions[1], tables[1]));
+        assertTrue(aborted1.get());
+        assertFalse(transactions[0].getBlocked());
+        assertTrue(holds(lockman, transactions[0], tables[1], LockType.X));
+
+        runner.run(2, () -> {
+            try {
+                lockman.acquire(transactions[2], tables[2], LockType.S);
+            } catch (DeadlockException e) {
+                aborted2.set(true);
+            }
+        });
+        assertTrue(aborted2.get());
+        assertTrue(holds(lockman, transactions[2], tables[0], LockType.X));
+        runner.joinAll();
+    }
+}
@@ -278,5 +278,74 @@ public class TestLockUtil {
         assertEquals(Collections.emptyList(), lockManager.log);
     }
 
-}
+    @Test
+    @Category(PublicTests.class)
+    public void testAutoEscalateOnCount() {
+        /**
+         * With auto escalation after 3 page locks, the first 3 pages read are
+         * locked individually...
+         */
+        tableContext.setEscalationThresholds(3, 1.0);
+        lockManager.startLog();
+        for (int i = 0; i < 3; ++i) {
+            LockUtil.ensureSufficientLockHeld(pageContexts[i], LockType.S);
+        }
+        assertEquals(Arrays.asList(
+                "acquire 0 database IS",
+                "acquire 0 database/table1 IS",
+                "acquire 0 database/table1/0 S",
+                "acquire 0 database/table1/1 S",
+                "acquire 0 database/table1/2 S"
+        ), lockManager.log);
+        lockManager.clearLog();
+
+        /**
+         * ...but reading a 4th escalates them to S(table1), which then covers
+         * every page
+         */
+        LockUtil.ensureSufficientLockHeld(pageContexts[3], LockType.S);
+        LockUtil.ensureSufficientLockHeld(pageContexts[4], LockType.S);
+        assertEquals(Collections.singletonList(
+                "acquire-and-release 0 database/table1 S [database/table1, database/table1/0, database/table1/1, database/table1/2]"
+        ), lockManager.log);
+        assertEquals(0, tableContext.getNumChildren(transaction));
+    }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testAutoEscalateOnSaturation() {
+        /**
+         * table1 has 10 pages, and locks are escalated once 20% of them are
+         * locked: writing a 3rd page escalates the 2 X page locks to X(table1)
+         */
+        tableContext.setCapacity(10);
+        tableContext.setEscalationThresholds(LockContext.DEFAULT_ESCALATION_LOCKS, 0.2);
+        lockManager.startLog();
+        LockUtil.ensureSufficientLockHeld(pageContexts[0], LockType.X);
+        LockUtil.ensureSufficientLockHeld(pageContexts[1], LockType.X);
+        assertEquals(2, tableContext.getNumChildren(transaction));
+        lockManager.clearLog();
+
+        LockUtil.ensureSufficientLockHeld(pageContexts[2], LockType.S);
+        assertEquals(Collections.singletonList(
+                "acquire-and-release 0 database/table1 X [database/table1, database/table1/0, database/table1/1]"
+        ), lockManager.log);
+        assertEquals(LockType.X, tableContext.getEffectiveLockType(transaction));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testNoAutoEscalateSmallTable() {
+        /**
+         * Saturation alone never escalates locks on a table of fewer than
+         * MIN_ESCALATION_CAPACITY pages
+         */
+        tableContext.setCapacity(LockContext.MIN_ESCALATION_CAPACITY - 1);
+        tableContext.setEscalationThresholds(LockContext.DEFAULT_ESCALATION_LOCKS, 0.2);
+        for (int i = 0; i < 8; ++i) {
+            LockUtil.ensureSufficientLockHeld(pageContexts[i], LockType.S);
+        }
+        assertEquals(8, tableContext.getNumChildren(transaction));
+        assertEquals(LockType.IS, tableContext.getExplicitLockType(transaction));
+    }
+}
@@ -11,6 +11,7 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 import static org.junit.Assert.*;
@@ -201,6 +202,31 @@ public class TestDiskSpaceManager {
         diskSpaceManager.close();
     }
 
+    @Test
+    public void testWritePages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        for (int i = 1; i < 3; ++i) {
+            diskSpaceManager.allocPage(partNum);
+        }
+
+        byte[] buf = new byte[3 * DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf.length; ++i) {
+            buf[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+        }
+        diskSpaceManager.writePages(pageNum, buf);
+        for (int i = 0; i < 3; ++i) {
+            byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+            diskSpaceManager.readPage(pageNum + i, readbuf);
+            assertArrayEquals(Arrays.copyOfRange(buf, i * DiskSpaceManager.PAGE_SIZE,
+                                                 (i + 1) * DiskSpaceManager.PAGE_SIZE), readbuf);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
     @Test
     public void testReadWritePersistent() {
         diskSpaceManager = getDiskSpaceManager();
@@ -10,6 +10,7 @@ import edu.berkeley.cs186.database.categories.Proj3Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.table.PageFormat;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import org.junit.After;
@@ -141,4 +142,35 @@ public class TestBasicQuery {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testProjectPushdown() {
+        try(Transaction transaction = db.beginTransaction()) {
+            transaction.createTable(TestUtils.createSchemaWithAllTypes(), "paxtable", PageFormat.PAX);
+            for (int i = 0; i < 100; ++i) {
+                transaction.insert("paxtable", new Record(i % 2 == 0, i, "!", (float) i));
+            }
+            transaction.getTransactionContext().getTable("paxtable").buildStatistics(10);
+
+            // SELECT int FROM paxtable WHERE float >= 90;
+            QueryPlan query = transaction.query("paxtable");
+            query.select("float", PredicateOperator.GREATER_THAN_EQUALS, 90.0f);
+            query.project("int");
+            Iterator<Record> queryOutput = query.execute();
+
+            // the scan should only read the columns used by the query
+            QueryOperator scan = query.getFinalOperator();
+            while (scan.getSource() != null) scan = scan.getSource();
+            assertTrue(scan.isSequentialScan());
+            assertEquals(2, scan.getSchema().size());
+
+            int count = 0;
+            while (queryOutput.hasNext()) {
+                Record r = queryOutput.next();
+                assertEquals(new Record(90 + count), r);
+                count++;
+            }
+            assertEquals(10, count);
+        }
+    }
 }
@@ -0,0 +1,210 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.ColumnVector;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestBatchExecution {
+    // spans several pages, and several batches
+    private static final int NUM_RECORDS = 3000;
+
+    private Database db;
+    private Transaction transaction;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void beforeEach() throws Exception {
+        File testDir = tempFolder.newFolder("batchTest");
+        this.db = new Database(testDir.getAbsolutePath(), 32);
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithAllTypes(), "table");
+            for (int i = 0; i < NUM_RECORDS; ++i) {
+                t.insert("table", new Record(i % 3 == 0, i, i % 2 == 0 ? "a" : "b", i / 4.0f));
+            }
+        }
+        this.db.waitAllTransactions();
+        this.transaction = this.db.beginTransaction();
+    }
+
+    @After
+    public void afterEach() {
+        this.transaction.close();
+        this.db.close();
+    }
+
+    private TransactionContext context() {
+        return this.transaction.getTransactionContext();
+    }
+
+    private static List<Record> collect(Iterator<Record> records) {
+        List<Record> result = new ArrayList<>();
+        records.forEachRemaining(result::add);
+        return result;
+    }
+
+    @Test
+    public void testScan() {
+        SequentialScanOperator scan = new SequentialScanOperator(context(), "table");
+        assertTrue(scan.isVectorized());
+        int numBatches = 0;
+        Iterator<RecordBatch> batches = scan.batchIterator();
+        List<Record> records = new ArrayList<>();
+        while (batches.hasNext()) {
+            RecordBatch batch = batches.next();
+            assertTrue(batch.size() <= RecordBatch.DEFAULT_SIZE);
+            for (int i = 0; i < batch.size(); ++i) {
+                records.add(batch.getRecord(batch.getRow(i)));
+            }
+            numBatches++;
+        }
+        assertEquals(3, numBatches);
+        assertEquals(collect(scan.backtrackingIterator()), records);
+    }
+
+    @Test
+    public void testScanColumns() {
+        SequentialScanOperator scan = new SequentialScanOperator(context(), "table",
+                Arrays.asList("float", "int"));
+        List<Record> records = collect(RecordBatch.toRecords(scan.batchIterator()));
+        assertEquals(NUM_RECORDS, records.size());
+        for (int i = 0; i < NUM_RECORDS; ++i) {
+            assertEquals(new Record(i / 4.0f, i), records.get(i));
+        }
+    }
+
+    @Test
+    public void testSelect() {
+        for (PredicateOperator op : PredicateOperator.values()) {
+            SelectOperator select = new SelectOperator(
+                    new SequentialScanOperator(context(), "table"), "int", op, new IntDataBox(1500));
+            assertTrue(select.isVectorized());
+            List<Record> expected = new ArrayList<>();
+            for (Record r : collect(new SequentialScanOperator(context(), "table").iterator())) {
+                if (op.evaluate(r.getValue(1), new IntDataBox(1500))) expected.add(r);
+            }
+            assertEquals(op.toString(), expected, collect(select.iterator()));
+        }
+
+        // strings and floats, stacked
+        SelectOperator select = new SelectOperator(new SelectOperator(
+                new SequentialScanOperator(context(), "table"),
+                "string", PredicateOperator.EQUALS, new StringDataBox("a", 1)),
+                "float", PredicateOperator.LESS_THAN, new FloatDataBox(10.0f));
+        List<Record> records = collect(select.iterator());
+        assertEquals(20, records.size());
+        for (Record r : records) {
+            assertEquals(0, r.getValue(1).getInt() % 2);
+        }
+    }
+
+    @Test
+    public void testProject() {
+        QueryOperator source = new SequentialScanOperator(context(), "table");
+        List<String> columns = Arrays.asList("int", "int * 2 + 1", "-float", "float / 2",
+                "int != 0 AND 3000 / int > 2", "NOT bool OR int < 10", "UPPER(string)");
+        ProjectOperator project = new ProjectOperator(source, columns, Collections.emptyList());
+        assertTrue(project.isVectorized());
+        List<Record> records = collect(project.iterator());
+        assertEquals(NUM_RECORDS, records.size());
+        for (int i = 0; i < NUM_RECORDS; ++i) {
+            Record expected = new Record(i, i * 2 + 1, -(i / 4.0f), i / 4.0f / 2,
+                    i != 0 && 3000 / i > 2, i % 3 != 0 || i < 10, i % 2 == 0 ? "A" : "B");
+            assertEquals(expected, records.get(i));
+        }
+    }
+
+    @Test
+    public void testAggregate() {
+        QueryOperator source = new SelectOperator(new SequentialScanOperator(context(), "table"),
+                "int", PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(1000));
+        List<String> columns = Arrays.asList("COUNT(*)", "SUM(int)", "MIN(float)", "MAX(string)",
+                "AVG(int)", "SUM(bool)", "MAX(int) - MIN(int)", "int");
+        ProjectOperator project = new ProjectOperator(source, columns, Collections.emptyList());
+        assertTrue(project.isVectorized());
+        List<Record> records = collect(project.iterator());
+
+        int sum = 0;
+        int trues = 0;
+        for (int i = 1000; i < NUM_RECORDS; ++i) {
+            sum += i;
+            if (i % 3 == 0) trues++;
+        }
+        Record expected = new Record(2000, sum, 250.0f, "b", sum / 2000.0f, trues, 1999, 1000);
+        assertEquals(Collections.singletonList(expected), records);
+
+        // no records: no output, as for the record at a time implementation
+        source = new SelectOperator(new SequentialScanOperator(context(), "table"),
+                "int", PredicateOperator.LESS_THAN, new IntDataBox(0));
+        project = new ProjectOperator(source, columns, Collections.emptyList());
+        assertFalse(project.iterator().hasNext());
+    }
+
+    @Test
+    public void testNotVectorized() {
+        // sorts and group bys are not vectorized, but can still be read in batches
+        QueryOperator source = new SortOperator(context(),
+                new SequentialScanOperator(context(), "table"), "float");
+        assertFalse(source.isVectorized());
+        SelectOperator select = new SelectOperator(source, "int", PredicateOperator.LESS_THAN,
+                new IntDataBox(5));
+        assertFalse(select.isVectorized());
+        List<Record> records = collect(RecordBatch.toRecords(select.batchIterator()));
+        assertEquals(5, records.size());
+
+        ProjectOperator project = new ProjectOperator(
+                new GroupByOperator(new SequentialScanOperator(context(), "table"), context(),
+                        Collections.singletonList("string")),
+                Arrays.asList("string", "COUNT(*)"), Collections.singletonList("string"));
+        assertFalse(project.isVectorized());
+        assertEquals(2, collect(project.iterator()).size());
+    }
+
+    @Test
+    public void testAdapters() {
+        Schema schema = new Schema()
+                .add("a", Type.intType())
+                .add("b", Type.stringType(1));
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 2500; ++i) {
+            records.add(new Record(i, Character.toString((char) ('a' + i % 26))));
+        }
+        List<RecordBatch> batches = new ArrayList<>();
+        RecordBatch.fromRecords(records.iterator(), schema).forEachRemaining(batches::add);
+        assertEquals(3, batches.size());
+        assertEquals(452, batches.get(2).size());
+        assertEquals(records, collect(RecordBatch.toRecords(batches.iterator())));
+
+        // only the selected rows of a batch are records of it
+        RecordBatch batch = batches.get(0).select(new int[] {3, 5, 8}, 2);
+        ColumnVector a = batch.getColumn(0);
+        assertEquals(5, a.getInt(batch.getRow(1)));
+        assertEquals(Arrays.asList(records.get(3), records.get(5)),
+                     collect(RecordBatch.toRecords(Collections.singletonList(batch).iterator())));
+    }
+}
@@ -0,0 +1,146 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.query.expr.Expression;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestEagerAggregation {
+    // fact(k, v) has 100 records for each k in 0..9, and dim(k, name) 50
+    private static final int NUM_FACTS = 1000;
+    private static final int NUM_DIMS = 500;
+
+    private Database db;
+    private Transaction transaction;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void beforeEach() throws Exception {
+        File testDir = tempFolder.newFolder("eagerAggregationTest");
+        this.db = new Database(testDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5);
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(new Schema().add("k", Type.intType()).add("v", Type.intType()), "fact");
+            t.createTable(new Schema().add("k", Type.intType()).add("name", Type.stringType(4))
+                    .add("j", Type.intType()), "dim");
+            for (int i = 0; i < NUM_FACTS; i++) t.insert("fact", i % 10, i);
+            // names n0 to n4, each for two values of k
+            for (int j = 0; j < NUM_DIMS; j++) t.insert("dim", j % 10, "n" + (j % 5), j);
+            t.getTransactionContext().getTable("fact").buildStatistics(10);
+            t.getTransactionContext().getTable("dim").buildStatistics(10);
+        }
+        this.db.waitAllTransactions();
+        this.transaction = this.db.beginTransaction();
+    }
+
+    @After
+    public void afterEach() {
+        this.transaction.close();
+        this.db.close();
+    }
+
+    private static Map<String, Record> byName(Iterator<Record> records) {
+        Map<String, Record> result = new HashMap<>();
+        records.forEachRemaining(r -> result.put(r.getValue(0).getString(), r));
+        return result;
+    }
+
+    private QueryPlan query(String... columns) {
+        QueryPlan query = this.transaction.query("fact");
+        query.join("dim", "fact.k", "dim.k");
+        query.groupBy("dim.name");
+        query.project(columns);
+        return query;
+    }
+
+    @Test
+    public void testSplitAggregates() {
+        Schema schema = new Schema().add("x", Type.intType()).add("y", Type.floatType());
+        Expression e = Expression.fromString("SUM(x) + AVG(y * 2) - COUNT(*)");
+        List<Expression> partials = new ArrayList<>();
+        Expression combined = e.splitAggregates(partials, i -> "p" + i);
+        assertEquals(4, partials.size());
+        assertEquals(new HashSet<>(Arrays.asList("p0", "p1", "p2", "p3")), combined.getDependencies());
+
+        // partial aggregates of two groups of records, combined
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 10; i++) records.add(new Record(i, i / 4.0f));
+        Schema partialSchema = new Schema();
+        for (int i = 0; i < partials.size(); i++) {
+            partials.get(i).setSchema(schema);
+            partialSchema.add("p" + i, partials.get(i).getType());
+        }
+        combined.setSchema(partialSchema);
+        e.setSchema(schema);
+        for (List<Record> group : Arrays.asList(records.subList(0, 3), records.subList(3, 10))) {
+            List<Object> values = new ArrayList<>();
+            for (Expression partial : partials) {
+                for (Record r : group) partial.update(r);
+                values.add(partial.evaluate(group.get(0)));
+                partial.reset();
+            }
+            Record partialRecord = new Record(values.toArray());
+            combined.update(partialRecord);
+        }
+        for (Record r : records) e.update(r);
+        assertEquals(e.evaluate(records.get(0)), combined.evaluate(records.get(0)));
+
+        // only some aggregates can be split
+        assertNull(Expression.fromString("FIRST(x)").splitAggregates(new ArrayList<>(), i -> "p" + i));
+        assertNull(Expression.fromString("SUM(x) + VARIANCE(y)").splitAggregates(new ArrayList<>(), i -> "p" + i));
+    }
+
+    @Test
+    public void testEagerAggregation() {
+        QueryPlan query = query("dim.name", "SUM(fact.v)", "COUNT(*)", "MIN(fact.v)",
+                "MAX(fact.v)", "AVG(fact.v)");
+        Map<String, Record> records = byName(query.execute());
+        // the facts are aggregated by k before they are joined
+        assertTrue(query.getFinalOperator().toString(), query.getFinalOperator().toString().contains("fact.partial"));
+
+        assertEquals(5, records.size());
+        for (int m = 0; m < 5; m++) {
+            int sum = 0;
+            for (int k : new int[] {m, m + 5}) {
+                for (int i = k; i < NUM_FACTS; i += 10) sum += (NUM_DIMS / 10) * i;
+            }
+            int count = 2 * (NUM_DIMS / 10) * (NUM_FACTS / 10);
+            assertEquals(new Record("n" + m, sum, count, m, NUM_FACTS - 5 + m, (float) sum / count),
+                    records.get("n" + m));
+        }
+        assertEquals(records, byName(query("dim.name", "SUM(fact.v)", "COUNT(*)", "MIN(fact.v)",
+                "MAX(fact.v)", "AVG(fact.v)").executeNaive()));
+    }
+
+    @Test
+    public void testNotEager() {
+        // aggregates over columns of both tables
+        QueryPlan query = query("dim.name", "SUM(fact.v + dim.j)");
+        Map<String, Record> records = byName(query.execute());
+        assertFalse(query.getFinalOperator().toString().contains("partial"));
+        assertEquals(byName(query("dim.name", "SUM(fact.v + dim.j)").executeNaive()), records);
+
+        // aggregates that can't be split
+        query = query("dim.name", "SUM(fact.v)", "FIRST(dim.name)");
+        query.execute();
+        assertFalse(query.getFinalOperator().toString().contains("partial"));
+    }
+}
@@ -0,0 +1,222 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestGroupByOperator {
+    private static final int NUM_RECORDS = 2000;
+
+    private Database db;
+    private Transaction transaction;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void beforeEach() throws Exception {
+        File testDir = tempFolder.newFolder("groupByTest");
+        this.db = new Database(testDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(3);
+        this.transaction = this.db.beginTransaction();
+    }
+
+    @After
+    public void afterEach() {
+        this.transaction.close();
+        this.db.close();
+    }
+
+    private TransactionContext context() {
+        return this.transaction.getTransactionContext();
+    }
+
+    // int values 0 to 99, twenty times each, in random order
+    private static List<Record> shuffledRecords() {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            records.add(new Record(i % 2 == 0, i % 100, "s", (float) i));
+        }
+        Collections.shuffle(records, new Random(186));
+        return records;
+    }
+
+    /**
+     * Splits the output of a GroupByOperator into its groups, as sets of
+     * records keyed by the value of column `column`.
+     */
+    private static Map<Integer, Set<Record>> groups(Iterator<Record> records, int column) {
+        Map<Integer, Set<Record>> groups = new HashMap<>();
+        Set<Record> group = new HashSet<>();
+        while (records.hasNext()) {
+            Record record = records.next();
+            if (record == GroupByOperator.MARKER) {
+                assertFalse("empty group", group.isEmpty());
+                group = new HashSet<>();
+                continue;
+            }
+            int key = record.getValue(column).getInt();
+            if (group.isEmpty()) {
+                assertFalse("group " + key + " seen twice", groups.containsKey(key));
+                groups.put(key, group);
+            }
+            assertTrue("group split", groups.get(key) == group);
+            group.add(record);
+        }
+        return groups;
+    }
+
+    @Test
+    public void testStreaming() {
+        Schema schema = TestUtils.createSchemaWithAllTypes();
+        List<Record> records = shuffledRecords();
+        QueryOperator unsorted = new TestSourceOperator(records, schema);
+        GroupByOperator hash = new GroupByOperator(unsorted, context(), Collections.singletonList("int"));
+        assertFalse(hash.isStreaming());
+        assertEquals(Collections.emptyList(), hash.sortedBy());
+
+        QueryOperator sorted = new SortOperator(context(), new TestSourceOperator(records, schema), "int");
+        // selections keep the order of their source
+        sorted = new SelectOperator(sorted, "int", PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(0));
+        GroupByOperator streaming = new GroupByOperator(sorted, context(), Collections.singletonList("int"));
+        assertTrue(streaming.isStreaming());
+        assertEquals(sorted.sortedBy(), streaming.sortedBy());
+        // neither writes records out: the hundred groups fit in memory
+        assertEquals(sorted.estimateIOCost(), streaming.estimateIOCost());
+        assertEquals(unsorted.estimateIOCost(), hash.estimateIOCost());
+
+        Map<Integer, Set<Record>> expected = groups(hash.iterator(), 1);
+        assertEquals(100, expected.size());
+        assertEquals(expected, groups(streaming.iterator(), 1));
+
+        // grouping on a column the source isn't sorted on needs hashing
+        GroupByOperator other = new GroupByOperator(sorted, context(), Arrays.asList("int", "bool"));
+        assertFalse(other.isStreaming());
+
+        // no records, no groups
+        QueryOperator empty = new SortOperator(context(), new TestSourceOperator(schema), "int");
+        assertFalse(new GroupByOperator(empty, context(), Collections.singletonList("int")).iterator().hasNext());
+    }
+
+    @Test
+    public void testAggregateStreamed() {
+        Schema schema = TestUtils.createSchemaWithAllTypes();
+        QueryOperator sorted = new SortOperator(context(), new TestSourceOperator(shuffledRecords(), schema), "int");
+        QueryOperator groupBy = new GroupByOperator(sorted, context(), Collections.singletonList("int"));
+        List<String> groupByColumns = Collections.singletonList("int");
+        ProjectOperator project = new ProjectOperator(groupBy, Arrays.asList("int", "COUNT(*)", "SUM(bool)"),
+                groupByColumns);
+        Iterator<Record> records = project.iterator();
+        for (int i = 0; i < 100; i++) {
+            // sorted input, so the groups come out in order
+            assertEquals(new Record(i, NUM_RECORDS / 100, i % 2 == 0 ? NUM_RECORDS / 100 : 0),
+                    records.next());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    @Test
+    public void testHashAggregate() {
+        Schema schema = TestUtils.createSchemaWithAllTypes();
+        List<String> columns = Arrays.asList("int", "COUNT(*)", "SUM(float)", "MIN(float)", "MAX(float)",
+                "AVG(float)", "RANGE(float)", "SUM(bool)");
+        List<String> groupByColumns = Collections.singletonList("int");
+        // the groups of the hash aggregation fit in memory, so the records
+        // are aggregated as they are read from the source
+        QueryOperator groupBy = new GroupByOperator(new TestSourceOperator(shuffledRecords(), schema),
+                context(), groupByColumns);
+        Set<Record> hashed = new HashSet<>();
+        new ProjectOperator(groupBy, columns, groupByColumns).iterator().forEachRemaining(hashed::add);
+
+        QueryOperator sorted = new SortOperator(context(), new TestSourceOperator(shuffledRecords(), schema), "int");
+        groupBy = new GroupByOperator(sorted, context(), groupByColumns);
+        Set<Record> streamed = new HashSet<>();
+        new ProjectOperator(groupBy, columns, groupByColumns).iterator().forEachRemaining(streamed::add);
+        assertEquals(100, hashed.size());
+        assertEquals(streamed, hashed);
+
+        // too many groups of wide records to keep in memory: the groups are
+        // hashed into temporary tables instead
+        Schema wide = TestUtils.createSchemaWithAllTypes().add("pad", Type.stringType(200));
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < NUM_RECORDS; i++) records.add(new Record(true, i % 1000, "s", (float) i, "pad"));
+        GroupByOperator wideGroupBy = new GroupByOperator(new TestSourceOperator(records, wide), context(),
+                groupByColumns);
+        assertTrue(wideGroupBy.maxInMemoryGroups() < 1000);
+        Set<Record> counts = new HashSet<>();
+        new ProjectOperator(wideGroupBy, Arrays.asList("int", "COUNT(*)"), groupByColumns).iterator()
+                .forEachRemaining(counts::add);
+        assertEquals(1000, counts.size());
+        for (int i = 0; i < 1000; i++) assertTrue(counts.contains(new Record(i, NUM_RECORDS / 1000)));
+    }
+
+    @Test
+    public void testQueryPlan() {
+        this.transaction.createTable(TestUtils.createSchemaWithAllTypes().add("pad", Type.stringType(200)),
+                "table");
+        for (int i = 0; i < 4 * NUM_RECORDS; i++) {
+            this.transaction.insert("table", new Record(i % 2 == 0, i, "s", (float) i,
+                    String.format("%05d", i)));
+        }
+        context().getTable("table").buildStatistics(10);
+
+        // more pages than fit in memory, and two groups: hashing is cheaper
+        QueryPlan query = this.transaction.query("table");
+        query.groupBy("bool");
+        query.project("bool", "COUNT(*)");
+        Set<Record> records = new HashSet<>();
+        query.execute().forEachRemaining(records::add);
+        assertEquals(new HashSet<>(Arrays.asList(new Record(true, 2 * NUM_RECORDS),
+                new Record(false, 2 * NUM_RECORDS))), records);
+        GroupByOperator groupBy = (GroupByOperator) query.getFinalOperator().getSource();
+        assertFalse(groupBy.isStreaming());
+
+        // a group per record, of wide values that don't fit in memory: every
+        // group would take a page of its own, so sorting and streaming is
+        // cheaper
+        query = this.transaction.query("table");
+        query.groupBy("pad");
+        query.project("pad", "COUNT(*)");
+        Iterator<Record> iter = query.execute();
+        groupBy = (GroupByOperator) query.getFinalOperator().getSource();
+        assertTrue(groupBy.isStreaming());
+        assertTrue(groupBy.getSource() instanceof SortOperator);
+        for (int i = 0; i < 4 * NUM_RECORDS; i++) {
+            assertEquals(new Record(String.format("%05d", i), 1), iter.next());
+        }
+        assertFalse(iter.hasNext());
+
+        // a group per record, of ints that fit in memory: the groups are
+        // aggregated in memory in a single pass
+        query = this.transaction.query("table");
+        query.groupBy("int");
+        query.project("int", "COUNT(*)");
+        Set<Record> counts = new HashSet<>();
+        query.execute().forEachRemaining(counts::add);
+        groupBy = (GroupByOperator) query.getFinalOperator().getSource();
+        assertFalse(groupBy.isStreaming());
+        assertEquals(groupBy.getSource().estimateIOCost(), groupBy.estimateIOCost());
+        assertEquals(4 * NUM_RECORDS, counts.size());
+        for (int i = 0; i < 4 * NUM_RECORDS; i++) assertTrue(counts.contains(new Record(i, 1)));
+    }
+}
@@ -0,0 +1,243 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.query.join.GHJOperator;
+import edu.berkeley.cs186.database.table.Record;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestParallelExecution {
+    // with the padding column, enough pages for many morsels
+    private static final int NUM_RECORDS = 10000;
+
+    private Database db;
+    private Transaction transaction;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void beforeEach() throws Exception {
+        File testDir = tempFolder.newFolder("parallelTest");
+        this.db = new Database(testDir.getAbsolutePath(), 64);
+        this.db.setDegreeOfParallelism(4);
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithAllTypes().add("pad", Type.stringType(60)), "table");
+            for (int i = 0; i < NUM_RECORDS; ++i) {
+                t.insert("table", new Record(i % 3 == 0, i, i % 2 == 0 ? "a" : "b", i / 4.0f, "pad" + i));
+            }
+        }
+        this.db.waitAllTransactions();
+        this.transaction = this.db.beginTransaction();
+    }
+
+    @After
+    public void afterEach() {
+        this.transaction.close();
+        this.db.close();
+    }
+
+    private TransactionContext context() {
+        return this.transaction.getTransactionContext();
+    }
+
+    private static List<Record> collect(Iterator<Record> records) {
+        List<Record> result = new ArrayList<>();
+        records.forEachRemaining(result::add);
+        return result;
+    }
+
+    // Batches come back in no particular order
+    private static List<Record> sorted(List<Record> records) {
+        List<Record> result = new ArrayList<>(records);
+        result.sort(Comparator.comparingInt(r -> r.getValue(0).getInt()));
+        return result;
+    }
+
+    private QueryOperator pipeline() {
+        QueryOperator scan = new SequentialScanOperator(context(), "table");
+        QueryOperator select = new SelectOperator(scan, "int", PredicateOperator.GREATER_THAN_EQUALS,
+                new IntDataBox(1000));
+        return new ProjectOperator(select, Arrays.asList("int", "int * 2", "UPPER(string)", "float"),
+                Collections.emptyList());
+    }
+
+    @Test
+    public void testGather() {
+        assertTrue(context().getNumDataPages("table") > 4 * GatherOperator.MORSEL_PAGES);
+        QueryOperator pipeline = pipeline();
+        assertTrue(pipeline.isParallelizable());
+        GatherOperator gather = new GatherOperator(context(), pipeline);
+        List<Record> records = collect(gather.iterator());
+        assertEquals(NUM_RECORDS - 1000, records.size());
+        assertEquals(collect(pipeline().iterator()), sorted(records));
+    }
+
+    @Test
+    public void testGatherAggregates() {
+        List<String> columns = Arrays.asList("COUNT(*)", "SUM(int)", "MIN(float)", "MAX(string)",
+                "AVG(int)", "SUM(bool)", "RANGE(int)", "MAX(int) - MIN(int)", "int");
+        QueryOperator select = new SelectOperator(new SequentialScanOperator(context(), "table"),
+                "int", PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(1000));
+        ProjectOperator project = new ProjectOperator(select, columns, Collections.emptyList());
+        assertFalse(project.isParallelizable());
+        assertTrue(project.hasMergeableAggregates());
+        List<Record> expected = collect(project.iterator());
+        assertEquals(1, expected.size());
+        // the non-aggregate comes from the first record of the scan
+        assertEquals(new IntDataBox(1000), expected.get(0).getValue(8));
+        assertEquals(expected, collect(new GatherOperator(context(), project).iterator()));
+
+        // no records: no output, as for the serial projection
+        select = new SelectOperator(new SequentialScanOperator(context(), "table"),
+                "int", PredicateOperator.LESS_THAN, new IntDataBox(0));
+        project = new ProjectOperator(select, columns, Collections.emptyList());
+        assertFalse(new GatherOperator(context(), project).iterator().hasNext());
+    }
+
+    @Test
+    public void testNotGathered() {
+        // aggregates that depend on the order of the records
+        ProjectOperator project = new ProjectOperator(new SequentialScanOperator(context(), "table"),
+                Arrays.asList("FIRST(int)", "COUNT(*)"), Collections.emptyList());
+        assertFalse(GatherOperator.canGather(project));
+        // anything above something other than a scan
+        QueryOperator sort = new SortOperator(context(), new SequentialScanOperator(context(), "table"), "int");
+        assertFalse(GatherOperator.canGather(new SelectOperator(sort, "int", PredicateOperator.EQUALS,
+                new IntDataBox(5))));
+    }
+
+    @Test
+    public void testSort() {
+        // two workers with three buffers each: several merge passes
+        this.db.setWorkMem(6);
+        SortOperator sort = new SortOperator(context(), new SequentialScanOperator(context(), "table"), "pad");
+        List<Record> records = collect(sort.iterator());
+        assertEquals(NUM_RECORDS, records.size());
+        List<Record> expected = collect(new SequentialScanOperator(context(), "table").iterator());
+        expected.sort(Comparator.comparing(r -> r.getValue(4).getString()));
+        assertEquals(expected, records);
+    }
+
+    @Test
+    public void testGraceHashJoin() {
+        // four workers with six buffers each: the partitions of the right
+        // side fit in a worker's buffers, those of the self join don't
+        this.db.setWorkMem(24);
+        QueryOperator right = new SelectOperator(new SequentialScanOperator(context(), "table"),
+                "int", PredicateOperator.LESS_THAN, new IntDataBox(2000));
+        for (QueryOperator rightSource : Arrays.asList(right, new SequentialScanOperator(context(), "table"))) {
+            QueryOperator join = new GHJOperator(new SequentialScanOperator(context(), "table"), rightSource,
+                    "int", "int", context());
+            List<Record> records = collect(join.iterator());
+            records.sort(Comparator.comparingInt(r -> r.getValue(1).getInt()));
+            List<Record> expected = new ArrayList<>();
+            for (Record r : collect(rightSource.iterator())) expected.add(r.concat(r));
+            assertEquals(expected, records);
+        }
+    }
+
+    @Test
+    public void testQueryPlan() {
+        QueryPlan query = this.transaction.query("table");
+        query.select("int", PredicateOperator.LESS_THAN, 5000);
+        query.project("int", "float");
+        List<Record> records = collect(query.execute());
+        assertEquals(GatherOperator.class, query.getFinalOperator().getClass());
+        assertEquals(5000, records.size());
+        records = sorted(records);
+        for (int i = 0; i < 5000; ++i) {
+            assertEquals(new Record(i, i / 4.0f), records.get(i));
+        }
+
+        query = this.transaction.query("table");
+        query.project("COUNT(*)", "SUM(int)");
+        assertEquals(Collections.singletonList(new Record(NUM_RECORDS, (NUM_RECORDS - 1) * NUM_RECORDS / 2)),
+                collect(query.execute()));
+
+        this.db.setDegreeOfParallelism(1);
+        query = this.transaction.query("table");
+        query.project("COUNT(*)");
+        assertEquals(Collections.singletonList(new Record(NUM_RECORDS)), collect(query.execute()));
+        assertFalse(query.getFinalOperator() instanceof GatherOperator);
+    }
+
+    @Test
+    public void testLimit() {
+        this.db.setDegreeOfParallelism(2);
+        // only the first few records are read: not gathered
+        for (int i = 0; i < 5; ++i) {
+            QueryPlan query = this.transaction.query("table");
+            query.limit(10);
+            assertEquals(10, collect(query.execute()).size());
+            assertEquals(LimitOperator.class, query.getFinalOperator().getClass());
+            assertFalse(query.getFinalOperator().getSource() instanceof GatherOperator);
+        }
+
+        // all records are sorted first: gathered
+        QueryPlan query = this.transaction.query("table");
+        query.project("int");
+        query.sort("int");
+        query.limit(10, 5);
+        List<Record> records = collect(query.execute());
+        assertEquals(TopNOperator.class, query.getFinalOperator().getClass());
+        assertEquals(GatherOperator.class, query.getFinalOperator().getSource().getClass());
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(new Record(i + 5), records.get(i));
+        }
+    }
+
+    @Test
+    public void testDroppedIterators() {
+        this.db.setDegreeOfParallelism(2);
+        // the workers of dropped iterators give their threads back to the
+        // pool instead of waiting to hand over their next batch
+        List<Iterator<Record>> dropped = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            QueryPlan query = this.transaction.query("table");
+            query.project("int");
+            Iterator<Record> records = query.execute();
+            assertEquals(GatherOperator.class, query.getFinalOperator().getClass());
+            assertTrue(records.hasNext());
+            records.next();
+            dropped.add(records);
+        }
+        QueryPlan query = this.transaction.query("table");
+        query.project("COUNT(*)");
+        assertEquals(Collections.singletonList(new Record(NUM_RECORDS)), collect(query.execute()));
+
+        // and are cancelled when the transaction closes
+        this.transaction.close();
+        for (Iterator<Record> records : dropped) {
+            try {
+                while (records.hasNext()) records.next();
+                fail("read all the records of a cancelled query");
+            } catch (DatabaseException e) {
+                // expected
+            }
+        }
+        this.transaction = this.db.beginTransaction();
+        query = this.transaction.query("table");
+        query.project("int");
+        assertEquals(NUM_RECORDS, collect(query.execute()).size());
+    }
+}
@@ -0,0 +1,121 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.table.PageDirectory;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestTopNOperator {
+    private Database db;
+    private Transaction transaction;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void beforeEach() throws Exception {
+        File testDir = tempFolder.newFolder("topNTest");
+        this.db = new Database(testDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(3);
+        this.transaction = this.db.beginTransaction();
+    }
+
+    @After
+    public void afterEach() {
+        this.transaction.close();
+        this.db.close();
+    }
+
+    // Records with int values 0, 0, 1, 1, ... in random order; the float
+    // column records the original position for checking ties
+    private static List<Record> shuffledRecords(int n) {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            records.add(new Record(false, i / 2, "s", 0.0f));
+        }
+        Collections.shuffle(records, new Random(186));
+        for (int i = 0; i < n; i++) {
+            Record r = records.get(i);
+            records.set(i, new Record(false, r.getValue(1).getInt(), "s", (float) i));
+        }
+        return records;
+    }
+
+    private static List<Record> collect(Iterator<Record> records) {
+        List<Record> result = new ArrayList<>();
+        records.forEachRemaining(result::add);
+        return result;
+    }
+
+    @Test
+    public void testTopN() {
+        Schema schema = TestUtils.createSchemaWithAllTypes();
+        List<Record> records = shuffledRecords(1000);
+        // a stable sort, as ties keep the order of the source
+        List<Record> expected = new ArrayList<>(records);
+        expected.sort(Comparator.comparingInt(r -> r.getValue(1).getInt()));
+
+        int[][] limitsAndOffsets = {{10, 0}, {10, 5}, {1, 0}, {0, 3}, {7, 995}, {50, 2000}, {1000, 0}};
+        for (int[] lo : limitsAndOffsets) {
+            int limit = lo[0], offset = lo[1];
+            TopNOperator topN = new TopNOperator(this.transaction.getTransactionContext(),
+                    new TestSourceOperator(records, schema), "int", limit, offset);
+            List<Record> want = expected.subList(Math.min(offset, expected.size()),
+                    Math.min(offset + limit, expected.size()));
+            assertEquals("limit " + limit + " offset " + offset, want, collect(topN.iterator()));
+            // the records are kept in memory for backtracking
+            assertEquals(want, collect(topN.backtrackingIterator()));
+        }
+    }
+
+    @Test
+    public void testQueryPlan() {
+        Schema schema = TestUtils.createSchemaWithAllTypes();
+        // one more record than fits in three pages of memory
+        int tooMany = 3 * Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE, schema) + 1;
+        this.transaction.createTable(schema, "table");
+        for (Record r : shuffledRecords(tooMany + 1)) this.transaction.insert("table", r);
+
+        QueryPlan query = this.transaction.query("table");
+        query.sort("int");
+        query.limit(5, 10);
+        List<Record> records = collect(query.execute());
+        assertTrue(query.getFinalOperator() instanceof TopNOperator);
+        assertEquals(5, records.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals((10 + i) / 2, records.get(i).getValue(1).getInt());
+        }
+
+        // too many records to keep in memory
+        query = this.transaction.query("table");
+        query.sort("int");
+        query.limit(tooMany);
+        records = collect(query.execute());
+        assertTrue(query.getFinalOperator() instanceof LimitOperator);
+        assertEquals(tooMany, records.size());
+        assertEquals((tooMany - 1) / 2, records.get(tooMany - 1).getValue(1).getInt());
+
+        // no sort to replace
+        query = this.transaction.query("table");
+        query.limit(5);
+        assertEquals(5, collect(query.execute()).size());
+        assertTrue(query.getFinalOperator() instanceof LimitOperator);
+    }
+}
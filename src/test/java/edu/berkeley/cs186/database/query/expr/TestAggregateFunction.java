@@ -0,0 +1,101 @@
+package edu.berkeley.cs186.database.query.expr;
+
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@Category({SystemTests.class})
+public class TestAggregateFunction {
+    private static final Schema SCHEMA = new Schema()
+            .add("b", Type.boolType())
+            .add("i", Type.intType())
+            .add("l", Type.longType())
+            .add("f", Type.floatType())
+            .add("s", Type.stringType(5));
+
+    private static final List<String> AGGREGATES = Arrays.asList(
+            "SUM(i)", "SUM(l)", "SUM(f)", "SUM(b)", "COUNT(*)", "AVG(i)", "AVG(f)",
+            "MIN(i)", "MAX(l)", "MIN(f)", "MAX(b)", "MIN(s)", "MAX(s)", "RANGE(i)",
+            "FIRST(s)", "LAST(f)", "VARIANCE(f)", "STDDEV(i)", "SUM(i) * 2 + MAX(f)");
+
+    // Three groups of records, by k % 3
+    private static List<Record> records() {
+        List<Record> records = new ArrayList<>();
+        for (int k = -20; k <= 20; k++) {
+            records.add(new Record(k % 2 == 0, k, (long) k * 1000000007L, k / 3.0f, "s" + (k + 20)));
+        }
+        return records;
+    }
+
+    private static Expression parse(String s) {
+        Expression e = Expression.fromString(s);
+        e.setSchema(SCHEMA);
+        return e;
+    }
+
+    // Aggregating groups in slots of one expression gives the same values as
+    // aggregating each group on its own
+    @Test
+    public void testGroups() {
+        for (String s : AGGREGATES) {
+            Expression grouped = parse(s);
+            for (Record r : records()) {
+                grouped.selectGroup(Math.floorMod(r.getValue(1).getInt(), 3));
+                grouped.update(r);
+            }
+            for (int group = 2; group >= 0; group--) {
+                Expression single = parse(s);
+                for (Record r : records()) {
+                    if (Math.floorMod(r.getValue(1).getInt(), 3) == group) single.update(r);
+                }
+                grouped.selectGroup(group);
+                assertEquals(s + " group " + group, single.evaluate(records().get(0)),
+                        grouped.evaluate(records().get(0)));
+            }
+
+            // reset only clears the selected group
+            grouped.selectGroup(1);
+            grouped.reset();
+            grouped.update(records().get(0));
+            Expression single = parse(s);
+            single.update(records().get(0));
+            assertEquals(s, single.evaluate(records().get(0)), grouped.evaluate(records().get(0)));
+
+            // and resetGroups clears them all
+            grouped.resetGroups();
+            grouped.update(records().get(1));
+            single = parse(s);
+            single.update(records().get(1));
+            assertEquals(s, single.evaluate(records().get(1)), grouped.evaluate(records().get(1)));
+        }
+    }
+
+    @Test
+    public void testBatchesAndMerge() {
+        for (String s : AGGREGATES) {
+            Expression single = parse(s);
+            for (Record r : records()) single.update(r);
+            // batches into the second group of an expression
+            Expression batched = parse(s);
+            batched.selectGroup(1);
+            RecordBatch.fromRecords(records().iterator(), SCHEMA).forEachRemaining(batched::update);
+            assertEquals(s, single.evaluate(records().get(0)), batched.evaluate(records().get(0)));
+
+            if (!single.isMergeable()) continue;
+            Expression merged = parse(s);
+            merged.selectGroup(2);
+            merged.merge(batched);
+            assertEquals(s, single.evaluate(records().get(0)), merged.evaluate(records().get(0)));
+        }
+    }
+}
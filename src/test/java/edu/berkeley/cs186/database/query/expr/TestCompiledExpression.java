@@ -0,0 +1,121 @@
+package edu.berkeley.cs186.database.query.expr;
+
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@Category({SystemTests.class})
+public class TestCompiledExpression {
+    private static final Schema SCHEMA = new Schema()
+            .add("b", Type.boolType())
+            .add("i", Type.intType())
+            .add("l", Type.longType())
+            .add("f", Type.floatType())
+            .add("s", Type.stringType(5));
+
+    private static List<Record> records() {
+        List<Record> records = new ArrayList<>();
+        for (int k = -5; k <= 5; k++) {
+            records.add(new Record(k % 2 == 0, k, (long) k * 1000000007L, k / 3.0f, "s" + (k + 5)));
+        }
+        return records;
+    }
+
+    private static Expression parse(String s) {
+        Expression e = Expression.fromString(s);
+        e.setSchema(SCHEMA);
+        return e;
+    }
+
+    // The compiled expression must evaluate to the same value as the
+    // expression itself on every record
+    private static void check(String s) {
+        Expression e = parse(s);
+        CompiledExpression compiled = e.compile();
+        assertEquals(s, e.getType(), compiled.getType());
+        for (Record r : records()) {
+            assertEquals(s + " on " + r, e.evaluate(r), compiled.evaluate(r));
+        }
+    }
+
+    @Test
+    public void testArithmetic() {
+        check("i + 1");
+        check("i * 2 - l");
+        check("f * (1 - f) * (1 + f)");
+        check("i / 2 + i % 3");
+        check("l / 7 + b");
+        check("-i + -f");
+        check("NEGATE(i) * 2");
+    }
+
+    @Test
+    public void testComparisons() {
+        check("i < 2");
+        check("i <= l");
+        check("f > 0.5");
+        check("f >= i");
+        check("s = 's3'");
+        check("s != 's3'");
+        check("b = true");
+        check("l < 3000 + i");
+    }
+
+    @Test
+    public void testBoolean() {
+        check("i > 0 AND f < 1.0");
+        check("i < 0 OR b");
+        check("NOT (i = 1 OR i = 2) AND NOT b");
+        check("i AND l");
+        // the right side is only evaluated if the left side doesn't decide
+        check("i != 0 AND 10 / i > 2");
+        check("i = 0 OR 10 / i > 2");
+    }
+
+    @Test
+    public void testPrimitive() {
+        Record r = new Record(true, 4, 5L, 0.5f, "x");
+        CompiledExpression e = parse("f * (1 - f) * (1 + f)").compile();
+        assertTrue(e.isPrimitive());
+        assertEquals(0.375f, e.evaluateFloat(r), 0);
+        assertEquals(new FloatDataBox(0.375f), e.evaluate(r));
+
+        e = parse("i * 3 > l").compile();
+        assertEquals(TypeId.BOOL, e.getType().getTypeId());
+        assertTrue(e.evaluateBool(r));
+        assertEquals(1, e.evaluateInt(r));
+
+        assertFalse(parse("UPPER(s)").compile().isPrimitive());
+    }
+
+    @Test
+    public void testConstantFolding() {
+        CompiledExpression e = parse("1 + 2 * 3").compile();
+        assertTrue(e.isConstant());
+        assertEquals(new IntDataBox(7), e.evaluate(null));
+        assertTrue(parse("UPPER('abc') = 'ABC'").compile().isConstant());
+        assertFalse(parse("i + 2 * 3").compile().isConstant());
+        check("i + (2 * 3 - 1) * f");
+
+        // errors in constants are left for evaluation time
+        e = parse("1 / 0").compile();
+        assertFalse(e.isConstant());
+        try {
+            e.evaluate(new Record());
+            fail();
+        } catch (ArithmeticException ex) {
+            // expected
+        }
+    }
+}
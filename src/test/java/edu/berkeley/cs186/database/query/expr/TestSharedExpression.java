@@ -0,0 +1,176 @@
+package edu.berkeley.cs186.database.query.expr;
+
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.ColumnVector;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@Category({SystemTests.class})
+public class TestSharedExpression {
+    private static final Schema SCHEMA = new Schema()
+            .add("b", Type.boolType())
+            .add("i", Type.intType())
+            .add("l", Type.longType())
+            .add("f", Type.floatType())
+            .add("s", Type.stringType(5));
+
+    private static List<Record> records() {
+        List<Record> records = new ArrayList<>();
+        for (int k = -5; k <= 5; k++) {
+            records.add(new Record(k % 2 == 0, k, (long) k * 1000000007L, k / 3.0f, "s" + (k + 5)));
+        }
+        return records;
+    }
+
+    private static List<Expression> parse(String... strings) {
+        List<Expression> expressions = new ArrayList<>();
+        for (String s : strings) {
+            Expression e = Expression.fromString(s);
+            e.setSchema(SCHEMA);
+            expressions.add(e);
+        }
+        return expressions;
+    }
+
+    // The shared occurrences in `e`, outside of other shared expressions
+    private static void findShared(Expression e, List<SharedExpression> shared) {
+        if (e instanceof SharedExpression) {
+            shared.add((SharedExpression) e);
+            return;
+        }
+        for (Expression child : e.children) findShared(child, shared);
+    }
+
+    private static List<SharedExpression> findShared(List<Expression> expressions) {
+        List<SharedExpression> shared = new ArrayList<>();
+        for (Expression e : expressions) findShared(e, shared);
+        return shared;
+    }
+
+    // Shared expressions print and evaluate the same as the expressions they
+    // were made from, a record or a batch at a time
+    private static void check(List<Expression> expected, List<Expression> actual) {
+        assertEquals(expected.toString(), actual.toString());
+        for (int i = 0; i < expected.size(); i++) {
+            Expression e = expected.get(i);
+            Expression a = actual.get(i);
+            assertEquals(e.getType(), a.getType());
+            assertEquals(e.getDependencies(), a.getDependencies());
+            if (e.hasAgg()) {
+                for (Record r : records()) {
+                    e.update(r);
+                    a.update(r);
+                }
+                assertEquals(e.toString(), e.evaluate(records().get(0)), a.evaluate(records().get(0)));
+                a.reset();
+                RecordBatch.fromRecords(records().iterator(), SCHEMA).forEachRemaining(a::update);
+                assertEquals(e.toString(), e.evaluate(records().get(0)), a.evaluate(records().get(0)));
+                a.reset();
+                continue;
+            }
+            CompiledExpression compiled = a.compile();
+            for (Record r : records()) {
+                assertEquals(e + " on " + r, e.evaluate(r), a.evaluate(r));
+                assertEquals(e + " on " + r, e.evaluate(r), compiled.evaluate(r));
+            }
+            RecordBatch batch = RecordBatch.fromRecords(records().iterator(), SCHEMA).next();
+            ColumnVector values = a.evaluate(batch);
+            for (int row = 0; row < batch.getNumRows(); row++) {
+                assertEquals(e.toString(), e.evaluate(batch.getRecord(row)), values.get(row));
+            }
+        }
+    }
+
+    @Test
+    public void testShareSubexpressions() {
+        String[] columns = {"SUM(f * (1 - f))", "SUM(f * (1 - f) * (1 + f))", "AVG(f * (1 - f) * (1 + f))",
+                "(f * (1 - f) + i) * 2", "i", "i + 1"};
+        List<Expression> shared = Expression.shareSubexpressions(parse(columns));
+        check(parse(columns), shared);
+
+        // `f * (1 - f) * (1 + f)` is shared by the second and third
+        // expressions, and its first two children, `f * (1 - f)`, by it and
+        // the first and fourth expressions; single columns and constants are
+        // not shared
+        List<SharedExpression> occurrences = findShared(shared);
+        List<String> strings = new ArrayList<>();
+        for (SharedExpression occurrence : occurrences) strings.add(occurrence.toString());
+        assertEquals(Arrays.asList("f * (1 - f)", "f * (1 - f) * (1 + f)", "f * (1 - f) * (1 + f)",
+                "f * (1 - f)"), strings);
+        Expression prefix = occurrences.get(1).children.get(0).children.get(0);
+        assertTrue(prefix instanceof SharedExpression);
+
+        // every occurrence evaluates to the same values, computed once
+        SharedExpression first = occurrences.get(0);
+        RecordBatch batch = RecordBatch.fromRecords(records().iterator(), SCHEMA).next();
+        assertSame(first.evaluate(batch), occurrences.get(3).evaluate(batch));
+        assertSame(first.evaluate(batch), prefix.evaluate(batch));
+        assertSame(first.compiled(), ((SharedExpression) prefix).compiled());
+        assertSame(occurrences.get(1).compiled(), occurrences.get(2).compiled());
+
+        // sharing the shared expressions again changes nothing
+        List<Expression> again = Expression.shareSubexpressions(shared);
+        assertEquals(shared, again);
+        assertEquals(4, findShared(again).size());
+        check(parse(columns), again);
+    }
+
+    @Test
+    public void testNotShared() {
+        // aggregates keep state of their own, so they aren't shared
+        List<Expression> expressions = Expression.shareSubexpressions(parse("SUM(i)", "SUM(i) * 2", "i", "i"));
+        assertTrue(findShared(expressions).isEmpty());
+        check(parse("SUM(i)", "SUM(i) * 2", "i", "i"), expressions);
+
+        // nor prefixes that are computed in a different type on their own
+        expressions = Expression.shareSubexpressions(parse("i / 2 * f", "i / 2"));
+        assertTrue(findShared(expressions).isEmpty());
+        check(parse("i / 2 * f", "i / 2"), expressions);
+
+        // nor expressions that only print the same
+        expressions = Expression.shareSubexpressions(parse("LOWER(s) = 's3'", "LOWER(s) = s"));
+        assertEquals(2, findShared(expressions).size());
+        assertEquals("LOWER(s)", findShared(expressions).get(1).toString());
+        check(parse("LOWER(s) = 's3'", "LOWER(s) = s"), expressions);
+
+        // whole expressions are
+        expressions = Expression.shareSubexpressions(parse("UPPER(s)", "UPPER(s) = 'S3'", "-(l + i)", "-(l + i)"));
+        assertEquals(4, findShared(expressions).size());
+        check(parse("UPPER(s)", "UPPER(s) = 'S3'", "-(l + i)", "-(l + i)"), expressions);
+    }
+
+    private static List<String> evaluationOrder(String s) {
+        Expression e = parse(s).get(0);
+        List<String> order = new ArrayList<>();
+        for (Expression child : ((Expression.ConnectiveExpression) e).evaluationOrder()) {
+            order.add(child.toString());
+        }
+        check(parse(s), Arrays.asList(e));
+        return order;
+    }
+
+    @Test
+    public void testEvaluationOrder() {
+        // equalities are more likely to decide an AND, ranges an OR
+        assertEquals(Arrays.asList("i = 1", "f > 0.5"), evaluationOrder("f > 0.5 AND i = 1"));
+        assertEquals(Arrays.asList("f > 0.5", "i = 1"), evaluationOrder("i = 1 OR f > 0.5"));
+        // cheaper children go first, functions last
+        assertEquals(Arrays.asList("b", "l + i * 2 < f", "UPPER(s) = S3"),
+                evaluationOrder("l + i * 2 < f OR b OR UPPER(s) = 'S3'"));
+        assertEquals(Arrays.asList("false", "i < 1", "NOT b"), evaluationOrder("NOT b AND i < 1 AND false"));
+        // children that may fail stay behind those before them
+        assertEquals(Arrays.asList("i != 0", "10 / i > 2", "i = 3"), evaluationOrder("i != 0 AND 10 / i > 2 AND i = 3"));
+        assertEquals(Arrays.asList("b", "i = 0", "10 % i > 2", "f < 1.0"),
+                evaluationOrder("i = 0 OR b OR 10 % i > 2 OR f < 1.0"));
+    }
+}
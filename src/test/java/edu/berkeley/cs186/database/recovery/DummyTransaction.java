@@ -7,6 +7,7 @@ import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
 import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.table.PageFormat;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
@@ -15,6 +16,7 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
@@ -83,6 +85,12 @@ class DummyTransaction extends Transaction {
     @Override
     public void createTable(Schema s, String tableName) {}
 
+    @Override
+    public void createTable(Schema s, String tableName, PageFormat format) {}
+
+    @Override
+    public void createTable(Schema s, String tableName, PageFormat format, List<String> dictionaryColumns) {}
+
     @Override
     public void dropTable(String tableName) {}
 
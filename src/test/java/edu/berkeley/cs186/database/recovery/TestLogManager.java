@@ -1,42 +1,46 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.categories.SystemTests;
-import edu.berkeley.cs186.database.concurrency.DummyLockContext;
-import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.common.ByteBuffer;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
-import edu.berkeley.cs186.database.memory.BufferManager;
-import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
-import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @Category(SystemTests.class)
 public class TestLogManager {
     private LogManager logManager;
-    private BufferManager bufferManager;
+    private DiskSpaceManager diskSpaceManager;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
 
     @Before
     public void setup() {
-        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager = new MemoryDiskSpaceManager();
         diskSpaceManager.allocPart(0);
-        this.bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 1024,
-                new ClockEvictionPolicy());
-        logManager = new LogManager(bufferManager);
+        logManager = new LogManager(diskSpaceManager);
     }
 
     @After
     public void cleanup() {
         logManager.close();
-        bufferManager.close();
     }
 
     @Test
@@ -112,22 +116,177 @@ public class TestLogManager {
         for (int i = 0; i < (DiskSpaceManager.PAGE_SIZE / 9) * 7; ++i) {
             logManager.appendToLog(new MasterLogRecord(i));
         }
-        Page p = bufferManager.fetchPage(new DummyLockContext((LockContext) null), 4L);
-        p.unpin();
-        p.flush();
-        long prevIO = bufferManager.getNumIOs();
+        // pages 0-2 are written out together
+        long prevIO = logManager.getNumIOs();
         logManager.flushToLSN(20001);
-        long postIO = bufferManager.getNumIOs();
-        assertEquals(3, postIO - prevIO);
+        long postIO = logManager.getNumIOs();
+        assertEquals(1, postIO - prevIO);
+        assertEquals(29999, logManager.getFlushedLSN());
+        assertTrue(diskSpaceManager.pageAllocated(2L));
+        assertFalse(diskSpaceManager.pageAllocated(3L));
 
-        prevIO = bufferManager.getNumIOs();
+        prevIO = logManager.getNumIOs();
         logManager.flushToLSN(50001);
-        postIO = bufferManager.getNumIOs();
-        assertEquals(2, postIO - prevIO);
+        postIO = logManager.getNumIOs();
+        assertEquals(1, postIO - prevIO);
+        assertEquals(59999, logManager.getFlushedLSN());
 
-        prevIO = bufferManager.getNumIOs();
+        prevIO = logManager.getNumIOs();
         logManager.flushToLSN(50055);
-        postIO = bufferManager.getNumIOs();
+        postIO = logManager.getNumIOs();
         assertEquals(0, postIO - prevIO);
     }
+
+    @Test
+    public void testFlushTailPage() {
+        // flushing the tail page ends it
+        long LSN1 = logManager.appendToLog(new MasterLogRecord(1));
+        logManager.flushToLSN(LSN1);
+        long LSN2 = logManager.appendToLog(new MasterLogRecord(2));
+        assertEquals(0, LSN1);
+        assertEquals(10000, LSN2);
+        assertEquals(9999, logManager.getFlushedLSN());
+
+        byte[] contents = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(0L, contents);
+        assertEquals(new MasterLogRecord(1), LogRecord.fromBytes(ByteBuffer.wrap(contents)).orElse(null));
+    }
+
+    @Test
+    public void testFullBuffer() {
+        // with a log buffer of 2 pages, appending to page 2 writes out pages 0 and 1
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        LogManager logManager = new LogManager(diskSpaceManager, 2);
+        try {
+            int numRecords = 0;
+            long LSN = 0;
+            while (LSN < 20000) {
+                LSN = logManager.appendToLog(new MasterLogRecord(numRecords++));
+            }
+            assertEquals(19999, logManager.getFlushedLSN());
+            assertEquals(new MasterLogRecord(0), logManager.fetchLogRecord(0));
+
+            Iterator<LogRecord> iter = logManager.iterator();
+            for (int i = 0; i < numRecords; ++i) {
+                assertEquals(new MasterLogRecord(i), iter.next());
+            }
+            assertFalse(iter.hasNext());
+        } finally {
+            logManager.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentAppends() throws InterruptedException {
+        // 4 threads append 5000 records each without losing any
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            int t = i;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 5000; ++j) {
+                    long LSN = logManager.appendToLog(new MasterLogRecord(t * 5000 + j));
+                    if (j % 1000 == 0) {
+                        logManager.flushToLSN(LSN);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        boolean[] seen = new boolean[20000];
+        for (LogRecord record : logManager) {
+            seen[(int) ((MasterLogRecord) record).lastCheckpointLSN] = true;
+        }
+        for (int i = 0; i < seen.length; ++i) {
+            assertTrue(seen[i]);
+        }
+    }
+
+    @Test
+    public void testTruncate() {
+        List<Long> LSNs = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            LSNs.add(logManager.appendToLog(new MasterLogRecord(i)));
+        }
+        logManager.flushToLSN(LSNs.get(4999));
+        // pages 1 and 2 are removed, page 0 has the master record
+        long keepLSN = LSNs.get(4000);
+        assertEquals(3, LogManager.getLSNPage(keepLSN));
+        logManager.rewriteMasterRecord(new MasterLogRecord(keepLSN));
+        assertEquals(2, logManager.truncate(keepLSN));
+        assertEquals(0, logManager.truncate(keepLSN));
+        assertTrue(diskSpaceManager.pageAllocated(0L));
+        assertFalse(diskSpaceManager.pageAllocated(1L));
+        assertFalse(diskSpaceManager.pageAllocated(2L));
+        assertTrue(diskSpaceManager.pageAllocated(3L));
+        assertEquals(30000, logManager.getFirstLSN());
+
+        assertEquals(new MasterLogRecord(4000), logManager.fetchLogRecord(keepLSN));
+        // scans skip the removed pages
+        int first = LSNs.indexOf(30000L);
+        Iterator<LogRecord> iter = logManager.iterator();
+        assertEquals(new MasterLogRecord(keepLSN), iter.next());
+        for (int i = 1; i < LSNs.indexOf(10000L); ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertEquals(new MasterLogRecord(first), iter.next());
+        assertEquals(new MasterLogRecord(first), logManager.scanFrom(LSNs.get(2000)).next());
+
+        // the log picks up after its last page when reopened
+        logManager.close();
+        logManager = new LogManager(diskSpaceManager);
+        assertEquals(30000, logManager.getFirstLSN());
+        long LSN = logManager.appendToLog(new MasterLogRecord(5000));
+        assertEquals(LogManager.getLSNPage(LSNs.get(4999)) + 1, LogManager.getLSNPage(LSN));
+        assertEquals(new MasterLogRecord(4999), logManager.fetchLogRecord(LSNs.get(4999)));
+    }
+
+    @Test
+    public void testTruncateArchive() throws IOException {
+        File archive = new File(tempFolder.getRoot(), "archive");
+        logManager.setArchiveDirectory(archive.getPath());
+        List<Long> LSNs = new ArrayList<>();
+        for (int i = 0; i < 3000; ++i) {
+            LSNs.add(logManager.appendToLog(new MasterLogRecord(i)));
+        }
+        logManager.flushToLSN(LSNs.get(2999));
+        logManager.rewriteMasterRecord(new MasterLogRecord(20000));
+        assertEquals(1, logManager.truncate(20000));
+
+        byte[] contents = Files.readAllBytes(new File(archive, "0000000001-0000000001.log").toPath());
+        assertEquals(DiskSpaceManager.PAGE_SIZE, contents.length);
+        int first = LSNs.indexOf(10000L);
+        assertEquals(new MasterLogRecord(first), LogRecord.fromBytes(ByteBuffer.wrap(contents)).orElse(null));
+    }
+
+    @Test
+    public void testGroupCommit() throws InterruptedException {
+        // the flusher waits for all 4 commits, and flushes them together
+        logManager.setGroupCommit(10000, 4);
+        List<Thread> threads = new ArrayList<>();
+        long[] LSNs = new long[4];
+        for (int i = 0; i < LSNs.length; ++i) {
+            int t = i;
+            threads.add(new Thread(() -> {
+                LSNs[t] = logManager.appendToLog(new MasterLogRecord(t));
+                logManager.awaitFlush(LSNs[t]);
+            }));
+        }
+        long prevIO = logManager.getNumIOs();
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        long postIO = logManager.getNumIOs();
+
+        for (long LSN : LSNs) {
+            assertTrue(logManager.getFlushedLSN() >= LSN);
+        }
+        assertEquals(1, postIO - prevIO);
+
+        // a commit that was already flushed returns right away
+        prevIO = logManager.getNumIOs();
+        logManager.awaitFlush(LSNs[0]);
+        assertEquals(prevIO, logManager.getNumIOs());
+    }
 }
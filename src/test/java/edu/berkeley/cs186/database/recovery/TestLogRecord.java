@@ -13,6 +13,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @Category(SystemTests.class)
 public class TestLogRecord {
@@ -86,6 +87,25 @@ public class TestLogRecord {
                                                "zxcvb".getBytes()));
     }
 
+    @Test
+    public void testUpdatePageDeltaSerialize() {
+        // a write of a few bytes within a mostly unchanged range
+        byte[] before = new byte[BufferManager.EFFECTIVE_PAGE_SIZE / 2];
+        byte[] after = before.clone();
+        System.arraycopy("zxcvb".getBytes(), 0, after, 1000, 5);
+        UpdatePageLogRecord record = new UpdatePageLogRecord(-98765L, -43210L, -12345L, (short) 0, before,
+                after);
+        checkSerialize(record);
+        assertTrue(record.toBytes().length < 100);
+
+        // the images of freeing a page
+        for (int i = 0; i < before.length; ++i) {
+            before[i] = (byte) (i % 251);
+        }
+        checkSerialize(new UpdatePageLogRecord(-98765L, -43210L, -12345L, (short) 0, before,
+                new byte[before.length]));
+    }
+
     @Test
     public void testUndoUpdatePageSerialize() {
         byte[] pageString = new String(new char[BufferManager.EFFECTIVE_PAGE_SIZE]).replace('\0',
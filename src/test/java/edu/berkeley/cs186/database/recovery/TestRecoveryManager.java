@@ -6,10 +6,12 @@ import edu.berkeley.cs186.database.categories.HiddenTests;
 import edu.berkeley.cs186.database.categories.Proj5Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.*;
 import org.junit.After;
 import org.junit.Before;
@@ -22,7 +24,9 @@ import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import static junit.framework.TestCase.assertTrue;
@@ -494,20 +498,23 @@ public class TestRecoveryManager {
 
     /**
      * Tests that end checkpoints are appended when as full as possible:
-     *  - DPT is filled with 200 entries, and the transaction table is filled
-     *    with 200 entries. Afterwards, a checkpoint is created.
+     *  - DPT is filled with 200 entries per 4KB of page size, and the
+     *    transaction table is filled with as many. Afterwards, a checkpoint
+     *    is created.
      *    Checks:
      *      - First end checkpoint contains all of the DPT entries and as many
      *        possible transaction table entries that can fit in the remaining
-     *        space (in this case, 52)
+     *        space (with 4KB pages, 52)
      *      - Second end checkpoint contains the remaining transaction table
-     *        entries (in this case, 200 - 52 = 148)
+     *        entries (with 4KB pages, 200 - 52 = 148)
      */
     @Test
     @Category(PublicTests.class)
     public void testFullCheckpoint() {
-        // Create 200 DPT entries and 200 transaction table entries
-        for (long l = 1; l <= 200; l++) {
+        // Create n DPT entries and n transaction table entries, so that the
+        // DPT takes up most of an end checkpoint record
+        int n = 200 * DiskSpaceManager.PAGE_SIZE / 4096;
+        for (long l = 1; l <= n; l++) {
             dirtyPageTable.put(l, l*l);
 
             Transaction t = DummyTransaction.create(l);
@@ -533,24 +540,28 @@ public class TestRecoveryManager {
         assertEquals(LogType.END_CHECKPOINT, endCheckpoint2.getType());
         assertFalse(logs.hasNext());
 
-        // Sanity check: If we have 200 DPT entries and 52 transaction table
-        // entries, there is no extra space for more transaction table entries.
-        assertTrue(EndCheckpointLogRecord.fitsInOneRecord(200, 52));
-        assertFalse(EndCheckpointLogRecord.fitsInOneRecord(200, 53));
+        // The number of transaction table entries that fit in a record with
+        // all n DPT entries (52 with 4KB pages, 210 with 16KB pages)
+        int numFirst = 0;
+        while (EndCheckpointLogRecord.fitsInOneRecord(n, numFirst + 1)) numFirst++;
+        // Sanity check: the DPT fits in one record, but not along with the
+        // whole transaction table
+        assertTrue(EndCheckpointLogRecord.fitsInOneRecord(n, 0));
+        assertTrue(numFirst < n);
 
-        // First end checkpoint should have all the DPT entries, and 52
+        // First end checkpoint should have all the DPT entries, and numFirst
         // transaction table entries
-        assertEquals(200, endCheckpoint1.getDirtyPageTable().size());
-        assertEquals(52, endCheckpoint1.getTransactionTable().size());
+        assertEquals(n, endCheckpoint1.getDirtyPageTable().size());
+        assertEquals(numFirst, endCheckpoint1.getTransactionTable().size());
 
         // Second end checkpoint should have no DPT entries, and the remaining
         // transaction table entries.
         assertEquals(0, endCheckpoint2.getDirtyPageTable().size());
-        assertEquals(148, endCheckpoint2.getTransactionTable().size());
+        assertEquals(n - numFirst, endCheckpoint2.getTransactionTable().size());
 
         // Check the contents of the checkpoint DPT/transaction tables match
         // what we inserted earlier
-        for (long l = 1; l <= 200; l++) {
+        for (long l = 1; l <= n; l++) {
             assertEquals(l*l, (long) endCheckpoint1.getDirtyPageTable().get(l));
             Pair<Transaction.Status, Long> p;
             if (endCheckpoint1.getTransactionTable().containsKey(l)) {
@@ -640,14 +651,14 @@ public class TestRecoveryManager {
         Map<Long, Long> expectedDPT = new HashMap<>(dirtyPageTable);
         Map<Long, TransactionTableEntry> expectedTxnTable = new HashMap<>(transactionTable);
 
-        long initNumIOs = bufferManager.getNumIOs();
+        long initNumIOs = bufferManager.getNumIOs() + logManager.getNumIOs();
         setupRedoChecks(); // Intentionally empty, no CLRs should be created
         recoveryManager.rollbackToSavepoint(t2.getTransNum(), "savepoint");
         finishRedoChecks();
-        long finalNumIOs = bufferManager.getNumIOs();
+        long finalNumIOs = bufferManager.getNumIOs() + logManager.getNumIOs();
 
-        // read CLR (1 I/O)
-        assertEquals(1L, finalNumIOs - initNumIOs);
+        // read CLR (no I/O: it is still in the log buffer)
+        assertEquals(0L, finalNumIOs - initNumIOs);
 
         // 2. T2 rolls back to savepoint.
         Iterator<LogRecord> logs = logManager.scanFrom(60000L);
@@ -1464,6 +1475,217 @@ public class TestRecoveryManager {
 
     // Helpers /////////////////////////////////////////////////////////////////
 
+    /**
+     * Tests that redo applies page updates correctly when they are spread
+     * across several redo threads:
+     * 1. T1 writes the number of each of 300 updates to 10 pages, and only
+     *    the first 100 updates reach disk before the crash
+     * 2. Restart analysis and redo are run with 4 redo threads
+     * Checks:
+     *  - Exactly the 200 lost updates are redone
+     *  - Every page ends up with the result of every update
+     */
+    @Test
+    public void testParallelRedo() {
+        byte[] before = new byte[4];
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+
+        // 1. update i writes i at offset 4 * (i / 10) of page i % 10
+        List<Long> LSNs = new ArrayList<>();
+        for (int i = 0; i < 300; ++i) {
+            byte[] after = ByteBuffer.allocate(4).putInt(i).array();
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, i % 10);
+            LSNs.add(recoveryManager.logPageWrite(1L, pageNum, (short) (4 * (i / 10)), before, after));
+        }
+        for (int i = 0; i < 100; ++i) {
+            logManager.fetchLogRecord(LSNs.get(i)).redo(recoveryManager, diskSpaceManager, bufferManager);
+        }
+        shutdownRecoveryManager(recoveryManager);
+
+        // 2. load from disk again, and recover
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.setRedoThreads(4);
+        AtomicInteger numRedone = new AtomicInteger();
+        LogRecord.onRedoHandler(record -> numRedone.incrementAndGet());
+        recoveryManager.restartAnalysis();
+        recoveryManager.restartRedo();
+        LogRecord.onRedoHandler(record -> {});
+
+        assertEquals(200, numRedone.get());
+        for (int p = 0; p < 10; ++p) {
+            Page page = bufferManager.fetchPage(new DummyLockContext(), DiskSpaceManager.getVirtualPageNum(1, p));
+            try {
+                for (int i = p; i < 300; i += 10) {
+                    assertEquals(i, page.getBuffer().getInt(4 * (i / 10)));
+                }
+                assertEquals((long) LSNs.get(290 + p), page.getPageLSN());
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
+    /**
+     * Tests background checkpoints:
+     * 1. Background checkpoints are taken after every byte of log, and T1
+     *    dirties page 10000000000
+     * 2. T1 dirties page 10000000001 after the next checkpoint
+     * Checks:
+     *  - A checkpoint is taken after each write
+     *  - Page 10000000000, dirty since before the first of the checkpoints,
+     *    is written out before the second, which removes it from the DPT
+     */
+    @Test
+    public void testBackgroundCheckpoint() throws InterruptedException {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+        long pageNum0 = DiskSpaceManager.getVirtualPageNum(1, 0);
+        long pageNum1 = DiskSpaceManager.getVirtualPageNum(1, 1);
+
+        // 1
+        recoveryManager.setCheckpointVolume(1);
+        recoveryManager.restart();
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        long LSN1 = recoveryManager.logPageWrite(1L, pageNum0, (short) 0, before, after);
+        logManager.fetchLogRecord(LSN1).redo(recoveryManager, diskSpaceManager, bufferManager);
+        while (getCheckpointLSN() < LSN1) {
+            Thread.sleep(10);
+        }
+        long checkpointLSN = getCheckpointLSN();
+
+        // 2
+        long LSN2 = recoveryManager.logPageWrite(1L, pageNum1, (short) 0, before, after);
+        logManager.fetchLogRecord(LSN2).redo(recoveryManager, diskSpaceManager, bufferManager);
+        while (getCheckpointLSN() < LSN2) {
+            Thread.sleep(10);
+        }
+        assertTrue(getCheckpointLSN() > checkpointLSN);
+        assertFalse(dirtyPageTable.containsKey(pageNum0));
+        assertEquals(LSN2, transactionTable.get(1L).lastLSN);
+    }
+
+    /**
+     * Tests that checkpoints remove the log restart recovery no longer needs:
+     * 1. T1 writes a few pages of log and commits, and its page is written out
+     * 2. T2 starts and dirties page 10000000000, and a checkpoint is taken
+     * 3. The database crashes and restarts
+     * Checks:
+     *  - The log up to T1's commit record is removed, T2's log is not
+     *  - Restart undoes T2 from the log that is left
+     */
+    @Test
+    public void testCheckpointTruncatesLog() {
+        Random random = new Random(186);
+        long pageNum = DiskSpaceManager.getVirtualPageNum(1, 0);
+        recoveryManager.setCheckpointVolume(0);
+        recoveryManager.restart();
+
+        // 1
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        for (int i = 0; i < 20; ++i) {
+            byte[] before = new byte[1000];
+            byte[] after = new byte[1000];
+            random.nextBytes(before);
+            random.nextBytes(after);
+            recoveryManager.logPageWrite(1L, pageNum, (short) 0, before, after);
+        }
+        long commitLSN = recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+        recoveryManager.diskIOHook(pageNum);
+
+        // 2
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+        Transaction transaction2 = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(transaction2);
+        long LSN = recoveryManager.logPageWrite(2L, pageNum, (short) 0, before, after);
+        logManager.fetchLogRecord(LSN).redo(recoveryManager, diskSpaceManager, bufferManager);
+        recoveryManager.checkpoint();
+
+        assertTrue(LogManager.getLSNPage(commitLSN) > 0);
+        assertTrue(logManager.getFirstLSN() > commitLSN);
+        assertFalse(diskSpaceManager.pageAllocated(LogManager.getLSNPage(commitLSN)));
+        assertNotNull(logManager.fetchLogRecord(LSN));
+
+        // 3
+        bufferManager.evictAll();
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.restart();
+
+        assertFalse(transactionTable.containsKey(2L));
+        Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+        try {
+            assertEquals(0, page.getBuffer().getInt(0));
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Tests checkpoints taken while a transaction is writing: T1 dirties a new
+     * page with each write on another thread, while checkpoints are taken on
+     * this one.
+     * Checks:
+     *  - Every page T1 wrote before the begin record of a checkpoint is in the
+     *    DPT of the checkpoint
+     *  - T1's lastLSN in the checkpoint is at least the LSN of its last write
+     *    before the begin record
+     */
+    @Test
+    public void testCheckpointDuringWrites() throws InterruptedException {
+        recoveryManager.setCheckpointVolume(0);
+        recoveryManager.restart();
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 1000; ++i) {
+                recoveryManager.logPageWrite(1L, DiskSpaceManager.getVirtualPageNum(1, i), (short) 0, before, after);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) recoveryManager.checkpoint();
+        writer.join();
+
+        Set<Long> written = new HashSet<>();
+        long lastLSN = -1;
+        Set<Long> expectedPages = null;
+        long expectedLSN = -1;
+        Map<Long, Long> checkpointDPT = new HashMap<>();
+        long checkpointLSN = -1;
+        Iterator<LogRecord> iter = logManager.iterator();
+        while (true) {
+            LogRecord record = iter.hasNext() ? iter.next() : null;
+            if (record == null || record.getType() == LogType.BEGIN_CHECKPOINT) {
+                if (expectedPages != null) {
+                    assertTrue(checkpointDPT.keySet().containsAll(expectedPages));
+                    assertTrue(checkpointLSN >= expectedLSN);
+                }
+                if (record == null) break;
+                expectedPages = new HashSet<>(written);
+                expectedLSN = lastLSN;
+                checkpointDPT.clear();
+                checkpointLSN = -1;
+            } else if (record.getType() == LogType.END_CHECKPOINT) {
+                checkpointDPT.putAll(record.getDirtyPageTable());
+                Pair<Transaction.Status, Long> entry = record.getTransactionTable().get(1L);
+                if (entry != null) checkpointLSN = Math.max(checkpointLSN, entry.getSecond());
+            } else if (record.getType() == LogType.UPDATE_PAGE) {
+                written.add(record.getPageNum().get());
+                lastLSN = record.getLSN();
+            }
+        }
+    }
+
+    private long getCheckpointLSN() {
+        return ((MasterLogRecord) logManager.fetchLogRecord(0L)).lastCheckpointLSN;
+    }
+
     /**
      * Helper to set up checks for redo. The first call to LogRecord.redo will call
      * the first method in METHODS, the second call to the second method in METHODS,
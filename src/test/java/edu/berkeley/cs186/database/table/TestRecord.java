@@ -77,4 +77,38 @@ public class TestRecord {
         assertNotEquals(d, e);
         assertNotEquals(e, d);
     }
+
+    @Test
+    public void testLazyValues() {
+        Schema s = new Schema()
+            .add("w", Type.boolType())
+            .add("x", Type.intType())
+            .add("y", Type.floatType())
+            .add("z", Type.stringType(3));
+        Record eager = new Record(false, 0, 0f, "foo");
+        int[] offsets = {0, 1, 5, 9};
+        Record lazy = new Record(new LazyRecordValues(eager.toBytes(s), s, offsets, null));
+
+        assertEquals(eager.getValue(3), lazy.getValue(3));
+        assertEquals(eager, lazy);
+        assertEquals(lazy, eager);
+        assertEquals(eager.hashCode(), lazy.hashCode());
+        assertEquals(eager.getValues(), lazy.getValues());
+        assertEquals(eager.toString(), lazy.toString());
+    }
+
+    @Test
+    public void testConcat() {
+        Schema s = new Schema().add("x", Type.intType()).add("y", Type.stringType(3));
+        Record a = new Record(1, "foo");
+        Record b = new Record(new LazyRecordValues(new Record(2, "bar").toBytes(s), s, new int[] {0, 4}, null));
+        Record ab = a.concat(b);
+        Record expected = new Record(1, "foo", 2, "bar");
+
+        assertEquals(4, ab.size());
+        assertEquals(expected, ab);
+        assertEquals(ab, expected);
+        assertEquals(expected.hashCode(), ab.hashCode());
+        assertEquals(new Record(1, "foo", 2, "bar", 1, "foo"), ab.concat(a));
+    }
 }
@@ -4,14 +4,22 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.databox.EncodedStringDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.StringDictionary;
+import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -20,6 +28,7 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
@@ -457,4 +466,239 @@ public class TestTable {
         checkSequentialRecords(1, numRecords, 2, iter);
         assertFalse(iter.hasNext());
     }
+
+    private Table createSlottedTable(Schema schema) {
+        return new Table("slotted", schema, pageDirectory, new DummyLockContext(),
+                         new HashMap<>(), PageFormat.SLOTTED);
+    }
+
+    private static Schema createSchemaWithLongString() {
+        return new Schema().add("id", Type.intType()).add("comment", Type.stringType(199));
+    }
+
+    /**
+     * Short strings in a wide string column should only take up the space
+     * they need in a slotted table.
+     */
+    @Test
+    public void testSlottedFitsMoreRecordsPerPage() {
+        Schema schema = createSchemaWithLongString();
+        Table slotted = createSlottedTable(schema);
+        int fixedRecordsPerPage = Table.computeNumRecordsPerPage(pageDirectory.getEffectivePageSize(), schema);
+
+        int numRecords = fixedRecordsPerPage * 3;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(slotted.addRecord(new Record(i, "short " + i)));
+        }
+        assertTrue(slotted.getNumDataPages() < 3);
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(new Record(i, "short " + i), slotted.getRecord(rids.get(i)));
+        }
+    }
+
+    @Test
+    public void testSlottedDeleteAndIterate() {
+        Table slotted = createSlottedTable(schema);
+        int numRecords = 1000;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(slotted.addRecord(createRecordWithAllTypes(i)));
+        }
+        for (int i = 0; i < numRecords; i += 2) {
+            assertEquals(createRecordWithAllTypes(i), slotted.deleteRecord(rids.get(i)));
+        }
+
+        BacktrackingIterator<Record> iter = slotted.iterator();
+        checkSequentialRecords(1, numRecords, 2, iter);
+        assertFalse(iter.hasNext());
+
+        try {
+            slotted.getRecord(rids.get(0));
+            fail();
+        } catch (DatabaseException e) { /* do nothing */ }
+    }
+
+    /**
+     * Growing records past the free space of their page moves them to another
+     * page, but their record ids must stay valid and scans must return each
+     * record exactly once.
+     */
+    @Test
+    public void testSlottedUpdateMovesRecords() {
+        Schema schema = createSchemaWithLongString();
+        Table slotted = createSlottedTable(schema);
+        String longString = new String(new char[199]).replace('\0', 'x');
+
+        int numRecords = 1000;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(slotted.addRecord(new Record(i, "a")));
+        }
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(new Record(i, "a"), slotted.updateRecord(rids.get(i), new Record(i, longString)));
+        }
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(new Record(i, longString), slotted.getRecord(rids.get(i)));
+        }
+
+        int count = 0;
+        for (Record r : (Iterable<Record>) slotted::iterator) {
+            assertEquals(longString, r.getValue(1).getString());
+            count++;
+        }
+        assertEquals(numRecords, count);
+
+        // shrink them again, then delete them through their original ids
+        for (int i = 0; i < numRecords; ++i) {
+            slotted.updateRecord(rids.get(i), new Record(i, "y"));
+            assertEquals(new Record(i, "y"), slotted.deleteRecord(rids.get(i)));
+        }
+        assertFalse(slotted.iterator().hasNext());
+    }
+
+    @Test
+    public void testVariableLengthRecordRoundTrip() {
+        Schema schema = TestUtils.createSchemaWithAllTypes().add("comment", Type.stringType(50));
+        Record r = new Record(true, 7, "a", 1.5f, "hello");
+        byte[] bytes = r.toVariableLengthBytes(schema);
+        assertTrue(bytes.length < schema.getSizeInBytes());
+        assertEquals(r, Record.fromVariableLengthBytes(ByteBuffer.wrap(bytes), schema));
+    }
+
+    @Test
+    public void testPaxInsertUpdateDelete() {
+        Table pax = new Table("pax", schema, pageDirectory, new DummyLockContext(),
+                              new HashMap<>(), PageFormat.PAX);
+        assertEquals(table.getNumRecordsPerPage(), pax.getNumRecordsPerPage());
+
+        int numRecords = pax.getNumRecordsPerPage() * 2 + 42;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(pax.addRecord(createRecordWithAllTypes(i)));
+        }
+        for (int i = 0; i < numRecords; i += 2) {
+            Record updated = createRecordWithAllTypes(-i);
+            assertEquals(createRecordWithAllTypes(i), pax.updateRecord(rids.get(i), updated));
+            assertEquals(updated, pax.getRecord(rids.get(i)));
+        }
+        for (int i = 1; i < numRecords; i += 2) {
+            assertEquals(createRecordWithAllTypes(i), pax.deleteRecord(rids.get(i)));
+        }
+
+        BacktrackingIterator<Record> iter = pax.iterator();
+        for (int i = 0; i < numRecords; i += 2) {
+            assertTrue(iter.hasNext());
+            assertEquals(createRecordWithAllTypes(-i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    /**
+     * A scan over a subset of the columns should return only those columns,
+     * in the requested order, for every page format.
+     */
+    @Test
+    public void testProjectedIterator() {
+        for (PageFormat format : PageFormat.values()) {
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), 1);
+            PageDirectory pd;
+            try {
+                pd = new PageDirectory(bufferManager, 1, page.getPageNum(), (short) 0, new DummyLockContext());
+            } finally {
+                page.unpin();
+            }
+            Table t = new Table("projected" + format, schema, pd, new DummyLockContext(),
+                                new HashMap<>(), format);
+            int numRecords = table.getNumRecordsPerPage() + 42;
+            List<RecordId> rids = new ArrayList<>();
+            for (int i = 0; i < numRecords; ++i) {
+                rids.add(t.addRecord(createRecordWithAllTypes(i)));
+            }
+
+            BacktrackingIterator<Record> iter = t.iterator(new int[] {3, 1});
+            for (int i = 0; i < numRecords; ++i) {
+                assertTrue(iter.hasNext());
+                assertEquals(new Record(1.2f, i), iter.next());
+            }
+            assertFalse(iter.hasNext());
+            assertEquals(new Record(false), t.getRecord(rids.get(5), new int[] {0}));
+        }
+    }
+
+    private static int countRecords(Iterator<Record> iter) {
+        int count = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Scans given predicates skip the pages whose zone map range rules them
+     * out, and the zone map is kept up to date by updates and rebuilt by scans.
+     */
+    @Test
+    public void testZoneMapSkipsPages() {
+        int perPage = table.getNumRecordsPerPage();
+        int numRecords = 3 * perPage;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(table.addRecord(createRecordWithAllTypes(i)));
+        }
+
+        List<ZoneMap.Predicate> predicates = new ArrayList<>();
+        predicates.add(new ZoneMap.Predicate(1, PredicateOperator.GREATER_THAN_EQUALS,
+                                             new IntDataBox(2 * perPage)));
+        assertEquals(2, table.getStats().getZoneMap().countSkippablePages(predicates));
+        assertEquals(perPage, countRecords(table.iterator(null, predicates)));
+
+        // widen the range of the first page
+        table.updateRecord(rids.get(0), createRecordWithAllTypes(numRecords));
+        assertEquals(1, table.getStats().getZoneMap().countSkippablePages(predicates));
+        assertEquals(2 * perPage, countRecords(table.iterator(null, predicates)));
+
+        // without a zone map nothing is skipped until a scan builds one
+        Table reloaded = new Table(TABLENAME, schema, pageDirectory, new DummyLockContext(), new HashMap<>());
+        assertEquals(0, reloaded.getStats().getZoneMap().countSkippablePages(predicates));
+        assertEquals(numRecords, countRecords(reloaded.iterator(null, predicates)));
+        assertEquals(1, reloaded.getStats().getZoneMap().countSkippablePages(predicates));
+        assertEquals(2 * perPage, countRecords(reloaded.iterator(null, predicates)));
+    }
+
+    /**
+     * Dictionary-encoded string columns are stored as codes, so more records
+     * fit on a page, and are read back as values of the dictionary.
+     */
+    @Test
+    public void testDictionaryEncodedColumn() {
+        Schema wide = new Schema().add("id", Type.intType()).add("mode", Type.stringType(20));
+        StringDictionary dictionary = new StringDictionary(20);
+        Table encoded = new Table("encoded", wide, pageDirectory, new DummyLockContext(), new HashMap<>(),
+                                  PageFormat.FIXED_LENGTH, new StringDictionary[] {null, dictionary});
+        Table plain = new Table("plain", wide, pageDirectory, new DummyLockContext(), new HashMap<>());
+        assertTrue(encoded.getNumRecordsPerPage() > 2 * plain.getNumRecordsPerPage());
+
+        String[] modes = {"AIR", "RAIL", "TRUCK"};
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            rids.add(encoded.addRecord(new Record(i, modes[i % modes.length])));
+        }
+        assertEquals(modes.length, dictionary.size());
+        encoded.updateRecord(rids.get(4), new Record(4, "SHIP"));
+        assertEquals(modes.length + 1, dictionary.size());
+
+        Iterator<Record> iter = encoded.iterator();
+        for (int i = 0; i < 100; ++i) {
+            Record r = iter.next();
+            String mode = i == 4 ? "SHIP" : modes[i % modes.length];
+            assertEquals(new Record(i, mode), r);
+            assertTrue(r.getValue(1) instanceof EncodedStringDataBox);
+            assertEquals(new StringDataBox(mode, 20).hashCode(), r.getValue(1).hashCode());
+        }
+        assertFalse(iter.hasNext());
+        assertEquals(encoded.getRecord(rids.get(0)).getValue(1), encoded.getRecord(rids.get(3)).getValue(1));
+        assertEquals(new Record("RAIL"), encoded.getRecord(rids.get(1), new int[] {1}));
+    }
 }
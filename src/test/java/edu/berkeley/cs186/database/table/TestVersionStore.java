@@ -0,0 +1,122 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestVersionStore {
+    private VersionStore versions;
+    private RecordId rid;
+
+    @Before
+    public void setup() {
+        versions = new VersionStore();
+        rid = new RecordId(1, (short) 3);
+    }
+
+    @Test
+    public void testUncommittedWrite() {
+        long before = versions.beginSnapshot();
+        versions.recordWrite(rid, new Record("a"), 1);
+        // a second write of the same transaction keeps the first version
+        versions.recordWrite(rid, new Record("b"), 1);
+        assertEquals(1, versions.size());
+
+        // nobody sees a write until it is committed
+        assertEquals(new Record("a"), versions.getOverwritten(rid, before).before);
+        long during = versions.beginSnapshot();
+        assertEquals(new Record("a"), versions.getOverwritten(rid, during).before);
+        assertNull(versions.getOverwritten(new RecordId(1, (short) 4), during));
+    }
+
+    @Test
+    public void testCommittedWrites() {
+        long s0 = versions.beginSnapshot();
+        versions.recordWrite(rid, new Record("a"), 1);
+        versions.commit(1);
+        long s1 = versions.beginSnapshot();
+        versions.recordWrite(rid, new Record("b"), 2);
+        versions.commit(2);
+        long s2 = versions.beginSnapshot();
+
+        // each snapshot sees the version that was current when it was taken
+        assertEquals(new Record("a"), versions.getOverwritten(rid, s0).before);
+        assertEquals(new Record("b"), versions.getOverwritten(rid, s1).before);
+        assertNull(versions.getOverwritten(rid, s2));
+        assertEquals(2, versions.size());
+
+        // versions are dropped once no snapshot is older than them
+        versions.endSnapshot(s1);
+        assertEquals(2, versions.size());
+        versions.endSnapshot(s0);
+        assertEquals(0, versions.size());
+        versions.endSnapshot(s2);
+        assertEquals(0, versions.size());
+    }
+
+    @Test
+    public void testAbort() {
+        long s0 = versions.beginSnapshot();
+        versions.recordWrite(rid, new Record("a"), 1);
+        versions.commit(1);
+        versions.recordWrite(rid, new Record("b"), 2);
+        versions.abort(2);
+
+        assertEquals(1, versions.size());
+        assertEquals(new Record("a"), versions.getOverwritten(rid, s0).before);
+        assertNull(versions.getOverwritten(rid, versions.beginSnapshot()));
+    }
+
+    @Test
+    public void testGetVisible() {
+        RecordId inserted = new RecordId(1, (short) 0);
+        RecordId deleted = new RecordId(1, (short) 1);
+        long s0 = versions.beginSnapshot();
+        versions.recordWrite(inserted, null, 1);
+        versions.recordWrite(deleted, new Record("a"), 1);
+
+        // the page has the insert but not the deleted record
+        byte[] bitmap = new byte[1];
+        Bits.setBit(bitmap, 0, Bits.Bit.ONE);
+        byte[] visible = versions.getVisible(1, bitmap, s0);
+        assertEquals(Bits.Bit.ZERO, Bits.getBit(visible, 0));
+        assertEquals(Bits.Bit.ONE, Bits.getBit(visible, 1));
+        assertSame(bitmap, versions.getVisible(2, bitmap, s0));
+
+        versions.commit(1);
+        visible = versions.getVisible(1, bitmap, versions.beginSnapshot());
+        assertEquals(Bits.Bit.ONE, Bits.getBit(visible, 0));
+        assertEquals(Bits.Bit.ZERO, Bits.getBit(visible, 1));
+    }
+
+    @Test
+    public void testEmptyPages() {
+        long page = DiskSpaceManager.getVirtualPageNum(2, 5);
+        long other = DiskSpaceManager.getVirtualPageNum(3, 5);
+        RecordId deleted = new RecordId(page, (short) 0);
+        long s0 = versions.beginSnapshot();
+        versions.recordWrite(deleted, new Record("a"), 1);
+        versions.recordWrite(new RecordId(other, (short) 0), new Record("b"), 1);
+        assertTrue(versions.hasVersions(page));
+        versions.keepEmptyPage(page);
+        versions.keepEmptyPage(other);
+        versions.commit(1);
+
+        // empty pages are only handed back once their versions are dropped
+        assertTrue(versions.takeCollectedEmptyPages(2).isEmpty());
+        versions.endSnapshot(s0);
+        assertFalse(versions.hasVersions(page));
+        assertEquals(Collections.singletonList(page), versions.takeCollectedEmptyPages(2));
+        assertTrue(versions.takeCollectedEmptyPages(2).isEmpty());
+        assertEquals(Collections.singletonList(other), versions.takeCollectedEmptyPages(3));
+    }
+}